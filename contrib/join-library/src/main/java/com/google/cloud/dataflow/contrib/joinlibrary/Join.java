@@ -16,20 +16,40 @@
 
 package com.google.cloud.dataflow.contrib.joinlibrary;
 
+import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.transforms.Count;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.View;
 import com.google.cloud.dataflow.sdk.transforms.join.CoGbkResult;
 import com.google.cloud.dataflow.sdk.transforms.join.CoGroupByKey;
 import com.google.cloud.dataflow.sdk.transforms.join.KeyedPCollectionTuple;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.common.base.Preconditions;
 
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Utility class with different versions of joins. All methods join two collections of
  * key/value pairs (KV).
+ *
+ * <p>The plain joins group both collections by key with a {@link CoGroupByKey}. Two variants
+ * avoid shuffling all of a large collection:
+ * <ul>
+ *   <li>The broadcast joins read the small side into memory as a side input and look up each
+ *   element of the large side in it, so the large side is not shuffled at all. The small side
+ *   has to fit in the memory of each worker.</li>
+ *   <li>The skewed joins first sample the large side to find its hot keys, that is, keys with
+ *   so many values that a single worker would join them all. The values of hot keys on the large
+ *   side are spread over several sub-keys, and the values of the other side are copied to every
+ *   sub-key.</li>
+ * </ul>
  */
 public class Join {
 
@@ -57,25 +77,8 @@ public class Join {
         .and(v2Tuple, rightCollection)
         .apply(CoGroupByKey.<K>create());
 
-    return coGbkResultCollection.apply(ParDo.of(
-      new DoFn<KV<K, CoGbkResult>, KV<K, KV<V1, V2>>>() {
-        @Override
-        public void processElement(ProcessContext c) {
-          KV<K, CoGbkResult> e = c.element();
-
-          Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
-          Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
-
-          for (V1 leftValue : leftValuesIterable) {
-            for (V2 rightValue : rightValuesIterable) {
-              c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
-            }
-          }
-        }
-      }))
-      .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
-                           KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
-                                      ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+    return coGbkResultCollection.apply(ParDo.of(new InnerJoinFn<K, V1, V2>(v1Tuple, v2Tuple)))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
   }
 
   /**
@@ -107,28 +110,8 @@ public class Join {
         .apply(CoGroupByKey.<K>create());
 
     return coGbkResultCollection.apply(ParDo.of(
-      new DoFn<KV<K, CoGbkResult>, KV<K, KV<V1, V2>>>() {
-        @Override
-        public void processElement(ProcessContext c) {
-          KV<K, CoGbkResult> e = c.element();
-
-          Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
-          Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
-
-          for (V1 leftValue : leftValuesIterable) {
-            if (rightValuesIterable.iterator().hasNext()) {
-              for (V2 rightValue : rightValuesIterable) {
-                c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
-              }
-            } else {
-              c.output(KV.of(e.getKey(), KV.of(leftValue, nullValue)));
-            }
-          }
-        }
-      }))
-      .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
-                           KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
-                                      ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+        new LeftOuterJoinFn<K, V1, V2>(v1Tuple, v2Tuple, nullValue)))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
   }
 
   /**
@@ -160,27 +143,471 @@ public class Join {
         .apply(CoGroupByKey.<K>create());
 
     return coGbkResultCollection.apply(ParDo.of(
-      new DoFn<KV<K, CoGbkResult>, KV<K, KV<V1, V2>>>() {
+        new RightOuterJoinFn<K, V1, V2>(v1Tuple, v2Tuple, nullValue)))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
+
+  /**
+   * Inner join of a large collection with a small one, which is broadcast to every worker
+   * instead of shuffling the large collection.
+   * @param leftCollection Left side collection to join, which may be large.
+   * @param rightCollection Right side collection to join, which must fit in memory.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastInnerJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+
+    final PCollectionView<Map<K, Iterable<V2>>> rightView =
+      rightCollection.apply(View.<K, V2>asMultimap());
+
+    return leftCollection.apply(ParDo.withSideInputs(rightView).of(
+      new DoFn<KV<K, V1>, KV<K, KV<V1, V2>>>() {
         @Override
         public void processElement(ProcessContext c) {
-          KV<K, CoGbkResult> e = c.element();
+          KV<K, V1> e = c.element();
 
-          Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
-          Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
+          Iterable<V2> rightValuesIterable = c.sideInput(rightView).get(e.getKey());
+          if (rightValuesIterable != null) {
+            for (V2 rightValue : rightValuesIterable) {
+              c.output(KV.of(e.getKey(), KV.of(e.getValue(), rightValue)));
+            }
+          }
+        }
+      }))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
 
-          for (V2 rightValue : rightValuesIterable) {
-            if (leftValuesIterable.iterator().hasNext()) {
-              for (V1 leftValue : leftValuesIterable) {
-                c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
-              }
-            } else {
-              c.output(KV.of(e.getKey(), KV.of(nullValue, rightValue)));
+  /**
+   * Left Outer Join of a large collection with a small one, which is broadcast to every worker
+   * instead of shuffling the large collection.
+   * @param leftCollection Left side collection to join, which may be large.
+   * @param rightCollection Right side collection to join, which must fit in memory.
+   * @param nullValue Value to use as null value when right side do not match left side.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastLeftOuterJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final V2 nullValue) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    Preconditions.checkNotNull(nullValue);
+
+    final PCollectionView<Map<K, Iterable<V2>>> rightView =
+      rightCollection.apply(View.<K, V2>asMultimap());
+
+    return leftCollection.apply(ParDo.withSideInputs(rightView).of(
+      new DoFn<KV<K, V1>, KV<K, KV<V1, V2>>>() {
+        @Override
+        public void processElement(ProcessContext c) {
+          KV<K, V1> e = c.element();
+
+          Iterable<V2> rightValuesIterable = c.sideInput(rightView).get(e.getKey());
+          if (rightValuesIterable != null) {
+            for (V2 rightValue : rightValuesIterable) {
+              c.output(KV.of(e.getKey(), KV.of(e.getValue(), rightValue)));
             }
+          } else {
+            c.output(KV.of(e.getKey(), KV.of(e.getValue(), nullValue)));
           }
         }
       }))
-      .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
-                           KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
-                                      ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
+
+  /**
+   * Right Outer Join of a small collection with a large one. The small collection is broadcast
+   * to every worker instead of shuffling the large collection.
+   * @param leftCollection Left side collection to join, which must fit in memory.
+   * @param rightCollection Right side collection to join, which may be large.
+   * @param nullValue Value to use as null value when left side do not match right side.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Keys that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastRightOuterJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final V1 nullValue) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    Preconditions.checkNotNull(nullValue);
+
+    final PCollectionView<Map<K, Iterable<V1>>> leftView =
+      leftCollection.apply(View.<K, V1>asMultimap());
+
+    return rightCollection.apply(ParDo.withSideInputs(leftView).of(
+      new DoFn<KV<K, V2>, KV<K, KV<V1, V2>>>() {
+        @Override
+        public void processElement(ProcessContext c) {
+          KV<K, V2> e = c.element();
+
+          Iterable<V1> leftValuesIterable = c.sideInput(leftView).get(e.getKey());
+          if (leftValuesIterable != null) {
+            for (V1 leftValue : leftValuesIterable) {
+              c.output(KV.of(e.getKey(), KV.of(leftValue, e.getValue())));
+            }
+          } else {
+            c.output(KV.of(e.getKey(), KV.of(nullValue, e.getValue())));
+          }
+        }
+      }))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
+
+  /**
+   * Inner join of two collections of KV elements, where some keys of the left collection may
+   * have too many values to be joined by a single worker.
+   * @param leftCollection Left side collection to join, whose hot keys are spread out.
+   * @param rightCollection Right side collection to join.
+   * @param hotKeyThreshold Estimated number of left values above which a key is hot.
+   * @param hotKeyFanout Number of sub-keys over which the values of each hot key are spread.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> skewedInnerJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final long hotKeyThreshold,
+    final int hotKeyFanout) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    checkSkewArguments(hotKeyThreshold, hotKeyFanout);
+
+    final TupleTag<V1> v1Tuple = new TupleTag<>();
+    final TupleTag<V2> v2Tuple = new TupleTag<>();
+
+    PCollectionView<Map<K, Long>> hotKeys = hotKeys(leftCollection, hotKeyThreshold);
+    PCollection<KV<K, CoGbkResult>> coGbkResultCollection = unsaltKeys(
+      KeyedPCollectionTuple.of(v1Tuple, saltKeys(leftCollection, hotKeys, hotKeyFanout))
+        .and(v2Tuple, replicateKeys(rightCollection, hotKeys, hotKeyFanout))
+        .apply(CoGroupByKey.<KV<K, Integer>>create()));
+
+    return coGbkResultCollection.apply(ParDo.of(new InnerJoinFn<K, V1, V2>(v1Tuple, v2Tuple)))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
+
+  /**
+   * Left Outer Join of two collections of KV elements, where some keys of the left collection
+   * may have too many values to be joined by a single worker.
+   * @param leftCollection Left side collection to join, whose hot keys are spread out.
+   * @param rightCollection Right side collection to join.
+   * @param nullValue Value to use as null value when right side do not match left side.
+   * @param hotKeyThreshold Estimated number of left values above which a key is hot.
+   * @param hotKeyFanout Number of sub-keys over which the values of each hot key are spread.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> skewedLeftOuterJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final V2 nullValue,
+    final long hotKeyThreshold,
+    final int hotKeyFanout) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    Preconditions.checkNotNull(nullValue);
+    checkSkewArguments(hotKeyThreshold, hotKeyFanout);
+
+    final TupleTag<V1> v1Tuple = new TupleTag<>();
+    final TupleTag<V2> v2Tuple = new TupleTag<>();
+
+    PCollectionView<Map<K, Long>> hotKeys = hotKeys(leftCollection, hotKeyThreshold);
+    PCollection<KV<K, CoGbkResult>> coGbkResultCollection = unsaltKeys(
+      KeyedPCollectionTuple.of(v1Tuple, saltKeys(leftCollection, hotKeys, hotKeyFanout))
+        .and(v2Tuple, replicateKeys(rightCollection, hotKeys, hotKeyFanout))
+        .apply(CoGroupByKey.<KV<K, Integer>>create()));
+
+    return coGbkResultCollection.apply(ParDo.of(
+        new LeftOuterJoinFn<K, V1, V2>(v1Tuple, v2Tuple, nullValue)))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
+
+  /**
+   * Right Outer Join of two collections of KV elements, where some keys of the right collection
+   * may have too many values to be joined by a single worker.
+   * @param leftCollection Left side collection to join.
+   * @param rightCollection Right side collection to join, whose hot keys are spread out.
+   * @param nullValue Value to use as null value when left side do not match right side.
+   * @param hotKeyThreshold Estimated number of right values above which a key is hot.
+   * @param hotKeyFanout Number of sub-keys over which the values of each hot key are spread.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Keys that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> skewedRightOuterJoin(
+    final PCollection<KV<K, V1>> leftCollection,
+    final PCollection<KV<K, V2>> rightCollection,
+    final V1 nullValue,
+    final long hotKeyThreshold,
+    final int hotKeyFanout) {
+    Preconditions.checkNotNull(leftCollection);
+    Preconditions.checkNotNull(rightCollection);
+    Preconditions.checkNotNull(nullValue);
+    checkSkewArguments(hotKeyThreshold, hotKeyFanout);
+
+    final TupleTag<V1> v1Tuple = new TupleTag<>();
+    final TupleTag<V2> v2Tuple = new TupleTag<>();
+
+    PCollectionView<Map<K, Long>> hotKeys = hotKeys(rightCollection, hotKeyThreshold);
+    PCollection<KV<K, CoGbkResult>> coGbkResultCollection = unsaltKeys(
+      KeyedPCollectionTuple.of(v1Tuple, replicateKeys(leftCollection, hotKeys, hotKeyFanout))
+        .and(v2Tuple, saltKeys(rightCollection, hotKeys, hotKeyFanout))
+        .apply(CoGroupByKey.<KV<K, Integer>>create()));
+
+    return coGbkResultCollection.apply(ParDo.of(
+        new RightOuterJoinFn<K, V1, V2>(v1Tuple, v2Tuple, nullValue)))
+      .setCoder(joinedCoder(leftCollection, rightCollection));
+  }
+
+  /**
+   * Number of sampled values of a key above which it is considered hot. Keys are sampled
+   * with a probability chosen so that a key with {@code hotKeyThreshold} values is expected to
+   * have this many sampled values.
+   */
+  static final long HOT_KEY_SAMPLES = 100;
+
+  private static void checkSkewArguments(long hotKeyThreshold, int hotKeyFanout) {
+    Preconditions.checkArgument(hotKeyThreshold > 0,
+        "hotKeyThreshold must be positive, not %s", hotKeyThreshold);
+    Preconditions.checkArgument(hotKeyFanout > 0,
+        "hotKeyFanout must be positive, not %s", hotKeyFanout);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V1, V2> KvCoder<K, KV<V1, V2>> joinedCoder(
+    PCollection<KV<K, V1>> leftCollection, PCollection<KV<K, V2>> rightCollection) {
+    KvCoder<K, V1> leftCoder = (KvCoder<K, V1>) leftCollection.getCoder();
+    KvCoder<K, V2> rightCoder = (KvCoder<K, V2>) rightCollection.getCoder();
+    return KvCoder.of(leftCoder.getKeyCoder(),
+                      KvCoder.of(leftCoder.getValueCoder(), rightCoder.getValueCoder()));
+  }
+
+  /**
+   * Returns a view of the keys of {@code collection} whose estimated number of values is at
+   * least {@code hotKeyThreshold}, estimated from a sample of the collection.
+   */
+  private static <K, V> PCollectionView<Map<K, Long>> hotKeys(
+    PCollection<KV<K, V>> collection, long hotKeyThreshold) {
+    final double sampleRate = Math.min(1.0, (double) HOT_KEY_SAMPLES / hotKeyThreshold);
+    final long minSamples = Math.round(hotKeyThreshold * sampleRate);
+
+    PCollection<KV<K, Long>> sampleCounts = collection
+      .apply(ParDo.named("SampleKeys").of(new DoFn<KV<K, V>, KV<K, V>>() {
+        @Override
+        public void processElement(ProcessContext c) {
+          if (sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            c.output(c.element());
+          }
+        }
+      }))
+      .setCoder(collection.getCoder())
+      .apply(Count.<K, V>perKey());
+
+    return sampleCounts
+      .apply(ParDo.named("FilterHotKeys").of(new DoFn<KV<K, Long>, KV<K, Long>>() {
+        @Override
+        public void processElement(ProcessContext c) {
+          if (c.element().getValue() >= minSamples) {
+            c.output(c.element());
+          }
+        }
+      }))
+      .setCoder(sampleCounts.getCoder())
+      .apply(View.<K, Long>asMap());
+  }
+
+  /**
+   * Adds a sub-key to each key of {@code collection}: a random one of {@code hotKeyFanout}
+   * sub-keys for hot keys, and 0 for the others.
+   */
+  private static <K, V> PCollection<KV<KV<K, Integer>, V>> saltKeys(
+    PCollection<KV<K, V>> collection,
+    final PCollectionView<Map<K, Long>> hotKeys,
+    final int hotKeyFanout) {
+    return collection
+      .apply(ParDo.named("SaltHotKeys").withSideInputs(hotKeys).of(
+        new DoFn<KV<K, V>, KV<KV<K, Integer>, V>>() {
+          @Override
+          public void processElement(ProcessContext c) {
+            KV<K, V> e = c.element();
+            int salt = c.sideInput(hotKeys).containsKey(e.getKey())
+                ? ThreadLocalRandom.current().nextInt(hotKeyFanout) : 0;
+            c.output(KV.of(KV.of(e.getKey(), salt), e.getValue()));
+          }
+        }))
+      .setCoder(saltedCoder(collection));
+  }
+
+  /**
+   * Adds every one of the {@code hotKeyFanout} sub-keys used by {@link #saltKeys} to each hot
+   * key of {@code collection}, and sub-key 0 to the others.
+   */
+  private static <K, V> PCollection<KV<KV<K, Integer>, V>> replicateKeys(
+    PCollection<KV<K, V>> collection,
+    final PCollectionView<Map<K, Long>> hotKeys,
+    final int hotKeyFanout) {
+    return collection
+      .apply(ParDo.named("ReplicateHotKeys").withSideInputs(hotKeys).of(
+        new DoFn<KV<K, V>, KV<KV<K, Integer>, V>>() {
+          @Override
+          public void processElement(ProcessContext c) {
+            KV<K, V> e = c.element();
+            int salts = c.sideInput(hotKeys).containsKey(e.getKey()) ? hotKeyFanout : 1;
+            for (int salt = 0; salt < salts; salt++) {
+              c.output(KV.of(KV.of(e.getKey(), salt), e.getValue()));
+            }
+          }
+        }))
+      .setCoder(saltedCoder(collection));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> KvCoder<KV<K, Integer>, V> saltedCoder(PCollection<KV<K, V>> collection) {
+    KvCoder<K, V> coder = (KvCoder<K, V>) collection.getCoder();
+    return KvCoder.of(KvCoder.of(coder.getKeyCoder(), VarIntCoder.of()), coder.getValueCoder());
+  }
+
+  /**
+   * Removes the sub-keys added by {@link #saltKeys} and {@link #replicateKeys}.
+   */
+  @SuppressWarnings("unchecked")
+  private static <K> PCollection<KV<K, CoGbkResult>> unsaltKeys(
+    PCollection<KV<KV<K, Integer>, CoGbkResult>> grouped) {
+    KvCoder<KV<K, Integer>, CoGbkResult> coder =
+      (KvCoder<KV<K, Integer>, CoGbkResult>) grouped.getCoder();
+    Coder<K> keyCoder = ((KvCoder<K, Integer>) coder.getKeyCoder()).getKeyCoder();
+    return grouped
+      .apply(ParDo.named("UnsaltKeys").of(
+        new DoFn<KV<KV<K, Integer>, CoGbkResult>, KV<K, CoGbkResult>>() {
+          @Override
+          public void processElement(ProcessContext c) {
+            c.output(KV.of(c.element().getKey().getKey(), c.element().getValue()));
+          }
+        }))
+      .setCoder(KvCoder.of(keyCoder, coder.getValueCoder()));
+  }
+
+  /**
+   * Outputs every pair of left and right values of each key.
+   */
+  private static class InnerJoinFn<K, V1, V2>
+      extends DoFn<KV<K, CoGbkResult>, KV<K, KV<V1, V2>>> {
+    private final TupleTag<V1> v1Tuple;
+    private final TupleTag<V2> v2Tuple;
+
+    InnerJoinFn(TupleTag<V1> v1Tuple, TupleTag<V2> v2Tuple) {
+      this.v1Tuple = v1Tuple;
+      this.v2Tuple = v2Tuple;
+    }
+
+    @Override
+    public void processElement(ProcessContext c) {
+      KV<K, CoGbkResult> e = c.element();
+
+      Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
+      Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
+
+      for (V1 leftValue : leftValuesIterable) {
+        for (V2 rightValue : rightValuesIterable) {
+          c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Outputs every pair of left and right values of each key, and each left value of a key
+   * without right values paired with {@code nullValue}.
+   */
+  private static class LeftOuterJoinFn<K, V1, V2>
+      extends DoFn<KV<K, CoGbkResult>, KV<K, KV<V1, V2>>> {
+    private final TupleTag<V1> v1Tuple;
+    private final TupleTag<V2> v2Tuple;
+    private final V2 nullValue;
+
+    LeftOuterJoinFn(TupleTag<V1> v1Tuple, TupleTag<V2> v2Tuple, V2 nullValue) {
+      this.v1Tuple = v1Tuple;
+      this.v2Tuple = v2Tuple;
+      this.nullValue = nullValue;
+    }
+
+    @Override
+    public void processElement(ProcessContext c) {
+      KV<K, CoGbkResult> e = c.element();
+
+      Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
+      Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
+
+      for (V1 leftValue : leftValuesIterable) {
+        if (rightValuesIterable.iterator().hasNext()) {
+          for (V2 rightValue : rightValuesIterable) {
+            c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
+          }
+        } else {
+          c.output(KV.of(e.getKey(), KV.of(leftValue, nullValue)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Outputs every pair of left and right values of each key, and each right value of a key
+   * without left values paired with {@code nullValue}.
+   */
+  private static class RightOuterJoinFn<K, V1, V2>
+      extends DoFn<KV<K, CoGbkResult>, KV<K, KV<V1, V2>>> {
+    private final TupleTag<V1> v1Tuple;
+    private final TupleTag<V2> v2Tuple;
+    private final V1 nullValue;
+
+    RightOuterJoinFn(TupleTag<V1> v1Tuple, TupleTag<V2> v2Tuple, V1 nullValue) {
+      this.v1Tuple = v1Tuple;
+      this.v2Tuple = v2Tuple;
+      this.nullValue = nullValue;
+    }
+
+    @Override
+    public void processElement(ProcessContext c) {
+      KV<K, CoGbkResult> e = c.element();
+
+      Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
+      Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
+
+      for (V2 rightValue : rightValuesIterable) {
+        if (leftValuesIterable.iterator().hasNext()) {
+          for (V1 leftValue : leftValuesIterable) {
+            c.output(KV.of(e.getKey(), KV.of(leftValue, rightValue)));
+          }
+        } else {
+          c.output(KV.of(e.getKey(), KV.of(nullValue, rightValue)));
+        }
+      }
+    }
   }
 }
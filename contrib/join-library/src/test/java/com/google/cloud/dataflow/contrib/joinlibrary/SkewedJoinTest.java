@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Google Cloud Dataflow join-library Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.contrib.joinlibrary;
+
+import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
+import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.Create;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This test the skewed join functionality. A threshold of two values makes "Hot" the only
+ * hot key.
+ */
+public class SkewedJoinTest {
+
+  Pipeline p;
+  List<KV<String, Long>> leftListOfKv;
+  List<KV<String, String>> listRightOfKv;
+  List<KV<String, KV<Long, String>>> expectedResult;
+
+  @Before
+  public void setup() {
+
+    p = TestPipeline.create();
+    leftListOfKv = new ArrayList<>();
+    listRightOfKv = new ArrayList<>();
+
+    expectedResult = new ArrayList<>();
+  }
+
+  @Test
+  public void testInnerJoin() {
+    leftListOfKv.add(KV.of("Cold", 1L));
+    for (long i = 0; i < 20; i++) {
+      leftListOfKv.add(KV.of("Hot", i));
+    }
+    PCollection<KV<String, Long>> leftCollection = p
+        .apply("CreateLeft", Create.of(leftListOfKv));
+
+    listRightOfKv.add(KV.of("Cold", "foo"));
+    listRightOfKv.add(KV.of("Hot", "bar"));
+    listRightOfKv.add(KV.of("Hot", "gazonk"));
+    PCollection<KV<String, String>> rightCollection = p
+        .apply("CreateRight", Create.of(listRightOfKv));
+
+    PCollection<KV<String, KV<Long, String>>> output = Join.skewedInnerJoin(
+      leftCollection, rightCollection, 2, 4);
+
+    expectedResult.add(KV.of("Cold", KV.of(1L, "foo")));
+    for (long i = 0; i < 20; i++) {
+      expectedResult.add(KV.of("Hot", KV.of(i, "bar")));
+      expectedResult.add(KV.of("Hot", KV.of(i, "gazonk")));
+    }
+    DataflowAssert.that(output).containsInAnyOrder(expectedResult);
+
+    p.run();
+  }
+
+  @Test
+  public void testLeftOuterJoin() {
+    leftListOfKv.add(KV.of("Cold", 1L));
+    for (long i = 0; i < 20; i++) {
+      leftListOfKv.add(KV.of("Hot", i));
+    }
+    PCollection<KV<String, Long>> leftCollection = p
+        .apply("CreateLeft", Create.of(leftListOfKv));
+
+    listRightOfKv.add(KV.of("Other", "foo"));
+    listRightOfKv.add(KV.of("Hot", "bar"));
+    PCollection<KV<String, String>> rightCollection = p
+        .apply("CreateRight", Create.of(listRightOfKv));
+
+    PCollection<KV<String, KV<Long, String>>> output = Join.skewedLeftOuterJoin(
+      leftCollection, rightCollection, "", 2, 4);
+
+    expectedResult.add(KV.of("Cold", KV.of(1L, "")));
+    for (long i = 0; i < 20; i++) {
+      expectedResult.add(KV.of("Hot", KV.of(i, "bar")));
+    }
+    DataflowAssert.that(output).containsInAnyOrder(expectedResult);
+
+    p.run();
+  }
+
+  @Test
+  public void testRightOuterJoin() {
+    leftListOfKv.add(KV.of("Hot", 1L));
+    leftListOfKv.add(KV.of("Hot", 2L));
+    PCollection<KV<String, Long>> leftCollection = p
+        .apply("CreateLeft", Create.of(leftListOfKv));
+
+    listRightOfKv.add(KV.of("Cold", "foo"));
+    for (int i = 0; i < 20; i++) {
+      listRightOfKv.add(KV.of("Hot", "bar" + i));
+    }
+    PCollection<KV<String, String>> rightCollection = p
+        .apply("CreateRight", Create.of(listRightOfKv));
+
+    PCollection<KV<String, KV<Long, String>>> output = Join.skewedRightOuterJoin(
+      leftCollection, rightCollection, -1L, 2, 4);
+
+    expectedResult.add(KV.of("Cold", KV.of(-1L, "foo")));
+    for (int i = 0; i < 20; i++) {
+      expectedResult.add(KV.of("Hot", KV.of(1L, "bar" + i)));
+      expectedResult.add(KV.of("Hot", KV.of(2L, "bar" + i)));
+    }
+    DataflowAssert.that(output).containsInAnyOrder(expectedResult);
+
+    p.run();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidFanout() {
+    Join.skewedInnerJoin(
+      p.apply("CreateLeft", Create.of(leftListOfKv)),
+      p.apply("CreateRight", Create.of(listRightOfKv)),
+      2, 0);
+  }
+}
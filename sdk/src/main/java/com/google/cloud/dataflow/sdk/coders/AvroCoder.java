@@ -25,6 +25,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
@@ -43,6 +44,9 @@ import org.apache.avro.reflect.ReflectDatumReader;
 import org.apache.avro.reflect.ReflectDatumWriter;
 import org.apache.avro.reflect.Union;
 import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.avro.util.ClassUtils;
 import org.apache.avro.util.Utf8;
 
@@ -53,7 +57,9 @@ import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -171,17 +177,30 @@ public class AvroCoder<T> extends StandardCoder<T> {
 
   private final List<String> nonDeterministicReasons;
 
+  // Whether Avro can hash and compare elements directly, which is the case for deterministic
+  // generated or generic records whose schema does not ignore any fields when comparing.
+  private final boolean compareWithGenericData;
+
   private final DatumWriter<T> writer;
   private final DatumReader<T> reader;
   private final EncoderFactory encoderFactory = new EncoderFactory();
   private final DecoderFactory decoderFactory = new DecoderFactory();
 
+  // Direct encoders and decoders hold no state between elements, so each thread reconfigures its
+  // own instance for each element rather than allocating a new one.
+  private final ThreadLocal<BinaryEncoder> encoder = new ThreadLocal<>();
+  private final ThreadLocal<BinaryDecoder> decoder = new ThreadLocal<>();
+
   protected AvroCoder(Class<T> type, Schema schema) {
     this.type = type;
     this.schema = schema;
 
     nonDeterministicReasons = new AvroDeterminismChecker()
         .check(TypeDescriptor.of(type), schema);
+    compareWithGenericData = nonDeterministicReasons.isEmpty()
+        && (type.equals(GenericRecord.class) || SpecificRecord.class.isAssignableFrom(type))
+        && !hasIgnoredFields(
+            schema, Collections.newSetFromMap(new IdentityHashMap<Schema, Boolean>()));
     this.reader = createDatumReader();
     this.writer = createDatumWriter();
   }
@@ -235,15 +254,18 @@ public class AvroCoder<T> extends StandardCoder<T> {
   @Override
   public void encode(T value, OutputStream outStream, Context context)
       throws IOException {
-    BinaryEncoder encoder = encoderFactory.directBinaryEncoder(outStream, null);
-    writer.write(value, encoder);
-    encoder.flush();
+    BinaryEncoder encoderInstance =
+        encoderFactory.directBinaryEncoder(outStream, encoder.get());
+    encoder.set(encoderInstance);
+    writer.write(value, encoderInstance);
+    encoderInstance.flush();
   }
 
   @Override
   public T decode(InputStream inStream, Context context) throws IOException {
-    BinaryDecoder decoder = decoderFactory.directBinaryDecoder(inStream, null);
-    return reader.read(null, decoder);
+    BinaryDecoder decoderInstance = decoderFactory.directBinaryDecoder(inStream, decoder.get());
+    decoder.set(decoderInstance);
+    return reader.read(null, decoderInstance);
   }
 
   @Override
@@ -271,17 +293,38 @@ public class AvroCoder<T> extends StandardCoder<T> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>For deterministic {@link GenericRecord GenericRecords} and {@link SpecificRecord
+   * SpecificRecords}, the structural value hashes and compares the record with Avro's
+   * {@link GenericData} rather than encoding it.
+   */
+  @Override
+  public Object structuralValue(T value) throws Exception {
+    if (value != null && compareWithGenericData) {
+      return new AvroStructuralValue(value, schema);
+    }
+    return super.structuralValue(value);
+  }
+
   /**
    * Returns a new DatumReader that can be used to read from
    * an Avro file directly. Assumes the schema used to read is
    * the same as the schema that was used when writing.
    *
+   * <p>Classes generated by the Avro compiler are read through their generated accessors rather
+   * than by reflection. As with the reflection-based reader, their strings are decoded as
+   * {@link String} rather than {@link Utf8}.
+   *
    * @deprecated For {@code AvroCoder} internal use only.
    */
   @Deprecated
   public DatumReader<T> createDatumReader() {
     if (type.equals(GenericRecord.class)) {
       return new GenericDatumReader<>(schema);
+    } else if (SpecificRecord.class.isAssignableFrom(type)) {
+      return new StringSpecificDatumReader<>(schema, new SpecificData(type.getClassLoader()));
     } else {
       return new ReflectDatumReader<>(schema);
     }
@@ -291,12 +334,17 @@ public class AvroCoder<T> extends StandardCoder<T> {
    * Returns a new DatumWriter that can be used to write to
    * an Avro file directly.
    *
+   * <p>Classes generated by the Avro compiler are written through their generated accessors
+   * rather than by reflection.
+   *
    * @deprecated For {@code AvroCoder} internal use only.
    */
   @Deprecated
   public DatumWriter<T> createDatumWriter() {
     if (type.equals(GenericRecord.class)) {
       return new GenericDatumWriter<>(schema);
+    } else if (SpecificRecord.class.isAssignableFrom(type)) {
+      return new SpecificDatumWriter<>(schema, new SpecificData(type.getClassLoader()));
     } else {
       return new ReflectDatumWriter<>(schema);
     }
@@ -309,6 +357,96 @@ public class AvroCoder<T> extends StandardCoder<T> {
     return schema;
   }
 
+  /**
+   * Returns whether any record reachable from {@code schema} has a field that Avro ignores when
+   * comparing records, in which case records that compare as equal may have different encodings.
+   */
+  private static boolean hasIgnoredFields(Schema schema, Set<Schema> visited) {
+    switch (schema.getType()) {
+      case RECORD:
+        if (!visited.add(schema)) {
+          return false;
+        }
+        for (Schema.Field field : schema.getFields()) {
+          if (field.order() == Schema.Field.Order.IGNORE
+              || hasIgnoredFields(field.schema(), visited)) {
+            return true;
+          }
+        }
+        return false;
+      case ARRAY:
+        return hasIgnoredFields(schema.getElementType(), visited);
+      case MAP:
+        return hasIgnoredFields(schema.getValueType(), visited);
+      case UNION:
+        for (Schema unionType : schema.getTypes()) {
+          if (hasIgnoredFields(unionType, visited)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The structural value of an Avro datum, which uses {@link GenericData#hashCode} and
+   * {@link GenericData#compare} with the datum's schema.
+   */
+  /**
+   * A {@link SpecificDatumReader} that decodes strings as {@link String}, as
+   * {@link ReflectDatumReader} does, unless the schema asks for a specific string class.
+   */
+  private static class StringSpecificDatumReader<T> extends SpecificDatumReader<T> {
+    public StringSpecificDatumReader(Schema schema, SpecificData data) {
+      super(schema, schema, data);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected Class findStringClass(Schema schema) {
+      Class stringClass = super.findStringClass(schema);
+      return stringClass == CharSequence.class ? String.class : stringClass;
+    }
+  }
+
+  private static class AvroStructuralValue {
+    private final Object datum;
+    private final Schema schema;
+    private int hashCode;
+    private boolean hashed;
+
+    private AvroStructuralValue(Object datum, Schema schema) {
+      this.datum = datum;
+      this.schema = schema;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof AvroStructuralValue)) {
+        return false;
+      }
+      AvroStructuralValue that = (AvroStructuralValue) o;
+      return (schema == that.schema || schema.equals(that.schema))
+          && GenericData.get().compare(datum, that.datum, schema) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      if (!hashed) {
+        hashCode = GenericData.get().hashCode(datum, schema);
+        hashed = true;
+      }
+      return hashCode;
+    }
+
+    @Override
+    public String toString() {
+      return "AvroStructuralValue(" + datum + ")";
+    }
+  }
+
   /**
    * Proxy to use in place of serializing the {@link AvroCoder}. This allows the fields
    * to remain final.
@@ -35,6 +35,14 @@ public class CollectionCoder<T> extends IterableLikeCoder<T, Collection<T>> {
     return new CollectionCoder<>(elemCoder);
   }
 
+  /**
+   * Returns a {@link CollectionCoder} whose decoded values are lazily decoded views over the
+   * encoded elements, as described in {@link IterableLikeCoder}.
+   */
+  public static <T> CollectionCoder<T> ofLazy(Coder<T> elemCoder) {
+    return new CollectionCoder<>(elemCoder, true);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // Internal operations below here.
 
@@ -49,13 +57,18 @@ public class CollectionCoder<T> extends IterableLikeCoder<T, Collection<T>> {
     return decodedElements;
   }
 
+  public static CollectionCoder<?> of(List<Object> components) {
+    return of(components, false);
+  }
+
   @JsonCreator
   public static CollectionCoder<?> of(
       @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
-      List<Object> components) {
+      List<Object> components,
+      @JsonProperty(value = PropertyNames.LAZY_DECODING, required = false) boolean lazy) {
     Preconditions.checkArgument(components.size() == 1,
         "Expecting 1 component, got " + components.size());
-    return of((Coder<?>) components.get(0));
+    return lazy ? ofLazy((Coder<?>) components.get(0)) : of((Coder<?>) components.get(0));
   }
 
   /**
@@ -70,4 +83,8 @@ public class CollectionCoder<T> extends IterableLikeCoder<T, Collection<T>> {
   protected CollectionCoder(Coder<T> elemCoder) {
     super(elemCoder, "Collection");
   }
+
+  protected CollectionCoder(Coder<T> elemCoder, boolean lazy) {
+    super(elemCoder, "Collection", lazy);
+  }
 }
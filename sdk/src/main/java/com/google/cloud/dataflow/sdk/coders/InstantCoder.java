@@ -93,6 +93,16 @@ public class InstantCoder extends AtomicCoder<Instant> {
     return true;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. Encoded instants sort in chronological order.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return true;
+  }
+
   /**
    * {@inheritDoc}
    *
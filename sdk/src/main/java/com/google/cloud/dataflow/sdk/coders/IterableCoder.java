@@ -39,6 +39,14 @@ public class IterableCoder<T> extends IterableLikeCoder<T, Iterable<T>> {
     return new IterableCoder<>(elemCoder);
   }
 
+  /**
+   * Returns a {@link IterableCoder} whose decoded values are lazily decoded views over the encoded
+   * elements, as described in {@link IterableLikeCoder}.
+   */
+  public static <T> IterableCoder<T> ofLazy(Coder<T> elemCoder) {
+    return new IterableCoder<>(elemCoder, true);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // Internal operations below here.
 
@@ -47,13 +55,18 @@ public class IterableCoder<T> extends IterableLikeCoder<T, Iterable<T>> {
     return decodedElements;
   }
 
+  public static IterableCoder<?> of(List<Coder<?>> components) {
+    return of(components, false);
+  }
+
   @JsonCreator
   public static IterableCoder<?> of(
       @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
-      List<Coder<?>> components) {
+      List<Coder<?>> components,
+      @JsonProperty(value = PropertyNames.LAZY_DECODING, required = false) boolean lazy) {
     Preconditions.checkArgument(components.size() == 1,
         "Expecting 1 component, got " + components.size());
-    return of(components.get(0));
+    return lazy ? ofLazy(components.get(0)) : of(components.get(0));
   }
 
   /**
@@ -69,6 +82,10 @@ public class IterableCoder<T> extends IterableLikeCoder<T, Iterable<T>> {
     super(elemCoder, "Iterable");
   }
 
+  protected IterableCoder(Coder<T> elemCoder, boolean lazy) {
+    super(elemCoder, "Iterable", lazy);
+  }
+
   @Override
   public CloudObject asCloudObject() {
     CloudObject result = super.asCloudObject();
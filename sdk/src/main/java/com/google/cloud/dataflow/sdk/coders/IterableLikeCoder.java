@@ -16,7 +16,12 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static com.google.cloud.dataflow.sdk.util.Structs.addBoolean;
+
 import com.google.cloud.dataflow.sdk.util.BufferedElementCountingOutputStream;
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.StreamUtils;
 import com.google.cloud.dataflow.sdk.util.VarInt;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObservableIterable;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
@@ -43,6 +48,12 @@ import java.util.Observer;
  * method to be converted into the appropriate iterable type. Note that this means the input
  * iterables must fit into memory.
  *
+ * <p>Subclasses whose iterable type is satisfied by a {@link List} may instead enable lazy
+ * decoding. When decoding in the outer context, the coder then returns a read-only {@link List}
+ * view over the encoded bytes that decodes elements as they are iterated over, and whose size is
+ * read from the length prefix. Passing such a view back to a coder with an equal element coder
+ * writes out the encoded bytes without decoding them.
+ *
  * <p>The format of this coder is as follows:
  *
  * <ul>
@@ -73,6 +84,7 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
 
   private final Coder<T> elementCoder;
   private final String iterableName;
+  private final boolean lazy;
 
   /**
    * Returns the first element in the iterable-like {@code exampleValue} if it is non-empty,
@@ -87,12 +99,57 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
   }
 
   protected IterableLikeCoder(Coder<T> elementCoder, String  iterableName) {
+    this(elementCoder, iterableName, false);
+  }
+
+  /**
+   * Creates a coder that, if {@code lazy} is set, decodes values in the outer context to a lazily
+   * decoding {@link List}, which {@link #decodeToIterable} must accept.
+   */
+  protected IterableLikeCoder(Coder<T> elementCoder, String iterableName, boolean lazy) {
     Preconditions.checkArgument(elementCoder != null,
         "element Coder for IterableLikeCoder must not be null");
     Preconditions.checkArgument(iterableName != null,
         "iterable name for IterableLikeCoder must not be null");
     this.elementCoder = elementCoder;
     this.iterableName = iterableName;
+    this.lazy = lazy;
+  }
+
+  /**
+   * Returns whether values decoded in the outer context are lazily decoding views over the
+   * encoded bytes.
+   */
+  public boolean isLazy() {
+    return lazy;
+  }
+
+  @Override
+  public CloudObject asCloudObject() {
+    CloudObject result = super.asCloudObject();
+    if (lazy) {
+      addBoolean(result, PropertyNames.LAZY_DECODING, true);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return super.equals(o) && lazy == ((IterableLikeCoder<?, ?>) o).lazy;
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + (lazy ? 1 : 0);
+  }
+
+  /**
+   * Returns whether the encoding of {@code iterable} can be copied instead of re-encoded.
+   */
+  private boolean isCopyable(IterableT iterable) {
+    return iterable instanceof LazyDecodedList
+        && ((LazyDecodedList<?>) iterable).hasElementCoder(elementCoder)
+        && ((LazyDecodedList<?>) iterable).isSizePrefixed();
   }
 
   @Override
@@ -102,7 +159,14 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
     if (iterable == null) {
       throw new CoderException("cannot encode a null " + iterableName);
     }
+    if (isCopyable(iterable)) {
+      // Write the retained encoding, which is what encoding the elements would produce.
+      ((LazyDecodedList<?>) iterable).writeEncodedTo(outStream);
+      return;
+    }
     Context nestedContext = context.nested();
+    // Only the size is written through the DataOutputStream, so that element coders see
+    // outStream itself and can use its fast paths.
     DataOutputStream dataOutStream = new DataOutputStream(outStream);
     if (iterable instanceof Collection) {
       // We can know the size of the Iterable.  Use an encoding with a
@@ -110,7 +174,7 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
       Collection<T> collection = (Collection<T>) iterable;
       dataOutStream.writeInt(collection.size());
       for (T elem : collection) {
-        elementCoder.encode(elem, dataOutStream, nestedContext);
+        elementCoder.encode(elem, outStream, nestedContext);
       }
     } else {
       // We don't know the size without traversing it so use a fixed size buffer
@@ -118,7 +182,7 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
       // by the elements.
       dataOutStream.writeInt(-1);
       BufferedElementCountingOutputStream countingOutputStream =
-          new BufferedElementCountingOutputStream(dataOutStream);
+          new BufferedElementCountingOutputStream(outStream);
       for (T elem : iterable) {
         countingOutputStream.markElementStart();
         elementCoder.encode(elem, countingOutputStream, nestedContext);
@@ -132,13 +196,24 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
   @Override
   public IterableT decode(InputStream inStream, Context context)
       throws IOException, CoderException {
+    if (lazy && context.isWholeStream) {
+      // The rest of the stream is the encoded iterable, so it can be retained without finding
+      // the boundaries of the elements.
+      byte[] encoded = StreamUtils.getBytes(inStream);
+      if (encoded.length < 4) {
+        throw new CoderException("Truncated encoding of " + iterableName);
+      }
+      int size = (encoded[0] << 24) | ((encoded[1] & 0xFF) << 16)
+          | ((encoded[2] & 0xFF) << 8) | (encoded[3] & 0xFF);
+      return decodeToIterable(new LazyDecodedList<>(elementCoder, encoded, size));
+    }
     Context nestedContext = context.nested();
-    DataInputStream dataInStream = new DataInputStream(inStream);
-    int size = dataInStream.readInt();
+    // As when encoding, element coders read from inStream itself.
+    int size = new DataInputStream(inStream).readInt();
     if (size >= 0) {
       List<T> elements = new ArrayList<>(size);
       for (int i = 0; i < size; i++) {
-        elements.add(elementCoder.decode(dataInStream, nestedContext));
+        elements.add(elementCoder.decode(inStream, nestedContext));
       }
       return decodeToIterable(elements);
     } else {
@@ -146,9 +221,9 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
       long count;
       // We don't know the size a priori.  Check if we're done with
       // each block of elements.
-      while ((count = VarInt.decodeLong(dataInStream)) > 0) {
+      while ((count = VarInt.decodeLong(inStream)) > 0) {
         while (count > 0) {
-          elements.add(elementCoder.decode(dataInStream, nestedContext));
+          elements.add(elementCoder.decode(inStream, nestedContext));
           count -= 1;
         }
       }
@@ -175,6 +250,26 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
         "IterableLikeCoder can not guarantee deterministic ordering.");
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @return a {@link List} of the structural values of the elements, in iteration order, so
+   * that the iterable is not encoded when the element coder has a cheaper structural value.
+   */
+  @Override
+  public Object structuralValue(IterableT iterable) throws Exception {
+    if (iterable == null) {
+      return super.structuralValue(iterable);
+    }
+    List<Object> structuralValue = iterable instanceof Collection
+        ? new ArrayList<>(((Collection<?>) iterable).size())
+        : new ArrayList<>();
+    for (T elem : iterable) {
+      structuralValue.add(elementCoder.structuralValue(elem));
+    }
+    return structuralValue;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -184,7 +279,7 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
   @Override
   public boolean isRegisterByteSizeObserverCheap(
       IterableT iterable, Context context) {
-    return iterable instanceof ElementByteSizeObservableIterable;
+    return iterable instanceof ElementByteSizeObservableIterable || isCopyable(iterable);
   }
 
   @Override
@@ -196,7 +291,9 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
     }
     Context nestedContext = context.nested();
 
-    if (iterable instanceof ElementByteSizeObservableIterable) {
+    if (isCopyable(iterable)) {
+      observer.update((long) ((LazyDecodedList<?>) iterable).getEncodedSize());
+    } else if (iterable instanceof ElementByteSizeObservableIterable) {
       observer.setLazy();
       ElementByteSizeObservableIterable<?, ?> observableIterable =
           (ElementByteSizeObservableIterable<?, ?>) iterable;
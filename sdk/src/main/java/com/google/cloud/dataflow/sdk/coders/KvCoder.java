@@ -19,6 +19,7 @@ package com.google.cloud.dataflow.sdk.coders;
 import static com.google.cloud.dataflow.sdk.util.Structs.addBoolean;
 
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.values.KV;
@@ -115,6 +116,16 @@ public class KvCoder<K, V> extends KvCoderBase<KV<K, V>> {
     return keyCoder.consistentWithEquals() && valueCoder.consistentWithEquals();
   }
 
+  /**
+   * {@code KvCoder} is order-preserving, ordering by key and then by value, if both nested
+   * {@code Coder Coders} are. Nesting {@code KvCoder KvCoders} in this way gives
+   * order-preserving encodings of tuples.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return CoderUtils.isOrderPreserving(keyCoder) && CoderUtils.isOrderPreserving(valueCoder);
+  }
+
   @Override
   public Object structuralValue(KV<K, V> kv) throws Exception {
     if (consistentWithEquals()) {
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.ExposedByteArrayInputStream;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A read-only {@link List} view over the encoding of an iterable by an {@link IterableLikeCoder},
+ * which decodes elements as they are iterated over.
+ *
+ * <p>Each call to {@link #iterator} decodes the elements again, so iterating only over a prefix
+ * only decodes that prefix, and the decoded elements are not retained. {@link #size} is read from
+ * the length prefix of the encoding, if it has one. Random access with {@link #get} decodes and
+ * retains all the elements.
+ *
+ * <p>An {@link IterableLikeCoder} with an equal element coder writes the retained encoding back
+ * out without decoding it.
+ */
+class LazyDecodedList<T> extends AbstractList<T> {
+  private final Coder<T> elemCoder;
+  // The encoding, starting with the 4 byte size prefix.
+  private final byte[] encoded;
+  // The number of elements, or -1 if not known yet.
+  private int size;
+  // All the elements, once random access has been requested.
+  private List<T> decoded;
+
+  LazyDecodedList(Coder<T> elemCoder, byte[] encoded, int size) {
+    this.elemCoder = elemCoder;
+    this.encoded = encoded;
+    this.size = size;
+  }
+
+  /**
+   * Returns whether the encoding of this list can be written out as the encoding by a coder with
+   * the given element coder.
+   */
+  boolean hasElementCoder(Coder<?> coder) {
+    return elemCoder.equals(coder);
+  }
+
+  /**
+   * Returns whether the encoding starts with the number of elements, which is the encoding an
+   * {@link IterableLikeCoder} produces for a {@link java.util.Collection}.
+   */
+  boolean isSizePrefixed() {
+    return encoded[0] >= 0;
+  }
+
+  void writeEncodedTo(OutputStream outStream) throws IOException {
+    outStream.write(encoded);
+  }
+
+  int getEncodedSize() {
+    return encoded.length;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    if (decoded != null) {
+      return decoded.iterator();
+    }
+    final ExposedByteArrayInputStream inStream = new ExposedByteArrayInputStream(encoded);
+    return new AbstractIterator<T>() {
+      // The number of elements left in the current block, or in total for a size prefixed
+      // encoding.
+      private long remaining = -1;
+      private boolean sizePrefixed;
+
+      @Override
+      protected T computeNext() {
+        try {
+          if (remaining < 0) {
+            int prefix = new DataInputStream(inStream).readInt();
+            sizePrefixed = prefix >= 0;
+            remaining = sizePrefixed ? prefix : VarInt.decodeLong(inStream);
+          } else if (remaining == 0 && !sizePrefixed) {
+            remaining = VarInt.decodeLong(inStream);
+          }
+          if (remaining == 0) {
+            return endOfData();
+          }
+          remaining--;
+          return elemCoder.decode(inStream, Coder.Context.NESTED);
+        } catch (IOException e) {
+          throw new RuntimeException("Unable to decode element using " + elemCoder, e);
+        }
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    if (size < 0) {
+      int count = 0;
+      for (Iterator<T> it = iterator(); it.hasNext(); it.next()) {
+        count++;
+      }
+      size = count;
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return !iterator().hasNext();
+  }
+
+  @Override
+  public T get(int index) {
+    if (decoded == null) {
+      List<T> elements = new ArrayList<>(Math.max(size, 0));
+      for (T element : this) {
+        elements.add(element);
+      }
+      decoded = elements;
+      size = elements.size();
+    }
+    return decoded.get(index);
+  }
+}
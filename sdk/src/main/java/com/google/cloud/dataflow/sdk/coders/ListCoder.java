@@ -35,6 +35,14 @@ public class ListCoder<T> extends IterableLikeCoder<T, List<T>> {
     return new ListCoder<>(elemCoder);
   }
 
+  /**
+   * Returns a {@link ListCoder} whose decoded values are lazily decoded views over the encoded
+   * elements, as described in {@link IterableLikeCoder}.
+   */
+  public static <T> ListCoder<T> ofLazy(Coder<T> elemCoder) {
+    return new ListCoder<>(elemCoder, true);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
   // Internal operations below here.
 
@@ -43,13 +51,18 @@ public class ListCoder<T> extends IterableLikeCoder<T, List<T>> {
     return decodedElements;
   }
 
+  public static ListCoder<?> of(List<Coder<?>> components) {
+    return of(components, false);
+  }
+
   @JsonCreator
   public static ListCoder<?> of(
       @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
-      List<Coder<?>> components) {
+      List<Coder<?>> components,
+      @JsonProperty(value = PropertyNames.LAZY_DECODING, required = false) boolean lazy) {
     Preconditions.checkArgument(components.size() == 1,
         "Expecting 1 component, got " + components.size());
-    return of((Coder<?>) components.get(0));
+    return lazy ? ofLazy((Coder<?>) components.get(0)) : of((Coder<?>) components.get(0));
   }
 
   /**
@@ -64,6 +77,10 @@ public class ListCoder<T> extends IterableLikeCoder<T, List<T>> {
     super(elemCoder, "List");
   }
 
+  protected ListCoder(Coder<T> elemCoder, boolean lazy) {
+    super(elemCoder, "List", lazy);
+  }
+
   /**
    * List sizes are always known, so ListIterable may be deterministic while
    * the general IterableLikeCoder is not.
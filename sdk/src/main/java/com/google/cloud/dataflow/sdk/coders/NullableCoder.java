@@ -16,6 +16,7 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.common.base.Optional;
@@ -114,6 +115,15 @@ public class NullableCoder<T> extends StandardCoder<T> {
     return valueCoder.consistentWithEquals();
   }
 
+  /**
+   * {@code NullableCoder} is order-preserving, with {@code null} ordered first, if the nested
+   * {@code Coder} is.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return CoderUtils.isOrderPreserving(valueCoder);
+  }
+
   @Override
   public Object structuralValue(@Nullable T value) throws Exception {
     if (value == null) {
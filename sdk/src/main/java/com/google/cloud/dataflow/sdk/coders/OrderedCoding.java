@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.runners.worker.OrderedCode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes single {@link OrderedCode} items on streams, for use by the
+ * order-preserving coders.
+ *
+ * <p>{@link OrderedCode} items are self-delimiting, so an item can be read from a stream
+ * without knowing its length up front: signed numbers carry their length in the header bits
+ * of their first bytes, and byte strings end with an escaped separator.
+ */
+final class OrderedCoding {
+
+  private OrderedCoding() {}
+
+  /**
+   * Writes {@code value} using {@link OrderedCode#writeSignedNumIncreasing}.
+   */
+  static void writeSignedNum(long value, OutputStream outStream) throws IOException {
+    OrderedCode orderedCode = new OrderedCode();
+    orderedCode.writeSignedNumIncreasing(value);
+    outStream.write(orderedCode.getEncodedBytes());
+  }
+
+  /**
+   * Reads a value written by {@link #writeSignedNum}.
+   */
+  static long readSignedNum(InputStream inStream) throws IOException {
+    int first = readByte(inStream);
+    // Negative numbers have their header bits inverted.
+    int mask = (first & 0x80) == 0 ? 0xff : 0;
+    int header = first ^ mask;
+    byte[] encoded;
+    if (header != 0xff) {
+      encoded = new byte[Integer.numberOfLeadingZeros(header ^ 0xff) - 24];
+      encoded[0] = (byte) first;
+    } else {
+      int second = readByte(inStream);
+      int secondHeader = second ^ mask;
+      encoded = new byte[secondHeader < 0x80 ? 8 : secondHeader < 0xc0 ? 9 : 10];
+      encoded[0] = (byte) first;
+      encoded[1] = (byte) second;
+    }
+    readFully(inStream, encoded, header != 0xff ? 1 : 2);
+    try {
+      return new OrderedCode(encoded).readSignedNumIncreasing();
+    } catch (IllegalArgumentException e) {
+      throw new CoderException(e);
+    }
+  }
+
+  /**
+   * Returns the number of bytes written by {@link #writeSignedNum} for {@code value}.
+   */
+  static int getSignedNumLength(long value) {
+    long x = value < 0 ? ~value : value;
+    // Each byte of the encoding holds 7 bits, and one more bit is needed for the sign.
+    return (64 - Long.numberOfLeadingZeros(x)) / 7 + 1;
+  }
+
+  /**
+   * Writes {@code value} using {@link OrderedCode#writeBytes}.
+   */
+  static void writeBytes(byte[] value, OutputStream outStream) throws IOException {
+    OrderedCode orderedCode = new OrderedCode();
+    orderedCode.writeBytes(value);
+    outStream.write(orderedCode.getEncodedBytes());
+  }
+
+  /**
+   * Reads a value written by {@link #writeBytes}.
+   */
+  static byte[] readBytes(InputStream inStream) throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    while (true) {
+      int b = readByte(inStream);
+      encoded.write(b);
+      if (b == (OrderedCode.ESCAPE1 & 0xff) || b == (OrderedCode.ESCAPE2 & 0xff)) {
+        // Escapes are always two bytes long; only ESCAPE1 SEPARATOR ends the item.
+        int escaped = readByte(inStream);
+        encoded.write(escaped);
+        if (b == (OrderedCode.ESCAPE1 & 0xff) && escaped == OrderedCode.SEPARATOR) {
+          break;
+        }
+      }
+    }
+    try {
+      return new OrderedCode(encoded.toByteArray()).readBytes();
+    } catch (IllegalArgumentException e) {
+      throw new CoderException(e);
+    }
+  }
+
+  /**
+   * Returns the number of bytes written by {@link #writeBytes} for {@code value}.
+   */
+  static int getBytesLength(byte[] value) {
+    int length = 2;
+    for (byte b : value) {
+      length += (b == OrderedCode.ESCAPE1 || b == OrderedCode.ESCAPE2) ? 2 : 1;
+    }
+    return length;
+  }
+
+  private static int readByte(InputStream inStream) throws IOException {
+    int b = inStream.read();
+    if (b < 0) {
+      throw new CoderException(new EOFException("unexpected end of ordered code item"));
+    }
+    return b;
+  }
+
+  private static void readFully(InputStream inStream, byte[] buffer, int offset)
+      throws IOException {
+    while (offset < buffer.length) {
+      int read = inStream.read(buffer, offset, buffer.length - offset);
+      if (read < 0) {
+        throw new CoderException(new EOFException("unexpected end of ordered code item"));
+      }
+      offset += read;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An order-preserving {@link Coder} for {@link Double Doubles}, using the signed number encoding
+ * of {@link com.google.cloud.dataflow.sdk.runners.worker.OrderedCode}.
+ *
+ * <p>Encoded values compare as unsigned bytes in the same order as {@link Double#compareTo}:
+ * {@code -0.0} sorts before {@code 0.0}, and {@code NaN} sorts after positive infinity.
+ * Unlike {@link DoubleCoder}, this coder is deterministic, because all {@code NaN} values
+ * are encoded the same way.
+ *
+ * @see StandardCoder#isOrderPreserving()
+ */
+public class OrderedDoubleCoder extends AtomicCoder<Double> {
+
+  @JsonCreator
+  public static OrderedDoubleCoder of() {
+    return INSTANCE;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final OrderedDoubleCoder INSTANCE = new OrderedDoubleCoder();
+
+  private OrderedDoubleCoder() {}
+
+  @Override
+  public void encode(Double value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Double");
+    }
+    OrderedCoding.writeSignedNum(toOrderedLong(value), outStream);
+  }
+
+  @Override
+  public Double decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    return fromOrderedLong(OrderedCoding.readSignedNum(inStream));
+  }
+
+  /**
+   * Maps a double to a long with the same ordering, by flipping all but the sign bit of
+   * negative values.
+   */
+  private static long toOrderedLong(double value) {
+    long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  private static double fromOrderedLong(long ordered) {
+    return Double.longBitsToDouble(ordered ^ ((ordered >> 63) & Long.MAX_VALUE));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link OrderedDoubleCoder} is injective.
+   */
+  @Override
+  public boolean consistentWithEquals() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. Encoded values sort in the order of {@link Double#compareTo}.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link #getEncodedElementByteSize(Double, Context)} is cheap.
+   */
+  @Override
+  public boolean isRegisterByteSizeObserverCheap(Double value, Context context) {
+    return true;
+  }
+
+  @Override
+  protected long getEncodedElementByteSize(Double value, Context context)
+      throws Exception {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Double");
+    }
+    return OrderedCoding.getSignedNumLength(toOrderedLong(value));
+  }
+}
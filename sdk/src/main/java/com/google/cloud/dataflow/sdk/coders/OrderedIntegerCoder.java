@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An order-preserving {@link Coder} for {@link Integer Integers}, using the signed number
+ * encoding of {@link com.google.cloud.dataflow.sdk.runners.worker.OrderedCode}.
+ *
+ * <p>Encoded values compare as unsigned bytes in the same order as the values themselves.
+ * Values take between 1 and 5 bytes, with small magnitudes of either sign taking the fewest.
+ *
+ * @see StandardCoder#isOrderPreserving()
+ */
+public class OrderedIntegerCoder extends AtomicCoder<Integer> {
+
+  @JsonCreator
+  public static OrderedIntegerCoder of() {
+    return INSTANCE;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final OrderedIntegerCoder INSTANCE = new OrderedIntegerCoder();
+
+  private OrderedIntegerCoder() {}
+
+  @Override
+  public void encode(Integer value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Integer");
+    }
+    OrderedCoding.writeSignedNum(value, outStream);
+  }
+
+  @Override
+  public Integer decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    long value = OrderedCoding.readSignedNum(inStream);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new CoderException("ordered value " + value + " is out of range for an Integer");
+    }
+    return (int) value;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link OrderedIntegerCoder} is injective.
+   */
+  @Override
+  public boolean consistentWithEquals() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. Encoded values sort in numeric order.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link #getEncodedElementByteSize(Integer, Context)} is cheap.
+   */
+  @Override
+  public boolean isRegisterByteSizeObserverCheap(Integer value, Context context) {
+    return true;
+  }
+
+  @Override
+  protected long getEncodedElementByteSize(Integer value, Context context)
+      throws Exception {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Integer");
+    }
+    return OrderedCoding.getSignedNumLength(value);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An order-preserving {@link Coder} for {@link Long Longs}, using the signed number encoding of
+ * {@link com.google.cloud.dataflow.sdk.runners.worker.OrderedCode}.
+ *
+ * <p>Encoded values compare as unsigned bytes in the same order as the values themselves.
+ * Values take between 1 and 10 bytes, with small magnitudes of either sign taking the fewest.
+ *
+ * @see StandardCoder#isOrderPreserving()
+ */
+public class OrderedLongCoder extends AtomicCoder<Long> {
+
+  @JsonCreator
+  public static OrderedLongCoder of() {
+    return INSTANCE;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final OrderedLongCoder INSTANCE = new OrderedLongCoder();
+
+  private OrderedLongCoder() {}
+
+  @Override
+  public void encode(Long value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Long");
+    }
+    OrderedCoding.writeSignedNum(value, outStream);
+  }
+
+  @Override
+  public Long decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    return OrderedCoding.readSignedNum(inStream);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link OrderedLongCoder} is injective.
+   */
+  @Override
+  public boolean consistentWithEquals() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. Encoded values sort in numeric order.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link #getEncodedElementByteSize(Long, Context)} is cheap.
+   */
+  @Override
+  public boolean isRegisterByteSizeObserverCheap(Long value, Context context) {
+    return true;
+  }
+
+  @Override
+  protected long getEncodedElementByteSize(Long value, Context context)
+      throws Exception {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Long");
+    }
+    return OrderedCoding.getSignedNumLength(value);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An order-preserving {@link Coder} for {@link String Strings}, which escapes their UTF-8
+ * encoding using {@link com.google.cloud.dataflow.sdk.runners.worker.OrderedCode} so that
+ * it is self-delimiting.
+ *
+ * <p>Encoded values compare as unsigned bytes in Unicode code point order. This is the same as
+ * {@link String#compareTo} except for strings that differ at a supplementary character, which
+ * {@link String#compareTo} orders by UTF-16 code unit.
+ *
+ * @see StandardCoder#isOrderPreserving()
+ */
+public class OrderedStringUtf8Coder extends AtomicCoder<String> {
+
+  @JsonCreator
+  public static OrderedStringUtf8Coder of() {
+    return INSTANCE;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final OrderedStringUtf8Coder INSTANCE = new OrderedStringUtf8Coder();
+
+  private OrderedStringUtf8Coder() {}
+
+  @Override
+  public void encode(String value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null String");
+    }
+    OrderedCoding.writeBytes(value.getBytes(StandardCharsets.UTF_8), outStream);
+  }
+
+  @Override
+  public String decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    return new String(OrderedCoding.readBytes(inStream), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link OrderedStringUtf8Coder} is injective.
+   */
+  @Override
+  public boolean consistentWithEquals() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. Encoded values sort in Unicode code point order.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return true;
+  }
+
+  @Override
+  protected long getEncodedElementByteSize(String value, Context context)
+      throws Exception {
+    if (value == null) {
+      throw new CoderException("cannot encode a null String");
+    }
+    return OrderedCoding.getBytesLength(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static com.google.cloud.dataflow.sdk.util.Structs.addString;
+
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.SerializableUtils;
+import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link Coder} for plain Java objects that encodes each of their fields with the
+ * {@link Coder} registered for the field's type, in place of Java serialization.
+ *
+ * <p>The fields of the class are looked up once, when the coder is created: all non-static,
+ * non-transient fields of the class and its superclasses, ordered from the topmost superclass
+ * down and by name within each class. An element is encoded as its fields, in that order, and
+ * decoded by invoking the class's no-argument constructor and then setting its fields. This avoids
+ * the class descriptors, reflective object graph traversal and stream headers of Java
+ * serialization. Fields that are not primitives may be {@code null}.
+ *
+ * <p>Values of a subclass of the encoded class are encoded with Java serialization, so that they
+ * are decoded to the same subclass.
+ *
+ * <p>Unlike Java serialization, fields are decoded as the values their coders produce: a field
+ * declared as a {@link java.util.Map} or {@link java.util.Set} is decoded as a
+ * {@link java.util.HashMap} or {@link java.util.HashSet}, losing the ordering and comparator of
+ * a {@link java.util.TreeMap} or {@link java.util.LinkedHashMap}, and objects referenced from
+ * several fields are decoded as separate copies. The encoding also differs from that of
+ * {@link SerializableCoder}, so switching an existing pipeline to this coder is not
+ * update-compatible.
+ *
+ * <p>{@code PojoCoder} is therefore never inferred by default. A class opts in with
+ * {@code @DefaultCoder(PojoCoder.class)}, whose field coders come from a registry with the
+ * standard coders registered. Alternatively, {@link #coderProvider(CoderRegistry)} provides a
+ * {@code PojoCoder} for all {@link Serializable} classes that have a no-argument constructor,
+ * do not customize their Java serialization, and have fields for which the registry can provide
+ * coders. It can be consulted ahead of a registry's fallback:
+ *
+ * <pre>{@code
+ * registry.setFallbackCoderProvider(CoderProviders.firstOf(
+ *     PojoCoder.coderProvider(registry), registry.getFallbackCoderProvider()));
+ * }</pre>
+ *
+ * @param <T> the type of elements handled by this coder
+ */
+public class PojoCoder<T> extends StandardCoder<T> {
+
+  /**
+   * Returns a {@link PojoCoder} for the given class, with field coders provided by the given
+   * registry.
+   *
+   * @throws CannotProvideCoderException if the class is not a plain Java object, or a coder
+   *         cannot be provided for one of its fields
+   */
+  public static <T> PojoCoder<T> of(Class<T> clazz, CoderRegistry registry)
+      throws CannotProvideCoderException {
+    checkSupported(clazz);
+    List<Field> fields = getFields(clazz);
+    TypeDescriptor<T> type = TypeDescriptor.of(clazz);
+    List<Coder<?>> fieldCoders = new ArrayList<>(fields.size());
+    for (Field field : fields) {
+      TypeDescriptor<?> fieldType = field.getType().isPrimitive()
+          ? TypeDescriptor.of(Primitives.wrap(field.getType()))
+          : type.resolveType(field.getGenericType());
+      Coder<?> fieldCoder;
+      try {
+        fieldCoder = registry.getDefaultCoder(fieldType);
+      } catch (CannotProvideCoderException e) {
+        throw new CannotProvideCoderException("Cannot provide a coder for field "
+            + field.getName() + " of " + clazz.getName() + ": " + e.getMessage());
+      }
+      if (!field.getType().isPrimitive() && !(fieldCoder instanceof PojoCoder)) {
+        fieldCoder = NullableCoder.of(fieldCoder);
+      }
+      fieldCoders.add(fieldCoder);
+    }
+    return new PojoCoder<>(clazz, fields, fieldCoders);
+  }
+
+  /**
+   * Returns a {@link PojoCoder} for the given type, with field coders provided by a
+   * {@link CoderRegistry} with the standard coders registered. Used by {@link DefaultCoder}.
+   *
+   * @throws CannotProvideCoderException if the type is not a plain Java object, or a coder
+   *         cannot be provided for one of its fields
+   */
+  public static <T> PojoCoder<T> of(TypeDescriptor<T> type)
+      throws CannotProvideCoderException {
+    CoderRegistry registry = new CoderRegistry();
+    registry.registerStandardCoders();
+    return (PojoCoder<T>) new PojoCoderProvider(registry).getCoder(type);
+  }
+
+  @JsonCreator
+  public static PojoCoder<?> of(
+      @JsonProperty("type") String classType,
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS) List<Coder<?>> fieldCoders)
+      throws ClassNotFoundException {
+    Class<?> clazz = Class.forName(classType);
+    return new PojoCoder<>(clazz, getFields(clazz),
+        fieldCoders == null ? Collections.<Coder<?>>emptyList() : fieldCoders);
+  }
+
+  /**
+   * Returns a {@link CoderProvider} that provides a {@link PojoCoder} for plain Java objects,
+   * with field coders provided by the given registry.
+   */
+  public static CoderProvider coderProvider(CoderRegistry registry) {
+    return new PojoCoderProvider(registry);
+  }
+
+  /**
+   * Returns the class this coder encodes and decodes.
+   */
+  public Class<T> getType() {
+    return type;
+  }
+
+  @Override
+  public void encode(T value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      outStream.write(NULL);
+      return;
+    }
+    if (value.getClass() != type) {
+      encodeSubclass(value, outStream);
+      return;
+    }
+    outStream.write(FIELDS);
+    Context nestedContext = context.nested();
+    for (int i = 0; i < fields.length; i++) {
+      Object fieldValue;
+      try {
+        fieldValue = fields[i].get(value);
+      } catch (IllegalAccessException e) {
+        throw new CoderException("Unable to read field " + fields[i].getName(), e);
+      }
+      // The last field may use the outer context, as it extends to the end of the stream.
+      @SuppressWarnings("unchecked")
+      Coder<Object> fieldCoder = (Coder<Object>) fieldCoders.get(i);
+      fieldCoder.encode(fieldValue, outStream, i == fields.length - 1 ? context : nestedContext);
+    }
+  }
+
+  @Override
+  public T decode(InputStream inStream, Context context) throws IOException, CoderException {
+    int marker = inStream.read();
+    switch (marker) {
+      case NULL:
+        return null;
+      case SUBCLASS:
+        return decodeSubclass(inStream);
+      case FIELDS:
+        break;
+      default:
+        throw new CoderException("Unexpected marker " + marker + " decoding " + type.getName());
+    }
+    T value;
+    try {
+      value = constructor.newInstance();
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new CoderException("Unable to construct " + type.getName(), e);
+    }
+    Context nestedContext = context.nested();
+    for (int i = 0; i < fields.length; i++) {
+      Object fieldValue = fieldCoders.get(i).decode(
+          inStream, i == fields.length - 1 ? context : nestedContext);
+      try {
+        fields[i].set(value, fieldValue);
+      } catch (IllegalAccessException e) {
+        throw new CoderException("Unable to set field " + fields[i].getName(), e);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public List<? extends Coder<?>> getCoderArguments() {
+    return null;
+  }
+
+  /**
+   * Returns the coders of the fields of the class, in the order they are encoded.
+   */
+  @Override
+  public List<? extends Coder<?>> getComponents() {
+    return fieldCoders;
+  }
+
+  @Override
+  public CloudObject asCloudObject() {
+    CloudObject result = super.asCloudObject();
+    addString(result, "type", type.getName());
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException if the class is not final, since values of subclasses are
+   *         encoded with Java serialization, or if a field coder is not deterministic
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    if (!Modifier.isFinal(type.getModifiers())) {
+      throw new NonDeterministicException(this, type.getName()
+          + " is not final, and values of its subclasses are encoded with Java serialization");
+    }
+    verifyDeterministic("All field coders of PojoCoder must be deterministic", fieldCoders);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return super.equals(other) && type == ((PojoCoder<?>) other).type;
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + type.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "PojoCoder(" + type.getName() + ")";
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  // Markers preceding each encoded value.
+  private static final int NULL = 0;
+  private static final int FIELDS = 1;
+  private static final int SUBCLASS = 2;
+
+  private final Class<T> type;
+  private final List<Coder<?>> fieldCoders;
+  private final transient Field[] fields;
+  private final transient Constructor<T> constructor;
+
+  private PojoCoder(Class<T> type, List<Field> fields, List<Coder<?>> fieldCoders) {
+    Preconditions.checkArgument(fields.size() == fieldCoders.size(),
+        "%s has %s fields, but %s field coders were given",
+        type.getName(), fields.size(), fieldCoders.size());
+    this.type = type;
+    this.fields = fields.toArray(new Field[fields.size()]);
+    this.fieldCoders = ImmutableList.copyOf(fieldCoders);
+    try {
+      this.constructor = type.getDeclaredConstructor();
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(type.getName() + " has no no-argument constructor", e);
+    }
+    this.constructor.setAccessible(true);
+  }
+
+  private void encodeSubclass(T value, OutputStream outStream) throws IOException {
+    if (!(value instanceof Serializable)) {
+      throw new CoderException("cannot encode a " + value.getClass().getName()
+          + " with the PojoCoder for " + type.getName() + ", since it is not Serializable");
+    }
+    outStream.write(SUBCLASS);
+    // The serialized object is written with its length, so that reading it does not consume
+    // more of the stream than it wrote.
+    ByteArrayCoder.of().encode(
+        SerializableUtils.serializeToByteArray((Serializable) value), outStream, Context.NESTED);
+  }
+
+  private T decodeSubclass(InputStream inStream) throws IOException {
+    byte[] serialized = ByteArrayCoder.of().decode(inStream, Context.NESTED);
+    return type.cast(SerializableUtils.deserializeFromByteArray(serialized, type.getName()));
+  }
+
+  private Object writeReplace() {
+    // The fields and constructor are not serializable, so they are looked up again from the
+    // class when the coder is deserialized.
+    return new SerializedPojoCoderProxy<>(type, fieldCoders);
+  }
+
+  /**
+   * Proxy to use in place of serializing the {@link PojoCoder}.
+   */
+  private static class SerializedPojoCoderProxy<T> implements Serializable {
+    private final Class<T> type;
+    private final List<Coder<?>> fieldCoders;
+
+    public SerializedPojoCoderProxy(Class<T> type, List<Coder<?>> fieldCoders) {
+      this.type = type;
+      this.fieldCoders = fieldCoders;
+    }
+
+    private Object readResolve() {
+      return new PojoCoder<>(type, getFields(type), fieldCoders);
+    }
+  }
+
+  /**
+   * Throws if instances of the class cannot be encoded by their fields.
+   */
+  private static void checkSupported(Class<?> clazz) throws CannotProvideCoderException {
+    if (clazz.isPrimitive() || clazz.isArray() || clazz.isInterface() || clazz.isEnum()
+        || Modifier.isAbstract(clazz.getModifiers())) {
+      throw new CannotProvideCoderException(
+          clazz.getName() + " is not a concrete class");
+    }
+    if (clazz.getName().startsWith("java.") || clazz.getName().startsWith("javax.")) {
+      throw new CannotProvideCoderException(
+          clazz.getName() + " is a platform class, whose fields are implementation details");
+    }
+    if (Externalizable.class.isAssignableFrom(clazz)) {
+      throw new CannotProvideCoderException(clazz.getName() + " is Externalizable");
+    }
+    try {
+      clazz.getDeclaredConstructor();
+    } catch (NoSuchMethodException e) {
+      throw new CannotProvideCoderException(
+          clazz.getName() + " does not have a no-argument constructor");
+    }
+    for (Class<?> current = clazz; current != Object.class; current = current.getSuperclass()) {
+      for (String method : SERIALIZATION_METHODS) {
+        if (declaresMethod(current, method)) {
+          throw new CannotProvideCoderException(current.getName() + " declares " + method
+              + ", so it may rely on Java serialization");
+        }
+      }
+    }
+  }
+
+  private static final List<String> SERIALIZATION_METHODS = Arrays.asList(
+      "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve");
+
+  private static boolean declaresMethod(Class<?> clazz, String name) {
+    for (Method method : clazz.getDeclaredMethods()) {
+      if (method.getName().equals(name)) {
+        Class<?>[] params = method.getParameterTypes();
+        if (params.length == 0
+            || (params.length == 1 && (params[0] == ObjectOutputStream.class
+                || params[0] == ObjectInputStream.class))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the fields to encode, ordered from the topmost superclass down and by name within
+   * each class.
+   */
+  private static List<Field> getFields(Class<?> clazz) {
+    List<Class<?>> hierarchy = new ArrayList<>();
+    for (Class<?> current = clazz; current != Object.class; current = current.getSuperclass()) {
+      hierarchy.add(current);
+    }
+    Collections.reverse(hierarchy);
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> current : hierarchy) {
+      List<Field> declared = new ArrayList<>();
+      for (Field field : current.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)
+            && !field.isSynthetic()) {
+          declared.add(field);
+        }
+      }
+      Collections.sort(declared, new Comparator<Field>() {
+        @Override
+        public int compare(Field a, Field b) {
+          return a.getName().compareTo(b.getName());
+        }
+      });
+      fields.addAll(declared);
+    }
+    for (Field field : fields) {
+      field.setAccessible(true);
+    }
+    return fields;
+  }
+
+  /**
+   * Provides {@link PojoCoder PojoCoders} for plain Java objects, with field coders provided by
+   * a {@link CoderRegistry}.
+   */
+  private static class PojoCoderProvider implements CoderProvider {
+    // The classes whose coders are being created by each thread. A class that has a field of its
+    // own type, directly or indirectly, cannot be encoded by its fields.
+    private static final ThreadLocal<Set<Class<?>>> IN_PROGRESS =
+        new ThreadLocal<Set<Class<?>>>() {
+          @Override
+          protected Set<Class<?>> initialValue() {
+            return new HashSet<>();
+          }
+        };
+
+    private final CoderRegistry registry;
+
+    private PojoCoderProvider(CoderRegistry registry) {
+      this.registry = registry;
+    }
+
+    @Override
+    public <T> Coder<T> getCoder(TypeDescriptor<T> typeDescriptor)
+        throws CannotProvideCoderException {
+      @SuppressWarnings("unchecked")
+      Class<T> clazz = (Class<T>) typeDescriptor.getRawType();
+      // Only classes that would otherwise be encoded with Java serialization are provided for, so
+      // that a class without a coder is still reported as such.
+      if (!Serializable.class.isAssignableFrom(clazz)) {
+        throw new CannotProvideCoderException("Cannot provide PojoCoder because "
+            + typeDescriptor + " does not implement Serializable");
+      }
+      if (clazz.getTypeParameters().length > 0) {
+        throw new CannotProvideCoderException(
+            "Cannot provide PojoCoder because " + typeDescriptor + " is generic");
+      }
+      Set<Class<?>> inProgress = IN_PROGRESS.get();
+      if (!inProgress.add(clazz)) {
+        throw new CannotProvideCoderException(
+            "Cannot provide PojoCoder because " + typeDescriptor + " is recursive");
+      }
+      try {
+        return PojoCoder.of(clazz, registry);
+      } finally {
+        inProgress.remove(clazz);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "PojoCoderProvider";
+    }
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.cloud.dataflow.sdk.util.Structs.addStringList;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.StructuralByteArray;
@@ -29,7 +30,6 @@ import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CountingOutputStream;
 
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -212,15 +212,33 @@ public abstract class StandardCoder<T> implements Coder<T> {
     return false;
   }
 
+  /**
+   * Returns {@code true} if comparing encoded values as unsigned bytes, lexicographically,
+   * gives the same result as comparing the values themselves.
+   *
+   * <p>An order-preserving {@code Coder} must also be deterministic, and its encoding in the
+   * nested {@link Context} must never be a proper prefix of the encoding of another value, so
+   * that the encodings of several values can be concatenated and still compare correctly.
+   *
+   * <p>Not intended to be called by user code, but instead by
+   * {@link com.google.cloud.dataflow.sdk.runners.PipelineRunner}
+   * implementations, which should use {@link CoderUtils#isOrderPreserving} so that
+   * {@link Coder Coders} that do not extend {@link StandardCoder} are handled.
+   *
+   * @return {@code false} for {@link StandardCoder} unless overridden.
+   */
+  public boolean isOrderPreserving() {
+    return false;
+  }
+
   @Override
   public Object structuralValue(T value) throws Exception {
     if (value != null && consistentWithEquals()) {
       return value;
     } else {
       try {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        encode(value, os, Context.OUTER);
-        return new StructuralByteArray(os.toByteArray());
+        // Encodes into a reused buffer, copying out only the final bytes.
+        return new StructuralByteArray(CoderUtils.encodeToByteArray(this, value));
       } catch (Exception exn) {
         throw new IllegalArgumentException(
             "Unable to encode element '" + value + "' with coder '" + this + "'.", exn);
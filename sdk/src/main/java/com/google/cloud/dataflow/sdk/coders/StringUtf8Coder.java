@@ -16,17 +16,15 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import com.google.cloud.dataflow.sdk.util.ByteArrayBackedInput;
+import com.google.cloud.dataflow.sdk.util.ByteArrayBackedOutput;
 import com.google.cloud.dataflow.sdk.util.ExposedByteArrayOutputStream;
 import com.google.cloud.dataflow.sdk.util.StreamUtils;
 import com.google.cloud.dataflow.sdk.util.VarInt;
-import com.google.common.base.Utf8;
 import com.google.common.io.ByteStreams;
-import com.google.common.io.CountingOutputStream;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,20 +48,98 @@ public class StringUtf8Coder extends AtomicCoder<String> {
 
   private static final StringUtf8Coder INSTANCE = new StringUtf8Coder();
 
-  private static void writeString(String value, DataOutputStream dos)
-      throws IOException {
-    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-    VarInt.encode(bytes.length, dos);
-    dos.write(bytes);
+  /**
+   * Returns the length of the UTF-8 encoding of {@code value}, in bytes. Like
+   * {@link String#getBytes(java.nio.charset.Charset)}, unpaired surrogates are encoded as a
+   * single {@code '?'}.
+   */
+  private static int encodedLength(String value) {
+    int length = value.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        continue;
+      } else if (c < 0x800) {
+        bytes += 1;
+      } else if (!Character.isSurrogate(c)) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        // Four bytes for the two chars of the pair.
+        bytes += 2;
+        i++;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Writes the UTF-8 encoding of {@code value} into {@code buf} starting at {@code offset}, which
+   * must have room for {@link #encodedLength} bytes. Returns the offset just past the encoding.
+   */
+  private static int writeUtf8(String value, byte[] buf, int offset) {
+    int length = value.length();
+    int i = 0;
+    // Fast path for the common all-ASCII prefix.
+    for (char c; i < length && (c = value.charAt(i)) < 0x80; i++) {
+      buf[offset++] = (byte) c;
+    }
+    for (; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buf[offset++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[offset++] = (byte) (0xC0 | (c >>> 6));
+        buf[offset++] = (byte) (0x80 | (c & 0x3F));
+      } else if (!Character.isSurrogate(c)) {
+        buf[offset++] = (byte) (0xE0 | (c >>> 12));
+        buf[offset++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+        buf[offset++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buf[offset++] = (byte) (0xF0 | (codePoint >>> 18));
+        buf[offset++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+        buf[offset++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+        buf[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        buf[offset++] = '?';
+      }
+    }
+    return offset;
   }
 
-  private static String readString(DataInputStream dis) throws IOException {
-    int len = VarInt.decodeInt(dis);
+  /**
+   * Encodes {@code value}, prefixed by its length if {@code nested}, directly into the backing
+   * array of {@code output}.
+   */
+  private static void writeDirect(String value, ByteArrayBackedOutput output, boolean nested) {
+    int length = encodedLength(value);
+    byte[] buf = output.reserve((nested ? VarInt.getLength(length) : 0) + length);
+    int start = output.position();
+    int offset = nested ? VarInt.encode(length, buf, start) : start;
+    offset = writeUtf8(value, buf, offset);
+    output.advance(offset - start);
+  }
+
+  private static String readString(InputStream inStream) throws IOException {
+    int len = VarInt.decodeInt(inStream);
     if (len < 0) {
       throw new CoderException("Invalid encoded string length: " + len);
     }
+    if (inStream instanceof ByteArrayBackedInput) {
+      // Decode in place from the backing array.
+      ByteArrayBackedInput exposed = (ByteArrayBackedInput) inStream;
+      if (len > exposed.limit() - exposed.position()) {
+        throw new EOFException();
+      }
+      String value = new String(exposed.array(), exposed.position(), len, StandardCharsets.UTF_8);
+      exposed.advance(len);
+      return value;
+    }
     byte[] bytes = new byte[len];
-    dis.readFully(bytes);
+    ByteStreams.readFully(inStream, bytes);
     return new String(bytes, StandardCharsets.UTF_8);
   }
 
@@ -75,15 +151,20 @@ public class StringUtf8Coder extends AtomicCoder<String> {
     if (value == null) {
       throw new CoderException("cannot encode a null String");
     }
-    if (context.isWholeStream) {
+    if (context.isWholeStream
+        && outStream instanceof ExposedByteArrayOutputStream
+        && ((ExposedByteArrayOutputStream) outStream).position() == 0) {
+      // Hand the encoding to the stream, so that it can be returned without a copy.
+      ((ExposedByteArrayOutputStream) outStream).writeAndOwn(
+          value.getBytes(StandardCharsets.UTF_8));
+    } else if (outStream instanceof ByteArrayBackedOutput) {
+      writeDirect(value, (ByteArrayBackedOutput) outStream, !context.isWholeStream);
+    } else {
       byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-      if (outStream instanceof ExposedByteArrayOutputStream) {
-        ((ExposedByteArrayOutputStream) outStream).writeAndOwn(bytes);
-      } else {
-        outStream.write(bytes);
+      if (!context.isWholeStream) {
+        VarInt.encode(bytes.length, outStream);
       }
-    } else {
-      writeString(value, new DataOutputStream(outStream));
+      outStream.write(bytes);
     }
   }
 
@@ -91,11 +172,18 @@ public class StringUtf8Coder extends AtomicCoder<String> {
   public String decode(InputStream inStream, Context context)
       throws IOException {
     if (context.isWholeStream) {
+      if (inStream instanceof ByteArrayBackedInput) {
+        ByteArrayBackedInput exposed = (ByteArrayBackedInput) inStream;
+        int len = exposed.limit() - exposed.position();
+        String value = new String(exposed.array(), exposed.position(), len, StandardCharsets.UTF_8);
+        exposed.advance(len);
+        return value;
+      }
       byte[] bytes = StreamUtils.getBytes(inStream);
       return new String(bytes, StandardCharsets.UTF_8);
     } else {
       try {
-        return readString(new DataInputStream(inStream));
+        return readString(inStream);
       } catch (EOFException | UTFDataFormatException exn) {
         // These exceptions correspond to decoding problems, so change
         // what kind of exception they're branded as.
@@ -126,14 +214,7 @@ public class StringUtf8Coder extends AtomicCoder<String> {
     if (value == null) {
       throw new CoderException("cannot encode a null String");
     }
-    if (context.isWholeStream) {
-      return Utf8.encodedLength(value);
-    } else {
-      CountingOutputStream countingStream =
-          new CountingOutputStream(ByteStreams.nullOutputStream());
-      DataOutputStream stream = new DataOutputStream(countingStream);
-      writeString(value, stream);
-      return countingStream.getCount();
-    }
+    int length = encodedLength(value);
+    return context.isWholeStream ? length : VarInt.getLength(length) + length;
   }
 }
@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static com.google.cloud.dataflow.sdk.util.Structs.addString;
+
+import com.google.api.client.util.Data;
+import com.google.api.services.bigquery.model.TableCell;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.Transport;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Coder} that encodes BigQuery {@link TableRow} objects in a compact binary format
+ * driven by a {@link TableSchema}, rather than as JSON text like {@link TableRowJsonCoder}.
+ *
+ * <p>The fields of the schema are identified by their position instead of their name, and a
+ * bitmap records which of them are present in a row. Strings, integers, floating point numbers
+ * and booleans are written in binary, tagged with their Java type so that they decode to the same
+ * type. {@code RECORD} fields are encoded with the schema of the record, and {@code REPEATED}
+ * fields as a count followed by the elements.
+ *
+ * <p>Properties of a row that are not in the schema are written along with their names, and
+ * values of other types are written as JSON, so rows that do not match the schema are still
+ * encoded faithfully, only less compactly. The cells of a row read from BigQuery, which hold the
+ * same values as its fields, are not written separately.
+ */
+public class TableRowBinaryCoder extends AtomicCoder<TableRow> {
+
+  /**
+   * Returns a {@link TableRowBinaryCoder} for rows of the given schema.
+   */
+  public static TableRowBinaryCoder of(TableSchema schema) {
+    try {
+      return new TableRowBinaryCoder(Transport.getJsonFactory().toString(schema), schema);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid table schema.", e);
+    }
+  }
+
+  @JsonCreator
+  public static TableRowBinaryCoder of(@JsonProperty(SCHEMA) String jsonSchema) {
+    try {
+      return new TableRowBinaryCoder(
+          jsonSchema, Transport.getJsonFactory().fromString(jsonSchema, TableSchema.class));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid table schema: " + jsonSchema, e);
+    }
+  }
+
+  /**
+   * Returns the schema of the rows encoded by this coder.
+   */
+  public TableSchema getSchema() {
+    try {
+      return Transport.getJsonFactory().fromString(jsonSchema, TableSchema.class);
+    } catch (IOException e) {
+      throw new IllegalStateException("Invalid table schema: " + jsonSchema, e);
+    }
+  }
+
+  @Override
+  public void encode(TableRow value, OutputStream outStream, Context context)
+      throws IOException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null TableRow");
+    }
+    encodeRow(value, layout, outStream);
+  }
+
+  @Override
+  public TableRow decode(InputStream inStream, Context context) throws IOException {
+    return decodeRow(layout, inStream);
+  }
+
+  @Override
+  public CloudObject asCloudObject() {
+    CloudObject result = super.asCloudObject();
+    addString(result, SCHEMA, jsonSchema);
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException always. A {@link TableRow} can hold arbitrary
+   *         {@link Object} instances, which makes the encoding non-deterministic.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    throw new NonDeterministicException(this,
+        "TableCell can hold arbitrary instances, which may be non-deterministic.");
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof TableRowBinaryCoder
+        && jsonSchema.equals(((TableRowBinaryCoder) other).jsonSchema);
+  }
+
+  @Override
+  public int hashCode() {
+    return jsonSchema.hashCode();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final String SCHEMA = "schema";
+
+  // Flags at the start of each encoded row.
+  private static final int HAS_CELLS = 1;
+  private static final int CELLS_MATCH_FIELDS = 2;
+
+  // Tags identifying the type of each encoded value.
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int LONG = 2;
+  private static final int INTEGER = 3;
+  private static final int DOUBLE = 4;
+  private static final int TRUE = 5;
+  private static final int FALSE = 6;
+  private static final int ROW = 7;
+  private static final int LIST = 8;
+  private static final int MAP = 9;
+  private static final int JSON = 10;
+
+  // The name of the TableRow property holding its cells.
+  private static final String CELLS = "f";
+
+  // FAIL_ON_EMPTY_BEANS is disabled in order to handle null values, as in TableRowJsonCoder.
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+  private static final StringUtf8Coder STRING_CODER = StringUtf8Coder.of();
+
+  /** The fields of a record, in schema order. */
+  private static class RecordLayout implements Serializable {
+    private static final RecordLayout EMPTY =
+        new RecordLayout(Collections.<TableFieldSchema>emptyList());
+
+    private final FieldLayout[] fields;
+    private final Set<String> names = new HashSet<>();
+
+    private RecordLayout(List<TableFieldSchema> schemas) {
+      fields = new FieldLayout[schemas.size()];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = new FieldLayout(schemas.get(i));
+        names.add(fields[i].name);
+      }
+    }
+  }
+
+  /** A field of a record, and the layout of its values if it is a {@code RECORD} field. */
+  private static class FieldLayout implements Serializable {
+    private final String name;
+    @Nullable private final RecordLayout record;
+
+    private FieldLayout(TableFieldSchema schema) {
+      name = schema.getName();
+      record = "RECORD".equals(schema.getType()) && schema.getFields() != null
+          ? new RecordLayout(schema.getFields())
+          : null;
+    }
+  }
+
+  private final String jsonSchema;
+  private final RecordLayout layout;
+
+  private TableRowBinaryCoder(String jsonSchema, TableSchema schema) {
+    this.jsonSchema = jsonSchema;
+    this.layout = schema.getFields() == null
+        ? RecordLayout.EMPTY
+        : new RecordLayout(schema.getFields());
+  }
+
+  private static void encodeRow(TableRow row, RecordLayout layout, OutputStream outStream)
+      throws IOException {
+    FieldLayout[] fields = layout.fields;
+    List<TableCell> cells = row.getF();
+    boolean cellsMatchFields = cells != null && cellsMatchFields(row, cells, fields);
+    VarInt.encode(
+        (cells != null ? HAS_CELLS : 0) | (cellsMatchFields ? CELLS_MATCH_FIELDS : 0), outStream);
+
+    // The values of the fields in the schema, preceded by a bitmap of which are present. A field
+    // named like the cells property can only be held by the cells.
+    byte[] present = new byte[(fields.length + 7) / 8];
+    Object[] values = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      String name = fields[i].name;
+      if (cellsMatchFields) {
+        values[i] = cells.get(i).getV();
+      } else if (CELLS.equals(name)) {
+        continue;
+      } else {
+        values[i] = row.get(name);
+        if (values[i] == null && !row.containsKey(name)) {
+          continue;
+        }
+      }
+      present[i / 8] |= 1 << (i % 8);
+    }
+    outStream.write(present);
+    for (int i = 0; i < fields.length; i++) {
+      if ((present[i / 8] & (1 << (i % 8))) != 0) {
+        encodeValue(values[i], fields[i].record, outStream);
+      }
+    }
+
+    // The properties that are not in the schema, with their names.
+    List<String> extraNames = new ArrayList<>();
+    for (String name : row.keySet()) {
+      if (!CELLS.equals(name) && !layout.names.contains(name)) {
+        extraNames.add(name);
+      }
+    }
+    VarInt.encode(extraNames.size(), outStream);
+    for (String name : extraNames) {
+      STRING_CODER.encode(name, outStream, Context.NESTED);
+      encodeValue(row.get(name), null, outStream);
+    }
+
+    if (cells != null && !cellsMatchFields) {
+      VarInt.encode(cells.size(), outStream);
+      for (TableCell cell : cells) {
+        encodeValue(cell.getV(), null, outStream);
+      }
+    }
+  }
+
+  /**
+   * Returns whether each cell holds the value of the corresponding field of the row, as for rows
+   * read from BigQuery, so that the cells can be rebuilt from the field values.
+   */
+  private static boolean cellsMatchFields(
+      TableRow row, List<TableCell> cells, FieldLayout[] fields) {
+    if (cells.size() != fields.length) {
+      return false;
+    }
+    for (int i = 0; i < fields.length; i++) {
+      TableCell cell = cells.get(i);
+      if (cell == null || cell.size() > 1 || (cell.size() == 1 && !cell.containsKey("v"))) {
+        return false;
+      }
+      String name = fields[i].name;
+      if (!CELLS.equals(name)
+          && (!row.containsKey(name) || !Objects.equals(row.get(name), cell.getV()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static TableRow decodeRow(RecordLayout layout, InputStream inStream)
+      throws IOException {
+    FieldLayout[] fields = layout.fields;
+    int flags = VarInt.decodeInt(inStream);
+    boolean cellsMatchFields = (flags & CELLS_MATCH_FIELDS) != 0;
+
+    TableRow row = new TableRow();
+    byte[] present = new byte[(fields.length + 7) / 8];
+    ByteStreams.readFully(inStream, present);
+    List<TableCell> cells = cellsMatchFields ? new ArrayList<TableCell>(fields.length) : null;
+    for (int i = 0; i < fields.length; i++) {
+      if ((present[i / 8] & (1 << (i % 8))) == 0) {
+        continue;
+      }
+      Object value = decodeValue(fields[i].record, inStream);
+      if (cellsMatchFields) {
+        cells.add(new TableCell().setV(value));
+      }
+      if (!CELLS.equals(fields[i].name)) {
+        row.set(fields[i].name, value);
+      }
+    }
+
+    int extras = VarInt.decodeInt(inStream);
+    for (int i = 0; i < extras; i++) {
+      String name = STRING_CODER.decode(inStream, Context.NESTED);
+      row.set(name, decodeValue(null, inStream));
+    }
+
+    if ((flags & HAS_CELLS) != 0 && !cellsMatchFields) {
+      int size = VarInt.decodeInt(inStream);
+      cells = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        cells.add(new TableCell().setV(decodeValue(null, inStream)));
+      }
+    }
+    if (cells != null) {
+      row.setF(cells);
+    }
+    return row;
+  }
+
+  private static void encodeValue(
+      Object value, @Nullable RecordLayout record, OutputStream outStream) throws IOException {
+    if (value == null || Data.isNull(value)) {
+      outStream.write(NULL);
+    } else if (value instanceof String) {
+      outStream.write(STRING);
+      STRING_CODER.encode((String) value, outStream, Context.NESTED);
+    } else if (value instanceof Long) {
+      outStream.write(LONG);
+      VarInt.encode((Long) value, outStream);
+    } else if (value instanceof Integer) {
+      outStream.write(INTEGER);
+      VarInt.encode((Integer) value, outStream);
+    } else if (value instanceof Double) {
+      outStream.write(DOUBLE);
+      outStream.write(Longs.toByteArray(Double.doubleToLongBits((Double) value)));
+    } else if (value instanceof Boolean) {
+      outStream.write((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof TableRow) {
+      outStream.write(ROW);
+      encodeRow((TableRow) value, record == null ? RecordLayout.EMPTY : record, outStream);
+    } else if (value instanceof List) {
+      outStream.write(LIST);
+      List<?> list = (List<?>) value;
+      VarInt.encode(list.size(), outStream);
+      for (Object element : list) {
+        encodeValue(element, record, outStream);
+      }
+    } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+      outStream.write(MAP);
+      Map<?, ?> map = (Map<?, ?>) value;
+      VarInt.encode(map.size(), outStream);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        STRING_CODER.encode((String) entry.getKey(), outStream, Context.NESTED);
+        encodeValue(entry.getValue(), null, outStream);
+      }
+    } else {
+      outStream.write(JSON);
+      STRING_CODER.encode(MAPPER.writeValueAsString(value), outStream, Context.NESTED);
+    }
+  }
+
+  private static boolean hasStringKeys(Map<?, ?> map) {
+    for (Object key : map.keySet()) {
+      if (!(key instanceof String)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Object decodeValue(@Nullable RecordLayout record, InputStream inStream)
+      throws IOException {
+    int tag = inStream.read();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        return STRING_CODER.decode(inStream, Context.NESTED);
+      case LONG:
+        return VarInt.decodeLong(inStream);
+      case INTEGER:
+        return VarInt.decodeInt(inStream);
+      case DOUBLE: {
+        byte[] bits = new byte[8];
+        ByteStreams.readFully(inStream, bits);
+        return Double.longBitsToDouble(Longs.fromByteArray(bits));
+      }
+      case TRUE:
+        return true;
+      case FALSE:
+        return false;
+      case ROW:
+        return decodeRow(record == null ? RecordLayout.EMPTY : record, inStream);
+      case LIST: {
+        int size = VarInt.decodeInt(inStream);
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(decodeValue(record, inStream));
+        }
+        return list;
+      }
+      case MAP: {
+        int size = VarInt.decodeInt(inStream);
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+          String name = STRING_CODER.decode(inStream, Context.NESTED);
+          map.put(name, decodeValue(null, inStream));
+        }
+        return map;
+      }
+      case JSON:
+        return MAPPER.readValue(STRING_CODER.decode(inStream, Context.NESTED), Object.class);
+      case -1:
+        throw new EOFException("Unexpected end of stream while decoding a TableRow");
+      default:
+        throw new CoderException("Unknown value tag " + tag + " while decoding a TableRow");
+    }
+  }
+}
@@ -58,6 +58,16 @@ public class VoidCoder extends AtomicCoder<Void> {
     return true;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @return  {@code true}. {@link VoidCoder} is (vacuously) order-preserving.
+   */
+  @Override
+  public boolean isOrderPreserving() {
+    return true;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -28,6 +28,7 @@ import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.TableRowBinaryCoder;
 import com.google.cloud.dataflow.sdk.coders.TableRowJsonCoder;
 import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
 import com.google.cloud.dataflow.sdk.coders.VoidCoder;
@@ -79,6 +80,8 @@ import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 /**
  * {@link PTransform}s for reading and writing
  * <a href="https://developers.google.com/bigquery/">BigQuery</a> tables.
@@ -329,6 +332,14 @@ public class BigQueryIO {
       return new Bound().withoutValidation();
     }
 
+    /**
+     * Encodes the rows read with a {@link TableRowBinaryCoder} for the given schema, rather than
+     * as JSON.
+     */
+    public static Bound withSchema(TableSchema schema) {
+      return new Bound().withSchema(schema);
+    }
+
     /**
      * A {@link PTransform} that reads from a BigQuery table and returns a bounded
      * {@link PCollection} of {@link TableRow TableRows}.
@@ -337,20 +348,23 @@ public class BigQueryIO {
       TableReference table;
       final String query;
       final boolean validate;
+      @Nullable final TableSchema schema;
 
       private static final String QUERY_VALIDATION_FAILURE_ERROR =
           "Validation of query \"%1$s\" failed. If the query depends on an earlier stage of the"
           + " pipeline, This validation can be disabled using #withoutValidation.";
 
       private Bound() {
-        this(null, null, null, true);
+        this(null, null, null, true, null);
       }
 
-      private Bound(String name, String query, TableReference reference, boolean validate) {
+      private Bound(String name, String query, TableReference reference, boolean validate,
+          TableSchema schema) {
         super(name);
         this.table = reference;
         this.query = query;
         this.validate = validate;
+        this.schema = schema;
       }
 
       /**
@@ -359,7 +373,7 @@ public class BigQueryIO {
        * <p>Does not modify this object.
        */
       public Bound named(String name) {
-        return new Bound(name, query, table, validate);
+        return new Bound(name, query, table, validate, schema);
       }
 
       /**
@@ -378,7 +392,7 @@ public class BigQueryIO {
        * <p>Does not modify this object.
        */
       public Bound from(TableReference table) {
-        return new Bound(name, query, table, validate);
+        return new Bound(name, query, table, validate, schema);
       }
 
       /**
@@ -387,14 +401,26 @@ public class BigQueryIO {
        * <p>Does not modify this object.
        */
       public Bound fromQuery(String query) {
-        return new Bound(name, query, table, validate);
+        return new Bound(name, query, table, validate, schema);
       }
 
       /**
        * Disable table validation.
        */
       public Bound withoutValidation() {
-        return new Bound(name, query, table, false);
+        return new Bound(name, query, table, false, schema);
+      }
+
+      /**
+       * Returns a copy of this transform that encodes the rows it reads with a
+       * {@link TableRowBinaryCoder} for the given schema, which is more compact and cheaper to
+       * encode and decode than JSON when the rows are passed between stages. Rows that do not
+       * match the schema are still encoded correctly, only less compactly.
+       *
+       * <p>Does not modify this object.
+       */
+      public Bound withSchema(TableSchema schema) {
+        return new Bound(name, query, table, validate, schema);
       }
 
       /**
@@ -459,12 +485,12 @@ public class BigQueryIO {
             // Force the output's Coder to be what the read is using, and
             // unchangeable later, to ensure that we read the input in the
             // format specified by the Read transform.
-            .setCoder(TableRowJsonCoder.of());
+            .setCoder(getDefaultOutputCoder());
       }
 
       @Override
       protected Coder<TableRow> getDefaultOutputCoder() {
-        return TableRowJsonCoder.of();
+        return schema == null ? TableRowJsonCoder.of() : TableRowBinaryCoder.of(schema);
       }
 
       static {
@@ -498,6 +524,15 @@ public class BigQueryIO {
       public boolean getValidate() {
         return validate;
       }
+
+      /**
+       * Returns the schema used to encode the rows read, or {@code null} if they are encoded as
+       * JSON.
+       */
+      @Nullable
+      public TableSchema getSchema() {
+        return schema;
+      }
     }
 
     /** Disallow construction of utility class. */
@@ -702,6 +737,9 @@ public class BigQueryIO {
       // An option to indicate if table validation is desired. Default is true.
       final boolean validate;
 
+      // Whether streaming writes shuffle rows encoded against the schema. Default is false.
+      final boolean binaryEncoding;
+
       private static class TranslateTableSpecFunction implements
           SerializableFunction<BoundedWindow, TableReference> {
         private SerializableFunction<BoundedWindow, String> tableSpecFunction;
@@ -724,13 +762,13 @@ public class BigQueryIO {
       @Deprecated
       public Bound() {
         this(null, null, null, null, CreateDisposition.CREATE_IF_NEEDED,
-            WriteDisposition.WRITE_EMPTY, true);
+            WriteDisposition.WRITE_EMPTY, true, false);
       }
 
       private Bound(String name, TableReference ref,
           SerializableFunction<BoundedWindow, TableReference> tableRefFunction, TableSchema schema,
           CreateDisposition createDisposition, WriteDisposition writeDisposition,
-          boolean validate) {
+          boolean validate, boolean binaryEncoding) {
         super(name);
         this.table = ref;
         this.tableRefFunction = tableRefFunction;
@@ -738,6 +776,7 @@ public class BigQueryIO {
         this.createDisposition = createDisposition;
         this.writeDisposition = writeDisposition;
         this.validate = validate;
+        this.binaryEncoding = binaryEncoding;
       }
 
       /**
@@ -747,7 +786,7 @@ public class BigQueryIO {
        */
       public Bound named(String name) {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, validate);
+            writeDisposition, validate, binaryEncoding);
       }
 
       /**
@@ -767,7 +806,7 @@ public class BigQueryIO {
        */
       public Bound to(TableReference table) {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, validate);
+            writeDisposition, validate, binaryEncoding);
       }
 
       /**
@@ -796,7 +835,7 @@ public class BigQueryIO {
       public Bound toTableReference(
           SerializableFunction<BoundedWindow, TableReference> tableRefFunction) {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, validate);
+            writeDisposition, validate, binaryEncoding);
       }
 
       /**
@@ -807,7 +846,7 @@ public class BigQueryIO {
        */
       public Bound withSchema(TableSchema schema) {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, validate);
+            writeDisposition, validate, binaryEncoding);
       }
 
       /**
@@ -817,7 +856,7 @@ public class BigQueryIO {
        */
       public Bound withCreateDisposition(CreateDisposition createDisposition) {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, validate);
+            writeDisposition, validate, binaryEncoding);
       }
 
       /**
@@ -827,7 +866,7 @@ public class BigQueryIO {
        */
       public Bound withWriteDisposition(WriteDisposition writeDisposition) {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, validate);
+            writeDisposition, validate, binaryEncoding);
       }
 
       /**
@@ -837,7 +876,21 @@ public class BigQueryIO {
        */
       public Bound withoutValidation() {
         return new Bound(name, table, tableRefFunction, schema, createDisposition,
-            writeDisposition, false);
+            writeDisposition, false, binaryEncoding);
+      }
+
+      /**
+       * Returns a copy of this write transformation that, when writing in streaming mode, shuffles
+       * the rows encoded with a {@link TableRowBinaryCoder} for the schema given with
+       * {@link #withSchema}, rather than as JSON. This is more compact and cheaper to encode and
+       * decode, but changes the coder of the shuffle, so it cannot be enabled when updating a
+       * running pipeline that did not use it.
+       *
+       * <p>Does not modify this object.
+       */
+      public Bound withBinaryEncoding() {
+        return new Bound(name, table, tableRefFunction, schema, createDisposition,
+            writeDisposition, validate, true);
       }
 
       private static void verifyTableEmpty(
@@ -881,6 +934,11 @@ public class BigQueryIO {
               + "however no schema was provided.");
         }
 
+        if (binaryEncoding && schema == null) {
+          throw new IllegalArgumentException(
+              "Binary encoding was requested, however no schema was provided.");
+        }
+
         if (table != null && table.getProjectId() == null) {
           // If user does not specify a project we assume the table to be located in the project
           // that owns the Dataflow job.
@@ -918,7 +976,8 @@ public class BigQueryIO {
                 + "supported for unbounded PCollections or when using tablespec functions.");
           }
 
-          return input.apply(new StreamWithDeDup(table, tableRefFunction, schema));
+          return input.apply(
+              new StreamWithDeDup(table, tableRefFunction, schema, binaryEncoding));
         }
 
         return PDone.in(input.getPipeline());
@@ -964,6 +1023,11 @@ public class BigQueryIO {
       public boolean getValidate() {
         return validate;
       }
+
+      /** Returns {@code true} if streaming writes shuffle rows encoded against the schema. */
+      public boolean getBinaryEncoding() {
+        return binaryEncoding;
+      }
     }
 
     /** Disallow construction of utility class. */
@@ -1217,6 +1281,60 @@ public class BigQueryIO {
     StringUtf8Coder idCoder = StringUtf8Coder.of();
   }
 
+  /**
+   * Encodes a {@link TableRowInfo} with the given {@link TableRow} coder. Used instead of
+   * {@link TableRowInfoCoder} when binary encoding is requested.
+   */
+  private static class BinaryTableRowInfoCoder extends StandardCoder<TableRowInfo> {
+    public static BinaryTableRowInfoCoder of(Coder<TableRow> tableRowCoder) {
+      return new BinaryTableRowInfoCoder(tableRowCoder);
+    }
+
+    @JsonCreator
+    public static BinaryTableRowInfoCoder of(
+        @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+        List<Coder<TableRow>> components) {
+      Preconditions.checkArgument(components.size() == 1,
+          "Expecting 1 component, got " + components.size());
+      return of(components.get(0));
+    }
+
+    private BinaryTableRowInfoCoder(Coder<TableRow> tableRowCoder) {
+      this.tableRowCoder = tableRowCoder;
+    }
+
+    @Override
+    public List<? extends Coder<?>> getCoderArguments() {
+      return Arrays.asList(tableRowCoder);
+    }
+
+    @Override
+    public void encode(TableRowInfo value, OutputStream outStream, Context context)
+      throws IOException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null value");
+      }
+      tableRowCoder.encode(value.tableRow, outStream, context.nested());
+      idCoder.encode(value.uniqueId, outStream, context.nested());
+    }
+
+    @Override
+    public TableRowInfo decode(InputStream inStream, Context context)
+      throws IOException {
+      return new TableRowInfo(
+          tableRowCoder.decode(inStream, context.nested()),
+          idCoder.decode(inStream, context.nested()));
+    }
+
+    @Override
+    public void verifyDeterministic() throws NonDeterministicException {
+      throw new NonDeterministicException(this, "TableRows are not deterministic.");
+    }
+
+    final Coder<TableRow> tableRowCoder;
+    final StringUtf8Coder idCoder = StringUtf8Coder.of();
+  }
+
   private static class TableRowInfo {
     TableRowInfo(TableRow tableRow, String uniqueId) {
       this.tableRow = tableRow;
@@ -1304,14 +1422,16 @@ public class BigQueryIO {
     private final transient TableReference tableReference;
     private final SerializableFunction<BoundedWindow, TableReference> tableRefFunction;
     private final transient TableSchema tableSchema;
+    private final boolean binaryEncoding;
 
     /** Constructor. */
     StreamWithDeDup(TableReference tableReference,
         SerializableFunction<BoundedWindow, TableReference> tableRefFunction,
-        TableSchema tableSchema) {
+        TableSchema tableSchema, boolean binaryEncoding) {
       this.tableReference = tableReference;
       this.tableRefFunction = tableRefFunction;
       this.tableSchema = tableSchema;
+      this.binaryEncoding = binaryEncoding;
     }
 
     @Override
@@ -1338,9 +1458,12 @@ public class BigQueryIO {
       // To prevent having the same TableRow processed more than once with regenerated
       // different unique ids, this implementation relies on "checkpointing", which is
       // achieved as a side effect of having StreamingWriteFn immediately follow a GBK,
-      // performed by Reshuffle.
+      // performed by Reshuffle. If requested, the rows are shuffled in binary.
+      Coder<TableRowInfo> tableRowInfoCoder = binaryEncoding
+          ? BinaryTableRowInfoCoder.of(TableRowBinaryCoder.of(tableSchema))
+          : TableRowInfoCoder.of();
       tagged
-          .setCoder(KvCoder.of(ShardedKeyCoder.of(StringUtf8Coder.of()), TableRowInfoCoder.of()))
+          .setCoder(KvCoder.of(ShardedKeyCoder.of(StringUtf8Coder.of()), tableRowInfoCoder))
           .apply(Reshuffle.<ShardedKey<String>, TableRowInfo>of())
           .apply(ParDo.of(new StreamingWriteFn(tableSchema)));
 
@@ -47,4 +47,53 @@ public interface DataflowWorkerHarnessOptions extends DataflowPipelineOptions {
   @Default.Integer(100)
   Integer getWorkerCacheMb();
   void setWorkerCacheMb(Integer value);
+
+  /**
+   * The number of key-affinity lanes used to schedule work in the streaming worker.
+   *
+   * <p>When positive, work for a key is queued on the lane selected by the hash of the key and
+   * preferably runs on the threads bound to that lane, with idle threads stealing work from other
+   * lanes. When zero, work runs in arrival order on any thread.
+   */
+  @Description("The number of key-affinity lanes used to schedule work in the streaming worker, "
+      + "or 0 to run work in arrival order on any thread.")
+  @Default.Integer(0)
+  Integer getStreamingKeyAffinityLanes();
+  void setStreamingKeyAffinityLanes(Integer value);
+
+  /**
+   * The maximum time, in microseconds, that a streaming state read waits for reads of other work
+   * items to be coalesced with it into a single request.
+   *
+   * <p>Reads are only delayed while other state reads are in flight. Zero, the default, disables
+   * coalescing.
+   */
+  @Description("The maximum time, in microseconds, that a streaming state read waits to be "
+      + "coalesced with the reads of other work items, or 0 to disable coalescing.")
+  @Default.Integer(0)
+  Integer getWindmillStateReadBatchWaitMicros();
+  void setWindmillStateReadBatchWaitMicros(Integer value);
+
+  /**
+   * The maximum estimated size, in megabytes, of the pages of large bag state that the streaming
+   * worker prefetches concurrently.
+   *
+   * <p>Zero, the default, disables prefetching, so that each page is fetched when the consumer
+   * reaches it.
+   */
+  @Description("The maximum size, in megabytes, of bag state pages prefetched concurrently by "
+      + "the streaming worker, or 0 to disable prefetching.")
+  @Default.Integer(0)
+  Integer getWindmillListPrefetchMb();
+  void setWindmillListPrefetchMb(Integer value);
+
+  /**
+   * The fraction of a page of bag state that has to be consumed before the next page is
+   * prefetched.
+   */
+  @Description("The fraction of a page of bag state that has to be consumed before the "
+      + "streaming worker prefetches the next page.")
+  @Default.Double(0.5)
+  Double getWindmillListPrefetchFraction();
+  void setWindmillListPrefetchFraction(Double value);
 }
@@ -72,4 +72,88 @@ public interface DirectPipelineOptions extends
   @Default.Boolean(true)
   boolean isTestUnorderedness();
   void setTestUnorderedness(boolean testUnorderedness);
+
+  /**
+   * How thoroughly the {@link DirectPipelineRunner} checks that a {@code DoFn} does not mutate
+   * its input elements, or elements after it has output them. Each checked element is encoded
+   * and decoded with its {@link Coder}, which dominates the cost of evaluating cheap
+   * {@code DoFn DoFns}.
+   */
+  public enum MutationDetectionLevel {
+    /** Checks every element. */
+    FULL,
+
+    /** Checks each element with probability {@link #getMutationDetectionSampleRate}. */
+    SAMPLED,
+
+    /**
+     * Checks the first {@link #getMutationDetectionElementsPerStep} inputs and the first
+     * {@link #getMutationDetectionElementsPerStep} outputs of each step.
+     */
+    FIRST_N,
+
+    /** Does not check for mutations. */
+    NONE
+  }
+
+  /**
+   * Controls which elements the runner checks for illegal mutations by a {@code DoFn}. The number
+   * of elements checked by each step is reported in the counter
+   * {@code <step>-MutationDetectionChecks}.
+   */
+  @JsonIgnore
+  @Description("Controls which elements the runner checks for illegal mutations by a DoFn: "
+      + "FULL checks every element, SAMPLED checks elements at random at the rate given by "
+      + "--mutationDetectionSampleRate, FIRST_N checks the first "
+      + "--mutationDetectionElementsPerStep inputs and outputs of each step, and NONE disables "
+      + "the checks.")
+  @Default.Enum("FULL")
+  MutationDetectionLevel getMutationDetectionLevel();
+  void setMutationDetectionLevel(MutationDetectionLevel level);
+
+  /**
+   * The fraction of elements checked for mutations with {@link MutationDetectionLevel#SAMPLED}.
+   */
+  @JsonIgnore
+  @Description("The fraction of elements checked for mutations when --mutationDetectionLevel "
+      + "is SAMPLED.")
+  @Default.Double(0.01)
+  double getMutationDetectionSampleRate();
+  void setMutationDetectionSampleRate(double sampleRate);
+
+  /**
+   * The number of inputs and of outputs of each step that are checked for mutations with
+   * {@link MutationDetectionLevel#FIRST_N}.
+   */
+  @JsonIgnore
+  @Description("The number of inputs and of outputs of each step that are checked for mutations "
+      + "when --mutationDetectionLevel is FIRST_N.")
+  @Default.Integer(1000)
+  int getMutationDetectionElementsPerStep();
+  void setMutationDetectionElementsPerStep(int elementsPerStep);
+
+  /**
+   * Controls whether the runner combines the values of each key and window of a
+   * {@link com.google.cloud.dataflow.sdk.transforms.Combine#perKey Combine.perKey} into
+   * accumulators before grouping them, as the Dataflow service does. The grouped data is then
+   * proportional to the number of keys rather than the number of values, at the cost of the
+   * checks that the runner otherwise makes on each combine phase.
+   */
+  @JsonIgnore
+  @Description("Controls whether the runner combines the values of each key and window of a "
+      + "Combine.perKey into accumulators before grouping them, as the Dataflow service does.")
+  @Default.Boolean(false)
+  boolean isLiftCombiners();
+  void setLiftCombiners(boolean liftCombiners);
+
+  /**
+   * The estimated size of the accumulators that a lifted combine keeps in memory before it
+   * flushes some of them to the {@code GroupByKey}. Used when {@link #isLiftCombiners} is set.
+   */
+  @JsonIgnore
+  @Description("The estimated size of the accumulators that a lifted combine keeps in memory "
+      + "before it flushes some of them to the GroupByKey, when --liftCombiners is set.")
+  @Default.Long(100_000_000L)
+  long getLiftedCombineMaxBytes();
+  void setLiftedCombineMaxBytes(long maxBytes);
 }
@@ -59,6 +59,7 @@ import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.Flatten;
 import com.google.cloud.dataflow.sdk.transforms.GroupByKey;
+import com.google.cloud.dataflow.sdk.transforms.GroupByKeyAndSortValues.GroupByKeyAndSortValuesOnly;
 import com.google.cloud.dataflow.sdk.transforms.PTransform;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.transforms.View;
@@ -919,6 +920,32 @@ public class DataflowPipelineTranslator {
           }
         });
 
+    registerTransformTranslator(
+        GroupByKeyAndSortValuesOnly.class,
+        new TransformTranslator<GroupByKeyAndSortValuesOnly>() {
+          @Override
+          public void translate(
+              GroupByKeyAndSortValuesOnly transform,
+              TranslationContext context) {
+            groupByKeyAndSortValuesHelper(transform, context);
+          }
+
+          private <K, SecondaryKeyT, V> void groupByKeyAndSortValuesHelper(
+              GroupByKeyAndSortValuesOnly<K, SecondaryKeyT, V> transform,
+              TranslationContext context) {
+            context.addStep(transform, "GroupByKey");
+            context.addInput(PropertyNames.PARALLEL_INPUT, context.getInput(transform));
+            context.addOutput(PropertyNames.OUTPUT, context.getOutput(transform));
+            // The shuffle sorts each key's values by their encoded secondary keys.
+            context.addInput(PropertyNames.SORT_VALUES, true);
+            context.addInput(PropertyNames.DISALLOW_COMBINER_LIFTING, true);
+            context.addInput(
+                PropertyNames.SERIALIZED_FN,
+                byteArrayToJsonString(serializeToByteArray(
+                    context.getInput(transform).getWindowingStrategy())));
+          }
+        });
+
     registerTransformTranslator(
         ParDo.BoundMulti.class,
         new TransformTranslator<ParDo.BoundMulti>() {
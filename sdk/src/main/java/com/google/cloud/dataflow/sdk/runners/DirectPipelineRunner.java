@@ -23,6 +23,8 @@ import com.google.cloud.dataflow.sdk.Pipeline.PipelineVisitor;
 import com.google.cloud.dataflow.sdk.PipelineResult;
 import com.google.cloud.dataflow.sdk.coders.CannotProvideCoderException;
 import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.ListCoder;
 import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
@@ -34,12 +36,15 @@ import com.google.cloud.dataflow.sdk.transforms.AppliedPTransform;
 import com.google.cloud.dataflow.sdk.transforms.Combine;
 import com.google.cloud.dataflow.sdk.transforms.Combine.KeyedCombineFn;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
+import com.google.cloud.dataflow.sdk.transforms.GroupByKey;
 import com.google.cloud.dataflow.sdk.transforms.PTransform;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.util.AppliedCombineFn;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
 import com.google.cloud.dataflow.sdk.util.MapAggregatorValues;
+import com.google.cloud.dataflow.sdk.util.MutationDetectionSampler;
 import com.google.cloud.dataflow.sdk.util.SerializableUtils;
 import com.google.cloud.dataflow.sdk.util.TestCredential;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
@@ -225,10 +230,30 @@ public class DirectPipelineRunner
     return this;
   }
 
+  /**
+   * Enable lifting of the combining of each {@link Combine.PerKey} before its
+   * {@link GroupByKey}, as the Dataflow service does, so that only an accumulator per key and
+   * window is grouped.  This skips the checks that the runner otherwise makes on the results of
+   * each combine phase.
+   *
+   * <p>Disabled by default.
+   *
+   * <p>This method modifies the {@code DirectPipelineRunner} instance and
+   * returns itself.
+   *
+   * @see DirectPipelineOptions#isLiftCombiners
+   */
+  public DirectPipelineRunner withCombinerLifting(boolean enable) {
+    this.liftCombiners = enable;
+    return this;
+  }
+
   @Override
   public <OutputT extends POutput, InputT extends PInput> OutputT apply(
       PTransform<InputT, OutputT> transform, InputT input) {
-    if (transform instanceof Combine.GroupedValues) {
+    if (liftCombiners && transform instanceof Combine.PerKey) {
+      return (OutputT) applyLiftedCombine((Combine.PerKey) transform, (PCollection) input);
+    } else if (transform instanceof Combine.GroupedValues) {
       return (OutputT) applyTestCombine((Combine.GroupedValues) transform, (PCollection) input);
     } else {
       return super.apply(transform, input);
@@ -250,6 +275,69 @@ public class DirectPipelineRunner
     return output;
   }
 
+  /**
+   * Expands a {@link Combine.PerKey} into a {@link PartialCombinePerKey}, which combines values
+   * into accumulators in a table bounded by {@link DirectPipelineOptions#getLiftedCombineMaxBytes},
+   * a {@link GroupByKey} of the accumulators, and a {@link MergeAccumulatorsFn}.
+   */
+  private <K, InputT, AccumT, OutputT> PCollection<KV<K, OutputT>> applyLiftedCombine(
+      Combine.PerKey<K, InputT, OutputT> transform,
+      PCollection<KV<K, InputT>> input) {
+    if (!(input.getCoder() instanceof KvCoder)) {
+      throw new IllegalStateException("Combine.PerKey requires its input to use KvCoder");
+    }
+    KvCoder<K, InputT> inputCoder = (KvCoder<K, InputT>) input.getCoder();
+    CoderRegistry registry = input.getPipeline().getCoderRegistry();
+    KeyedCombineFn<? super K, ? super InputT, AccumT, OutputT> fn =
+        (KeyedCombineFn<? super K, ? super InputT, AccumT, OutputT>) transform.getFn();
+    AppliedCombineFn<K, InputT, AccumT, OutputT> appliedFn =
+        AppliedCombineFn.withInputCoder(fn, registry, inputCoder);
+
+    PCollection<KV<K, OutputT>> output = input
+        .apply(new PartialCombinePerKey<>(appliedFn, options.getLiftedCombineMaxBytes()))
+        .apply(GroupByKey.<K, AccumT>create())
+        .apply(ParDo.of(new MergeAccumulatorsFn<>(
+            appliedFn.getFn(), appliedFn.getAccumulatorCoder())));
+
+    try {
+      output.setCoder(KvCoder.of(inputCoder.getKeyCoder(),
+          appliedFn.getFn().getDefaultOutputCoder(
+              registry, inputCoder.getKeyCoder(), inputCoder.getValueCoder())));
+    } catch (CannotProvideCoderException exc) {
+      // let coder inference occur later, if it can
+    }
+    return output;
+  }
+
+  /**
+   * The MERGE and EXTRACT phases of a lifted {@link Combine.PerKey}, which merge the grouped
+   * accumulators of each key and extract the output.
+   */
+  private static class MergeAccumulatorsFn<K, AccumT, OutputT>
+      extends DoFn<KV<K, Iterable<AccumT>>, KV<K, OutputT>> {
+    private final KeyedCombineFn<K, ?, AccumT, OutputT> fn;
+    private final Coder<AccumT> accumCoder;
+
+    MergeAccumulatorsFn(KeyedCombineFn<K, ?, AccumT, OutputT> fn, Coder<AccumT> accumCoder) {
+      this.fn = fn;
+      this.accumCoder = accumCoder;
+    }
+
+    @Override
+    public void processElement(ProcessContext c) throws Exception {
+      K key = c.element().getKey();
+      // mergeAccumulators may modify its arguments, which are the inputs of this DoFn.  There is
+      // at most one accumulator per key for each flush of the precombine table, so copying
+      // them is cheap.
+      List<AccumT> accums = new ArrayList<>();
+      for (AccumT accum : c.element().getValue()) {
+        accums.add(CoderUtils.clone(accumCoder, accum));
+      }
+      AccumT merged = fn.mergeAccumulators(key, accums);
+      c.output(KV.of(key, fn.extractOutput(key, merged)));
+    }
+  }
+
   /**
    * The implementation may split the {@link KeyedCombineFn} into ADD, MERGE and EXTRACT phases (
    * see {@code com.google.cloud.dataflow.sdk.runners.worker.CombineValuesFn}). In order to emulate
@@ -621,6 +709,13 @@ public class DirectPipelineRunner
      */
     CounterSet.AddCounterMutator getAddCounterMutator();
 
+    /**
+     * Returns a new {@link MutationDetectionSampler} that chooses which of a sequence of elements
+     * processed by the given step are checked for illegal mutations, and counts them in the
+     * {@code <stepName>-MutationDetectionChecks} counter.
+     */
+    MutationDetectionSampler createMutationDetectionSampler(String stepName);
+
     /**
      * Gets the step name for this transform.
      */
@@ -918,6 +1013,13 @@ public class DirectPipelineRunner
       return counters.getAddCounterMutator();
     }
 
+    @Override
+    public MutationDetectionSampler createMutationDetectionSampler(String stepName) {
+      Counter<Long> checkedElements = counters.getAddCounterMutator().addCounter(
+          Counter.longs(stepName + "-MutationDetectionChecks", Counter.AggregationKind.SUM));
+      return MutationDetectionSampler.create(getPipelineOptions(), rand, checkedElements);
+    }
+
     @Override
     public String getStepName(PTransform<?, ?> transform) {
       String stepName = stepNames.get(transform);
@@ -969,6 +1071,7 @@ public class DirectPipelineRunner
   private boolean testSerializability;
   private boolean testEncodability;
   private boolean testUnorderedness;
+  private boolean liftCombiners;
 
   /** Returns a new DirectPipelineRunner. */
   private DirectPipelineRunner(DirectPipelineOptions options) {
@@ -988,6 +1091,7 @@ public class DirectPipelineRunner
     testSerializability = options.isTestSerializability();
     testEncodability = options.isTestEncodability();
     testUnorderedness = options.isTestUnorderedness();
+    liftCombiners = options.isLiftCombiners();
   }
 
   /**
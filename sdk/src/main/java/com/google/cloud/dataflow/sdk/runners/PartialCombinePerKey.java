@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.runners;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner.ValueWithMetadata;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.CoderSizeEstimator;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.PairInfo;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.ValueCombiner;
+import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.WindowingCoderGroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.transforms.PTransform;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.OutputTimeFn;
+import com.google.cloud.dataflow.sdk.util.AppliedCombineFn;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.CombiningGroupingTable;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.SamplingSizeEstimator;
+import com.google.cloud.dataflow.sdk.util.common.worker.Receiver;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The precombine phase of a {@code Combine.perKey} lifted by the {@link DirectPipelineRunner}.
+ * Combines the values of each key and window into accumulators in a
+ * {@link CombiningGroupingTable}, as the worker's {@code PartialGroupByKeyOperation} does,
+ * flushing accumulators whenever the table's estimated size reaches {@code maxBytes}.
+ *
+ * <p>Each output accumulator has the combination, by the input's {@code OutputTimeFn}, of the
+ * output times of the values it combines.
+ */
+class PartialCombinePerKey<K, InputT, AccumT>
+    extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, AccumT>>> {
+  /** The fraction of keys and accumulators whose encoded size is measured. */
+  private static final double SIZE_ESTIMATOR_SAMPLE_RATE = 0.001;
+
+  private final AppliedCombineFn<K, InputT, AccumT, ?> fn;
+  private final long maxBytes;
+
+  PartialCombinePerKey(AppliedCombineFn<K, InputT, AccumT, ?> fn, long maxBytes) {
+    super("PartialCombinePerKey");
+    this.fn = fn;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public PCollection<KV<K, AccumT>> apply(PCollection<KV<K, InputT>> input) {
+    return PCollection.<KV<K, AccumT>>createPrimitiveOutputInternal(
+        input.getPipeline(), input.getWindowingStrategy(), input.isBounded());
+  }
+
+  @Override
+  protected Coder<KV<K, AccumT>> getDefaultOutputCoder(PCollection<KV<K, InputT>> input) {
+    return KvCoder.of(getKeyCoder(input.getCoder()), fn.getAccumulatorCoder());
+  }
+
+  private static <K> Coder<K> getKeyCoder(Coder<? extends KV<K, ?>> inputCoder) {
+    if (!(inputCoder instanceof KvCoder)) {
+      throw new IllegalStateException("Combine.PerKey requires its input to use KvCoder");
+    }
+    @SuppressWarnings("unchecked")
+    KvCoder<K, ?> kvCoder = (KvCoder<K, ?>) inputCoder;
+    return kvCoder.getKeyCoder();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  static {
+    DirectPipelineRunner.registerDefaultTransformEvaluator(
+        PartialCombinePerKey.class,
+        new DirectPipelineRunner.TransformEvaluator<PartialCombinePerKey>() {
+          @Override
+          public void evaluate(
+              PartialCombinePerKey transform,
+              DirectPipelineRunner.EvaluationContext context) {
+            evaluateHelper(transform, context);
+          }
+        });
+  }
+
+  private static <K, InputT, AccumT, W extends BoundedWindow> void evaluateHelper(
+      PartialCombinePerKey<K, InputT, AccumT> transform,
+      DirectPipelineRunner.EvaluationContext context) {
+    PCollection<KV<K, InputT>> input = context.getInput(transform);
+    Coder<K> keyCoder = getKeyCoder(input.getCoder());
+    @SuppressWarnings("unchecked")
+    OutputTimeFn<? super W> outputTimeFn =
+        (OutputTimeFn<? super W>) input.getWindowingStrategy().getOutputTimeFn();
+
+    final OutputTimeTrackingKeyCreator<K, W> keyCreator = new OutputTimeTrackingKeyCreator<>(
+        new WindowingCoderGroupingKeyCreator<>(keyCoder), outputTimeFn);
+    CombiningGroupingTable<WindowedValue<K>, InputT, AccumT> table =
+        new CombiningGroupingTable<>(
+            transform.maxBytes,
+            keyCreator,
+            PairInfo.create(),
+            ValueCombiner.of(transform.fn.getFn()),
+            new SamplingSizeEstimator<>(
+                new CoderSizeEstimator<>(WindowedValue.getValueOnlyCoder(keyCoder)),
+                SIZE_ESTIMATOR_SAMPLE_RATE, 1.0),
+            new SamplingSizeEstimator<>(
+                new CoderSizeEstimator<>(transform.fn.getAccumulatorCoder()),
+                SIZE_ESTIMATOR_SAMPLE_RATE, 1.0));
+
+    final List<ValueWithMetadata<KV<K, AccumT>>> outputElems = new ArrayList<>();
+    Receiver receiver = new Receiver() {
+      @Override
+      public void process(Object outputElem) throws Exception {
+        @SuppressWarnings("unchecked")
+        WindowedValue<KV<K, AccumT>> windowedAccum = (WindowedValue<KV<K, AccumT>>) outputElem;
+        Instant outputTime = keyCreator.removeOutputTime(
+            windowedAccum.withValue(windowedAccum.getValue().getKey()));
+        outputElems.add(ValueWithMetadata.of(WindowedValue.of(
+            windowedAccum.getValue(),
+            outputTime,
+            windowedAccum.getWindows(),
+            windowedAccum.getPane())));
+      }
+    };
+    List<ValueWithMetadata<KV<K, InputT>>> inputElems =
+        context.getPCollectionValuesWithMetadata(input);
+    try {
+      for (ValueWithMetadata<KV<K, InputT>> elem : inputElems) {
+        // Each accumulator is for a single window, so that it has a single output time.
+        WindowedValue<KV<K, InputT>> windowedElem = elem.getWindowedValue();
+        for (BoundedWindow window : windowedElem.getWindows()) {
+          table.put(WindowedValue.of(
+              windowedElem.getValue(),
+              windowedElem.getTimestamp(),
+              window,
+              windowedElem.getPane()), receiver);
+        }
+      }
+      table.flush(receiver);
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    }
+
+    context.setPCollectionValuesWithMetadata(context.getOutput(transform), outputElems);
+  }
+
+  /**
+   * A {@link GroupingKeyCreator} that also combines the output times, as assigned by the
+   * {@link OutputTimeFn} of the input, of the values in each group while they are in the table.
+   * The worker's grouping table instead outputs the timestamp of one of the values, which the
+   * service corrects when it groups the accumulators.
+   */
+  private static class OutputTimeTrackingKeyCreator<K, W extends BoundedWindow>
+      implements GroupingKeyCreator<WindowedValue<K>> {
+    private final GroupingKeyCreator<WindowedValue<K>> delegate;
+    private final OutputTimeFn<? super W> outputTimeFn;
+    private final Map<Object, Instant> outputTimes = new HashMap<>();
+
+    OutputTimeTrackingKeyCreator(
+        GroupingKeyCreator<WindowedValue<K>> delegate, OutputTimeFn<? super W> outputTimeFn) {
+      this.delegate = delegate;
+      this.outputTimeFn = outputTimeFn;
+    }
+
+    @Override
+    public Object createGroupingKey(WindowedValue<K> key) throws Exception {
+      Object groupingKey = delegate.createGroupingKey(key);
+      @SuppressWarnings("unchecked")
+      W window = (W) Iterables.getOnlyElement(key.getWindows());
+      Instant outputTime = outputTimeFn.assignOutputTime(key.getTimestamp(), window);
+      Instant previous = outputTimes.get(groupingKey);
+      outputTimes.put(groupingKey,
+          previous == null ? outputTime : outputTimeFn.combine(previous, outputTime));
+      return groupingKey;
+    }
+
+    /**
+     * Returns the combined output time of the group with the given key, which has been flushed
+     * from the table.
+     */
+    Instant removeOutputTime(WindowedValue<K> key) throws Exception {
+      return outputTimes.remove(delegate.createGroupingKey(key));
+    }
+  }
+}
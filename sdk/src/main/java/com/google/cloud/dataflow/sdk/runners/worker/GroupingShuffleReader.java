@@ -80,6 +80,10 @@ public class GroupingShuffleReader<K, V> extends Reader<WindowedValue<KV<K, Reit
   @Nullable Counter<Long> perOperationPerDatasetBytesCounter;
   Coder<K> keyCoder;
   Coder<V> valueCoder;
+  // When the shuffle sorts values, each value is a KV of the entry's secondary key and value.
+  final boolean sortValues;
+  @Nullable Coder<?> sortKeyCoder;
+  @Nullable Coder<?> sortValueCoder;
 
   public GroupingShuffleReader(
       PipelineOptions options,
@@ -91,6 +95,22 @@ public class GroupingShuffleReader<K, V> extends Reader<WindowedValue<KV<K, Reit
       CounterSet.AddCounterMutator addCounterMutator,
       String operationName)
       throws Exception {
+    this(options, shuffleReaderConfig, startShufflePosition, stopShufflePosition, coder,
+        false /* sortValues */, executionContext, addCounterMutator, operationName);
+  }
+
+  public GroupingShuffleReader(
+      PipelineOptions options,
+      byte[] shuffleReaderConfig,
+      @Nullable String startShufflePosition,
+      @Nullable String stopShufflePosition,
+      Coder<WindowedValue<KV<K, Iterable<V>>>> coder,
+      boolean sortValues,
+      BatchModeExecutionContext executionContext,
+      CounterSet.AddCounterMutator addCounterMutator,
+      String operationName)
+      throws Exception {
+    this.sortValues = sortValues;
     this.shuffleReaderConfig = shuffleReaderConfig;
     this.startShufflePosition = startShufflePosition;
     this.stopShufflePosition = stopShufflePosition;
@@ -151,6 +171,33 @@ public class GroupingShuffleReader<K, V> extends Reader<WindowedValue<KV<K, Reit
     }
     IterableCoder<V> iterCoder = (IterableCoder<V>) kvValueCoder;
     this.valueCoder = iterCoder.getElemCoder();
+    if (sortValues) {
+      if (!(valueCoder instanceof KvCoder)) {
+        throw new Exception("unexpected kind of coder for values read from "
+            + "a value-sorting shuffle: " + valueCoder);
+      }
+      KvCoder<?, ?> sortedKvCoder = (KvCoder<?, ?>) valueCoder;
+      this.sortKeyCoder = sortedKvCoder.getKeyCoder();
+      this.sortValueCoder = sortedKvCoder.getValueCoder();
+    }
+  }
+
+  /**
+   * Decodes a value from a {@link ShuffleEntry}, reassembling it from the entry's secondary key
+   * and value when the shuffle sorted values.
+   */
+  V decodeValue(ShuffleEntry entry) throws IOException {
+    if (!sortValues) {
+      return CoderUtils.decodeFromByteArray(valueCoder, entry.getValue());
+    }
+    // The shuffle omits empty secondary keys.
+    byte[] secondaryKey =
+        entry.getSecondaryKey() == null ? new byte[0] : entry.getSecondaryKey();
+    @SuppressWarnings("unchecked")
+    V value = (V) KV.of(
+        CoderUtils.decodeFromByteArray(sortKeyCoder, secondaryKey),
+        CoderUtils.decodeFromByteArray(sortValueCoder, entry.getValue()));
+    return value;
   }
 
   final ReaderIterator<WindowedValue<KV<K, Reiterable<V>>>> iterator(ShuffleEntryReader reader) {
@@ -386,7 +433,7 @@ public class GroupingShuffleReader<K, V> extends Reader<WindowedValue<KV<K, Reit
           // notify the bytes that have been read so far.
           notifyValueReturned(currentGroupSize.getAndSet(0L));
           try {
-            return CoderUtils.decodeFromByteArray(valueCoder, entry.getValue());
+            return decodeValue(entry);
           } catch (IOException exn) {
             throw new RuntimeException(exn);
           }
@@ -17,6 +17,7 @@
 package com.google.cloud.dataflow.sdk.runners.worker;
 
 import static com.google.api.client.util.Base64.decodeBase64;
+import static com.google.cloud.dataflow.sdk.util.Structs.getBoolean;
 import static com.google.cloud.dataflow.sdk.util.Structs.getString;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
@@ -77,6 +78,7 @@ public class GroupingShuffleReaderFactory implements ReaderFactory {
         getString(spec, PropertyNames.START_SHUFFLE_POSITION, null),
         getString(spec, PropertyNames.END_SHUFFLE_POSITION, null),
         coder,
+        getBoolean(spec, PropertyNames.SORT_VALUES, false),
         (BatchModeExecutionContext) executionContext,
         addCounterMutator, operationName);
   }
@@ -337,6 +337,11 @@ public class MapTaskExecutorFactory {
       this.combineFn = combineFn;
     }
 
+    public static <K, InputT, AccumT, OutputT> ValueCombiner<K, InputT, AccumT, OutputT> of(
+        Combine.KeyedCombineFn<K, InputT, AccumT, OutputT> combineFn) {
+      return new ValueCombiner<>(combineFn);
+    }
+
     @Override
     public AccumT createAccumulator(WindowedValue<K> windowedKey) {
       return this.combineFn.createAccumulator(windowedKey.getValue());
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Admission control for streaming work, driven by the heap footprint of the worker.
+ *
+ * <p>Tracks the estimated bytes of work items that have been fetched but not yet completed, and
+ * of commits that have been produced but not yet sent to Windmill. Before each GetWork call the
+ * dispatch loop asks for the current budget:
+ * <ul>
+ * <li> The budget is scaled by a factor that is halved whenever the live heap, as measured after
+ *      the last garbage collection, exceeds a high watermark, and grown additively while it is
+ *      below a low watermark.
+ * <li> The bytes budget is further capped by the headroom left under the in-flight limit.
+ * <li> While the in-flight bytes exceed the limit, {@link #waitForHeadroom} blocks the dispatch
+ *      loop until enough work is completed.
+ * </ul>
+ */
+public class MemoryAdmissionController {
+  private static final Logger LOG = LoggerFactory.getLogger(MemoryAdmissionController.class);
+
+  /** Fraction of the maximum heap that in-flight work and commits may occupy. */
+  static final double DEFAULT_IN_FLIGHT_HEAP_FRACTION = 0.4;
+
+  /** Live heap fraction above which the budget is shrunk. */
+  static final double HIGH_HEAP_WATERMARK = 0.75;
+
+  /** Live heap fraction below which the budget is grown. */
+  static final double LOW_HEAP_WATERMARK = 0.5;
+
+  /** Smallest scaling factor applied to the budget. */
+  static final double MIN_BUDGET_FACTOR = 1.0 / 64;
+
+  /** Additive increase of the scaling factor per adjustment period. */
+  static final double BUDGET_FACTOR_INCREMENT = 1.0 / 8;
+
+  /** Minimum time between two adjustments of the scaling factor. */
+  static final long DEFAULT_ADJUSTMENT_PERIOD_MILLIS = 1000;
+
+  /** Smallest bytes budget for a GetWork request, so that a single large item can still fit. */
+  static final long MIN_GET_WORK_BYTES = 1L << 20;
+
+  /**
+   * Abstract interface for providing heap usage (for testing).
+   */
+  public interface HeapUsageProvider {
+    /**
+     * Returns the bytes of heap still in use after the most recent garbage collection.
+     */
+    long liveHeapBytes();
+
+    /**
+     * Returns the maximum size of the heap in bytes.
+     */
+    long maxHeapBytes();
+  }
+
+  /**
+   * Heap usage from the JVM's memory pools.
+   *
+   * <p>Uses the usage after the last collection of each heap pool where available, since the
+   * instantaneous usage also counts garbage that has not been collected yet.
+   */
+  private static class SystemHeapUsageProvider implements HeapUsageProvider {
+    @Override
+    public long liveHeapBytes() {
+      long live = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() != MemoryType.HEAP) {
+          continue;
+        }
+        MemoryUsage usage = pool.isCollectionUsageThresholdSupported()
+            ? pool.getCollectionUsage() : pool.getUsage();
+        if (usage != null) {
+          live += usage.getUsed();
+        }
+      }
+      return live;
+    }
+
+    @Override
+    public long maxHeapBytes() {
+      return Runtime.getRuntime().maxMemory();
+    }
+  }
+
+  private final HeapUsageProvider heapUsageProvider;
+  private final long maxItems;
+  private final long maxBytes;
+  private final long inFlightLimitBytes;
+  private final long adjustmentPeriodMillis;
+
+  // Guarded by this.
+  private long inFlightWorkBytes;
+  private long pendingCommitBytes;
+  private double budgetFactor = 1.0;
+  private long lastAdjustmentMillis;
+  private long numPushbacks;
+
+  public MemoryAdmissionController(long maxItems, long maxBytes) {
+    this(new SystemHeapUsageProvider(), maxItems, maxBytes, DEFAULT_IN_FLIGHT_HEAP_FRACTION,
+        DEFAULT_ADJUSTMENT_PERIOD_MILLIS);
+  }
+
+  /**
+   * For testing only: Construct an admission controller which takes heap usage from the given
+   * provider and uses the given in-flight fraction and adjustment period.
+   */
+  @VisibleForTesting
+  MemoryAdmissionController(HeapUsageProvider heapUsageProvider, long maxItems, long maxBytes,
+      double inFlightHeapFraction, long adjustmentPeriodMillis) {
+    this.heapUsageProvider = heapUsageProvider;
+    this.maxItems = maxItems;
+    this.maxBytes = maxBytes;
+    this.inFlightLimitBytes = (long) (heapUsageProvider.maxHeapBytes() * inFlightHeapFraction);
+    this.adjustmentPeriodMillis = adjustmentPeriodMillis;
+  }
+
+  /** Records that a work item of the given serialized size has been accepted for processing. */
+  public synchronized void workAdmitted(long bytes) {
+    inFlightWorkBytes += bytes;
+  }
+
+  /** Records that a previously admitted work item has been completed or abandoned. */
+  public synchronized void workCompleted(long bytes) {
+    inFlightWorkBytes -= bytes;
+    notifyAll();
+  }
+
+  /** Records that a commit of the given serialized size is waiting to be sent. */
+  public synchronized void commitQueued(long bytes) {
+    pendingCommitBytes += bytes;
+  }
+
+  /** Records that a previously queued commit has been sent. */
+  public synchronized void commitCompleted(long bytes) {
+    pendingCommitBytes -= bytes;
+    notifyAll();
+  }
+
+  public synchronized long getInFlightBytes() {
+    return inFlightWorkBytes + pendingCommitBytes;
+  }
+
+  /**
+   * Blocks while the in-flight bytes exceed the limit, or until {@code maxWaitMillis} elapses so
+   * that the dispatch loop can check whether it is still running.
+   *
+   * @return whether there is headroom under the limit
+   */
+  public synchronized boolean waitForHeadroom(long maxWaitMillis) throws InterruptedException {
+    if (getInFlightBytes() < inFlightLimitBytes) {
+      return true;
+    }
+    numPushbacks++;
+    LOG.debug("Waiting for headroom: {}", describe());
+    long deadline = System.currentTimeMillis() + maxWaitMillis;
+    long remaining = maxWaitMillis;
+    while (getInFlightBytes() >= inFlightLimitBytes && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return getInFlightBytes() < inFlightLimitBytes;
+  }
+
+  /** Returns the maximum number of items to request in the next GetWork call. */
+  public synchronized long getMaxItems() {
+    maybeAdjust();
+    return Math.max(1, (long) (maxItems * budgetFactor));
+  }
+
+  /** Returns the maximum number of bytes to request in the next GetWork call. */
+  public synchronized long getMaxBytes() {
+    maybeAdjust();
+    long headroom = inFlightLimitBytes - getInFlightBytes();
+    long scaled = (long) (maxBytes * budgetFactor);
+    return Math.max(MIN_GET_WORK_BYTES, Math.min(scaled, headroom));
+  }
+
+  @VisibleForTesting
+  synchronized double getBudgetFactor() {
+    return budgetFactor;
+  }
+
+  private void maybeAdjust() {
+    long now = System.currentTimeMillis();
+    if (now - lastAdjustmentMillis < adjustmentPeriodMillis) {
+      return;
+    }
+    lastAdjustmentMillis = now;
+    double heapFraction =
+        (double) heapUsageProvider.liveHeapBytes() / heapUsageProvider.maxHeapBytes();
+    double previous = budgetFactor;
+    if (heapFraction > HIGH_HEAP_WATERMARK) {
+      budgetFactor = Math.max(MIN_BUDGET_FACTOR, budgetFactor / 2);
+    } else if (heapFraction < LOW_HEAP_WATERMARK) {
+      budgetFactor = Math.min(1.0, budgetFactor + BUDGET_FACTOR_INCREMENT);
+    }
+    if (budgetFactor != previous) {
+      LOG.debug("GetWork budget factor changed from {} to {} at live heap fraction {}",
+          previous, budgetFactor, heapFraction);
+    }
+  }
+
+  private String describe() {
+    return String.format(
+        "in-flight work/commits/limit = %d/%d/%d MB, budget factor = %.3f, #pushbacks=%d",
+        inFlightWorkBytes >> 20, pendingCommitBytes >> 20, inFlightLimitBytes >> 20,
+        budgetFactor, numPushbacks);
+  }
+
+  public synchronized void printHtml(PrintWriter writer) {
+    writer.println("Admission Control: " + describe() + "<br>");
+  }
+}
@@ -18,31 +18,113 @@ package com.google.cloud.dataflow.sdk.runners.worker;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.WindmillServerStub;
 import com.google.cloud.dataflow.sdk.util.MemoryMonitor;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.protobuf.ByteString;
 
 import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Wrapper around a {@link WindmillServerStub} that tracks metrics for the number of in-flight
  * requests and throttles requests when memory pressure is high.
+ *
+ * <p>State reads issued concurrently by different work items are coalesced into a single
+ * {@code GetData} call. A read that finds no open batch starts one and sends it immediately if no
+ * other state read is in flight. Otherwise it waits for up to the batch wait time, or until an
+ * in-flight read completes, for reads from other threads to join the batch. A batch is sent
+ * early once it reaches the maximum size, and holds at most one read per computation and key so
+ * that responses can be routed back to their callers.
  */
 public class MetricTrackingWindmillServerStub {
+  /** Default maximum serialized size of the requests coalesced into one batch. */
+  public static final long DEFAULT_MAX_BATCH_BYTES = 2L << 20;
+
   private final AtomicInteger activeSideInputs = new AtomicInteger();
   private final AtomicInteger activeStateReads = new AtomicInteger();
+  private final AtomicLong stateReadBatches = new AtomicLong();
+  private final AtomicLong batchedStateReads = new AtomicLong();
   private final WindmillServerStub server;
   private final MemoryMonitor gcThrashingMonitor;
+  private final long maxBatchWaitNanos;
+  private final long maxBatchBytes;
+
+  // Guarded by this.
+  private StateReadBatch openBatch = null;
+  private int inFlightBatches = 0;
+
+  /** A state read waiting for its batch to complete. */
+  private static class PendingStateRead {
+    private final Windmill.GetDataRequest request;
+    private final SettableFuture<Windmill.GetDataResponse> response = SettableFuture.create();
 
+    private PendingStateRead(Windmill.GetDataRequest request) {
+      this.request = request;
+    }
+
+    private String getComputation() {
+      return request.getRequests(0).getComputationId();
+    }
+
+    private ByteString getKey() {
+      return request.getRequests(0).getRequests(0).getKey();
+    }
+  }
+
+  /** State reads to be sent together, at most one per computation and key. */
+  private static class StateReadBatch {
+    private final Map<KV<String, ByteString>, PendingStateRead> reads = new LinkedHashMap<>();
+    private long bytes = 0;
+    private boolean closed = false;
+
+    private boolean canAdd(PendingStateRead read, long maxBytes) {
+      return !closed
+          && bytes + read.request.getSerializedSize() <= maxBytes
+          && !reads.containsKey(KV.of(read.getComputation(), read.getKey()));
+    }
+
+    private void add(PendingStateRead read) {
+      reads.put(KV.of(read.getComputation(), read.getKey()), read);
+      bytes += read.request.getSerializedSize();
+    }
+  }
+
+  /** Creates a stub that sends each state read on its own. */
   public MetricTrackingWindmillServerStub(
       WindmillServerStub server, MemoryMonitor gcThrashingMonitor) {
+    this(server, gcThrashingMonitor, 0, DEFAULT_MAX_BATCH_BYTES);
+  }
+
+  /**
+   * Creates a stub that coalesces state reads into batches of at most {@code maxBatchBytes},
+   * waiting at most {@code maxBatchWaitMicros} for a batch to fill. A wait of zero disables
+   * batching.
+   */
+  public MetricTrackingWindmillServerStub(WindmillServerStub server,
+      MemoryMonitor gcThrashingMonitor, long maxBatchWaitMicros, long maxBatchBytes) {
     this.server = server;
     this.gcThrashingMonitor = gcThrashingMonitor;
+    this.maxBatchWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxBatchWaitMicros);
+    this.maxBatchBytes = maxBatchBytes;
   }
 
   public Windmill.GetDataResponse getStateData(Windmill.GetDataRequest request) {
     gcThrashingMonitor.waitForResources("GetStateData");
     activeStateReads.getAndIncrement();
     try {
-      return server.getData(request);
+      if (maxBatchWaitNanos <= 0 || !isSingleKeyRequest(request)) {
+        return server.getData(request);
+      }
+      return getBatchedStateData(new PendingStateRead(request));
     } finally {
       activeStateReads.getAndDecrement();
     }
@@ -58,9 +140,165 @@ public class MetricTrackingWindmillServerStub {
     }
   }
 
+  private static boolean isSingleKeyRequest(Windmill.GetDataRequest request) {
+    return request.getRequestsCount() == 1
+        && request.getRequests(0).getRequestsCount() == 1
+        && request.getGlobalDataToFetchCount() == 0
+        && request.getGlobalDataFetchRequestsCount() == 0;
+  }
+
+  private Windmill.GetDataResponse getBatchedStateData(PendingStateRead read) {
+    StateReadBatch batch = null;
+    synchronized (this) {
+      if (openBatch != null && openBatch.canAdd(read, maxBatchBytes)) {
+        openBatch.add(read);
+      } else {
+        if (openBatch != null) {
+          // The open batch is full, so let its leader send it now.
+          openBatch.closed = true;
+          notifyAll();
+        }
+        batch = new StateReadBatch();
+        batch.add(read);
+        openBatch = batch;
+      }
+    }
+
+    if (batch != null) {
+      // This read leads the batch, and is responsible for sending it.
+      sendBatch(awaitBatch(batch));
+    }
+    try {
+      return Uninterruptibles.getUninterruptibly(read.response);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Waits until the batch is full, the wait time has elapsed or no other batch is in flight, and
+   * closes the batch.
+   */
+  private synchronized StateReadBatch awaitBatch(StateReadBatch batch) {
+    long deadline = System.nanoTime() + maxBatchWaitNanos;
+    boolean interrupted = false;
+    long remaining;
+    while (!batch.closed && inFlightBatches > 0
+        && (remaining = deadline - System.nanoTime()) > 0) {
+      try {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    batch.closed = true;
+    if (openBatch == batch) {
+      openBatch = null;
+    }
+    inFlightBatches++;
+    return batch;
+  }
+
+  /**
+   * Sends a batch and completes the responses of all of its reads. Failures, including errors,
+   * are reported through the responses, so that no read waits forever.
+   */
+  private void sendBatch(StateReadBatch batch) {
+    stateReadBatches.incrementAndGet();
+    batchedStateReads.addAndGet(batch.reads.size());
+    Throwable failure = null;
+    try {
+      Windmill.GetDataResponse response;
+      if (batch.reads.size() == 1) {
+        PendingStateRead read = batch.reads.values().iterator().next();
+        response = server.getData(read.request);
+        read.response.set(response);
+        return;
+      }
+
+      Map<String, Windmill.ComputationGetDataRequest.Builder> computations =
+          new LinkedHashMap<>();
+      for (PendingStateRead read : batch.reads.values()) {
+        Windmill.ComputationGetDataRequest.Builder computation =
+            computations.get(read.getComputation());
+        if (computation == null) {
+          computation = Windmill.ComputationGetDataRequest.newBuilder()
+              .setComputationId(read.getComputation());
+          computations.put(read.getComputation(), computation);
+        }
+        computation.addRequests(read.request.getRequests(0).getRequests(0));
+      }
+      Windmill.GetDataRequest.Builder request = Windmill.GetDataRequest.newBuilder();
+      for (Windmill.ComputationGetDataRequest.Builder computation : computations.values()) {
+        request.addRequests(computation);
+      }
+      response = server.getData(request.build());
+      if (response == null) {
+        throw new RuntimeException("Windmill unexpectedly returned null for request " + request);
+      }
+      dispatchResponse(batch, response);
+    } catch (Throwable t) {
+      failure = t;
+    } finally {
+      for (PendingStateRead read : batch.reads.values()) {
+        if (!read.response.isDone()) {
+          read.response.setException(failure != null ? failure : new IllegalStateException(
+              "No response to state read for key " + read.getKey().toStringUtf8()));
+        }
+      }
+      synchronized (this) {
+        inFlightBatches--;
+        notifyAll();
+      }
+    }
+  }
+
+  /** Splits the response to a batch into one response per read. */
+  private static void dispatchResponse(
+      StateReadBatch batch, Windmill.GetDataResponse response) {
+    Map<KV<String, ByteString>, PendingStateRead> remaining = new HashMap<>(batch.reads);
+    for (Windmill.ComputationGetDataResponse computation : response.getDataList()) {
+      for (Windmill.KeyedGetDataResponse keyed : computation.getDataList()) {
+        PendingStateRead read =
+            remaining.remove(KV.of(computation.getComputationId(), keyed.getKey()));
+        if (read == null) {
+          continue;
+        }
+        read.response.set(Windmill.GetDataResponse.newBuilder()
+            .addData(Windmill.ComputationGetDataResponse.newBuilder()
+                .setComputationId(computation.getComputationId())
+                .addData(keyed))
+            .build());
+      }
+    }
+    for (PendingStateRead read : remaining.values()) {
+      read.response.setException(new RuntimeException(
+          "Windmill returned no data for key " + read.getKey().toStringUtf8()
+          + " of computation " + read.getComputation()));
+    }
+  }
+
+  @VisibleForTesting
+  long getStateReadBatchCount() {
+    return stateReadBatches.get();
+  }
+
+  @VisibleForTesting
+  synchronized int getOpenBatchSize() {
+    return openBatch == null ? 0 : openBatch.reads.size();
+  }
+
   public void printHtml(PrintWriter writer) {
     writer.println("Active Fetches:");
     writer.println("  Side Inputs: " + activeSideInputs.get());
     writer.println("  State Reads: " + activeStateReads.get());
+    long batches = stateReadBatches.get();
+    if (batches > 0) {
+      writer.println(String.format("  State Read Batches: %d (%.2f reads per batch)",
+          batches, (double) batchedStateReads.get() / batches));
+    }
   }
 }
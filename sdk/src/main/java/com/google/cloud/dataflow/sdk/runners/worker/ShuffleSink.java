@@ -220,11 +220,8 @@ public class ShuffleSink<T> extends Sink<WindowedValue<T>> {
           Object sortKey = kvValue.getKey();
           Object sortValue = kvValue.getValue();
 
-          // TODO: Need to coordinate with the
-          // GroupingShuffleReader, to make sure it knows how to
-          // reconstruct the value from the sortKeyBytes and
-          // sortValueBytes.  Right now, it doesn't know between
-          // sorting and non-sorting GBKs.
+          // A GroupingShuffleReader created with sortValues set reassembles
+          // the KV from the secondary key and value bytes.
           secondaryKeyBytes = CoderUtils.encodeToByteArray(sortKeyCoder, sortKey);
           valueBytes = CoderUtils.encodeToByteArray(sortValueCoder, sortValue);
 
@@ -28,6 +28,7 @@ import com.google.cloud.dataflow.sdk.runners.worker.logging.DataflowWorkerLoggin
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.WindmillServerStub;
 import com.google.cloud.dataflow.sdk.util.BoundedQueueExecutor;
+import com.google.cloud.dataflow.sdk.util.KeyAffinityQueue;
 import com.google.cloud.dataflow.sdk.util.MemoryMonitor;
 import com.google.cloud.dataflow.sdk.util.Serializer;
 import com.google.cloud.dataflow.sdk.util.Transport;
@@ -91,6 +92,8 @@ public class StreamingDataflowWorker {
   // retrieving extra work from Windmill without working on it, leading to better
   // prioritization / utilization.
   static final int MAX_WORK_UNITS_QUEUED = 100;
+  static final int MAX_PREFETCH_THREADS = 8;
+  static final int MAX_PREFETCHES_QUEUED = 100;
   static final long MAX_COMMIT_BYTES = 32 << 20;
   static final int DEFAULT_STATUS_PORT = 8081;
   static final String DEFAULT_WINDMILL_SERVER_CLASS_NAME =
@@ -223,6 +226,8 @@ public class StreamingDataflowWorker {
 
   private ThreadFactory threadFactory;
   private BoundedQueueExecutor workUnitExecutor;
+  // Non-null if work is scheduled by key affinity.
+  @Nullable private KeyAffinityQueue keyAffinityQueue;
   private ExecutorService commitExecutor;
   private WindmillServerStub windmillServer;
   private Thread dispatchThread;
@@ -233,6 +238,9 @@ public class StreamingDataflowWorker {
   private Server statusServer;
   private final AtomicReference<Throwable> lastException;
   private final MetricTrackingWindmillServerStub metricTrackingWindmillServer;
+  private final MemoryAdmissionController admissionController;
+  // Non-null if pages of large lists are prefetched.
+  @Nullable private final WindmillStateReader.PrefetchPolicy listPrefetchPolicy;
   private Timer globalCountersUpdatesTimer;
 
   private final UserCodeTimeTracker userCodeTimeTracker = new UserCodeTimeTracker();
@@ -257,9 +265,18 @@ public class StreamingDataflowWorker {
           return t;
         }
       };
-    this.workUnitExecutor = new BoundedQueueExecutor(
-        chooseMaximumNumberOfThreads(options), THREAD_EXPIRATION_TIME_SEC, TimeUnit.SECONDS,
-        MAX_WORK_UNITS_QUEUED, threadFactory);
+    int keyAffinityLanes =
+        options.getStreamingKeyAffinityLanes() == null ? 0 : options.getStreamingKeyAffinityLanes();
+    if (keyAffinityLanes > 0) {
+      this.keyAffinityQueue = new KeyAffinityQueue(keyAffinityLanes);
+      this.workUnitExecutor = new BoundedQueueExecutor(
+          chooseMaximumNumberOfThreads(options), THREAD_EXPIRATION_TIME_SEC, TimeUnit.SECONDS,
+          MAX_WORK_UNITS_QUEUED, threadFactory, keyAffinityQueue);
+    } else {
+      this.workUnitExecutor = new BoundedQueueExecutor(
+          chooseMaximumNumberOfThreads(options), THREAD_EXPIRATION_TIME_SEC, TimeUnit.SECONDS,
+          MAX_WORK_UNITS_QUEUED, threadFactory);
+    }
     this.commitExecutor =
         new ThreadPoolExecutor(
             1,
@@ -278,8 +295,28 @@ public class StreamingDataflowWorker {
               }
             },
             new ThreadPoolExecutor.DiscardPolicy());
+    this.admissionController =
+        new MemoryAdmissionController(MAX_GET_WORK_ITEMS, MAX_GET_WORK_FETCH_BYTES);
     this.windmillServer = server;
-    this.metricTrackingWindmillServer = new MetricTrackingWindmillServerStub(server, memoryMonitor);
+    int stateReadBatchWaitMicros = options.getWindmillStateReadBatchWaitMicros() == null
+        ? 0 : options.getWindmillStateReadBatchWaitMicros();
+    this.metricTrackingWindmillServer = new MetricTrackingWindmillServerStub(server, memoryMonitor,
+        stateReadBatchWaitMicros, MetricTrackingWindmillServerStub.DEFAULT_MAX_BATCH_BYTES);
+    int listPrefetchMb =
+        options.getWindmillListPrefetchMb() == null ? 0 : options.getWindmillListPrefetchMb();
+    if (listPrefetchMb > 0) {
+      // Prefetches beyond the queue are rejected, and left to the consumer to fetch.
+      ThreadPoolExecutor prefetchExecutor = new ThreadPoolExecutor(
+          MAX_PREFETCH_THREADS, MAX_PREFETCH_THREADS, THREAD_EXPIRATION_TIME_SEC, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(MAX_PREFETCHES_QUEUED), threadFactory);
+      prefetchExecutor.allowCoreThreadTimeOut(true);
+      this.listPrefetchPolicy = new WindmillStateReader.PrefetchPolicy(
+          prefetchExecutor,
+          options.getWindmillListPrefetchFraction(),
+          ((long) listPrefetchMb) << 20);
+    } else {
+      this.listPrefetchPolicy = null;
+    }
     this.running = new AtomicBoolean();
     this.stateFetcher = new StateFetcher(metricTrackingWindmillServer);
     this.clientId = new Random().nextLong();
@@ -377,7 +414,8 @@ public class StreamingDataflowWorker {
       outputMap.put(computationId, new ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>());
       instructionMap.put(computationId, mapTask);
       mapTaskExecutors.put(computationId, new ConcurrentLinkedQueue<WorkerAndContext>());
-      activeWorkMap.put(computationId, new ActiveWorkForComputation(workUnitExecutor));
+      activeWorkMap.put(
+          computationId, new ActiveWorkForComputation(workUnitExecutor, admissionController));
       readerCache.put(
           computationId, new ConcurrentHashMap<ByteString, ReaderCacheEntry>());
     }
@@ -395,6 +433,15 @@ public class StreamingDataflowWorker {
     LOG.info("Dispatch starting");
     while (running.get()) {
       memoryMonitor.waitForResources("GetWork");
+      try {
+        if (!admissionController.waitForHeadroom(1000)) {
+          // Too much work is still in flight; check again whether we are running.
+          continue;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
 
       int backoff = 1;
       Windmill.GetWorkResponse workResponse;
@@ -434,7 +481,8 @@ public class StreamingDataflowWorker {
                   workItem.getOutputDataWatermark());
           Preconditions.checkState(inputDataWatermark == null || outputDataWatermark == null
               || !outputDataWatermark.isAfter(inputDataWatermark));
-          Work work = new Work(workItem.getWorkToken()) {
+          Work work = new Work(
+              workItem.getKey(), workItem.getWorkToken(), workItem.getSerializedSize()) {
             @Override
             public void run() {
               process(computation, mapTask, inputDataWatermark, outputDataWatermark, workItem);
@@ -449,14 +497,32 @@ public class StreamingDataflowWorker {
     LOG.info("Dispatch done");
   }
 
-  abstract static class Work implements Runnable {
+  abstract static class Work implements KeyAffinityQueue.KeyedRunnable {
+    @Nullable private final ByteString key;
     private final long workToken;
+    private final long estimatedBytes;
     public Work(long workToken) {
+      this(null, workToken, 0);
+    }
+    public Work(@Nullable ByteString key, long workToken, long estimatedBytes) {
+      this.key = key;
       this.workToken = workToken;
+      this.estimatedBytes = estimatedBytes;
     }
     public long getWorkToken() {
       return workToken;
     }
+    /**
+     * Returns the estimated heap footprint of the work item, used for admission control.
+     */
+    public long getEstimatedBytes() {
+      return estimatedBytes;
+    }
+    @Override
+    @Nullable
+    public Object getAffinityKey() {
+      return key;
+    }
   }
 
   private void process(final String computation, final MapTask mapTask,
@@ -517,8 +583,8 @@ public class StreamingDataflowWorker {
         context = workerAndContext.getContext();
       }
 
-      WindmillStateReader stateReader = new WindmillStateReader(
-          metricTrackingWindmillServer, computation, work.getKey(), work.getWorkToken());
+      WindmillStateReader stateReader = new WindmillStateReader(metricTrackingWindmillServer,
+          computation, work.getKey(), work.getWorkToken(), listPrefetchPolicy);
       StateFetcher localStateFetcher = stateFetcher.byteTrackingView();
       context.start(work, inputDataWatermark, outputDataWatermark, stateReader, localStateFetcher,
           outputBuilder);
@@ -567,6 +633,10 @@ public class StreamingDataflowWorker {
           .getAddCounterMutator()
           .addCounter(Counter.longs("WindmillStateBytesRead", Counter.AggregationKind.SUM))
           .addValue(stateBytesRead);
+      counters
+          .getAddCounterMutator()
+          .addCounter(Counter.longs("WindmillStatePageWaitMsecs", Counter.AggregationKind.SUM))
+          .addValue(TimeUnit.NANOSECONDS.toMillis(stateReader.getPageWaitNanos()));
       counters
           .getAddCounterMutator()
           .addCounter(Counter.longs("WindmillStateBytesWritten", Counter.AggregationKind.SUM))
@@ -579,6 +649,7 @@ public class StreamingDataflowWorker {
       context = null;
 
       Windmill.WorkItemCommitRequest output = outputBuilder.build();
+      admissionController.commitQueued(output.getSerializedSize());
       outputMap.get(computation).add(output);
       scheduleCommit();
 
@@ -619,7 +690,7 @@ public class StreamingDataflowWorker {
         if (reportFailure(computation, work, t)) {
           // Try again, after some delay and at the end of the queue to avoid a tight loop.
           sleep(10000);
-          workUnitExecutor.forceExecute(new Runnable() {
+          workUnitExecutor.forceExecute(new Work(work.getKey(), work.getWorkToken(), 0) {
             @Override
             public void run() {
               process(computation, mapTask, inputDataWatermark, outputDataWatermark, work);
@@ -649,6 +720,7 @@ public class StreamingDataflowWorker {
         Windmill.CommitWorkRequest.Builder commitRequestBuilder =
             Windmill.CommitWorkRequest.newBuilder();
         long remainingCommitBytes = MAX_COMMIT_BYTES;
+        long commitBytes = 0;
         for (Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>> entry :
                  outputMap.entrySet()) {
           Windmill.ComputationCommitWorkRequest.Builder computationRequestBuilder =
@@ -660,6 +732,7 @@ public class StreamingDataflowWorker {
               break;
             }
             remainingCommitBytes -= request.getSerializedSize();
+            commitBytes += request.getSerializedSize();
             computationRequestBuilder.addRequests(request);
           }
           if (computationRequestBuilder.getRequestsCount() > 0) {
@@ -671,6 +744,7 @@ public class StreamingDataflowWorker {
           Windmill.CommitWorkRequest commitRequest = commitRequestBuilder.build();
           LOG.trace("Commit: {}", commitRequest);
           commitWork(commitRequest);
+          admissionController.commitCompleted(commitBytes);
           for (Windmill.ComputationCommitWorkRequest computationRequest :
               commitRequest.getRequestsList()) {
             ActiveWorkForComputation activeWork =
@@ -691,8 +765,8 @@ public class StreamingDataflowWorker {
     return windmillServer.getWork(
         Windmill.GetWorkRequest.newBuilder()
             .setClientId(clientId)
-            .setMaxItems(MAX_GET_WORK_ITEMS)
-            .setMaxBytes(MAX_GET_WORK_FETCH_BYTES)
+            .setMaxItems(admissionController.getMaxItems())
+            .setMaxBytes(admissionController.getMaxBytes())
             .build());
   }
 
@@ -849,9 +923,16 @@ public class StreamingDataflowWorker {
   static class ActiveWorkForComputation {
     private Map<ByteString, Queue<Work>> activeWork = new HashMap<>();
     private BoundedQueueExecutor executor;
+    @Nullable private MemoryAdmissionController admissionController;
 
     ActiveWorkForComputation(BoundedQueueExecutor executor) {
+      this(executor, null);
+    }
+
+    ActiveWorkForComputation(
+        BoundedQueueExecutor executor, @Nullable MemoryAdmissionController admissionController) {
       this.executor = executor;
+      this.admissionController = admissionController;
     }
 
     /**
@@ -864,10 +945,12 @@ public class StreamingDataflowWorker {
         queue = new LinkedList<>();
         activeWork.put(key, queue);
         queue.add(work);
+        workAdmitted(work);
         return true;
       }
       if (queue.peek().getWorkToken() != work.getWorkToken()) {
         queue.add(work);
+        workAdmitted(work);
       }
       return false;
     }
@@ -877,7 +960,10 @@ public class StreamingDataflowWorker {
      */
     public synchronized void completeWork(ByteString key) {
       Queue<Work> queue = activeWork.get(key);
-      queue.poll();
+      Work completed = queue.poll();
+      if (admissionController != null && completed != null) {
+        admissionController.workCompleted(completed.getEstimatedBytes());
+      }
       if (queue.peek() != null) {
         executor.forceExecute(queue.peek());
       } else {
@@ -885,6 +971,12 @@ public class StreamingDataflowWorker {
       }
     }
 
+    private void workAdmitted(Work work) {
+      if (admissionController != null) {
+        admissionController.workAdmitted(work.getEstimatedBytes());
+      }
+    }
+
     public synchronized void printActiveWork(PrintWriter writer) {
       writer.println("<ul>");
       for (Map.Entry<ByteString, Queue<Work>> entry : activeWork.entrySet()) {
@@ -968,6 +1060,9 @@ public class StreamingDataflowWorker {
     response.println("Active Threads: " + workUnitExecutor.getActiveCount() + "<br>");
     response.println("Work Queue Size: " + workUnitExecutor.getQueue().size()
         + "/" + MAX_WORK_UNITS_QUEUED + "<br>");
+    if (keyAffinityQueue != null) {
+      keyAffinityQueue.printHtml(response);
+    }
     response.println("Commit Queues: <ul>");
     for (Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>> entry
              : outputMap.entrySet()) {
@@ -988,6 +1083,7 @@ public class StreamingDataflowWorker {
       response.println("</li>");
     }
     response.println("</ul>");
+    admissionController.printHtml(response);
     metricTrackingWindmillServer.printHtml(response);
   }
 
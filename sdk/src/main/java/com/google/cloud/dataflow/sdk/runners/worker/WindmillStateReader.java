@@ -42,9 +42,12 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -136,9 +139,60 @@ class WindmillStateReader {
     @Nullable
     private final ByteString continuationToken;
 
-    public ValuesAndContToken(List<T> values, @Nullable ByteString continuationToken) {
+    /** Serialized size of the page, used to estimate the size of the next page. */
+    private final long byteSize;
+
+    public ValuesAndContToken(
+        List<T> values, @Nullable ByteString continuationToken, long byteSize) {
       this.values = values;
       this.continuationToken = continuationToken;
+      this.byteSize = byteSize;
+    }
+  }
+
+  /**
+   * Controls asynchronous prefetching of the pages of large lists. Shared by the readers of all
+   * work items, so that the bytes of in-flight prefetches are bounded across the worker.
+   */
+  public static class PrefetchPolicy {
+    private final Executor executor;
+    private final double pageFraction;
+    private final long maxBytesInFlight;
+    private final AtomicLong bytesInFlight = new AtomicLong();
+
+    /**
+     * Creates a policy that fetches the next page of a list on {@code executor} once
+     * {@code pageFraction} of the current page has been consumed, as long as the estimated size
+     * of all prefetches in flight stays within {@code maxBytesInFlight}. If the executor rejects
+     * a prefetch, the page is fetched when the consumer reaches it.
+     */
+    public PrefetchPolicy(Executor executor, double pageFraction, long maxBytesInFlight) {
+      Preconditions.checkArgument(pageFraction >= 0 && pageFraction <= 1,
+          "pageFraction must be in [0, 1], was %s", pageFraction);
+      this.executor = executor;
+      this.pageFraction = pageFraction;
+      this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    private boolean tryAcquire(long bytes) {
+      while (true) {
+        long current = bytesInFlight.get();
+        if (current > 0 && current + bytes > maxBytesInFlight) {
+          return false;
+        }
+        if (bytesInFlight.compareAndSet(current, current + bytes)) {
+          return true;
+        }
+      }
+    }
+
+    private void release(long bytes) {
+      bytesInFlight.addAndGet(-bytes);
+    }
+
+    @VisibleForTesting
+    long getBytesInFlight() {
+      return bytesInFlight.get();
     }
   }
 
@@ -148,14 +202,24 @@ class WindmillStateReader {
 
   private final MetricTrackingWindmillServerStub metrics;
 
-  private long bytesRead = 0L;
+  @Nullable
+  private final PrefetchPolicy prefetchPolicy;
+
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong pageWaitNanos = new AtomicLong();
 
   public WindmillStateReader(MetricTrackingWindmillServerStub metrics, String computation,
       ByteString key, long workToken) {
+    this(metrics, computation, key, workToken, null);
+  }
+
+  public WindmillStateReader(MetricTrackingWindmillServerStub metrics, String computation,
+      ByteString key, long workToken, @Nullable PrefetchPolicy prefetchPolicy) {
     this.metrics = metrics;
     this.computation = computation;
     this.key = key;
     this.workToken = workToken;
+    this.prefetchPolicy = prefetchPolicy;
   }
 
   private static final class CoderAndFuture<ElemT, FutureT> {
@@ -313,7 +377,8 @@ class WindmillStateReader {
           // Return an iterable which knows how to come back for more.
           StateTag contStateTag = new StateTag(stateTag.kind, stateTag.tag, stateTag.stateFamily,
               valuesAndContToken.continuationToken);
-          return new TagListPagingIterable<>(valuesAndContToken.values, contStateTag, elemCoder);
+          return new TagListPagingIterable<>(
+              valuesAndContToken.values, valuesAndContToken.byteSize, contStateTag, elemCoder);
         }
       }
     });
@@ -349,8 +414,60 @@ class WindmillStateReader {
     consumeResponse(request, response, toFetch);
   }
 
+  /**
+   * Fetches the given tag on the prefetch executor, unless it has already been picked up by a
+   * batch.
+   */
+  private void prefetch(final StateTag stateTag, final long estimatedBytes) {
+    if (!pendingLookups.remove(stateTag)) {
+      return;
+    }
+    try {
+      prefetchPolicy.executor.execute(newPrefetch(stateTag, estimatedBytes));
+    } catch (RejectedExecutionException e) {
+      // Leave the page to be fetched by the consumer.
+      prefetchPolicy.release(estimatedBytes);
+      pendingLookups.add(stateTag);
+    }
+  }
+
+  private Runnable newPrefetch(final StateTag stateTag, final long estimatedBytes) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Set<StateTag> toFetch = new HashSet<>();
+          toFetch.add(stateTag);
+          Windmill.GetDataRequest request = createRequest(toFetch);
+          Windmill.GetDataResponse response = metrics.getStateData(request);
+          if (response == null) {
+            throw new RuntimeException(
+                "Windmill unexpectedly returned null for request " + request);
+          }
+          consumeResponse(request, response, toFetch);
+        } catch (Throwable t) {
+          CoderAndFuture<?, ?> coderAndFuture = waiting.remove(stateTag);
+          if (coderAndFuture != null) {
+            coderAndFuture.getFuture().setException(t);
+          }
+        } finally {
+          prefetchPolicy.release(estimatedBytes);
+        }
+      }
+    };
+  }
+
+  /** Returns the serialized size of all the state read, including prefetched pages. */
   public long getBytesRead() {
-    return bytesRead;
+    return bytesRead.get();
+  }
+
+  /**
+   * Returns the time spent blocked waiting for subsequent pages of lists, which prefetching
+   * is meant to hide.
+   */
+  public long getPageWaitNanos() {
+    return pageWaitNanos.get();
   }
 
   private Windmill.GetDataRequest createRequest(Iterable<StateTag> toFetch) {
@@ -422,7 +539,7 @@ class WindmillStateReader {
     }
 
     Windmill.KeyedGetDataResponse response = computationResponse.getData(0);
-    bytesRead += response.getSerializedSize();
+    bytesRead.addAndGet(response.getSerializedSize());
 
     if (response.getFailed()) {
       // Set up all the futures for this key to throw an exception:
@@ -515,8 +632,9 @@ class WindmillStateReader {
     SettableFuture<ValuesAndContToken<T>> future = coderAndFuture.getNonDoneFuture(stateTag);
     Coder<T> coder = coderAndFuture.getAndClearCoder();
     List<T> values = this.<T>tagListPageValues(tagList, coder);
-    future.set(new ValuesAndContToken<T>(
-        values, tagList.hasContinuationToken() ? tagList.getContinuationToken() : null));
+    future.set(new ValuesAndContToken<T>(values,
+        tagList.hasContinuationToken() ? tagList.getContinuationToken() : null,
+        tagList.getSerializedSize()));
   }
 
   private void consumeWatermark(Windmill.WatermarkHold watermarkHold, StateTag stateTag) {
@@ -570,19 +688,28 @@ class WindmillStateReader {
    * retain the first. Thus the maximum memory pressure is one page plus one page per call to
    * iterator.
    * </ol>
+   *
+   * <p>With a {@link PrefetchPolicy}, the request for the next page is sent asynchronously once
+   * the configured fraction of the current page has been consumed, rather than when the consumer
+   * runs out of values. This raises the memory pressure to two pages per call to iterator.
    */
   private class TagListPagingIterable<T> implements Iterable<T> {
     /** Initial values returned for the first page. Never reclaimed. */
     private final List<T> firstPage;
 
+    /** Serialized size of the first page. */
+    private final long firstPageBytes;
+
     /** State tag with continuation token set for second page. */
     private final StateTag secondPageCont;
 
     /** Coder for elements. */
     private final Coder<T> elemCoder;
 
-    private TagListPagingIterable(List<T> firstPage, StateTag secondPageCont, Coder<T> elemCoder) {
+    private TagListPagingIterable(List<T> firstPage, long firstPageBytes,
+        StateTag secondPageCont, Coder<T> elemCoder) {
       this.firstPage = firstPage;
+      this.firstPageBytes = firstPageBytes;
       this.secondPageCont = secondPageCont;
       this.elemCoder = elemCoder;
     }
@@ -595,10 +722,18 @@ class WindmillStateReader {
         private Future<ValuesAndContToken<T>> pendingNextPage =
             continuationListFuture(nextPageCont, elemCoder);
 
+        // Progress through the current page, to decide when to prefetch the next one.
+        private long currentPageBytes = firstPageBytes;
+        private int currentPageSize = firstPage.size();
+        private int consumedInPage = 0;
+        private boolean prefetched = false;
+
         @Override
         protected T computeNext() {
           while (true) {
             if (currentPage.hasNext()) {
+              consumedInPage++;
+              maybePrefetch();
               return currentPage.next();
             }
             if (pendingNextPage == null) {
@@ -606,17 +741,36 @@ class WindmillStateReader {
             }
 
             ValuesAndContToken<T> valuesAndContToken;
+            long startNanos = System.nanoTime();
             try {
               valuesAndContToken = pendingNextPage.get();
             } catch (InterruptedException | ExecutionException e) {
               throw new RuntimeException("Unable to read value from state", e);
             }
+            pageWaitNanos.addAndGet(System.nanoTime() - startNanos);
             currentPage = valuesAndContToken.values.iterator();
+            currentPageBytes = valuesAndContToken.byteSize;
+            currentPageSize = valuesAndContToken.values.size();
+            consumedInPage = 0;
+            prefetched = false;
             nextPageCont = new StateTag(nextPageCont.kind, nextPageCont.tag,
                 nextPageCont.stateFamily, valuesAndContToken.continuationToken);
             pendingNextPage = continuationListFuture(nextPageCont, elemCoder);
           }
         }
+
+        private void maybePrefetch() {
+          if (prefetchPolicy == null || prefetched || pendingNextPage == null
+              || pendingNextPage.isDone()
+              || consumedInPage < prefetchPolicy.pageFraction * currentPageSize) {
+            return;
+          }
+          // Only try once per page; if the budget is exhausted, the page is fetched on demand.
+          prefetched = true;
+          if (prefetchPolicy.tryAcquire(currentPageBytes)) {
+            prefetch(nextPageCont, currentPageBytes);
+          }
+        }
       };
     }
   }
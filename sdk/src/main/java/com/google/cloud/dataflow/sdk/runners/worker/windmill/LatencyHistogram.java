@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker.windmill;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds, with buckets at powers of two.
+ *
+ * <p>Percentiles are reported as the upper bound of the bucket containing them, so they
+ * overestimate the true value by at most a factor of two.
+ */
+public class LatencyHistogram {
+  private static final int NUM_BUCKETS = 48;
+
+  private final String name;
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sumMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Records a single latency. Negative latencies, which can be caused by clock skew between
+   * event timestamps and the local clock, are recorded as zero.
+   */
+  public void record(long micros) {
+    micros = Math.max(0, micros);
+    int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets.incrementAndGet(bucket);
+    count.incrementAndGet();
+    sumMicros.addAndGet(micros);
+    long max = maxMicros.get();
+    while (max < micros && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMicros() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sumMicros.get() / n;
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  /**
+   * Returns an upper bound of the given percentile, in microseconds.
+   */
+  public long getPercentileMicros(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+        "percentile must be in [0, 100], was %s", percentile);
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(maxMicros.get(), i == 0 ? 0 : (1L << i) - 1);
+      }
+    }
+    return maxMicros.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sumMicros.set(0);
+    maxMicros.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+        name, getCount(), getMeanMicros() / 1000, getPercentileMicros(50) / 1000.0,
+        getPercentileMicros(90) / 1000.0, getPercentileMicros(99) / 1000.0,
+        getMaxMicros() / 1000.0);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker.windmill;
+
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.ByteString;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes messages to a topic of a {@link LocalWindmillServer} at a fixed rate, for load testing
+ * the streaming worker.
+ *
+ * <p>Each message is stamped with its publish time, and the topic watermark trails the publish
+ * time by a configurable lag. Once the run completes, the latency histograms of the server
+ * describe how the worker kept up with the load.
+ */
+public class LocalWindmillLoadGenerator implements Runnable {
+  private static final Logger LOG = LoggerFactory.getLogger(LocalWindmillLoadGenerator.class);
+
+  /**
+   * Produces the payload of the {@code index}th published message.
+   */
+  public interface PayloadGenerator {
+    ByteString payload(long index);
+  }
+
+  /** Interval at which messages are published and the watermark advanced. */
+  private static final long TICK_MILLIS = 10;
+
+  private final LocalWindmillServer server;
+  private final String topic;
+  private final PayloadGenerator payloads;
+  private final long messagesPerSecond;
+  private final Duration duration;
+  private Duration watermarkLag = Duration.ZERO;
+  private long published;
+
+  public LocalWindmillLoadGenerator(LocalWindmillServer server, String topic,
+      PayloadGenerator payloads, long messagesPerSecond, Duration duration) {
+    Preconditions.checkArgument(messagesPerSecond > 0, "messagesPerSecond must be positive");
+    Preconditions.checkArgument(
+        messagesPerSecond <= Long.MAX_VALUE / TimeUnit.SECONDS.toNanos(1),
+        "messagesPerSecond is too large: %s", messagesPerSecond);
+    this.server = server;
+    this.topic = topic;
+    this.payloads = payloads;
+    this.messagesPerSecond = messagesPerSecond;
+    this.duration = duration;
+  }
+
+  /**
+   * Sets how far the topic watermark trails the publish time of the latest message.
+   */
+  public LocalWindmillLoadGenerator withWatermarkLag(Duration watermarkLag) {
+    this.watermarkLag = watermarkLag;
+    return this;
+  }
+
+  public long getPublishedCount() {
+    return published;
+  }
+
+  /**
+   * Publishes at the configured rate until the duration has elapsed, then advances the topic
+   * watermark to the end of time.
+   */
+  @Override
+  public void run() {
+    long startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(duration.getMillis());
+    try {
+      long now;
+      while ((now = System.nanoTime()) < endNanos) {
+        long due = messagesDue(now - startNanos, messagesPerSecond);
+        Instant timestamp = Instant.now();
+        for (; published < due; published++) {
+          server.publish(topic, payloads.payload(published), timestamp);
+        }
+        server.advanceWatermark(topic, timestamp.minus(watermarkLag));
+        Thread.sleep(TICK_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    server.advanceWatermark(topic, BoundedWindow.TIMESTAMP_MAX_VALUE);
+    LOG.info("Published {} messages to {} in {} ms", published, topic,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+  }
+
+  /**
+   * Returns the number of messages due after {@code elapsedNanos} at the given rate. Whole
+   * seconds are multiplied separately from the remainder, so that long runs at high rates do
+   * not overflow.
+   */
+  static long messagesDue(long elapsedNanos, long messagesPerSecond) {
+    long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+    return elapsedNanos / nanosPerSecond * messagesPerSecond
+        + elapsedNanos % nanosPerSecond * messagesPerSecond / nanosPerSecond;
+  }
+}
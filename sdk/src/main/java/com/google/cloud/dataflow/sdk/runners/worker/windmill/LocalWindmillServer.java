@@ -0,0 +1,1060 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker.windmill;
+
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.ByteString;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A functional, in-process implementation of {@link WindmillServerStub}, for running streaming
+ * pipelines against the {@code StreamingDataflowWorker} on a single machine, for example to
+ * benchmark throughput and latency of the worker.
+ *
+ * <p>The server provides:
+ * <ul>
+ * <li> Keyed work distribution: input is queued per computation and key, and at most one work
+ *      item per key is outstanding at a time.
+ * <li> State: values, bags and watermark holds committed by a work item are served to later
+ *      {@code GetData} calls for the same key, for the lifetime of the server.
+ * <li> Timers: event time timers fire once the input watermark of the computation passes them,
+ *      processing time timers once the local clock does.
+ * <li> Watermarks: the input watermark of a computation is the minimum of the watermarks of its
+ *      inputs; its output watermark is further held by pending input, in-flight work and
+ *      watermark holds.
+ * <li> A Pubsub-like input: messages published with {@link #publish} to a topic are delivered to
+ *      every subscribed computation, and Pubsub output of the pipeline can be captured per topic.
+ * <li> Latency histograms for work items, queued messages and Pubsub output.
+ * </ul>
+ *
+ * <p>The topology is not derived from the {@code MapTask}s, so it has to be declared with
+ * {@link #addStream}, {@link #subscribe} and {@link #addSourceKey} before work is requested.
+ * Side inputs are served once written, but existence watermark deadlines are not tracked.
+ * Work items that are not committed within the work item timeout are handed out again, so a
+ * lost or wedged work item does not block its key forever.
+ * All operations are serialized on the server's lock.
+ */
+public class LocalWindmillServer extends WindmillServerStub {
+  private static final Logger LOG = LoggerFactory.getLogger(LocalWindmillServer.class);
+
+  /** Maximum number of input messages delivered to a single work item. */
+  static final int MAX_MESSAGES_PER_WORK_ITEM = 10000;
+
+  /** Delay before a source key with no new output is polled again. */
+  static final long SOURCE_POLL_DELAY_MICROS = TimeUnit.MILLISECONDS.toMicros(100);
+
+  /** Default time after which a work item that has not been committed is handed out again. */
+  static final Duration DEFAULT_WORK_ITEM_TIMEOUT = Duration.standardMinutes(5);
+
+  /** Default maximum number of Pubsub output messages captured per topic. */
+  static final int DEFAULT_MAX_CAPTURED_PUBSUB_MESSAGES = 100000;
+
+  /** System property with the topology of a server created from a host and port. */
+  static final String TOPOLOGY_PROPERTY = "windmill.localtopology";
+
+  /** Address of a piece of state within a key. */
+  private static class StateId {
+    private final String stateFamily;
+    private final ByteString tag;
+
+    private StateId(String stateFamily, ByteString tag) {
+      this.stateFamily = stateFamily;
+      this.tag = tag;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof StateId)) {
+        return false;
+      }
+      StateId that = (StateId) obj;
+      return stateFamily.equals(that.stateFamily) && tag.equals(that.tag);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(stateFamily, tag);
+    }
+  }
+
+  /** An input message waiting to be processed, with the computation or topic it came from. */
+  private static class PendingMessage {
+    private final String source;
+    private final Windmill.Message message;
+    private final long enqueuedNanos;
+
+    private PendingMessage(String source, Windmill.Message message) {
+      this.source = source;
+      this.message = message;
+      this.enqueuedNanos = System.nanoTime();
+    }
+  }
+
+  /** A timer waiting to fire, ordered by timestamp. Ignored if the timer has been reset. */
+  private static class TimerEntry implements Comparable<TimerEntry> {
+    private final long timestamp;
+    private final KeyState keyState;
+    private final StateId id;
+
+    private TimerEntry(long timestamp, KeyState keyState, StateId id) {
+      this.timestamp = timestamp;
+      this.keyState = keyState;
+      this.id = id;
+    }
+
+    @Override
+    public int compareTo(TimerEntry that) {
+      return Long.compare(timestamp, that.timestamp);
+    }
+  }
+
+  /** Everything the server knows about one key of one computation. */
+  private static class KeyState {
+    private final ByteString key;
+    private final long cacheToken;
+
+    private final ArrayDeque<PendingMessage> messages = new ArrayDeque<>();
+    private final Map<StateId, Windmill.Value> values = new HashMap<>();
+    private final Map<StateId, List<Windmill.Value>> lists = new HashMap<>();
+    private final Map<StateId, Long> holds = new HashMap<>();
+    private final Map<StateId, Windmill.Timer> timers = new HashMap<>();
+    private final Map<StateId, Windmill.Timer> dueTimers = new LinkedHashMap<>();
+    private final Set<Windmill.GlobalDataId> notifications = new LinkedHashSet<>();
+    private Windmill.SourceState sourceState;
+    private long sourceWatermark = Long.MIN_VALUE;
+    private boolean isSourceKey;
+    private long nextPollMicros;
+
+    // The outstanding work item, if any, and what it delivered.
+    private long activeWorkToken;
+    private long activeSinceNanos;
+    private List<PendingMessage> inFlight;
+    private Map<StateId, Windmill.Timer> inFlightTimers;
+    private List<Windmill.GlobalDataId> inFlightNotifications;
+
+    private KeyState(ByteString key, long cacheToken) {
+      this.key = key;
+      this.cacheToken = cacheToken;
+    }
+
+    private void clearActiveWork() {
+      activeWorkToken = 0;
+      inFlight = null;
+      inFlightTimers = null;
+      inFlightNotifications = null;
+    }
+
+    private boolean hasWork(long nowMicros) {
+      return !messages.isEmpty() || !dueTimers.isEmpty() || !notifications.isEmpty()
+          || (isSourceKey && nowMicros >= nextPollMicros);
+    }
+  }
+
+  /** Everything the server knows about one computation. */
+  private class ComputationState {
+    private final String computationId;
+    private final Map<ByteString, KeyState> keys = new HashMap<>();
+    private final Set<ByteString> ready = new LinkedHashSet<>();
+    // Keys with an outstanding work item, oldest first.
+    private final Set<KeyState> active = new LinkedHashSet<>();
+    private final Set<KeyState> sourceKeys = new LinkedHashSet<>();
+    private final PriorityQueue<TimerEntry> watermarkTimers = new PriorityQueue<>();
+    private final PriorityQueue<TimerEntry> realtimeTimers = new PriorityQueue<>();
+    // Multiset of the timestamps of pending and in-flight messages and of watermark holds, which
+    // hold back the output watermark.
+    private final TreeMap<Long, Integer> outputHolds = new TreeMap<>();
+
+    // Upstream computations and topics this computation reads from.
+    private final Set<String> producers = new HashSet<>();
+    private final Set<String> topics = new HashSet<>();
+
+    private long inputWatermark = Long.MIN_VALUE;
+    private long outputWatermark = Long.MIN_VALUE;
+
+    private ComputationState(String computationId) {
+      this.computationId = computationId;
+    }
+
+    private KeyState keyState(ByteString key) {
+      KeyState keyState = keys.get(key);
+      if (keyState == null) {
+        keyState = new KeyState(key, ++nextCacheToken);
+        keys.put(key, keyState);
+      }
+      return keyState;
+    }
+
+    private void enqueue(ByteString key, String source, Windmill.Message message) {
+      KeyState keyState = keyState(key);
+      keyState.messages.add(new PendingMessage(source, message));
+      addOutputHold(message.getTimestamp());
+      markReady(keyState);
+    }
+
+    private void addOutputHold(long timestamp) {
+      Integer count = outputHolds.get(timestamp);
+      outputHolds.put(timestamp, count == null ? 1 : count + 1);
+    }
+
+    private void removeOutputHold(long timestamp) {
+      Integer count = outputHolds.get(timestamp);
+      if (count == 1) {
+        outputHolds.remove(timestamp);
+      } else {
+        outputHolds.put(timestamp, count - 1);
+      }
+    }
+
+    private void markReady(KeyState keyState) {
+      if (keyState.activeWorkToken == 0) {
+        ready.add(keyState.key);
+      }
+    }
+
+    /**
+     * Returns the input delivered by work items outstanding for longer than the timeout to their
+     * keys, so that they are handed out again. Later commits of the expired work are stale.
+     */
+    private void expireWork(long nowNanos) {
+      Iterator<KeyState> it = active.iterator();
+      while (it.hasNext()) {
+        KeyState keyState = it.next();
+        if (nowNanos - keyState.activeSinceNanos < workItemTimeoutNanos) {
+          // Keys are in the order their work was handed out.
+          break;
+        }
+        it.remove();
+        LOG.warn("Work for {} key {} token {} was not committed in time, retrying",
+            computationId, keyState.key.toStringUtf8(), keyState.activeWorkToken);
+        numExpiredWorkItems++;
+        for (int i = keyState.inFlight.size() - 1; i >= 0; i--) {
+          // The output holds of the messages are still held.
+          keyState.messages.addFirst(keyState.inFlight.get(i));
+        }
+        for (Map.Entry<StateId, Windmill.Timer> timer : keyState.inFlightTimers.entrySet()) {
+          if (!keyState.dueTimers.containsKey(timer.getKey())) {
+            keyState.dueTimers.put(timer.getKey(), timer.getValue());
+          }
+        }
+        keyState.notifications.addAll(keyState.inFlightNotifications);
+        keyState.nextPollMicros = 0;
+        keyState.clearActiveWork();
+        markReady(keyState);
+      }
+    }
+
+    private void setTimer(KeyState keyState, Windmill.Timer timer) {
+      StateId id = new StateId(timer.getStateFamily(), timer.getTag());
+      keyState.dueTimers.remove(id);
+      if (!timer.hasTimestamp() || timer.getTimestamp() == Long.MIN_VALUE) {
+        keyState.timers.remove(id);
+        return;
+      }
+      keyState.timers.put(id, timer);
+      TimerEntry entry = new TimerEntry(timer.getTimestamp(), keyState, id);
+      if (timer.getType() == Windmill.Timer.Type.WATERMARK) {
+        watermarkTimers.add(entry);
+      } else {
+        realtimeTimers.add(entry);
+      }
+    }
+
+    /** Moves the timers that are due at the given times to their keys' due timers. */
+    private void fireTimers(long nowMicros) {
+      fireTimers(watermarkTimers, inputWatermark);
+      fireTimers(realtimeTimers, nowMicros);
+    }
+
+    private void fireTimers(PriorityQueue<TimerEntry> queue, long time) {
+      while (!queue.isEmpty() && queue.peek().timestamp <= time) {
+        TimerEntry entry = queue.poll();
+        Windmill.Timer timer = entry.keyState.timers.get(entry.id);
+        if (timer == null || timer.getTimestamp() != entry.timestamp) {
+          // The timer has since been deleted or reset.
+          continue;
+        }
+        entry.keyState.timers.remove(entry.id);
+        entry.keyState.dueTimers.put(entry.id, timer);
+        markReady(entry.keyState);
+      }
+    }
+  }
+
+  private final Map<String, ComputationState> computations = new LinkedHashMap<>();
+  // Stream ids to the computations consuming them.
+  private final Map<String, List<String>> streams = new HashMap<>();
+  // Topics to the computations subscribed to them.
+  private final Map<String, List<String>> subscriptions = new HashMap<>();
+  private final Map<String, Long> topicWatermarks = new HashMap<>();
+  private final Map<String, String> configs = new HashMap<>();
+  private final Map<Windmill.GlobalDataId, Windmill.GlobalData> globalData = new HashMap<>();
+  private final Map<Windmill.GlobalDataId, Set<KeyState>> blockedOnGlobalData = new HashMap<>();
+  // Captured Pubsub output, for the topics it was requested for.
+  private final Map<String, BlockingQueue<Windmill.Message>> pubsubOutput = new HashMap<>();
+  private final Map<String, Long> counters = new HashMap<>();
+
+  private final LatencyHistogram workLatency = new LatencyHistogram("Work item latency");
+  private final LatencyHistogram messageLatency = new LatencyHistogram("Message latency");
+  private final LatencyHistogram pubsubOutputLatency =
+      new LatencyHistogram("Pubsub output event time latency");
+
+  private int numKeysPerTopic = 100;
+  private long workItemTimeoutNanos = DEFAULT_WORK_ITEM_TIMEOUT.getMillis() * 1000000L;
+  private int maxCapturedPubsubMessages = DEFAULT_MAX_CAPTURED_PUBSUB_MESSAGES;
+  private long nextWorkToken = 0;
+  private long nextCacheToken = 0;
+  private long nextPublishedKey = 0;
+  private long numStaleCommits = 0;
+  private long numExpiredWorkItems = 0;
+  private long numDroppedPubsubOutput = 0;
+  private int nextComputation = 0;
+
+  public LocalWindmillServer() {}
+
+  /**
+   * Constructor used by {@code StreamingDataflowWorker.main} when this class is selected with
+   * {@code -Dwindmill.serverclassname}. The host and port are ignored, and the topology is taken
+   * from the {@code windmill.localtopology} system property, in the format described at
+   * {@link #LocalWindmillServer(String, String)}.
+   */
+  public LocalWindmillServer(String hostport) {
+    this(hostport, System.getProperty(TOPOLOGY_PROPERTY, ""));
+  }
+
+  /**
+   * Creates a server with the given topology. The host and port are ignored.
+   *
+   * <p>The topology is a list of declarations separated by {@code ;}, each one of:
+   * <ul>
+   * <li> {@code stream:<streamId>:<producerComputationId>:<consumerComputationId>}, as with
+   *      {@link #addStream};
+   * <li> {@code subscribe:<computationId>:<topic>}, as with {@link #subscribe};
+   * <li> {@code sourcekey:<computationId>:<key>}, with the key in UTF-8, as with
+   *      {@link #addSourceKey}.
+   * </ul>
+   */
+  public LocalWindmillServer(String hostport, String topology) {
+    for (String declaration : topology.split(";")) {
+      declaration = declaration.trim();
+      if (declaration.isEmpty()) {
+        continue;
+      }
+      String[] parts = declaration.split(":", 4);
+      if (parts[0].equals("stream") && parts.length == 4) {
+        addStream(parts[1], parts[2], parts[3]);
+      } else if (parts[0].equals("subscribe") && parts.length >= 3) {
+        subscribe(declaration.split(":", 3)[2], parts[1]);
+      } else if (parts[0].equals("sourcekey") && parts.length >= 3) {
+        addSourceKey(parts[1], ByteString.copyFromUtf8(declaration.split(":", 3)[2]));
+      } else {
+        throw new IllegalArgumentException("Invalid topology declaration: " + declaration);
+      }
+    }
+  }
+
+  private static long nowMicros() {
+    return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  }
+
+  private static long toMicros(Instant instant) {
+    if (!instant.isBefore(BoundedWindow.TIMESTAMP_MAX_VALUE)) {
+      // End of time.
+      return Long.MAX_VALUE;
+    }
+    return TimeUnit.MILLISECONDS.toMicros(instant.getMillis());
+  }
+
+  private ComputationState computation(String computationId) {
+    ComputationState computation = computations.get(computationId);
+    if (computation == null) {
+      computation = new ComputationState(computationId);
+      computations.put(computationId, computation);
+    }
+    return computation;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Topology and input.
+
+  /**
+   * Declares that {@code producerComputationId} writes the given stream, which is read by
+   * {@code consumerComputationId}.
+   */
+  public synchronized LocalWindmillServer addStream(
+      String streamId, String producerComputationId, String consumerComputationId) {
+    computation(producerComputationId);
+    computation(consumerComputationId).producers.add(producerComputationId);
+    List<String> consumers = streams.get(streamId);
+    if (consumers == null) {
+      consumers = new ArrayList<>();
+      streams.put(streamId, consumers);
+    }
+    consumers.add(consumerComputationId);
+    return this;
+  }
+
+  /**
+   * Subscribes a computation to a topic. Messages published to the topic, either with
+   * {@link #publish} or by a {@code PubsubSink}, are delivered to the computation.
+   */
+  public synchronized LocalWindmillServer subscribe(String topic, String computationId) {
+    computation(computationId).topics.add(topic);
+    List<String> subscribers = subscriptions.get(topic);
+    if (subscribers == null) {
+      subscribers = new ArrayList<>();
+      subscriptions.put(topic, subscribers);
+    }
+    subscribers.add(computationId);
+    if (!topicWatermarks.containsKey(topic)) {
+      topicWatermarks.put(topic, Long.MIN_VALUE);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the number of keys that messages published to a topic are spread over. Defaults to 100.
+   */
+  public synchronized LocalWindmillServer setNumKeysPerTopic(int numKeysPerTopic) {
+    Preconditions.checkArgument(numKeysPerTopic > 0);
+    this.numKeysPerTopic = numKeysPerTopic;
+    return this;
+  }
+
+  /**
+   * Sets the time after which a work item that has not been committed is handed out again.
+   * Defaults to 5 minutes.
+   */
+  public synchronized LocalWindmillServer setWorkItemTimeout(Duration timeout) {
+    Preconditions.checkArgument(timeout.getMillis() > 0);
+    this.workItemTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout.getMillis());
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of Pubsub output messages captured per topic. Once a capture queue
+   * is full, its oldest messages are dropped. Defaults to 100000.
+   */
+  public synchronized LocalWindmillServer setMaxCapturedPubsubMessages(int maxMessages) {
+    Preconditions.checkArgument(maxMessages > 0);
+    this.maxCapturedPubsubMessages = maxMessages;
+    return this;
+  }
+
+  /**
+   * Declares a key of a source computation, such as one split of an unbounded source. The key is
+   * given work whenever it is idle, and its committed source watermark becomes the input
+   * watermark of the computation.
+   */
+  public synchronized LocalWindmillServer addSourceKey(String computationId, ByteString key) {
+    ComputationState computation = computation(computationId);
+    KeyState keyState = computation.keyState(key);
+    keyState.isSourceKey = true;
+    computation.sourceKeys.add(keyState);
+    return this;
+  }
+
+  /**
+   * Sets the serialized {@code MapTask} returned by {@code GetConfig} for a computation.
+   */
+  public synchronized LocalWindmillServer setConfig(String computationId, String mapTaskJson) {
+    configs.put(computationId, mapTaskJson);
+    return this;
+  }
+
+  /**
+   * Publishes a message to a topic, delivering it to every subscribed computation.
+   */
+  public void publish(String topic, ByteString data, Instant timestamp) {
+    publish(topic, Windmill.Message.newBuilder()
+        .setTimestamp(toMicros(timestamp))
+        .setData(data)
+        .build());
+  }
+
+  public synchronized void publish(String topic, Windmill.Message message) {
+    List<String> subscribers = subscriptions.get(topic);
+    if (subscribers == null) {
+      return;
+    }
+    ByteString key = ByteString.copyFromUtf8(
+        Long.toString(nextPublishedKey++ % numKeysPerTopic));
+    for (String computationId : subscribers) {
+      computation(computationId).enqueue(key, topic, message);
+    }
+  }
+
+  /**
+   * Advances the watermark of a topic. Watermarks never move backwards.
+   */
+  public synchronized void advanceWatermark(String topic, Instant watermark) {
+    Long current = topicWatermarks.get(topic);
+    long micros = toMicros(watermark);
+    if (current == null || current < micros) {
+      topicWatermarks.put(topic, micros);
+    }
+  }
+
+  /**
+   * Returns the queue of messages written to the given topic by the pipeline. Output is only
+   * captured once this has been called for the topic, and at most
+   * {@link #setMaxCapturedPubsubMessages} messages are kept; the caller should drain the queue.
+   */
+  public synchronized BlockingQueue<Windmill.Message> getPubsubOutput(String topic) {
+    BlockingQueue<Windmill.Message> output = pubsubOutput.get(topic);
+    if (output == null) {
+      output = new LinkedBlockingQueue<>(maxCapturedPubsubMessages);
+      pubsubOutput.put(topic, output);
+    }
+    return output;
+  }
+
+  private void capturePubsubOutput(BlockingQueue<Windmill.Message> output,
+      Windmill.Message message) {
+    while (!output.offer(message)) {
+      if (output.poll() != null) {
+        numDroppedPubsubOutput++;
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Inspection.
+
+  /** Histogram of the time from handing out a work item to its commit. */
+  public LatencyHistogram getWorkLatency() {
+    return workLatency;
+  }
+
+  /** Histogram of the time from queueing a message at a computation to its commit. */
+  public LatencyHistogram getMessageLatency() {
+    return messageLatency;
+  }
+
+  /** Histogram of the time from the event timestamp of Pubsub output to its commit. */
+  public LatencyHistogram getPubsubOutputLatency() {
+    return pubsubOutputLatency;
+  }
+
+  /** Returns the current input watermark of a computation, in microseconds. */
+  public synchronized long getInputWatermark(String computationId) {
+    updateWatermarks();
+    return computation(computationId).inputWatermark;
+  }
+
+  /** Returns the current output watermark of a computation, in microseconds. */
+  public synchronized long getOutputWatermark(String computationId) {
+    updateWatermarks();
+    return computation(computationId).outputWatermark;
+  }
+
+  /** Returns the sum of the SUM counter updates received with the given name. */
+  public synchronized long getCounter(String name) {
+    Long value = counters.get(name);
+    return value == null ? 0 : value;
+  }
+
+  /** Returns the number of messages waiting to be processed, across all computations. */
+  public synchronized long getBacklog() {
+    long backlog = 0;
+    for (ComputationState computation : computations.values()) {
+      for (KeyState keyState : computation.keys.values()) {
+        backlog += keyState.messages.size();
+      }
+    }
+    return backlog;
+  }
+
+  public synchronized void printHtml(PrintWriter writer) {
+    updateWatermarks();
+    writer.println("<h2>Local Windmill</h2>");
+    for (ComputationState computation : computations.values()) {
+      writer.println(computation.computationId + ": keys=" + computation.keys.size()
+          + " ready=" + computation.ready.size()
+          + " input watermark=" + computation.inputWatermark
+          + " output watermark=" + computation.outputWatermark + "<br>");
+    }
+    writer.println("Stale commits: " + numStaleCommits + "<br>");
+    writer.println("Expired work items: " + numExpiredWorkItems + "<br>");
+    writer.println("Dropped Pubsub output: " + numDroppedPubsubOutput + "<br>");
+    writer.println(workLatency + "<br>");
+    writer.println(messageLatency + "<br>");
+    writer.println(pubsubOutputLatency + "<br>");
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Watermarks.
+
+  private void updateWatermarks() {
+    Map<String, Long> outputWatermarks = new HashMap<>();
+    for (ComputationState computation : computations.values()) {
+      outputWatermark(computation, outputWatermarks, new HashSet<String>());
+    }
+  }
+
+  private long outputWatermark(
+      ComputationState computation, Map<String, Long> memo, Set<String> visiting) {
+    Long known = memo.get(computation.computationId);
+    if (known != null) {
+      return known;
+    }
+    if (!visiting.add(computation.computationId)) {
+      // A cycle; don't let the computation hold itself back.
+      return Long.MAX_VALUE;
+    }
+    long input = Long.MAX_VALUE;
+    boolean hasInput = false;
+    for (String topic : computation.topics) {
+      input = Math.min(input, topicWatermarks.get(topic));
+      hasInput = true;
+    }
+    for (String producer : computation.producers) {
+      input = Math.min(input, outputWatermark(computations.get(producer), memo, visiting));
+      hasInput = true;
+    }
+    for (KeyState sourceKey : computation.sourceKeys) {
+      input = Math.min(input, sourceKey.sourceWatermark);
+      hasInput = true;
+    }
+    if (!hasInput) {
+      input = Long.MIN_VALUE;
+    }
+    // Watermarks never move backwards.
+    computation.inputWatermark = Math.max(computation.inputWatermark, input);
+
+    long output = computation.inputWatermark;
+    if (!computation.outputHolds.isEmpty()) {
+      output = Math.min(output, computation.outputHolds.firstKey());
+    }
+    computation.outputWatermark = Math.max(computation.outputWatermark, output);
+    memo.put(computation.computationId, computation.outputWatermark);
+    return computation.outputWatermark;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // WindmillServerStub.
+
+  @Override
+  public synchronized Windmill.GetWorkResponse getWork(Windmill.GetWorkRequest request) {
+    updateWatermarks();
+    long nowMicros = nowMicros();
+    long nowNanos = System.nanoTime();
+    long remainingItems = request.getMaxItems();
+    long remainingBytes = request.getMaxBytes();
+
+    Windmill.GetWorkResponse.Builder response = Windmill.GetWorkResponse.newBuilder();
+    List<ComputationState> ordered = new ArrayList<>(computations.values());
+    for (int i = 0; i < ordered.size() && remainingItems > 0 && remainingBytes > 0; i++) {
+      // Rotate the starting computation so that none is starved.
+      ComputationState computation = ordered.get((nextComputation + i) % ordered.size());
+      computation.expireWork(nowNanos);
+      computation.fireTimers(nowMicros);
+      for (KeyState sourceKey : computation.sourceKeys) {
+        if (sourceKey.hasWork(nowMicros)) {
+          computation.markReady(sourceKey);
+        }
+      }
+
+      Windmill.ComputationWorkItems.Builder computationWork =
+          Windmill.ComputationWorkItems.newBuilder()
+              .setComputationId(computation.computationId)
+              .setInputDataWatermark(computation.inputWatermark);
+      Iterator<ByteString> readyKeys = computation.ready.iterator();
+      while (readyKeys.hasNext() && remainingItems > 0 && remainingBytes > 0) {
+        KeyState keyState = computation.keys.get(readyKeys.next());
+        readyKeys.remove();
+        if (keyState.activeWorkToken != 0 || !keyState.hasWork(nowMicros)) {
+          continue;
+        }
+        Windmill.WorkItem workItem = buildWorkItem(computation, keyState);
+        computationWork.addWork(workItem);
+        remainingItems--;
+        remainingBytes -= workItem.getSerializedSize();
+      }
+      if (computationWork.getWorkCount() > 0) {
+        response.addWork(computationWork);
+      }
+    }
+    nextComputation++;
+    return response.build();
+  }
+
+  private Windmill.WorkItem buildWorkItem(ComputationState computation, KeyState keyState) {
+    Windmill.WorkItem.Builder workItem = Windmill.WorkItem.newBuilder()
+        .setKey(keyState.key)
+        .setWorkToken(++nextWorkToken)
+        .setCacheToken(keyState.cacheToken)
+        .setOutputDataWatermark(computation.outputWatermark);
+
+    List<PendingMessage> delivered = new ArrayList<>();
+    Map<String, Windmill.InputMessageBundle.Builder> bundles = new LinkedHashMap<>();
+    while (!keyState.messages.isEmpty() && delivered.size() < MAX_MESSAGES_PER_WORK_ITEM) {
+      PendingMessage pending = keyState.messages.poll();
+      Windmill.InputMessageBundle.Builder bundle = bundles.get(pending.source);
+      if (bundle == null) {
+        bundle = Windmill.InputMessageBundle.newBuilder().setSourceComputationId(pending.source);
+        bundles.put(pending.source, bundle);
+      }
+      bundle.addMessages(pending.message);
+      delivered.add(pending);
+    }
+    for (Windmill.InputMessageBundle.Builder bundle : bundles.values()) {
+      workItem.addMessageBundles(bundle);
+    }
+
+    Map<StateId, Windmill.Timer> deliveredTimers = new LinkedHashMap<>(keyState.dueTimers);
+    if (!deliveredTimers.isEmpty()) {
+      workItem.setTimers(
+          Windmill.TimerBundle.newBuilder().addAllTimers(deliveredTimers.values()));
+      keyState.dueTimers.clear();
+    }
+    List<Windmill.GlobalDataId> deliveredNotifications =
+        new ArrayList<>(keyState.notifications);
+    workItem.addAllGlobalDataIdNotifications(deliveredNotifications);
+    keyState.notifications.clear();
+    if (keyState.sourceState != null) {
+      workItem.setSourceState(keyState.sourceState);
+    }
+
+    keyState.activeWorkToken = workItem.getWorkToken();
+    keyState.activeSinceNanos = System.nanoTime();
+    keyState.inFlight = delivered;
+    keyState.inFlightTimers = deliveredTimers;
+    keyState.inFlightNotifications = deliveredNotifications;
+    computation.active.add(keyState);
+    return workItem.build();
+  }
+
+  @Override
+  public synchronized Windmill.GetDataResponse getData(Windmill.GetDataRequest request) {
+    Windmill.GetDataResponse.Builder response = Windmill.GetDataResponse.newBuilder();
+    for (Windmill.ComputationGetDataRequest computationRequest : request.getRequestsList()) {
+      ComputationState computation = computation(computationRequest.getComputationId());
+      Windmill.ComputationGetDataResponse.Builder computationResponse =
+          response.addDataBuilder().setComputationId(computation.computationId);
+      for (Windmill.KeyedGetDataRequest keyedRequest : computationRequest.getRequestsList()) {
+        computationResponse.addData(getKeyedData(computation, keyedRequest));
+      }
+    }
+
+    Set<Windmill.GlobalDataId> requested = new LinkedHashSet<>();
+    for (Windmill.GlobalDataRequest globalRequest : request.getGlobalDataFetchRequestsList()) {
+      requested.add(globalRequest.getDataId());
+    }
+    requested.addAll(request.getGlobalDataToFetchList());
+    for (Windmill.GlobalDataId id : requested) {
+      Windmill.GlobalData data = globalData.get(id);
+      if (data != null) {
+        response.addGlobalData(Windmill.GlobalData.newBuilder(data).setIsReady(true));
+      } else {
+        response.addGlobalDataBuilder().setDataId(id).setIsReady(false);
+      }
+    }
+    return response.build();
+  }
+
+  private Windmill.KeyedGetDataResponse getKeyedData(
+      ComputationState computation, Windmill.KeyedGetDataRequest request) {
+    Windmill.KeyedGetDataResponse.Builder response =
+        Windmill.KeyedGetDataResponse.newBuilder().setKey(request.getKey());
+    KeyState keyState = computation.keys.get(request.getKey());
+    if (keyState == null || keyState.activeWorkToken != request.getWorkToken()) {
+      return response.setFailed(true).build();
+    }
+
+    for (Windmill.TagValue valueRequest : request.getValuesToFetchList()) {
+      Windmill.TagValue.Builder value = response.addValuesBuilder()
+          .setTag(valueRequest.getTag())
+          .setStateFamily(valueRequest.getStateFamily());
+      Windmill.Value stored = keyState.values.get(
+          new StateId(valueRequest.getStateFamily(), valueRequest.getTag()));
+      if (stored != null) {
+        value.setValue(stored);
+      }
+    }
+
+    for (Windmill.TagList listRequest : request.getListsToFetchList()) {
+      response.addLists(readList(keyState, listRequest));
+    }
+
+    for (Windmill.WatermarkHold holdRequest : request.getWatermarkHoldsToFetchList()) {
+      Windmill.WatermarkHold.Builder hold = response.addWatermarkHoldsBuilder()
+          .setTag(holdRequest.getTag())
+          .setStateFamily(holdRequest.getStateFamily());
+      Long stored = keyState.holds.get(
+          new StateId(holdRequest.getStateFamily(), holdRequest.getTag()));
+      if (stored != null) {
+        hold.addTimestamps(stored);
+      }
+    }
+    return response.build();
+  }
+
+  /**
+   * Reads one page of a list, starting at the position in the request token, and limited to
+   * the fetch_max_bytes of the request (but at least one value).
+   */
+  private Windmill.TagList readList(KeyState keyState, Windmill.TagList request) {
+    Windmill.TagList.Builder list = Windmill.TagList.newBuilder()
+        .setTag(request.getTag())
+        .setStateFamily(request.getStateFamily());
+    if (request.hasRequestToken()) {
+      list.setRequestToken(request.getRequestToken());
+    }
+    List<Windmill.Value> stored =
+        keyState.lists.get(new StateId(request.getStateFamily(), request.getTag()));
+    if (stored == null) {
+      return list.build();
+    }
+    int start = request.hasRequestToken()
+        ? Integer.parseInt(request.getRequestToken().toStringUtf8()) : 0;
+    long bytes = 0;
+    int i = start;
+    for (; i < stored.size(); i++) {
+      Windmill.Value value = stored.get(i);
+      if (value.getTimestamp() > request.getEndTimestamp()) {
+        continue;
+      }
+      if (i > start && bytes + value.getSerializedSize() > request.getFetchMaxBytes()) {
+        break;
+      }
+      bytes += value.getSerializedSize();
+      list.addValues(value);
+    }
+    if (i < stored.size()) {
+      list.setContinuationToken(ByteString.copyFromUtf8(Integer.toString(i)));
+    }
+    return list.build();
+  }
+
+  @Override
+  public synchronized Windmill.CommitWorkResponse commitWork(Windmill.CommitWorkRequest request) {
+    for (Windmill.ComputationCommitWorkRequest computationRequest : request.getRequestsList()) {
+      ComputationState computation = computation(computationRequest.getComputationId());
+      for (Windmill.WorkItemCommitRequest commit : computationRequest.getRequestsList()) {
+        KeyState keyState = computation.keys.get(commit.getKey());
+        if (keyState == null || keyState.activeWorkToken != commit.getWorkToken()) {
+          numStaleCommits++;
+          LOG.debug("Ignoring stale commit for {} key {} token {}",
+              computation.computationId, commit.getKey().toStringUtf8(), commit.getWorkToken());
+          continue;
+        }
+        applyCommit(computation, keyState, commit);
+      }
+    }
+    return Windmill.CommitWorkResponse.getDefaultInstance();
+  }
+
+  private void applyCommit(
+      ComputationState computation, KeyState keyState, Windmill.WorkItemCommitRequest commit) {
+    long nowNanos = System.nanoTime();
+    boolean producedOutput = false;
+
+    for (Windmill.OutputMessageBundle output : commit.getOutputMessagesList()) {
+      List<String> destinations = output.hasDestinationStreamId()
+          ? streams.get(output.getDestinationStreamId())
+          : Collections.singletonList(output.getDestinationComputationId());
+      if (destinations == null) {
+        LOG.warn("Dropping output to undeclared stream {}", output.getDestinationStreamId());
+        continue;
+      }
+      for (String destination : destinations) {
+        ComputationState consumer = computation(destination);
+        for (Windmill.KeyedMessageBundle bundle : output.getBundlesList()) {
+          for (Windmill.Message message : bundle.getMessagesList()) {
+            consumer.enqueue(bundle.getKey(), computation.computationId, message);
+            producedOutput = true;
+          }
+        }
+      }
+    }
+
+    long nowMicros = nowMicros();
+    for (Windmill.PubSubMessageBundle bundle : commit.getPubsubMessagesList()) {
+      BlockingQueue<Windmill.Message> captured = pubsubOutput.get(bundle.getTopic());
+      for (Windmill.Message message : bundle.getMessagesList()) {
+        if (captured != null) {
+          capturePubsubOutput(captured, message);
+        }
+        pubsubOutputLatency.record(nowMicros - message.getTimestamp());
+        publish(bundle.getTopic(), message);
+        producedOutput = true;
+      }
+    }
+
+    for (Windmill.Timer timer : commit.getOutputTimersList()) {
+      computation.setTimer(keyState, timer);
+    }
+
+    for (Windmill.TagValue update : commit.getValueUpdatesList()) {
+      StateId id = new StateId(update.getStateFamily(), update.getTag());
+      if (update.hasValue() && !update.getValue().getData().isEmpty()) {
+        keyState.values.put(id, update.getValue());
+      } else {
+        keyState.values.remove(id);
+      }
+    }
+
+    for (Windmill.TagList update : commit.getListUpdatesList()) {
+      StateId id = new StateId(update.getStateFamily(), update.getTag());
+      List<Windmill.Value> list = keyState.lists.get(id);
+      if (list != null && update.hasEndTimestamp()) {
+        Iterator<Windmill.Value> it = list.iterator();
+        while (it.hasNext()) {
+          if (it.next().getTimestamp() <= update.getEndTimestamp()) {
+            it.remove();
+          }
+        }
+      }
+      if (update.getValuesCount() > 0) {
+        if (list == null) {
+          list = new ArrayList<>();
+          keyState.lists.put(id, list);
+        }
+        list.addAll(update.getValuesList());
+      }
+      if (list != null && list.isEmpty()) {
+        keyState.lists.remove(id);
+      }
+    }
+
+    for (Windmill.WatermarkHold update : commit.getWatermarkHoldsList()) {
+      StateId id = new StateId(update.getStateFamily(), update.getTag());
+      Long previous = keyState.holds.remove(id);
+      if (previous != null) {
+        computation.removeOutputHold(previous);
+      }
+      Long hold = update.getReset() ? null : previous;
+      for (long timestamp : update.getTimestampsList()) {
+        hold = hold == null ? timestamp : Math.min(hold, timestamp);
+      }
+      if (hold != null) {
+        keyState.holds.put(id, hold);
+        computation.addOutputHold(hold);
+      }
+    }
+
+    for (Windmill.GlobalData update : commit.getGlobalDataUpdatesList()) {
+      globalData.put(update.getDataId(), update);
+      Set<KeyState> blocked = blockedOnGlobalData.remove(update.getDataId());
+      if (blocked != null) {
+        for (KeyState blockedKey : blocked) {
+          blockedKey.notifications.add(update.getDataId());
+          for (ComputationState c : computations.values()) {
+            if (c.keys.get(blockedKey.key) == blockedKey) {
+              c.markReady(blockedKey);
+            }
+          }
+        }
+      }
+    }
+    for (Windmill.GlobalDataRequest blockingRequest : commit.getGlobalDataRequestsList()) {
+      Windmill.GlobalDataId id = blockingRequest.getDataId();
+      if (globalData.containsKey(id)) {
+        keyState.notifications.add(id);
+      } else {
+        Set<KeyState> blocked = blockedOnGlobalData.get(id);
+        if (blocked == null) {
+          blocked = new HashSet<>();
+          blockedOnGlobalData.put(id, blocked);
+        }
+        blocked.add(keyState);
+      }
+    }
+
+    if (commit.hasSourceStateUpdates()) {
+      keyState.sourceState = commit.getSourceStateUpdates();
+    }
+    if (commit.hasSourceWatermark()) {
+      keyState.sourceWatermark = Math.max(keyState.sourceWatermark, commit.getSourceWatermark());
+    }
+
+    for (Windmill.Counter counter : commit.getCounterUpdatesList()) {
+      addCounter(counter);
+    }
+
+    workLatency.record(TimeUnit.NANOSECONDS.toMicros(nowNanos - keyState.activeSinceNanos));
+    for (PendingMessage pending : keyState.inFlight) {
+      messageLatency.record(TimeUnit.NANOSECONDS.toMicros(nowNanos - pending.enqueuedNanos));
+      computation.removeOutputHold(pending.message.getTimestamp());
+    }
+
+    computation.active.remove(keyState);
+    keyState.clearActiveWork();
+    if (keyState.isSourceKey) {
+      keyState.nextPollMicros = producedOutput ? 0 : nowMicros + SOURCE_POLL_DELAY_MICROS;
+    }
+    if (keyState.hasWork(nowMicros)) {
+      computation.markReady(keyState);
+    }
+  }
+
+  private void addCounter(Windmill.Counter counter) {
+    if (counter.getKind() == Windmill.Counter.Kind.SUM && counter.hasIntScalar()) {
+      Long value = counters.get(counter.getName());
+      counters.put(counter.getName(), (value == null ? 0 : value) + counter.getIntScalar());
+    }
+  }
+
+  @Override
+  public synchronized Windmill.GetConfigResponse getConfig(Windmill.GetConfigRequest request) {
+    Windmill.GetConfigResponse.Builder response = Windmill.GetConfigResponse.newBuilder();
+    for (String computationId : request.getComputationsList()) {
+      String config = configs.get(computationId);
+      if (config != null) {
+        response.addCloudWorks(config);
+      }
+    }
+    return response.build();
+  }
+
+  @Override
+  public synchronized Windmill.ReportStatsResponse reportStats(
+      Windmill.ReportStatsRequest request) {
+    for (Windmill.Counter counter : request.getCounterUpdatesList()) {
+      addCounter(counter);
+    }
+    if (request.getExceptionsCount() > 0) {
+      LOG.warn("Work for {} key {} failed: {}", request.getComputationId(),
+          request.getKey().toStringUtf8(), request.getExceptions(0).getStackFramesList());
+    }
+    return Windmill.ReportStatsResponse.getDefaultInstance();
+  }
+}
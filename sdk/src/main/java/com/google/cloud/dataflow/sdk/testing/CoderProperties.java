@@ -21,8 +21,10 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
@@ -37,6 +39,7 @@ import com.google.cloud.dataflow.sdk.util.UnownedInputStream;
 import com.google.cloud.dataflow.sdk.util.UnownedOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
+import com.google.common.primitives.UnsignedBytes;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -44,6 +47,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -207,6 +211,43 @@ public class CoderProperties {
             encode(coder, context, value2)));
   }
 
+  /**
+   * Verifies that the given {@code Coder<T>} is order-preserving, and that the encodings of the
+   * given values compare as unsigned bytes the same way that {@code comparator} compares the
+   * values, in any {@code Coder.Context}.
+   */
+  public static <T> void coderPreservesOrder(
+      Coder<T> coder, Comparator<? super T> comparator, T value1, T value2)
+      throws Exception {
+    for (Coder.Context context : ALL_CONTEXTS) {
+      CoderProperties.<T>coderPreservesOrderInContext(
+          coder, context, comparator, value1, value2);
+    }
+  }
+
+  /**
+   * Verifies that the given {@code Coder<T>} is order-preserving, and that the encodings of the
+   * given values compare as unsigned bytes the same way that {@code comparator} compares the
+   * values. In the nested context, also verifies that neither encoding is a proper prefix of the
+   * other.
+   */
+  public static <T> void coderPreservesOrderInContext(
+      Coder<T> coder, Coder.Context context, Comparator<? super T> comparator,
+      T value1, T value2) throws Exception {
+    assertTrue("Expected that the coder is order-preserving", CoderUtils.isOrderPreserving(coder));
+    byte[] encoded1 = encode(coder, context, value1);
+    byte[] encoded2 = encode(coder, context, value2);
+    assertEquals(
+        Integer.signum(comparator.compare(value1, value2)),
+        Integer.signum(UnsignedBytes.lexicographicalComparator().compare(encoded1, encoded2)));
+    if (!context.isWholeStream && !Arrays.equals(encoded1, encoded2)) {
+      int prefixLength = Math.min(encoded1.length, encoded2.length);
+      assertThat("Expected that neither encoding is a prefix of the other",
+          Arrays.copyOf(encoded1, prefixLength),
+          not(equalTo(Arrays.copyOf(encoded2, prefixLength))));
+    }
+  }
+
   public static <T> void coderHasEncodingId(Coder<T> coder, String encodingId) throws Exception {
     assertThat(coder.getEncodingId(), equalTo(encodingId));
     assertThat(Structs.getString(coder.asCloudObject(), PropertyNames.ENCODING_ID, ""),
@@ -328,7 +369,7 @@ public class CoderProperties {
     Coder<T> deserializedCoder = Serializer.deserialize(coder.asCloudObject(), Coder.class);
 
     ByteArrayOutputStream os = new ByteArrayOutputStream();
-    deserializedCoder.encode(value, new UnownedOutputStream(os), context);
+    deserializedCoder.encode(value, UnownedOutputStream.of(os), context);
     return os.toByteArray();
   }
 
@@ -339,7 +380,7 @@ public class CoderProperties {
     Coder<T> deserializedCoder = Serializer.deserialize(coder.asCloudObject(), Coder.class);
 
     ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-    return deserializedCoder.decode(new UnownedInputStream(is), context);
+    return deserializedCoder.decode(UnownedInputStream.of(is), context);
   }
 
   private static <T> T decodeEncode(Coder<T> coder, Coder.Context context, T value)
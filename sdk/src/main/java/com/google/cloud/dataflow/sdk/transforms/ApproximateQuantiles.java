@@ -24,6 +24,7 @@ import com.google.cloud.dataflow.sdk.coders.CustomCoder;
 import com.google.cloud.dataflow.sdk.coders.ListCoder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.AccumulatingCombineFn;
 import com.google.cloud.dataflow.sdk.transforms.Combine.AccumulatingCombineFn.Accumulator;
+import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.util.Sized;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.values.KV;
@@ -178,6 +179,69 @@ public class ApproximateQuantiles {
   }
 
 
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<Double>}
+   * and returns a {@code PCollection<List<Double>>} whose single value is a
+   * {@code List} of the approximate {@code N}-tiles of the elements
+   * of the input {@code PCollection}, like {@link #globally(int)}.
+   *
+   * <p>The elements are summarized by a {@link KllQuantilesSketch} of
+   * primitive values, which is much cheaper to update, merge and encode
+   * than the accumulator of {@link #globally(int)}.  The rank error is
+   * at most {@code 1 / numQuantiles} with 99% probability.
+   *
+   * <p>Example of use:
+   * <pre> {@code
+   * PCollection<Double> latencies = ...;
+   * PCollection<List<Double>> percentiles =
+   *     latencies.apply(ApproximateQuantiles.ofDoubles(101));
+   * } </pre>
+   *
+   * @param numQuantiles the number of elements in the resulting
+   *        quantile values {@code List}
+   */
+  public static Combine.Globally<Double, List<Double>> ofDoubles(int numQuantiles) {
+    return Combine.globally(DoubleQuantilesCombineFn.create(numQuantiles));
+  }
+
+  /**
+   * Like {@link #ofDoubles(int)}, but for {@code Long} elements.
+   *
+   * @param numQuantiles the number of elements in the resulting
+   *        quantile values {@code List}
+   */
+  public static Combine.Globally<Long, List<Long>> ofLongs(int numQuantiles) {
+    return Combine.globally(LongQuantilesCombineFn.create(numQuantiles));
+  }
+
+  /**
+   * Like {@link #perKey(int)}, but for {@code Double} values, which are
+   * summarized as in {@link #ofDoubles(int)}.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param numQuantiles the number of elements in the resulting
+   *        quantile values {@code List}
+   */
+  public static <K> PTransform<PCollection<KV<K, Double>>, PCollection<KV<K, List<Double>>>>
+      ofDoublesPerKey(int numQuantiles) {
+    return Combine.perKey(DoubleQuantilesCombineFn.create(numQuantiles).<K>asKeyedFn());
+  }
+
+  /**
+   * Like {@link #perKey(int)}, but for {@code Long} values, which are
+   * summarized as in {@link #ofLongs(int)}.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param numQuantiles the number of elements in the resulting
+   *        quantile values {@code List}
+   */
+  public static <K> PTransform<PCollection<KV<K, Long>>, PCollection<KV<K, List<Long>>>>
+      ofLongsPerKey(int numQuantiles) {
+    return Combine.perKey(LongQuantilesCombineFn.create(numQuantiles).<K>asKeyedFn());
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -359,6 +423,170 @@ public class ApproximateQuantiles {
     }
   }
 
+  /**
+   * A {@code CombineFn} computing approximate {@code N}-tiles of numeric
+   * values with a {@link KllQuantilesSketch}, which holds the values as
+   * order-preserving primitive {@code long}s.
+   *
+   * @param <T> the type of the values being combined
+   */
+  abstract static class SketchQuantilesCombineFn<T>
+      extends CombineFn<T, KllQuantilesSketch, List<T>> {
+
+    private final int numQuantiles;
+    private final int k;
+
+    SketchQuantilesCombineFn(int numQuantiles, int k) {
+      Preconditions.checkArgument(numQuantiles >= 2);
+      KllQuantilesSketch.create(k);
+      this.numQuantiles = numQuantiles;
+      this.k = k;
+    }
+
+    /**
+     * Returns the {@code k} giving a rank error of at most
+     * {@code 1 / numQuantiles}, and at least {@link KllQuantilesSketch#DEFAULT_K}.
+     */
+    static int defaultK(int numQuantiles) {
+      return Math.max(KllQuantilesSketch.DEFAULT_K,
+          KllQuantilesSketch.kForNormalizedRankError(1.0 / numQuantiles));
+    }
+
+    int getNumQuantiles() {
+      return numQuantiles;
+    }
+
+    int getK() {
+      return k;
+    }
+
+    /** Maps a value to a {@code long} in the same order. */
+    abstract long toSortableLong(T value);
+
+    /** The inverse of {@link #toSortableLong}. */
+    abstract T fromSortableLong(long value);
+
+    @Override
+    public KllQuantilesSketch createAccumulator() {
+      return KllQuantilesSketch.create(k);
+    }
+
+    @Override
+    public KllQuantilesSketch addInput(KllQuantilesSketch sketch, T input) {
+      sketch.add(toSortableLong(input));
+      return sketch;
+    }
+
+    @Override
+    public KllQuantilesSketch mergeAccumulators(Iterable<KllQuantilesSketch> sketches) {
+      Iterator<KllQuantilesSketch> iterator = sketches.iterator();
+      KllQuantilesSketch sketch = iterator.next();
+      while (iterator.hasNext()) {
+        sketch.merge(iterator.next());
+      }
+      return sketch;
+    }
+
+    @Override
+    public List<T> extractOutput(KllQuantilesSketch sketch) {
+      long[] quantiles = sketch.getQuantiles(numQuantiles);
+      List<T> output = new ArrayList<>(quantiles.length);
+      for (long quantile : quantiles) {
+        output.add(fromSortableLong(quantile));
+      }
+      return output;
+    }
+
+    @Override
+    public Coder<KllQuantilesSketch> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return KllQuantilesSketch.getCoder();
+    }
+
+    @Override
+    public Coder<List<T>> getDefaultOutputCoder(CoderRegistry registry, Coder<T> inputCoder) {
+      return ListCoder.of(inputCoder);
+    }
+  }
+
+  /**
+   * A {@code CombineFn} computing approximate {@code N}-tiles of
+   * {@code Double}s.  Used to implement {@link #ofDoubles(int)}.
+   */
+  public static class DoubleQuantilesCombineFn extends SketchQuantilesCombineFn<Double> {
+
+    /**
+     * Returns a combiner producing {@code numQuantiles} quantiles,
+     * including the minimum and maximum, with a rank error of at most
+     * {@code 1 / numQuantiles}.
+     */
+    public static DoubleQuantilesCombineFn create(int numQuantiles) {
+      return new DoubleQuantilesCombineFn(numQuantiles, defaultK(numQuantiles));
+    }
+
+    /**
+     * Returns a {@code DoubleQuantilesCombineFn} that's like this one
+     * except that its sketches use the given {@code k}.  Does not modify
+     * this combiner.
+     */
+    public DoubleQuantilesCombineFn withK(int k) {
+      return new DoubleQuantilesCombineFn(getNumQuantiles(), k);
+    }
+
+    private DoubleQuantilesCombineFn(int numQuantiles, int k) {
+      super(numQuantiles, k);
+    }
+
+    @Override
+    long toSortableLong(Double value) {
+      return KllQuantilesSketch.doubleToSortableLong(value);
+    }
+
+    @Override
+    Double fromSortableLong(long value) {
+      return KllQuantilesSketch.sortableLongToDouble(value);
+    }
+  }
+
+  /**
+   * A {@code CombineFn} computing approximate {@code N}-tiles of
+   * {@code Long}s.  Used to implement {@link #ofLongs(int)}.
+   */
+  public static class LongQuantilesCombineFn extends SketchQuantilesCombineFn<Long> {
+
+    /**
+     * Returns a combiner producing {@code numQuantiles} quantiles,
+     * including the minimum and maximum, with a rank error of at most
+     * {@code 1 / numQuantiles}.
+     */
+    public static LongQuantilesCombineFn create(int numQuantiles) {
+      return new LongQuantilesCombineFn(numQuantiles, defaultK(numQuantiles));
+    }
+
+    /**
+     * Returns a {@code LongQuantilesCombineFn} that's like this one
+     * except that its sketches use the given {@code k}.  Does not modify
+     * this combiner.
+     */
+    public LongQuantilesCombineFn withK(int k) {
+      return new LongQuantilesCombineFn(getNumQuantiles(), k);
+    }
+
+    private LongQuantilesCombineFn(int numQuantiles, int k) {
+      super(numQuantiles, k);
+    }
+
+    @Override
+    long toSortableLong(Long value) {
+      return value;
+    }
+
+    @Override
+    Long fromSortableLong(long value) {
+      return value;
+    }
+  }
+
   /**
    * Compact summarization of a collection on which quantiles can be estimated.
    */
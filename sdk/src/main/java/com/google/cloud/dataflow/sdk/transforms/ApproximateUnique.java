@@ -16,6 +16,7 @@
 
 package com.google.cloud.dataflow.sdk.transforms;
 
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.Coder.Context;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
@@ -23,13 +24,24 @@ import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
+import com.google.cloud.dataflow.sdk.util.VarInt;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.hash.Hashing;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -147,6 +159,95 @@ public class ApproximateUnique {
     return new PerKey<>(maximumEstimationError);
   }
 
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<T>}
+   * and returns a {@code PCollection<HyperLogLogSketch>} containing a
+   * single {@link HyperLogLogSketch} of the distinct elements in the
+   * input {@code PCollection}.
+   *
+   * <p>Unlike the estimates of {@link #globally(int)}, sketches can be
+   * merged with {@link HyperLogLogSketch#merge}, e.g. to estimate the
+   * number of distinct elements across several {@code PCollection}s or
+   * windows without reading the elements again.  A sketch with precision
+   * {@code p} takes at most {@code 2^p} bytes, and its estimation error
+   * is about {@code 1.04 / sqrt(2^p)}; see
+   * {@link HyperLogLogSketch#precisionForEstimationError}.
+   *
+   * <p>Example of use:
+   * <pre> {@code
+   * PCollection<String> pc = ...;
+   * PCollection<HyperLogLogSketch> sketch =
+   *     pc.apply(ApproximateUnique.<String>sketchGlobally(14));
+   * } </pre>
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   * @param precision the precision of the sketch, between
+   *        {@link HyperLogLogSketch#MIN_PRECISION} and
+   *        {@link HyperLogLogSketch#MAX_PRECISION}
+   * @throws IllegalArgumentException if the {@code precision} argument
+   *         is out of range
+   */
+  public static <T> SketchGlobally<T> sketchGlobally(int precision) {
+    return new SketchGlobally<>(precision);
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a
+   * {@code PCollection<KV<K, V>>} and returns a
+   * {@code PCollection<KV<K, HyperLogLogSketch>>} that contains an output
+   * element mapping each distinct key in the input {@code PCollection} to
+   * a {@link HyperLogLogSketch} of the distinct values associated with
+   * that key.
+   *
+   * <p>See {@link #sketchGlobally(int)} for an explanation of the
+   * {@code precision} parameter.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   * @throws IllegalArgumentException if the {@code precision} argument
+   *         is out of range
+   */
+  public static <K, V> SketchPerKey<K, V> sketchPerKey(int precision) {
+    return new SketchPerKey<>(precision);
+  }
+
+  /**
+   * Like {@link #globally(double)}, but computes the estimate from a
+   * {@link HyperLogLogSketch} of the smallest precision with the desired
+   * maximum estimation error, which takes constant time per element and
+   * needs less space than the sample of {@link #globally(double)}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   * @param maximumEstimationError the maximum estimation error, which
+   *        should be in the range {@code [0.003, 0.5]}
+   * @throws IllegalArgumentException if the
+   *         {@code maximumEstimationError} argument is out of range
+   */
+  public static <T> PTransform<PCollection<T>, PCollection<Long>> globallyWithHyperLogLog(
+      double maximumEstimationError) {
+    return new HyperLogLogGlobally<>(
+        HyperLogLogSketch.precisionForEstimationError(maximumEstimationError));
+  }
+
+  /**
+   * Like {@link #perKey(double)}, but computes the estimates from
+   * {@link HyperLogLogSketch}es, as in {@link #globallyWithHyperLogLog}.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   * @param maximumEstimationError the maximum estimation error, which
+   *        should be in the range {@code [0.003, 0.5]}
+   * @throws IllegalArgumentException if the
+   *         {@code maximumEstimationError} argument is out of range
+   */
+  public static <K, V> PTransform<PCollection<KV<K, V>>, PCollection<KV<K, Long>>>
+      perKeyWithHyperLogLog(double maximumEstimationError) {
+    return new HyperLogLogPerKey<>(
+        HyperLogLogSketch.precisionForEstimationError(maximumEstimationError));
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -253,6 +354,122 @@ public class ApproximateUnique {
     }
   }
 
+  /**
+   * {@code PTransform} for computing a {@link HyperLogLogSketch} of the
+   * distinct elements in a {@code PCollection}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  public static class SketchGlobally<T>
+      extends PTransform<PCollection<T>, PCollection<HyperLogLogSketch>> {
+
+    private final int precision;
+
+    /**
+     * @see ApproximateUnique#sketchGlobally(int)
+     */
+    SketchGlobally(int precision) {
+      HyperLogLogSketch.create(precision);
+      this.precision = precision;
+    }
+
+    @Override
+    public PCollection<HyperLogLogSketch> apply(PCollection<T> input) {
+      return input.apply(
+          Combine.globally(new HyperLogLogCombineFn<>(precision, input.getCoder())));
+    }
+  }
+
+  /**
+   * {@code PTransform} for computing a {@link HyperLogLogSketch} of the
+   * distinct values associated with each key in a {@code PCollection}
+   * of {@code KV}s.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   */
+  public static class SketchPerKey<K, V>
+      extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, HyperLogLogSketch>>> {
+
+    private final int precision;
+
+    /**
+     * @see ApproximateUnique#sketchPerKey(int)
+     */
+    SketchPerKey(int precision) {
+      HyperLogLogSketch.create(precision);
+      this.precision = precision;
+    }
+
+    @Override
+    public PCollection<KV<K, HyperLogLogSketch>> apply(PCollection<KV<K, V>> input) {
+      Coder<KV<K, V>> inputCoder = input.getCoder();
+      if (!(inputCoder instanceof KvCoder)) {
+        throw new IllegalStateException(
+            "ApproximateUnique.SketchPerKey requires its input to use KvCoder");
+      }
+      @SuppressWarnings("unchecked")
+      Coder<V> coder = ((KvCoder<K, V>) inputCoder).getValueCoder();
+
+      return input.apply(
+          Combine.perKey(new HyperLogLogCombineFn<>(precision, coder).<K>asKeyedFn()));
+    }
+  }
+
+  /**
+   * {@code PTransform} estimating the number of distinct elements in a
+   * {@code PCollection} with a {@link HyperLogLogSketch}.
+   */
+  static class HyperLogLogGlobally<T> extends PTransform<PCollection<T>, PCollection<Long>> {
+
+    private final int precision;
+
+    HyperLogLogGlobally(int precision) {
+      this.precision = precision;
+    }
+
+    @Override
+    public PCollection<Long> apply(PCollection<T> input) {
+      return input
+          .apply(new SketchGlobally<T>(precision))
+          .apply(ParDo.named("Estimate").of(new DoFn<HyperLogLogSketch, Long>() {
+            @Override
+            public void processElement(ProcessContext c) {
+              c.output(c.element().estimate());
+            }
+          }));
+    }
+  }
+
+  /**
+   * {@code PTransform} estimating the number of distinct values associated
+   * with each key in a {@code PCollection} of {@code KV}s with
+   * {@link HyperLogLogSketch}es.
+   */
+  static class HyperLogLogPerKey<K, V>
+      extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, Long>>> {
+
+    private final int precision;
+
+    HyperLogLogPerKey(int precision) {
+      this.precision = precision;
+    }
+
+    @Override
+    public PCollection<KV<K, Long>> apply(PCollection<KV<K, V>> input) {
+      return input
+          .apply(new SketchPerKey<K, V>(precision))
+          .apply(ParDo.named("Estimate")
+              .of(new DoFn<KV<K, HyperLogLogSketch>, KV<K, Long>>() {
+                @Override
+                public void processElement(ProcessContext c) {
+                  c.output(KV.of(c.element().getKey(), c.element().getValue().estimate()));
+                }
+              }));
+    }
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -282,10 +499,33 @@ public class ApproximateUnique {
 
     /**
      * A heap utility class to efficiently track the largest added elements.
+     *
+     * <p>The values are kept in a binary min-heap of primitive {@code long}s, together with an
+     * open-addressing hash set of the same values, so that adding a value takes constant time
+     * when it is too small to be in the heap, and logarithmic time otherwise.
+     *
+     * <p>The serialized form is that of earlier versions, which kept the values in a
+     * {@link PriorityQueue}, so that accumulators encoded with {@link SerializableCoder} remain
+     * compatible.
      */
     public static class LargestUnique implements Serializable {
-      private PriorityQueue<Long> heap = new PriorityQueue<>();
-      private final long sampleSize;
+      private static final long serialVersionUID = -6881477794029506118L;
+
+      private static final ObjectStreamField[] serialPersistentFields = {
+          new ObjectStreamField("heap", PriorityQueue.class),
+          new ObjectStreamField("sampleSize", long.class)};
+
+      private long sampleSize;
+
+      // A min-heap of the largest values, in heap[0..size).
+      private transient long[] heap;
+      private transient int size;
+
+      // A linear-probing hash set of the nonzero values in the heap, with 0 marking empty
+      // slots, and whether the heap contains 0.
+      private transient long[] table;
+      private transient int tableShift;
+      private transient boolean containsZero;
 
       /**
        * Creates a heap to track the largest {@code sampleSize} elements.
@@ -294,6 +534,37 @@ public class ApproximateUnique {
        */
       public LargestUnique(long sampleSize) {
         this.sampleSize = sampleSize;
+        clear();
+      }
+
+      private void clear() {
+        heap = new long[16];
+        size = 0;
+        table = new long[32];
+        tableShift = 64 - 5;
+        containsZero = false;
+      }
+
+      private void writeObject(ObjectOutputStream out) throws IOException {
+        PriorityQueue<Long> queue = new PriorityQueue<>(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+          queue.add(heap[i]);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("heap", queue);
+        fields.put("sampleSize", sampleSize);
+        out.writeFields();
+      }
+
+      private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        sampleSize = fields.get("sampleSize", 0L);
+        clear();
+        @SuppressWarnings("unchecked")
+        PriorityQueue<Long> queue = (PriorityQueue<Long>) fields.get("heap", null);
+        for (Long value : queue) {
+          add(value.longValue());
+        }
       }
 
       /**
@@ -301,14 +572,31 @@ public class ApproximateUnique {
        * to be) in the heap.
        */
       public boolean add(Long value) {
-        if (heap.contains(value)) {
+        return add(value.longValue());
+      }
+
+      /**
+       * Adds a value to the heap, returning whether the value is (large enough
+       * to be) in the heap.
+       */
+      public boolean add(long value) {
+        if (size == sampleSize && value < heap[0]) {
+          return false;
+        } else if (contains(value)) {
           return true;
-        } else if (heap.size() < sampleSize) {
-          heap.add(value);
+        } else if (size < sampleSize) {
+          if (size == heap.length) {
+            heap = Arrays.copyOf(heap, (int) Math.min(sampleSize, 2L * heap.length));
+          }
+          heap[size] = value;
+          siftUp(size++);
+          insert(value);
           return true;
-        } else if (value > heap.element()) {
-          heap.remove();
-          heap.add(value);
+        } else if (value > heap[0]) {
+          remove(heap[0]);
+          heap[0] = value;
+          siftDown(0);
+          insert(value);
           return true;
         } else {
           return false;
@@ -319,22 +607,193 @@ public class ApproximateUnique {
        * Returns the values in the heap, ordered largest to smallest.
        */
       public List<Long> extractOrderedList() {
-        // The only way to extract the order from the heap is element-by-element
-        // from smallest to largest.
-        Long[] array = new Long[heap.size()];
-        for (int i = heap.size() - 1; i >= 0; i--) {
-          array[i] = heap.remove();
+        long[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted);
+        List<Long> list = new ArrayList<>(size);
+        for (int i = size - 1; i >= 0; i--) {
+          list.add(sorted[i]);
+        }
+        return list;
+      }
+
+      /** Returns the number of values in the heap. */
+      int size() {
+        return size;
+      }
+
+      /** Returns the smallest value in the heap, which must not be empty. */
+      long smallest() {
+        return heap[0];
+      }
+
+      private void siftUp(int i) {
+        long value = heap[i];
+        while (i > 0) {
+          int parent = (i - 1) >>> 1;
+          if (heap[parent] <= value) {
+            break;
+          }
+          heap[i] = heap[parent];
+          i = parent;
+        }
+        heap[i] = value;
+      }
+
+      private void siftDown(int i) {
+        long value = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+          int child = 2 * i + 1;
+          if (child + 1 < size && heap[child + 1] < heap[child]) {
+            child++;
+          }
+          if (value <= heap[child]) {
+            break;
+          }
+          heap[i] = heap[child];
+          i = child;
+        }
+        heap[i] = value;
+      }
+
+      private int slot(long value) {
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> tableShift);
+      }
+
+      private boolean contains(long value) {
+        if (value == 0) {
+          return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(value); table[i] != 0; i = (i + 1) & mask) {
+          if (table[i] == value) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      private void insert(long value) {
+        if (value == 0) {
+          containsZero = true;
+          return;
+        }
+        if (2 * size > table.length) {
+          // Keep the table at most half full; it holds at most size values.
+          long[] old = table;
+          table = new long[2 * old.length];
+          tableShift--;
+          for (long v : old) {
+            if (v != 0) {
+              insertIntoTable(v);
+            }
+          }
+        }
+        insertIntoTable(value);
+      }
+
+      private void insertIntoTable(long value) {
+        int mask = table.length - 1;
+        int i = slot(value);
+        while (table[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        table[i] = value;
+      }
+
+      private void remove(long value) {
+        if (value == 0) {
+          containsZero = false;
+          return;
+        }
+        int mask = table.length - 1;
+        int i = slot(value);
+        while (table[i] != value) {
+          i = (i + 1) & mask;
+        }
+        // Shift back later entries of the probe sequence that would otherwise become
+        // unreachable, rather than leaving a tombstone.
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+          int home = slot(table[j]);
+          boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+          if (!reachable) {
+            table[i] = table[j];
+            i = j;
+          }
+        }
+        table[i] = 0;
+      }
+    }
+
+    /**
+     * A {@link Coder} for {@link LargestUnique}, which encodes the sample size and the values
+     * in the heap.
+     *
+     * <p>Much more compact than the default {@link SerializableCoder}, but not compatible with
+     * it; see {@link ApproximateUniqueCombineFn#withCompactAccumulatorCoder}.
+     */
+    static class LargestUniqueCoder extends AtomicCoder<LargestUnique> {
+
+      @JsonCreator
+      public static LargestUniqueCoder of() {
+        return INSTANCE;
+      }
+
+      private static final LargestUniqueCoder INSTANCE = new LargestUniqueCoder();
+
+      private LargestUniqueCoder() {}
+
+      @Override
+      public void encode(LargestUnique value, OutputStream outStream, Context context)
+          throws IOException {
+        if (value == null) {
+          throw new CoderException("cannot encode a null LargestUnique");
+        }
+        VarInt.encode(value.sampleSize, outStream);
+        VarInt.encode(value.size, outStream);
+        DataOutputStream dataOutStream = new DataOutputStream(outStream);
+        for (int i = 0; i < value.size; i++) {
+          dataOutStream.writeLong(value.heap[i]);
+        }
+        dataOutStream.flush();
+      }
+
+      @Override
+      public LargestUnique decode(InputStream inStream, Context context) throws IOException {
+        LargestUnique value = new LargestUnique(VarInt.decodeLong(inStream));
+        int size = VarInt.decodeInt(inStream);
+        DataInputStream dataInStream = new DataInputStream(inStream);
+        for (int i = 0; i < size; i++) {
+          value.add(dataInStream.readLong());
         }
-        return Arrays.asList(array);
+        return value;
       }
     }
 
     private final long sampleSize;
     private final Coder<T> coder;
+    private final boolean compactAccumulatorCoder;
 
     public ApproximateUniqueCombineFn(long sampleSize, Coder<T> coder) {
+      this(sampleSize, coder, false);
+    }
+
+    private ApproximateUniqueCombineFn(
+        long sampleSize, Coder<T> coder, boolean compactAccumulatorCoder) {
       this.sampleSize = sampleSize;
       this.coder = coder;
+      this.compactAccumulatorCoder = compactAccumulatorCoder;
+    }
+
+    /**
+     * Returns a {@code CombineFn} like this one that encodes its accumulators with a compact
+     * binary coder rather than Java serialization.
+     *
+     * <p>The encoding is not compatible with the default one, so a running pipeline cannot be
+     * updated to use it.
+     */
+    public ApproximateUniqueCombineFn<T> withCompactAccumulatorCoder() {
+      return new ApproximateUniqueCombineFn<>(sampleSize, coder, true);
     }
 
     @Override
@@ -369,11 +828,10 @@ public class ApproximateUnique {
 
     @Override
     public Long extractOutput(LargestUnique heap) {
-      List<Long> largestHashes = heap.extractOrderedList();
-      if (largestHashes.size() < sampleSize) {
-        return (long) largestHashes.size();
+      if (heap.size() < sampleSize) {
+        return (long) heap.size();
       } else {
-        long smallestSampleHash = largestHashes.get(largestHashes.size() - 1);
+        long smallestSampleHash = heap.smallest();
         double sampleSpaceSize = Long.MAX_VALUE - (double) smallestSampleHash;
         // This formula takes into account the possibility of hash collisions,
         // which become more likely than not for 2^32 distinct elements.
@@ -391,6 +849,9 @@ public class ApproximateUnique {
     @Override
     public Coder<LargestUnique> getAccumulatorCoder(CoderRegistry registry,
         Coder<T> inputCoder) {
+      if (compactAccumulatorCoder) {
+        return LargestUniqueCoder.of();
+      }
       return SerializableCoder.of(LargestUnique.class);
     }
 
@@ -405,6 +866,75 @@ public class ApproximateUnique {
     }
   }
 
+  /**
+   * {@code CombineFn} that computes a {@link HyperLogLogSketch} of the
+   * distinct values that were combined.
+   *
+   * <p>Used to implement
+   * {@link #sketchGlobally(int) ApproximateUnique.sketchGlobally(...)} and
+   * {@link #sketchPerKey(int) ApproximateUnique.sketchPerKey(...)}.
+   *
+   * @param <T> the type of the values being combined
+   */
+  public static class HyperLogLogCombineFn<T>
+      extends CombineFn<T, HyperLogLogSketch, HyperLogLogSketch> {
+
+    private final int precision;
+    private final Coder<T> coder;
+
+    /**
+     * Creates a {@code CombineFn} whose sketches have the given precision, and which hashes
+     * the encodings of the values by the given coder.
+     */
+    public HyperLogLogCombineFn(int precision, Coder<T> coder) {
+      HyperLogLogSketch.create(precision);
+      this.precision = precision;
+      this.coder = coder;
+    }
+
+    @Override
+    public HyperLogLogSketch createAccumulator() {
+      return HyperLogLogSketch.create(precision);
+    }
+
+    @Override
+    public HyperLogLogSketch addInput(HyperLogLogSketch sketch, T input) {
+      try {
+        sketch.addHash(ApproximateUniqueCombineFn.hash(input, coder));
+        return sketch;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public HyperLogLogSketch mergeAccumulators(Iterable<HyperLogLogSketch> sketches) {
+      Iterator<HyperLogLogSketch> iterator = sketches.iterator();
+      HyperLogLogSketch sketch = iterator.next();
+      while (iterator.hasNext()) {
+        sketch.merge(iterator.next());
+      }
+      return sketch;
+    }
+
+    @Override
+    public HyperLogLogSketch extractOutput(HyperLogLogSketch sketch) {
+      return sketch;
+    }
+
+    @Override
+    public Coder<HyperLogLogSketch> getAccumulatorCoder(CoderRegistry registry,
+        Coder<T> inputCoder) {
+      return HyperLogLogSketch.getCoder();
+    }
+
+    @Override
+    public Coder<HyperLogLogSketch> getDefaultOutputCoder(CoderRegistry registry,
+        Coder<T> inputCoder) {
+      return HyperLogLogSketch.getCoder();
+    }
+  }
+
   /**
    * Computes the sampleSize based on the desired estimation error.
    *
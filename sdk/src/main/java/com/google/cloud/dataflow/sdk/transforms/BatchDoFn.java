@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.cloud.dataflow.sdk.annotations.Experimental;
+import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.values.PCollectionView;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+
+import org.joda.time.Instant;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link DoFn} that processes its input elements in batches, to amortize the per-element
+ * overhead of the runner for CPU-bound work such as numeric computation or parsing, or to
+ * process the elements of a batch together.
+ *
+ * <p>All the elements of a batch have the same timestamp, are in the same windows and pane, and
+ * are consecutive elements of the same bundle.  A batch holds at most
+ * {@link #getMaxBatchSize()} elements.  A batch is processed when it is full, when the next
+ * element has a different timestamp, windows or pane, and before
+ * {@link #finishBundle finishBundle}, so the outputs of a batch may be emitted after the
+ * {@link ParDo} has received elements that follow it.
+ *
+ * <p>Example of use:
+ * <pre> {@code
+ * PCollection<String> lines = ...;
+ * PCollection<Double> values = lines.apply(ParDo.of(
+ *     new BatchDoFn<String, Double>() {
+ *       @Override
+ *       public void processBatch(BatchContext c) {
+ *         for (double value : parseAll(c.elements())) {
+ *           c.output(value);
+ *         }
+ *       }
+ *     }));
+ * } </pre>
+ *
+ * <p>Runners that do not form batches call {@link #processElement}, which processes each
+ * element as a batch of one.
+ *
+ * @param <InputT> the type of the (main) input elements
+ * @param <OutputT> the type of the (main) output elements
+ */
+@Experimental
+public abstract class BatchDoFn<InputT, OutputT> extends DoFn<InputT, OutputT> {
+
+  /** The largest number of elements in a batch, unless another is given to the constructor. */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+  private final int maxBatchSize;
+
+  /**
+   * Creates a {@code BatchDoFn} with batches of at most {@link #DEFAULT_MAX_BATCH_SIZE}
+   * elements.
+   */
+  public BatchDoFn() {
+    this(DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Creates a {@code BatchDoFn} with batches of at most the given number of elements.
+   */
+  public BatchDoFn(int maxBatchSize) {
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive, not %s", maxBatchSize);
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Returns the largest number of elements in a batch.
+   */
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Information accessible when running {@link BatchDoFn#processBatch}.
+   *
+   * <p>Outputs have the timestamp and are in the windows and pane of the elements of the batch,
+   * as for the outputs of {@link DoFn#processElement}.
+   */
+  public abstract class BatchContext extends Context {
+
+    /**
+     * Returns the input elements to be processed, in the order in which they were received.
+     *
+     * <p>The elements should be considered immutable, as for {@link ProcessContext#element}.
+     * The list is only valid during the call to {@link BatchDoFn#processBatch}.
+     */
+    public abstract List<InputT> elements();
+
+    /**
+     * Returns the value of the side input for the window corresponding to the
+     * window of the elements.
+     *
+     * @see ProcessContext#sideInput
+     */
+    public abstract <T> T sideInput(PCollectionView<T> view);
+
+    /**
+     * Returns the timestamp of the elements.
+     */
+    public abstract Instant timestamp();
+
+    /**
+     * Returns the window into which the elements have been assigned.
+     *
+     * @throws UnsupportedOperationException if this {@link BatchDoFn} does
+     * not implement {@link DoFn.RequiresWindowAccess}.
+     */
+    public abstract BoundedWindow window();
+
+    /**
+     * Returns information about the pane within the window into which the
+     * elements have been assigned.
+     */
+    public abstract PaneInfo pane();
+  }
+
+  /**
+   * Processes a batch of input elements.
+   *
+   * <p>Values are added to the main output {@code PCollection} by {@link BatchContext#output}.
+   *
+   * @see BatchContext
+   */
+  public abstract void processBatch(BatchContext c) throws Exception;
+
+  /**
+   * Processes the element as a batch of one element.
+   */
+  @Override
+  public final void processElement(ProcessContext c) throws Exception {
+    processBatch(forElements(c, Collections.singletonList(c.element())));
+  }
+
+  /**
+   * Returns a {@link BatchContext} for the given elements, which has the timestamp, windows and
+   * pane of the given {@link ProcessContext}, and sends outputs to it.
+   *
+   * <p>For use by runners.
+   */
+  @Experimental
+  public BatchContext forElements(final ProcessContext c, final List<InputT> elements) {
+    return new BatchContext() {
+      @Override
+      public PipelineOptions getPipelineOptions() {
+        return c.getPipelineOptions();
+      }
+
+      @Override
+      public List<InputT> elements() {
+        return elements;
+      }
+
+      @Override
+      public <T> T sideInput(PCollectionView<T> view) {
+        return c.sideInput(view);
+      }
+
+      @Override
+      public Instant timestamp() {
+        return c.timestamp();
+      }
+
+      @Override
+      public BoundedWindow window() {
+        return c.window();
+      }
+
+      @Override
+      public PaneInfo pane() {
+        return c.pane();
+      }
+
+      @Override
+      public void output(OutputT output) {
+        c.output(output);
+      }
+
+      @Override
+      public void outputWithTimestamp(OutputT output, Instant timestamp) {
+        c.outputWithTimestamp(output, timestamp);
+      }
+
+      @Override
+      public <T> void sideOutput(TupleTag<T> tag, T output) {
+        c.sideOutput(tag, output);
+      }
+
+      @Override
+      public <T> void sideOutputWithTimestamp(TupleTag<T> tag, T output, Instant timestamp) {
+        c.sideOutputWithTimestamp(tag, output, timestamp);
+      }
+
+      @Override
+      protected <AggInputT, AggOutputT> Aggregator<AggInputT, AggOutputT>
+          createAggregatorInternal(String name, CombineFn<AggInputT, ?, AggOutputT> combiner) {
+        return c.createAggregatorInternal(name, combiner);
+      }
+    };
+  }
+}
@@ -43,6 +43,8 @@ import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.cloud.dataflow.sdk.values.TupleTagList;
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -61,6 +63,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -1738,6 +1743,44 @@ public class Combine {
           });
     }
 
+    /**
+     * Like {@link #withHotKeyFanout(SerializableFunction)}, but choosing the fanout of each key
+     * from the observed frequencies of the keys, rather than from a given function.
+     *
+     * <p>Each worker tracks the most frequent keys of the elements that it processes in the step
+     * that adds the intermediate nodes, across all of its bundles of that step.  No key is hot
+     * until a worker has seen 1000 of those elements.  A key whose share of them is at least
+     * {@link PerKeyWithHotKeyFanout#DEFAULT_HOT_KEY_FRACTION} is spread among enough
+     * intermediate nodes that each gets about that share, up to
+     * {@link PerKeyWithHotKeyFanout#DEFAULT_MAX_HOT_KEY_FANOUT}; other keys are not sent
+     * through an intermediate node.  The hot keys that are detected are reported by the
+     * aggregators named by {@link PerKeyWithHotKeyFanout#HOT_KEYS_AGGREGATOR},
+     * {@link PerKeyWithHotKeyFanout#MAX_HOT_KEY_FANOUT_AGGREGATOR} and
+     * {@link PerKeyWithHotKeyFanout#HOT_KEY_ELEMENTS_AGGREGATOR}.
+     */
+    public PerKeyWithHotKeyFanout<K, InputT, OutputT> withAdaptiveHotKeyFanout() {
+      return withAdaptiveHotKeyFanout(PerKeyWithHotKeyFanout.DEFAULT_HOT_KEY_FRACTION,
+          PerKeyWithHotKeyFanout.DEFAULT_MAX_HOT_KEY_FANOUT);
+    }
+
+    /**
+     * Like {@link #withAdaptiveHotKeyFanout()}, but with the given share of the elements above
+     * which a key is hot, and the given largest fanout of a hot key.
+     *
+     * @param hotKeyFraction the share of the elements, between 0 and 1, above which a key is
+     * spread among intermediate nodes
+     * @param maxFanout the largest number of intermediate nodes, at least 2, among which a key
+     * is spread
+     */
+    public PerKeyWithHotKeyFanout<K, InputT, OutputT> withAdaptiveHotKeyFanout(
+        double hotKeyFraction, int maxFanout) {
+      Preconditions.checkArgument(hotKeyFraction > 0 && hotKeyFraction < 1,
+          "hotKeyFraction must be between 0 and 1, not %s", hotKeyFraction);
+      Preconditions.checkArgument(maxFanout >= 2,
+          "maxFanout must be at least 2, not %s", maxFanout);
+      return new PerKeyWithHotKeyFanout<K, InputT, OutputT>(name, fn, hotKeyFraction, maxFanout);
+    }
+
     /**
      * Returns the KeyedCombineFn used by this Combine operation.
      */
@@ -1759,8 +1802,41 @@ public class Combine {
   public static class PerKeyWithHotKeyFanout<K, InputT, OutputT>
       extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>> {
 
+    /**
+     * The share of the elements above which {@link PerKey#withAdaptiveHotKeyFanout()} spreads
+     * a key among intermediate nodes.
+     */
+    public static final double DEFAULT_HOT_KEY_FRACTION = 0.01;
+
+    /**
+     * The largest number of intermediate nodes among which
+     * {@link PerKey#withAdaptiveHotKeyFanout()} spreads a key.
+     */
+    public static final int DEFAULT_MAX_HOT_KEY_FANOUT = 64;
+
+    /**
+     * The name of the aggregator with the largest number of keys that a worker considered hot
+     * at the end of a bundle of the adaptive fanout step.
+     */
+    public static final String HOT_KEYS_AGGREGATOR = "HotKeys";
+
+    /**
+     * The name of the aggregator with the largest fanout that the adaptive fanout step gave a
+     * hot key.
+     */
+    public static final String MAX_HOT_KEY_FANOUT_AGGREGATOR = "MaxHotKeyFanout";
+
+    /**
+     * The name of the aggregator counting the elements that the adaptive fanout step sent
+     * through an intermediate node.
+     */
+    public static final String HOT_KEY_ELEMENTS_AGGREGATOR = "HotKeyElements";
+
     private final transient KeyedCombineFn<? super K, ? super InputT, ?, OutputT> fn;
+    // Null when the fanout is adaptive.
     private final SerializableFunction<? super K, Integer> hotKeyFanout;
+    private final double hotKeyFraction;
+    private final int maxHotKeyFanout;
 
     private PerKeyWithHotKeyFanout(String name,
         KeyedCombineFn<? super K, ? super InputT, ?, OutputT> fn,
@@ -1768,6 +1844,18 @@ public class Combine {
       super(name);
       this.fn = fn;
       this.hotKeyFanout = hotKeyFanout;
+      this.hotKeyFraction = 0;
+      this.maxHotKeyFanout = 0;
+    }
+
+    private PerKeyWithHotKeyFanout(String name,
+        KeyedCombineFn<? super K, ? super InputT, ?, OutputT> fn,
+        double hotKeyFraction, int maxHotKeyFanout) {
+      super(name);
+      this.fn = fn;
+      this.hotKeyFanout = null;
+      this.hotKeyFraction = hotKeyFraction;
+      this.maxHotKeyFanout = maxHotKeyFanout;
     }
 
     @Override
@@ -1881,32 +1969,37 @@ public class Combine {
             }
       };
 
-      // Use the provided hotKeyFanout fn to split into "hot" and "cold" keys,
-      // augmenting the hot keys with a nonce.
+      // Use the provided hotKeyFanout fn, or the observed key frequencies, to split into "hot"
+      // and "cold" keys, augmenting the hot keys with a nonce.
       final TupleTag<KV<KV<K, Integer>, InputT>> hot = new TupleTag<>();
       final TupleTag<KV<K, InputT>> cold = new TupleTag<>();
-      PCollectionTuple split = input.apply(
-          ParDo.named("AddNonce").of(
-              new DoFn<KV<K, InputT>, KV<K, InputT>>() {
-                transient int counter;
-                @Override
-                public void startBundle(Context c) {
-                  counter = ThreadLocalRandom.current().nextInt(
-                      Integer.MAX_VALUE);
-                }
+      DoFn<KV<K, InputT>, KV<K, InputT>> addNonce;
+      if (hotKeyFanout == null) {
+        addNonce = new AddAdaptiveNonceFn<K, InputT>(
+            inputCoder.getKeyCoder(), hot, hotKeyFraction, maxHotKeyFanout);
+      } else {
+        addNonce = new DoFn<KV<K, InputT>, KV<K, InputT>>() {
+          transient int counter;
+          @Override
+          public void startBundle(Context c) {
+            counter = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+          }
 
-                @Override
-                public void processElement(ProcessContext c) {
-                  KV<K, InputT> kv = c.element();
-                  int spread = Math.max(1, hotKeyFanout.apply(kv.getKey()));
-                  if (spread <= 1) {
-                    c.output(kv);
-                  } else {
-                    int nonce = counter++ % spread;
-                    c.sideOutput(hot, KV.of(KV.of(kv.getKey(), nonce), kv.getValue()));
-                  }
-                }
-              })
+          @Override
+          public void processElement(ProcessContext c) {
+            KV<K, InputT> kv = c.element();
+            int spread = Math.max(1, hotKeyFanout.apply(kv.getKey()));
+            if (spread <= 1) {
+              c.output(kv);
+            } else {
+              int nonce = counter++ % spread;
+              c.sideOutput(hot, KV.of(KV.of(kv.getKey(), nonce), kv.getValue()));
+            }
+          }
+        };
+      }
+      PCollectionTuple split = input.apply(
+          ParDo.named("AddNonce").of(addNonce)
           .withOutputTags(cold, TupleTagList.of(hot)));
 
       // The first level of combine should never use accumulating mode.
@@ -1956,6 +2049,137 @@ public class Combine {
           .apply("PostCombine", Combine.perKey(postCombine));
     }
 
+    /**
+     * Splits elements into hot and cold keys like the {@code AddNonce} step, but chooses the
+     * fanout of each key with a {@link HotKeySketch} of the keys that it has processed.
+     *
+     * <p>Runners deserialize a fresh instance of this {@link DoFn} for each bundle, so the
+     * sketch is kept in {@link #SKETCHES} under an id chosen when the step is constructed. All
+     * bundles of the step that a JVM processes, on any thread, share one sketch, so that a key
+     * that is hot over many small bundles is detected.
+     *
+     * <p>To keep threads from contending for the shared sketch, only about one in
+     * {@link #SAMPLING_PERIOD} elements is added to it, with that weight. Other elements take the
+     * fanout that the sketch last returned for their key in this bundle, or that it reported
+     * when the bundle started.
+     */
+    private static class AddAdaptiveNonceFn<K, InputT>
+        extends DoFn<KV<K, InputT>, KV<K, InputT>> {
+      /** The average number of elements per element added to the shared sketch. */
+      private static final int SAMPLING_PERIOD = 8;
+
+      /**
+       * The largest number of sketches kept per JVM. Only the least recently used sketches of
+       * JVMs that run more adaptive fanout steps than this are discarded and started over.
+       */
+      private static final int MAX_SKETCHES = 1000;
+
+      /** The sketch of each {@code AddAdaptiveNonceFn} step run in this JVM, by sketch id. */
+      private static final ConcurrentMap<String, HotKeySketch<Object>> SKETCHES =
+          CacheBuilder.newBuilder()
+              .maximumSize(MAX_SKETCHES)
+              .<String, HotKeySketch<Object>>build()
+              .asMap();
+
+      private final String sketchId = UUID.randomUUID().toString();
+      private final Coder<K> keyCoder;
+      private final TupleTag<KV<KV<K, Integer>, InputT>> hot;
+      private final double hotKeyFraction;
+      private final int maxHotKeyFanout;
+
+      private final Aggregator<Long, Long> hotKeys =
+          createAggregator(HOT_KEYS_AGGREGATOR, new Max.MaxLongFn());
+      private final Aggregator<Integer, Integer> maxFanout =
+          createAggregator(MAX_HOT_KEY_FANOUT_AGGREGATOR, new Max.MaxIntegerFn());
+      private final Aggregator<Long, Long> hotKeyElements =
+          createAggregator(HOT_KEY_ELEMENTS_AGGREGATOR, new Sum.SumLongFn());
+
+      // Shared with other instances of this step, so accessed only while holding its lock.
+      private transient HotKeySketch<Object> sketch;
+      // The fanout of each hot key as of the last time the sketch was consulted about it.
+      private transient Map<Object, Integer> hotKeyFanouts;
+      private transient int elementsUntilSample;
+      private transient int counter;
+      private transient long hotElementsInBundle;
+
+      AddAdaptiveNonceFn(Coder<K> keyCoder, TupleTag<KV<KV<K, Integer>, InputT>> hot,
+          double hotKeyFraction, int maxHotKeyFanout) {
+        this.keyCoder = keyCoder;
+        this.hot = hot;
+        this.hotKeyFraction = hotKeyFraction;
+        this.maxHotKeyFanout = maxHotKeyFanout;
+      }
+
+      @Override
+      public void startBundle(Context c) {
+        sketch = SKETCHES.get(sketchId);
+        if (sketch == null) {
+          HotKeySketch<Object> newSketch = new HotKeySketch<>(hotKeyFraction, maxHotKeyFanout);
+          sketch = SKETCHES.putIfAbsent(sketchId, newSketch);
+          if (sketch == null) {
+            sketch = newSketch;
+          }
+        }
+        synchronized (sketch) {
+          hotKeyFanouts = sketch.getHotKeys();
+        }
+        elementsUntilSample = nextSampleGap();
+        counter = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+        hotElementsInBundle = 0;
+      }
+
+      @Override
+      public void processElement(ProcessContext c) throws Exception {
+        KV<K, InputT> kv = c.element();
+        Object key = keyCoder.structuralValue(kv.getKey());
+        int spread;
+        if (--elementsUntilSample == 0) {
+          elementsUntilSample = nextSampleGap();
+          synchronized (sketch) {
+            spread = sketch.add(key, SAMPLING_PERIOD);
+          }
+          if (spread > 1) {
+            hotKeyFanouts.put(key, spread);
+          } else {
+            hotKeyFanouts.remove(key);
+          }
+        } else {
+          Integer fanout = hotKeyFanouts.get(key);
+          spread = fanout == null ? 1 : fanout;
+        }
+        if (spread <= 1) {
+          c.output(kv);
+        } else {
+          int nonce = counter++ % spread;
+          c.sideOutput(hot, KV.of(KV.of(kv.getKey(), nonce), kv.getValue()));
+          hotElementsInBundle++;
+        }
+      }
+
+      @Override
+      public void finishBundle(Context c) {
+        Map<Object, Integer> currentHotKeys;
+        synchronized (sketch) {
+          currentHotKeys = sketch.getHotKeys();
+        }
+        hotKeys.addValue((long) currentHotKeys.size());
+        if (!currentHotKeys.isEmpty()) {
+          maxFanout.addValue(Collections.max(currentHotKeys.values()));
+        }
+        hotKeyElements.addValue(hotElementsInBundle);
+        hotKeyFanouts = null;
+      }
+
+      /**
+       * Returns the number of elements until the next one that is added to the sketch: uniform
+       * between 1 and {@code 2 * SAMPLING_PERIOD - 1}, so that keys recurring with a fixed
+       * period are not sampled in lockstep.
+       */
+      private static int nextSampleGap() {
+        return 1 + ThreadLocalRandom.current().nextInt(2 * SAMPLING_PERIOD - 1);
+      }
+    }
+
     /**
      * Used to store either an input or accumulator value, for flattening
      * the hot and cold key paths.
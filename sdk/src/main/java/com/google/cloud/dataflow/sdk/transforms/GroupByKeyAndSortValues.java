@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static com.google.cloud.dataflow.sdk.util.CoderUtils.encodeToByteArray;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
+import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner.ValueWithMetadata;
+import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.OutputTimeFn;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PCollection.IsBounded;
+import com.google.common.primitives.UnsignedBytes;
+
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code GroupByKeyAndSortValues<K, SecondaryKeyT, V>} takes a
+ * {@code PCollection<KV<K, KV<SecondaryKeyT, V>>>}, groups the values by key and window
+ * like {@link GroupByKey}, and returns a
+ * {@code PCollection<KV<K, Iterable<KV<SecondaryKeyT, V>>>>} in which the values for each key
+ * are sorted by their secondary keys.
+ *
+ * <p>Secondary keys are compared by first encoding them using the {@code Coder} of the
+ * secondary keys of the input {@code PCollection}, and then comparing the encoded bytes as
+ * unsigned bytes, lexicographically. To sort values in the natural order of their secondary
+ * keys, use an order-preserving {@code Coder}
+ * (see {@link com.google.cloud.dataflow.sdk.coders.StandardCoder#isOrderPreserving()}), such as
+ * {@link com.google.cloud.dataflow.sdk.coders.OrderedLongCoder}. Values with equal encoded
+ * secondary keys are returned in an unspecified order.
+ *
+ * <p>For a bounded input in the {@link GlobalWindows} with the default trigger, runners that
+ * support it sort the values during the shuffle, by writing each encoded secondary key as the
+ * shuffle's secondary key. The values for a key are then streamed back in order, without being
+ * held in memory. Otherwise the values for each key and window are grouped and then sorted in
+ * memory.
+ *
+ * <p>Example of use:
+ * <pre> {@code
+ * PCollection<KV<String, KV<Long, Event>>> userEventsByTime = ...;
+ * PCollection<KV<String, Iterable<KV<Long, Event>>>> sessions =
+ *     userEventsByTime
+ *         .setCoder(KvCoder.of(StringUtf8Coder.of(),
+ *             KvCoder.of(OrderedLongCoder.of(), eventCoder)))
+ *         .apply(GroupByKeyAndSortValues.<String, Long, Event>create());
+ * } </pre>
+ *
+ * @param <K> the type of the keys of the input and output {@code PCollection}s
+ * @param <SecondaryKeyT> the type of the secondary keys that the values are sorted by
+ * @param <V> the type of the values of the input {@code PCollection}
+ */
+public class GroupByKeyAndSortValues<K, SecondaryKeyT, V>
+    extends PTransform<PCollection<KV<K, KV<SecondaryKeyT, V>>>,
+                       PCollection<KV<K, Iterable<KV<SecondaryKeyT, V>>>>> {
+
+  private GroupByKeyAndSortValues() { }
+
+  /**
+   * Returns a {@code GroupByKeyAndSortValues<K, SecondaryKeyT, V>} {@code PTransform}.
+   *
+   * @param <K> the type of the keys of the input and output {@code PCollection}s
+   * @param <SecondaryKeyT> the type of the secondary keys that the values are sorted by
+   * @param <V> the type of the values of the input {@code PCollection}
+   */
+  public static <K, SecondaryKeyT, V> GroupByKeyAndSortValues<K, SecondaryKeyT, V> create() {
+    return new GroupByKeyAndSortValues<>();
+  }
+
+  @Override
+  public void validate(PCollection<KV<K, KV<SecondaryKeyT, V>>> input) {
+    GroupByKey.applicableTo(input);
+
+    Coder<KV<SecondaryKeyT, V>> valueCoder = GroupByKey.getInputValueCoder(input.getCoder());
+    try {
+      GroupByKey.getKeyCoder(input.getCoder()).verifyDeterministic();
+    } catch (NonDeterministicException e) {
+      throw new IllegalStateException(
+          "the keyCoder of a GroupByKeyAndSortValues must be deterministic", e);
+    }
+    if (!(valueCoder instanceof KvCoder)) {
+      throw new IllegalStateException(
+          "GroupByKeyAndSortValues requires its input values to use KvCoder");
+    }
+    try {
+      ((KvCoder<SecondaryKeyT, V>) valueCoder).getKeyCoder().verifyDeterministic();
+    } catch (NonDeterministicException e) {
+      throw new IllegalStateException(
+          "the secondary keyCoder of a GroupByKeyAndSortValues must be deterministic", e);
+    }
+  }
+
+  @Override
+  public PCollection<KV<K, Iterable<KV<SecondaryKeyT, V>>>> apply(
+      PCollection<KV<K, KV<SecondaryKeyT, V>>> input) {
+    if (canSortDuringShuffle(input)) {
+      return input.apply(new GroupByKeyAndSortValuesOnly<K, SecondaryKeyT, V>());
+    }
+    return input
+        .apply(GroupByKey.<K, KV<SecondaryKeyT, V>>create())
+        .apply(ParDo.of(new SortValuesFn<K, SecondaryKeyT, V>(
+            getSecondaryKeyCoder(input.getCoder()))))
+        .setCoder(GroupByKey.getOutputKvCoder(input.getCoder()));
+  }
+
+  @Override
+  protected Coder<KV<K, Iterable<KV<SecondaryKeyT, V>>>> getDefaultOutputCoder(
+      PCollection<KV<K, KV<SecondaryKeyT, V>>> input) {
+    return GroupByKey.getOutputKvCoder(input.getCoder());
+  }
+
+  /**
+   * Returns whether the values of {@code input} can be sorted by the shuffle, rather than after
+   * grouping: the shuffle only orders values within a key, so this requires each key to be
+   * grouped into a single pane of a single window.
+   */
+  private static boolean canSortDuringShuffle(PCollection<?> input) {
+    WindowingStrategy<?, ?> windowingStrategy = input.getWindowingStrategy();
+    return windowingStrategy.getWindowFn() instanceof GlobalWindows
+        && windowingStrategy.getTrigger().getSpec() instanceof DefaultTrigger
+        && input.isBounded() == IsBounded.BOUNDED;
+  }
+
+  /**
+   * Returns the {@code Coder} of the secondary keys of the input to this transform.
+   */
+  static <K, SecondaryKeyT, V> Coder<SecondaryKeyT> getSecondaryKeyCoder(
+      Coder<KV<K, KV<SecondaryKeyT, V>>> inputCoder) {
+    return ((KvCoder<SecondaryKeyT, V>) GroupByKey.getInputValueCoder(inputCoder)).getKeyCoder();
+  }
+
+  /**
+   * Sorts {@code values} in place by their encoded secondary keys.
+   */
+  static <SecondaryKeyT, V> void sortValues(
+      List<KV<SecondaryKeyT, V>> values, Coder<SecondaryKeyT> secondaryKeyCoder) {
+    List<KV<byte[], KV<SecondaryKeyT, V>>> encoded = new ArrayList<>(values.size());
+    for (KV<SecondaryKeyT, V> value : values) {
+      try {
+        encoded.add(KV.of(encodeToByteArray(secondaryKeyCoder, value.getKey()), value));
+      } catch (CoderException exn) {
+        throw new IllegalArgumentException(
+            "unable to encode secondary key " + value.getKey() + " using " + secondaryKeyCoder,
+            exn);
+      }
+    }
+    Collections.sort(encoded, new Comparator<KV<byte[], KV<SecondaryKeyT, V>>>() {
+      private final Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+
+      @Override
+      public int compare(KV<byte[], KV<SecondaryKeyT, V>> e1, KV<byte[], KV<SecondaryKeyT, V>> e2) {
+        return comparator.compare(e1.getKey(), e2.getKey());
+      }
+    });
+    for (int i = 0; i < encoded.size(); i++) {
+      values.set(i, encoded.get(i).getValue());
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Sorts the grouped values for each key by secondary key, in memory.
+   */
+  private static class SortValuesFn<K, SecondaryKeyT, V>
+      extends DoFn<KV<K, Iterable<KV<SecondaryKeyT, V>>>, KV<K, Iterable<KV<SecondaryKeyT, V>>>> {
+    private final Coder<SecondaryKeyT> secondaryKeyCoder;
+
+    SortValuesFn(Coder<SecondaryKeyT> secondaryKeyCoder) {
+      this.secondaryKeyCoder = secondaryKeyCoder;
+    }
+
+    @Override
+    public void processElement(ProcessContext c) {
+      List<KV<SecondaryKeyT, V>> sortedValues = new ArrayList<>();
+      for (KV<SecondaryKeyT, V> value : c.element().getValue()) {
+        sortedValues.add(value);
+      }
+      sortValues(sortedValues, secondaryKeyCoder);
+      c.output(KV.<K, Iterable<KV<SecondaryKeyT, V>>>of(c.element().getKey(), sortedValues));
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Primitive helper transform that groups by key and sorts each key's values by secondary key,
+   * for a bounded input in the {@link GlobalWindows} with the default trigger.
+   *
+   * <p>Runners implement this by writing the encoded secondary keys as the shuffle's
+   * secondary keys.
+   */
+  public static class GroupByKeyAndSortValuesOnly<K, SecondaryKeyT, V>
+      extends PTransform<PCollection<KV<K, KV<SecondaryKeyT, V>>>,
+                         PCollection<KV<K, Iterable<KV<SecondaryKeyT, V>>>>> {
+
+    @Override
+    public PCollection<KV<K, Iterable<KV<SecondaryKeyT, V>>>> apply(
+        PCollection<KV<K, KV<SecondaryKeyT, V>>> input) {
+      return PCollection.<KV<K, Iterable<KV<SecondaryKeyT, V>>>>createPrimitiveOutputInternal(
+          input.getPipeline(),
+          GroupByKey.create().updateWindowingStrategy(input.getWindowingStrategy()),
+          input.isBounded());
+    }
+
+    @Override
+    protected Coder<KV<K, Iterable<KV<SecondaryKeyT, V>>>> getDefaultOutputCoder(
+        PCollection<KV<K, KV<SecondaryKeyT, V>>> input) {
+      return GroupByKey.getOutputKvCoder(input.getCoder());
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  static {
+    registerWithDirectPipelineRunner();
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static void registerWithDirectPipelineRunner() {
+    DirectPipelineRunner.registerDefaultTransformEvaluator(
+        GroupByKeyAndSortValuesOnly.class,
+        new DirectPipelineRunner.TransformEvaluator<GroupByKeyAndSortValuesOnly>() {
+          @Override
+          public void evaluate(
+              GroupByKeyAndSortValuesOnly transform,
+              DirectPipelineRunner.EvaluationContext context) {
+            evaluateHelper(transform, context);
+          }
+        });
+  }
+
+  private static <K, SecondaryKeyT, V> void evaluateHelper(
+      GroupByKeyAndSortValuesOnly<K, SecondaryKeyT, V> transform,
+      DirectPipelineRunner.EvaluationContext context) {
+    PCollection<KV<K, KV<SecondaryKeyT, V>>> input = context.getInput(transform);
+    Coder<K> keyCoder = GroupByKey.getKeyCoder(input.getCoder());
+    Coder<SecondaryKeyT> secondaryKeyCoder = getSecondaryKeyCoder(input.getCoder());
+    @SuppressWarnings("unchecked")
+    OutputTimeFn<? super GlobalWindow> outputTimeFn =
+        (OutputTimeFn<? super GlobalWindow>) input.getWindowingStrategy().getOutputTimeFn();
+
+    Map<GroupingKey, KeyGroup<K, SecondaryKeyT, V>> groups = new LinkedHashMap<>();
+    for (ValueWithMetadata<KV<K, KV<SecondaryKeyT, V>>> elem
+        : context.getPCollectionValuesWithMetadata(input)) {
+      K key = elem.getValue().getKey();
+      GroupingKey groupingKey;
+      try {
+        groupingKey = new GroupingKey(encodeToByteArray(keyCoder, key));
+      } catch (CoderException exn) {
+        throw new IllegalArgumentException(
+            "unable to encode key " + key + " of input to " + transform + " using " + keyCoder,
+            exn);
+      }
+      KeyGroup<K, SecondaryKeyT, V> group = groups.get(groupingKey);
+      Instant outputTime = outputTimeFn.assignOutputTime(
+          elem.getTimestamp(), GlobalWindow.INSTANCE);
+      if (group == null) {
+        group = new KeyGroup<>(key, outputTime);
+        groups.put(groupingKey, group);
+      } else {
+        group.outputTime = outputTimeFn.combine(group.outputTime, outputTime);
+      }
+      group.values.add(elem.getValue().getValue());
+    }
+
+    List<ValueWithMetadata<KV<K, Iterable<KV<SecondaryKeyT, V>>>>> outputElems =
+        new ArrayList<>();
+    for (KeyGroup<K, SecondaryKeyT, V> group : groups.values()) {
+      // Randomize first, so that values with equal secondary keys come back in any order.
+      List<KV<SecondaryKeyT, V>> values =
+          context.randomizeIfUnordered(group.values, true /* inPlaceAllowed */);
+      sortValues(values, secondaryKeyCoder);
+      outputElems.add(ValueWithMetadata
+          .of(WindowedValue.of(
+              KV.<K, Iterable<KV<SecondaryKeyT, V>>>of(group.key, values),
+              group.outputTime,
+              GlobalWindow.INSTANCE,
+              PaneInfo.ON_TIME_AND_ONLY_FIRING))
+          .withKey(group.key));
+    }
+    context.setPCollectionValuesWithMetadata(
+        context.getOutput(transform), context.randomizeIfUnordered(outputElems, true));
+  }
+
+  private static class KeyGroup<K, SecondaryKeyT, V> {
+    private final K key;
+    private final List<KV<SecondaryKeyT, V>> values = new ArrayList<>();
+    private Instant outputTime;
+
+    KeyGroup(K key, Instant outputTime) {
+      this.key = key;
+      this.outputTime = outputTime;
+    }
+  }
+
+  private static class GroupingKey {
+    private final byte[] encodedKey;
+
+    GroupingKey(byte[] encodedKey) {
+      this.encodedKey = encodedKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof GroupingKey
+          && Arrays.equals(encodedKey, ((GroupingKey) o).encodedKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(encodedKey);
+    }
+  }
+}
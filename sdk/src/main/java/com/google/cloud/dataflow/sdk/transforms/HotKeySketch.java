@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import com.google.common.base.Preconditions;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tracks the most frequent keys of a stream in bounded memory, to choose the fanout of hot keys
+ * for {@link Combine.PerKeyWithHotKeyFanout}.
+ *
+ * <p>The counts are kept by the Misra-Gries heavy hitters algorithm: with room for
+ * {@code 2 / hotKeyFraction} keys, every key whose share of the stream is at least
+ * {@code hotKeyFraction} is tracked, and its count is underestimated by at most half that share.
+ * A key is hot once at least {@link #MIN_ELEMENTS} elements have been seen and its estimated
+ * share reaches {@code hotKeyFraction}. It is then spread over about {@code share /
+ * hotKeyFraction} shards, so that each shard gets about {@code hotKeyFraction} of the stream,
+ * but at least 2 and at most {@code maxFanout}.
+ *
+ * <p>All counts are halved every {@link #DECAY_ELEMENTS} elements, so that keys that stop
+ * being hot are eventually spread no more.
+ *
+ * <p>Keys are compared by {@code equals}, so callers should add the
+ * {@link com.google.cloud.dataflow.sdk.coders.Coder#structuralValue structural values} of their
+ * keys. Sketches are mutable and not thread safe.
+ */
+final class HotKeySketch<T> {
+
+  /** The number of elements that must be seen before any key is hot. */
+  static final long MIN_ELEMENTS = 1000;
+
+  /** The number of elements after which all counts are halved. */
+  static final long DECAY_ELEMENTS = 1 << 20;
+
+  private final double hotKeyFraction;
+  private final int maxFanout;
+  private final int capacity;
+  private final Map<T, long[]> counts;
+  private long totalCount;
+
+  HotKeySketch(double hotKeyFraction, int maxFanout) {
+    Preconditions.checkArgument(hotKeyFraction > 0 && hotKeyFraction < 1,
+        "hotKeyFraction must be between 0 and 1, not %s", hotKeyFraction);
+    Preconditions.checkArgument(maxFanout >= 2,
+        "maxFanout must be at least 2, not %s", maxFanout);
+    this.hotKeyFraction = hotKeyFraction;
+    this.maxFanout = maxFanout;
+    this.capacity = (int) Math.ceil(2 / hotKeyFraction);
+    this.counts = new HashMap<>(2 * capacity);
+  }
+
+  /**
+   * Counts an occurrence of the given key, and returns its fanout: 1 for a key that is not hot.
+   */
+  int add(T key) {
+    return add(key, 1);
+  }
+
+  /**
+   * Counts {@code weight} occurrences of the given key, as when only one in {@code weight}
+   * elements is added, and returns its fanout: 1 for a key that is not hot.
+   */
+  int add(T key, long weight) {
+    if (totalCount >= DECAY_ELEMENTS) {
+      decay();
+    }
+    totalCount += weight;
+    long[] count = counts.get(key);
+    if (count != null) {
+      count[0] += weight;
+      return fanout(count[0]);
+    }
+    if (counts.size() < capacity) {
+      counts.put(key, new long[] {weight});
+    } else {
+      // Charge the untracked occurrences against every tracked key, as each key can have been
+      // untracked for at most that many of its occurrences, and track the key with any that
+      // remain.
+      long charge = weight;
+      for (long[] tracked : counts.values()) {
+        charge = Math.min(charge, tracked[0]);
+      }
+      Iterator<long[]> it = counts.values().iterator();
+      while (it.hasNext()) {
+        long[] tracked = it.next();
+        tracked[0] -= charge;
+        if (tracked[0] == 0) {
+          it.remove();
+        }
+      }
+      if (weight > charge) {
+        counts.put(key, new long[] {weight - charge});
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Returns the current fanout of each hot key.
+   */
+  Map<T, Integer> getHotKeys() {
+    Map<T, Integer> hotKeys = new HashMap<>();
+    for (Map.Entry<T, long[]> entry : counts.entrySet()) {
+      int fanout = fanout(entry.getValue()[0]);
+      if (fanout > 1) {
+        hotKeys.put(entry.getKey(), fanout);
+      }
+    }
+    return hotKeys;
+  }
+
+  /**
+   * Returns the number of elements counted since the counts were last halved.
+   */
+  long getTotalCount() {
+    return totalCount;
+  }
+
+  private int fanout(long count) {
+    if (totalCount < MIN_ELEMENTS) {
+      return 1;
+    }
+    double shards = count / (hotKeyFraction * totalCount);
+    if (shards < 1) {
+      return 1;
+    }
+    return (int) Math.min(maxFanout, Math.max(2, shards));
+  }
+
+  private void decay() {
+    Iterator<long[]> it = counts.values().iterator();
+    while (it.hasNext()) {
+      long[] count = it.next();
+      count[0] /= 2;
+      if (count[0] == 0) {
+        it.remove();
+      }
+    }
+    totalCount /= 2;
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A mergeable HyperLogLog++ sketch of a set of 64-bit hashes, which estimates the number of
+ * distinct hashes added to it.
+ *
+ * <p>A sketch with precision {@code p} has {@code 2^p} registers, and its estimates have a
+ * relative standard error of about {@code 1.04 / sqrt(2^p)}, e.g. 0.8% for {@code p = 14}.
+ *
+ * <p>As in HyperLogLog++, a sketch starts out with a sparse representation, a sorted list of
+ * the hashes truncated to a higher precision, which is exact up to hash collisions and small
+ * for small sets. It switches to the dense array of registers once the sparse list would be
+ * larger. The dense estimate uses Ertl's improved estimator, which corrects the bias of the
+ * raw HyperLogLog estimate for small and large cardinalities without empirical bias tables.
+ *
+ * <p>Sketches are mutable and not thread safe. Sketches with the same precision can be merged,
+ * giving the sketch of the union of their sets. They are encoded by {@link #getCoder()}.
+ */
+public final class HyperLogLogSketch {
+
+  /** The smallest supported precision. */
+  public static final int MIN_PRECISION = 4;
+
+  /** The largest supported precision. */
+  public static final int MAX_PRECISION = 18;
+
+  /** The precision of the hashes in the sparse representation. */
+  static final int SPARSE_PRECISION = 24;
+
+  // A sparse entry holds the top SPARSE_PRECISION bits of the hash above RHO_BITS bits that hold
+  // the number of leading zeros, plus one, of the remaining bits.
+  private static final int RHO_BITS = 6;
+  private static final int RHO_MASK = (1 << RHO_BITS) - 1;
+
+  private static final double ALPHA_INF = 1 / (2 * Math.log(2));
+
+  /**
+   * Returns a new, empty sketch with the given precision.
+   *
+   * @throws IllegalArgumentException if the precision is not between {@link #MIN_PRECISION} and
+   * {@link #MAX_PRECISION}
+   */
+  public static HyperLogLogSketch create(int precision) {
+    Preconditions.checkArgument(precision >= MIN_PRECISION && precision <= MAX_PRECISION,
+        "HyperLogLogSketch precision must be between %s and %s, not %s",
+        MIN_PRECISION, MAX_PRECISION, precision);
+    return new HyperLogLogSketch(precision);
+  }
+
+  /**
+   * Returns the smallest precision whose relative standard error, about
+   * {@code 1.04 / sqrt(2^precision)}, is at most {@code estimationError}.
+   *
+   * @throws IllegalArgumentException if no supported precision gives that error
+   */
+  public static int precisionForEstimationError(double estimationError) {
+    for (int precision = MIN_PRECISION; precision <= MAX_PRECISION; precision++) {
+      if (1.04 / Math.sqrt(1 << precision) <= estimationError) {
+        return precision;
+      }
+    }
+    throw new IllegalArgumentException(
+        "HyperLogLogSketch cannot estimate with an error below "
+        + 1.04 / Math.sqrt(1 << MAX_PRECISION) + ", not " + estimationError);
+  }
+
+  /**
+   * Returns the {@link com.google.cloud.dataflow.sdk.coders.Coder} for sketches.
+   */
+  public static HyperLogLogSketchCoder getCoder() {
+    return HyperLogLogSketchCoder.of();
+  }
+
+  private final int precision;
+
+  // The sorted, de-duplicated sparse entries, in sparse[0..sparseSize), and the entries added
+  // since they were last sorted into it, in buffer[0..bufferSize). Both are null once the sketch
+  // is dense.
+  private int[] sparse;
+  private int sparseSize;
+  private int[] buffer;
+  private int bufferSize;
+
+  // The dense registers, or null while the sketch is sparse.
+  private byte[] registers;
+
+  private HyperLogLogSketch(int precision) {
+    this.precision = precision;
+    this.sparse = new int[0];
+    this.buffer = new int[Math.max(16, (1 << precision) >> 4)];
+  }
+
+  /** Returns the precision of this sketch. */
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Adds a 64-bit hash to the set. The hashes of distinct elements should be uniformly
+   * distributed, e.g. as computed by {@code Hashing.murmur3_128()}.
+   */
+  public void addHash(long hash) {
+    if (registers != null) {
+      int index = (int) (hash >>> (64 - precision));
+      int rho = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+      if (rho > registers[index]) {
+        registers[index] = (byte) rho;
+      }
+    } else {
+      int sparseIndex = (int) (hash >>> (64 - SPARSE_PRECISION));
+      int rho = 0;
+      if ((sparseIndex & lowBitsMask()) == 0) {
+        // Only the bits beyond the sparse index determine the register value.
+        rho = Long.numberOfLeadingZeros(
+            (hash << SPARSE_PRECISION) | (1L << (SPARSE_PRECISION - 1))) + 1;
+      }
+      addSparseEntry((sparseIndex << RHO_BITS) | rho);
+    }
+  }
+
+  /**
+   * Merges {@code other} into this sketch, which then estimates the size of the union of both
+   * sets. Returns this sketch.
+   *
+   * @throws IllegalArgumentException if the sketches have different precisions
+   */
+  public HyperLogLogSketch merge(HyperLogLogSketch other) {
+    Preconditions.checkArgument(precision == other.precision,
+        "Cannot merge a HyperLogLogSketch with precision %s into one with precision %s",
+        other.precision, precision);
+    if (other == this) {
+      return this;
+    } else if (other.registers != null) {
+      toDense();
+      for (int i = 0; i < registers.length; i++) {
+        if (other.registers[i] > registers[i]) {
+          registers[i] = other.registers[i];
+        }
+      }
+    } else {
+      for (int i = 0; i < other.sparseSize; i++) {
+        addSparseEntry(other.sparse[i]);
+      }
+      for (int i = 0; i < other.bufferSize; i++) {
+        addSparseEntry(other.buffer[i]);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Returns the estimated number of distinct hashes added to this sketch.
+   */
+  public long estimate() {
+    if (registers == null) {
+      flushBuffer();
+      // Linear counting over the sparse registers, which is nearly exact while they are few.
+      double sparseRegisters = 1 << SPARSE_PRECISION;
+      return Math.round(-sparseRegisters * Math.log1p(-sparseSize / sparseRegisters));
+    }
+    int maxRho = 64 - precision + 1;
+    int[] histogram = new int[maxRho + 1];
+    for (byte rho : registers) {
+      histogram[rho]++;
+    }
+    double m = registers.length;
+    double z = m * tau(1 - histogram[maxRho] / m);
+    for (int k = maxRho - 1; k >= 1; k--) {
+      z = 0.5 * (z + histogram[k]);
+    }
+    z += m * sigma(histogram[0] / m);
+    return Math.round(ALPHA_INF * m * m / z);
+  }
+
+  /** Returns whether this sketch uses the sparse representation. */
+  boolean isSparse() {
+    return registers == null;
+  }
+
+  private int lowBitsMask() {
+    return (1 << (SPARSE_PRECISION - precision)) - 1;
+  }
+
+  private void addSparseEntry(int entry) {
+    if (registers != null) {
+      updateRegister(entry);
+      return;
+    }
+    buffer[bufferSize++] = entry;
+    if (bufferSize == buffer.length) {
+      flushBuffer();
+      // A sparse entry takes four bytes and a register one.
+      if (sparseSize > numRegisters() / 4) {
+        toDense();
+      }
+    }
+  }
+
+  private int numRegisters() {
+    return 1 << precision;
+  }
+
+  /**
+   * Sorts the buffered entries into the sparse list, keeping only the largest entry for each
+   * sparse index.
+   */
+  private void flushBuffer() {
+    if (bufferSize == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, bufferSize);
+    int[] merged = new int[sparseSize + bufferSize];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < sparseSize || j < bufferSize) {
+      int entry = (j == bufferSize || (i < sparseSize && sparse[i] <= buffer[j]))
+          ? sparse[i++] : buffer[j++];
+      if (size > 0 && (merged[size - 1] >>> RHO_BITS) == (entry >>> RHO_BITS)) {
+        // Entries are sorted, so this one has the larger value for the same index.
+        merged[size - 1] = entry;
+      } else {
+        merged[size++] = entry;
+      }
+    }
+    sparse = merged;
+    sparseSize = size;
+    bufferSize = 0;
+  }
+
+  private void toDense() {
+    if (registers != null) {
+      return;
+    }
+    flushBuffer();
+    registers = new byte[numRegisters()];
+    for (int i = 0; i < sparseSize; i++) {
+      updateRegister(sparse[i]);
+    }
+    sparse = null;
+    sparseSize = 0;
+    buffer = null;
+  }
+
+  /** Updates the dense register corresponding to a sparse entry. */
+  private void updateRegister(int entry) {
+    int sparseIndex = entry >>> RHO_BITS;
+    int shift = SPARSE_PRECISION - precision;
+    int lowBits = sparseIndex & lowBitsMask();
+    int rho = lowBits != 0
+        ? Integer.numberOfLeadingZeros(lowBits) - (32 - shift) + 1
+        : (entry & RHO_MASK) + shift;
+    int index = sparseIndex >>> shift;
+    if (rho > registers[index]) {
+      registers[index] = (byte) rho;
+    }
+  }
+
+  private static double sigma(double x) {
+    if (x == 1) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double y = 1;
+    double z = x;
+    double previous;
+    do {
+      x *= x;
+      previous = z;
+      z += x * y;
+      y += y;
+    } while (z != previous);
+    return z;
+  }
+
+  private static double tau(double x) {
+    if (x == 0 || x == 1) {
+      return 0;
+    }
+    double y = 1;
+    double z = 1 - x;
+    double previous;
+    do {
+      x = Math.sqrt(x);
+      previous = z;
+      y *= 0.5;
+      z -= (1 - x) * (1 - x) * y;
+    } while (z != previous);
+    return z / 3;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Two sketches are equal if they have the same precision and representation and hold the
+   * same registers or sparse entries.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof HyperLogLogSketch)) {
+      return false;
+    }
+    HyperLogLogSketch that = (HyperLogLogSketch) o;
+    if (precision != that.precision || isSparse() != that.isSparse()) {
+      return false;
+    }
+    if (registers != null) {
+      return Arrays.equals(registers, that.registers);
+    }
+    flushBuffer();
+    that.flushBuffer();
+    return Arrays.equals(
+        Arrays.copyOf(sparse, sparseSize), Arrays.copyOf(that.sparse, that.sparseSize));
+  }
+
+  @Override
+  public int hashCode() {
+    if (registers != null) {
+      return 31 * precision + Arrays.hashCode(registers);
+    }
+    flushBuffer();
+    return 31 * precision + Arrays.hashCode(Arrays.copyOf(sparse, sparseSize));
+  }
+
+  @Override
+  public String toString() {
+    return "HyperLogLogSketch(precision=" + precision + ", " + (isSparse() ? "sparse" : "dense")
+        + ", estimate=" + estimate() + ")";
+  }
+
+  /**
+   * A {@link com.google.cloud.dataflow.sdk.coders.Coder} for {@link HyperLogLogSketch}.
+   *
+   * <p>A sparse sketch is encoded as its number of entries followed by the differences between
+   * consecutive sorted entries as variable-length integers, and a dense sketch as one byte per
+   * register.
+   */
+  public static class HyperLogLogSketchCoder extends AtomicCoder<HyperLogLogSketch> {
+
+    @JsonCreator
+    public static HyperLogLogSketchCoder of() {
+      return INSTANCE;
+    }
+
+    private static final HyperLogLogSketchCoder INSTANCE = new HyperLogLogSketchCoder();
+
+    private static final int SPARSE = 0;
+    private static final int DENSE = 1;
+
+    private HyperLogLogSketchCoder() {}
+
+    @Override
+    public void encode(HyperLogLogSketch value, OutputStream outStream, Context context)
+        throws IOException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null HyperLogLogSketch");
+      }
+      outStream.write(value.precision);
+      if (value.registers != null) {
+        outStream.write(DENSE);
+        outStream.write(value.registers);
+      } else {
+        value.flushBuffer();
+        outStream.write(SPARSE);
+        VarInt.encode(value.sparseSize, outStream);
+        int previous = 0;
+        for (int i = 0; i < value.sparseSize; i++) {
+          VarInt.encode(value.sparse[i] - previous, outStream);
+          previous = value.sparse[i];
+        }
+      }
+    }
+
+    @Override
+    public HyperLogLogSketch decode(InputStream inStream, Context context)
+        throws IOException {
+      int precision = inStream.read();
+      int representation = inStream.read();
+      if (precision < MIN_PRECISION || precision > MAX_PRECISION
+          || (representation != SPARSE && representation != DENSE)) {
+        throw new CoderException("invalid HyperLogLogSketch encoding");
+      }
+      HyperLogLogSketch sketch = new HyperLogLogSketch(precision);
+      if (representation == DENSE) {
+        sketch.registers = new byte[sketch.numRegisters()];
+        ByteStreams.readFully(inStream, sketch.registers);
+        sketch.sparse = null;
+        sketch.buffer = null;
+      } else {
+        int size = VarInt.decodeInt(inStream);
+        int[] sparse = new int[size];
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+          previous += VarInt.decodeInt(inStream);
+          sparse[i] = previous;
+        }
+        sketch.sparse = sparse;
+        sketch.sparseSize = size;
+      }
+      return sketch;
+    }
+  }
+}
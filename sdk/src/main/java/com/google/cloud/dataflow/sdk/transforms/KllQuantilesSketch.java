@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.base.Preconditions;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A mergeable sketch of a multiset of {@code long}s, from which approximate quantiles can be
+ * read, using the algorithm of Karnin, Lang &amp; Liberty:
+ * <pre>
+ *   [KLL16] Karnin, Lang &amp; Liberty, "Optimal Quantile Approximation in Streams",
+ *   Proc. 2016 IEEE FOCS, p 71-78.
+ * </pre>
+ *
+ * <p>The sketch keeps a stack of levels of primitive {@code long}s, where each value at level
+ * {@code h} stands for {@code 2^h} input values. When the sketch is full, the lowest full level
+ * is sorted, and every other one of its values, starting at a random offset, is promoted to the
+ * next level. Level capacities shrink geometrically from the top level, whose capacity is
+ * {@code k}, down to {@link #MIN_LEVEL_CAPACITY}, so the sketch holds {@code O(k)} values
+ * regardless of the number of inputs.
+ *
+ * <p>The rank error of the quantiles, as a fraction of the number of inputs, is at most
+ * {@link #getNormalizedRankError} with 99% probability, e.g. about 1.6% for the default
+ * {@code k} of 200. Merging sketches gives the same guarantee as if all values had been added to
+ * a single sketch. The minimum and maximum are exact.
+ *
+ * <p>Values are compared as signed {@code long}s; see {@link #doubleToSortableLong} for
+ * sketching {@code double}s. Sketches are mutable and not thread safe. They are encoded by
+ * {@link #getCoder()}.
+ */
+public final class KllQuantilesSketch {
+
+  /** The default value of {@code k}. */
+  public static final int DEFAULT_K = 200;
+
+  /** The smallest capacity of a level. */
+  static final int MIN_LEVEL_CAPACITY = 8;
+
+  private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+  /**
+   * Returns a new, empty sketch with the given {@code k}.
+   *
+   * @throws IllegalArgumentException if {@code k} is less than {@link #MIN_LEVEL_CAPACITY} or
+   * larger than {@code 65535}
+   */
+  public static KllQuantilesSketch create(int k) {
+    Preconditions.checkArgument(k >= MIN_LEVEL_CAPACITY && k <= 0xffff,
+        "KllQuantilesSketch k must be between %s and %s, not %s", MIN_LEVEL_CAPACITY, 0xffff, k);
+    return new KllQuantilesSketch(k);
+  }
+
+  /**
+   * Returns the rank error, as a fraction of the number of inputs, that holds with 99%
+   * probability for quantiles read from a sketch with the given {@code k}. This is an empirical
+   * fit for this algorithm with the capacities used here.
+   */
+  public static double getNormalizedRankError(int k) {
+    return 2.446 / Math.pow(k, 0.9433);
+  }
+
+  /**
+   * Returns the smallest {@code k} whose {@link #getNormalizedRankError} is at most
+   * {@code epsilon}.
+   *
+   * @throws IllegalArgumentException if no supported {@code k} gives that error
+   */
+  public static int kForNormalizedRankError(double epsilon) {
+    Preconditions.checkArgument(epsilon > 0, "epsilon must be positive, not %s", epsilon);
+    double k = Math.ceil(Math.pow(2.446 / epsilon, 1 / 0.9433));
+    Preconditions.checkArgument(k <= 0xffff,
+        "KllQuantilesSketch cannot guarantee a rank error of %s", epsilon);
+    return Math.max(MIN_LEVEL_CAPACITY, (int) k);
+  }
+
+  /**
+   * Maps a {@code double} to a {@code long} such that the signed order of the {@code long}s is
+   * the order of {@link Double#compare}.
+   */
+  public static long doubleToSortableLong(double value) {
+    long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  /** The inverse of {@link #doubleToSortableLong}. */
+  public static double sortableLongToDouble(long value) {
+    return Double.longBitsToDouble(value ^ ((value >> 63) & Long.MAX_VALUE));
+  }
+
+  /**
+   * Returns the {@link com.google.cloud.dataflow.sdk.coders.Coder} for sketches.
+   */
+  public static KllQuantilesSketchCoder getCoder() {
+    return KllQuantilesSketchCoder.of();
+  }
+
+  private final int k;
+
+  // levels[h][0..sizes[h]) are the values at level h, in no particular order.
+  private long[][] levels;
+  private int[] sizes;
+  private int numLevels;
+
+  private long count;
+  private long min;
+  private long max;
+
+  // The sum of the level capacities, and the number of values held.
+  private int capacity;
+  private int retained;
+
+  private KllQuantilesSketch(int k) {
+    this.k = k;
+    this.levels = new long[][] {new long[k]};
+    this.sizes = new int[1];
+    this.numLevels = 1;
+    this.capacity = k;
+  }
+
+  /** Returns the {@code k} of this sketch. */
+  public int getK() {
+    return k;
+  }
+
+  /** Returns the number of values added to this sketch and the sketches merged into it. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Returns the smallest value added, which is only meaningful if the count is positive. */
+  public long getMin() {
+    return min;
+  }
+
+  /** Returns the largest value added, which is only meaningful if the count is positive. */
+  public long getMax() {
+    return max;
+  }
+
+  /** Returns the number of values retained by this sketch. */
+  int getRetained() {
+    return retained;
+  }
+
+  /** Adds a value to the sketch. */
+  public void add(long value) {
+    if (count == 0) {
+      min = value;
+      max = value;
+    } else if (value < min) {
+      min = value;
+    } else if (value > max) {
+      max = value;
+    }
+    count++;
+    append(0, value);
+    retained++;
+    if (retained > capacity) {
+      compress();
+    }
+  }
+
+  /**
+   * Merges {@code other} into this sketch, which then summarizes the values of both. Returns
+   * this sketch.
+   *
+   * @throws IllegalArgumentException if the sketches have different {@code k}s
+   */
+  public KllQuantilesSketch merge(KllQuantilesSketch other) {
+    Preconditions.checkArgument(k == other.k,
+        "Cannot merge a KllQuantilesSketch with k %s into one with k %s", other.k, k);
+    if (other.count == 0) {
+      return this;
+    }
+    if (count == 0) {
+      min = other.min;
+      max = other.max;
+    } else {
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+    count += other.count;
+    // Bound the loops up front, in case other is this sketch.
+    int otherLevels = other.numLevels;
+    for (int h = 0; h < otherLevels; h++) {
+      int otherSize = other.sizes[h];
+      for (int i = 0; i < otherSize; i++) {
+        append(h, other.levels[h][i]);
+      }
+      retained += otherSize;
+    }
+    compress();
+    return this;
+  }
+
+  /**
+   * Returns {@code numQuantiles} approximate quantiles of the values: the minimum, then
+   * {@code numQuantiles - 2} evenly spaced intermediate quantiles, then the maximum. Returns an
+   * empty array if the sketch is empty.
+   */
+  public long[] getQuantiles(int numQuantiles) {
+    Preconditions.checkArgument(numQuantiles >= 2,
+        "numQuantiles must be at least 2, not %s", numQuantiles);
+    if (count == 0) {
+      return new long[0];
+    }
+    // Merge the sorted levels into a single sorted list of values with their weights.
+    long[] values = new long[retained];
+    long[] weights = new long[retained];
+    int[] positions = new int[numLevels];
+    for (int h = 0; h < numLevels; h++) {
+      Arrays.sort(levels[h], 0, sizes[h]);
+    }
+    int n = 0;
+    while (n < retained) {
+      int next = -1;
+      for (int h = 0; h < numLevels; h++) {
+        if (positions[h] < sizes[h]
+            && (next < 0 || levels[h][positions[h]] < levels[next][positions[next]])) {
+          next = h;
+        }
+      }
+      values[n] = levels[next][positions[next]++];
+      weights[n] = 1L << next;
+      n++;
+    }
+
+    long[] quantiles = new long[numQuantiles];
+    quantiles[0] = min;
+    quantiles[numQuantiles - 1] = max;
+    long cumulativeWeight = 0;
+    int index = 0;
+    for (int q = 1; q < numQuantiles - 1; q++) {
+      // The smallest value whose rank, counted from 1, is at least q / (numQuantiles - 1).
+      double rank = (double) q * count / (numQuantiles - 1);
+      while (index < n - 1 && cumulativeWeight + weights[index] < rank) {
+        cumulativeWeight += weights[index++];
+      }
+      quantiles[q] = values[index];
+    }
+    return quantiles;
+  }
+
+  private void append(int level, long value) {
+    while (level >= numLevels) {
+      addLevel();
+    }
+    long[] levelValues = levels[level];
+    if (sizes[level] == levelValues.length) {
+      levels[level] = levelValues = Arrays.copyOf(levelValues, 2 * levelValues.length);
+    }
+    levelValues[sizes[level]++] = value;
+  }
+
+  private void addLevel() {
+    if (numLevels == levels.length) {
+      levels = Arrays.copyOf(levels, 2 * numLevels);
+      sizes = Arrays.copyOf(sizes, 2 * numLevels);
+    }
+    levels[numLevels] = new long[MIN_LEVEL_CAPACITY];
+    numLevels++;
+    capacity = 0;
+    for (int h = 0; h < numLevels; h++) {
+      capacity += levelCapacity(h);
+    }
+  }
+
+  private int levelCapacity(int level) {
+    int depth = numLevels - 1 - level;
+    return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+  }
+
+  /**
+   * Compacts the lowest level that is at its capacity until the sketch is within its capacity.
+   * Some level is over its capacity whenever the sketch is.
+   */
+  private void compress() {
+    while (retained > capacity) {
+      int h = 0;
+      while (sizes[h] < levelCapacity(h)) {
+        h++;
+      }
+      compact(h);
+    }
+  }
+
+  /**
+   * Sorts level {@code h} and promotes every other value to level {@code h + 1}, keeping one
+   * value at level {@code h} if it has an odd number of values.
+   */
+  private void compact(int h) {
+    long[] levelValues = levels[h];
+    int size = sizes[h];
+    Arrays.sort(levelValues, 0, size);
+    // With an odd number of values, the largest stays at this level.
+    int pairs = size / 2;
+    int offset = ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
+    if (h + 1 >= numLevels) {
+      addLevel();
+    }
+    for (int i = 0; i < pairs; i++) {
+      append(h + 1, levelValues[2 * i + offset]);
+    }
+    if (size % 2 == 1) {
+      levelValues[0] = levelValues[size - 1];
+      sizes[h] = 1;
+    } else {
+      sizes[h] = 0;
+    }
+    retained -= pairs;
+  }
+
+  @Override
+  public String toString() {
+    return "KllQuantilesSketch(k=" + k + ", count=" + count + ", retained=" + retained + ")";
+  }
+
+  /**
+   * A {@link com.google.cloud.dataflow.sdk.coders.Coder} for {@link KllQuantilesSketch}.
+   *
+   * <p>Each level is encoded as its number of values followed by its values in increasing order,
+   * the first as a fixed-width {@code long} and the others as variable-length differences from
+   * the previous one.
+   */
+  public static class KllQuantilesSketchCoder extends AtomicCoder<KllQuantilesSketch> {
+
+    @JsonCreator
+    public static KllQuantilesSketchCoder of() {
+      return INSTANCE;
+    }
+
+    private static final KllQuantilesSketchCoder INSTANCE = new KllQuantilesSketchCoder();
+
+    private KllQuantilesSketchCoder() {}
+
+    @Override
+    public void encode(KllQuantilesSketch value, OutputStream outStream, Context context)
+        throws IOException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null KllQuantilesSketch");
+      }
+      VarInt.encode(value.k, outStream);
+      VarInt.encode(value.count, outStream);
+      if (value.count == 0) {
+        return;
+      }
+      DataOutputStream dataOutStream = new DataOutputStream(outStream);
+      dataOutStream.writeLong(value.min);
+      dataOutStream.writeLong(value.max);
+      VarInt.encode(value.numLevels, outStream);
+      for (int h = 0; h < value.numLevels; h++) {
+        long[] levelValues = value.levels[h];
+        int size = value.sizes[h];
+        // The order of values within a level does not matter.
+        Arrays.sort(levelValues, 0, size);
+        VarInt.encode(size, outStream);
+        if (size > 0) {
+          dataOutStream.writeLong(levelValues[0]);
+          for (int i = 1; i < size; i++) {
+            VarInt.encode(levelValues[i] - levelValues[i - 1], outStream);
+          }
+        }
+      }
+      dataOutStream.flush();
+    }
+
+    @Override
+    public KllQuantilesSketch decode(InputStream inStream, Context context)
+        throws IOException {
+      int k = VarInt.decodeInt(inStream);
+      if (k < MIN_LEVEL_CAPACITY || k > 0xffff) {
+        throw new CoderException("invalid KllQuantilesSketch k " + k);
+      }
+      KllQuantilesSketch sketch = new KllQuantilesSketch(k);
+      sketch.count = VarInt.decodeLong(inStream);
+      if (sketch.count == 0) {
+        return sketch;
+      }
+      DataInputStream dataInStream = new DataInputStream(inStream);
+      sketch.min = dataInStream.readLong();
+      sketch.max = dataInStream.readLong();
+      int numLevels = VarInt.decodeInt(inStream);
+      while (sketch.numLevels < numLevels) {
+        sketch.addLevel();
+      }
+      for (int h = 0; h < numLevels; h++) {
+        int size = VarInt.decodeInt(inStream);
+        if (size > 0) {
+          long previous = dataInStream.readLong();
+          sketch.append(h, previous);
+          for (int i = 1; i < size; i++) {
+            previous += VarInt.decodeLong(inStream);
+            sketch.append(h, previous);
+          }
+        }
+        sketch.retained += size;
+      }
+      return sketch;
+    }
+  }
+}
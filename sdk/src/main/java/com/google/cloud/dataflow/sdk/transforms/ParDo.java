@@ -25,8 +25,8 @@ import com.google.cloud.dataflow.sdk.util.DirectModeExecutionContext;
 import com.google.cloud.dataflow.sdk.util.DirectSideInputReader;
 import com.google.cloud.dataflow.sdk.util.DoFnRunner;
 import com.google.cloud.dataflow.sdk.util.IllegalMutationException;
+import com.google.cloud.dataflow.sdk.util.MutationDetectionSampler;
 import com.google.cloud.dataflow.sdk.util.MutationDetector;
-import com.google.cloud.dataflow.sdk.util.MutationDetectors;
 import com.google.cloud.dataflow.sdk.util.PTuple;
 import com.google.cloud.dataflow.sdk.util.SerializableUtils;
 import com.google.cloud.dataflow.sdk.util.SideInputReader;
@@ -1139,7 +1139,10 @@ public class ParDo {
         new ImmutabilityCheckingOutputManager<>(
             fn.getClass().getSimpleName(),
             new DoFnRunner.ListOutputManager(),
-            outputs);
+            outputs,
+            context.createMutationDetectionSampler(stepName));
+    MutationDetectionSampler inputMutationDetectionSampler =
+        context.createMutationDetectionSampler(stepName);
 
     DoFnRunner<InputT, OutputT> fnRunner =
         DoFnRunner.create(
@@ -1171,8 +1174,9 @@ public class ParDo {
       // This will miss some cases, but the check is ad hoc and best effort. The common case
       // is that the input is mutated to be used for output.
       try {
-        MutationDetector inputMutationDetector = MutationDetectors.forValueWithCoder(
-            elem.getWindowedValue().getValue(), input.getCoder());
+        MutationDetector inputMutationDetector =
+            inputMutationDetectionSampler.forValueWithCoder(
+                elem.getWindowedValue().getValue(), input.getCoder());
         @SuppressWarnings("unchecked")
         WindowedValue<InputT> windowedElem = ((WindowedValue<InputT>) elem.getWindowedValue());
         fnRunner.processElement(windowedElem);
@@ -1222,15 +1226,18 @@ public class ParDo {
     private final DoFnRunner.OutputManager underlyingOutputManager;
     private final ConcurrentMap<TupleTag<?>, MutationDetector> mutationDetectorForTag;
     private final PCollectionTuple outputs;
+    private final MutationDetectionSampler mutationDetectionSampler;
     private String doFnName;
 
     public ImmutabilityCheckingOutputManager(
         String doFnName,
         DoFnRunner.OutputManager underlyingOutputManager,
-        PCollectionTuple outputs) {
+        PCollectionTuple outputs,
+        MutationDetectionSampler mutationDetectionSampler) {
       this.doFnName = doFnName;
       this.underlyingOutputManager = underlyingOutputManager;
       this.outputs = outputs;
+      this.mutationDetectionSampler = mutationDetectionSampler;
       this.mutationDetectorForTag = Maps.newConcurrentMap();
     }
 
@@ -1241,7 +1248,7 @@ public class ParDo {
       if (outputs.has(tag)) {
         try {
           MutationDetector newDetector =
-              MutationDetectors.forValueWithCoder(
+              mutationDetectionSampler.forValueWithCoder(
                   output.getValue(), outputs.get(tag).getCoder());
           MutationDetector priorDetector = mutationDetectorForTag.put(tag, newDetector);
           verifyOutputUnmodified(priorDetector);
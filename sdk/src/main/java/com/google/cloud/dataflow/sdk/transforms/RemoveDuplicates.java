@@ -16,9 +16,17 @@
 
 package com.google.cloud.dataflow.sdk.transforms;
 
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.ScalableBloomFilter;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+import com.google.common.base.Preconditions;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * {@code RemoveDuplicates<T>} takes a {@code PCollection<T>} and
@@ -47,6 +55,10 @@ import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
  *
  * <p>Does not preserve any order the input PCollection might have had.
  *
+ * <p>When most duplicates arrive close together, {@link #withBloomFilter()} drops
+ * probable duplicates before the shuffle, at the cost of occasionally dropping a
+ * unique element.
+ *
  * <p>Example of use:
  * <pre> {@code
  * PCollection<String> words = ...;
@@ -81,6 +93,20 @@ public class RemoveDuplicates<T> extends PTransform<PCollection<T>,
     return new WithRepresentativeValues<T, IdT>(fn, null);
   }
 
+  /**
+   * Returns a {@code RemoveDuplicates.WithBloomFilter<T>} {@code PTransform}, which
+   * filters each bundle through per-window {@link ScalableBloomFilter}s before removing
+   * the remaining duplicates as {@link #create()} does.
+   *
+   * @param <T> the type of the elements of the input and output
+   * {@code PCollection}s
+   */
+  public static <T> WithBloomFilter<T> withBloomFilter() {
+    return new WithBloomFilter<T>(
+        WithBloomFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY,
+        WithBloomFilter.DEFAULT_MAX_BLOOM_FILTER_BYTES);
+  }
+
   @Override
   public PCollection<T> apply(PCollection<T> in) {
     return in
@@ -155,4 +181,146 @@ public class RemoveDuplicates<T> extends PTransform<PCollection<T>,
       return new WithRepresentativeValues<>(fn, type);
     }
   }
+
+  /**
+   * A {@link RemoveDuplicates} {@link PTransform} that drops probable duplicates from each
+   * bundle, using a {@link ScalableBloomFilter} per window, before shuffling the remaining
+   * elements to remove the duplicates that were in different bundles.
+   *
+   * <p>Elements are compared by their encoded bytes.  An element the Bloom filter mistakes
+   * for a duplicate is dropped, so each unique element is lost with probability at most
+   * {@link #getFalsePositiveProbability()}.  The filters of a bundle use at most about
+   * {@link #getMaxBloomFilterBytes()} bytes of memory; when that is exceeded they are
+   * discarded, which lets more duplicates through to the shuffle but does not affect the
+   * output.
+   *
+   * <p>Construct via {@link RemoveDuplicates#withBloomFilter()}.
+   *
+   * @param <T> the type of input and output element
+   */
+  public static class WithBloomFilter<T> extends PTransform<PCollection<T>, PCollection<T>> {
+    /** The default probability that a unique element is dropped. */
+    public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.0001;
+
+    /** The default memory budget for the Bloom filters of a bundle. */
+    public static final long DEFAULT_MAX_BLOOM_FILTER_BYTES = 32L << 20;
+
+    private final double falsePositiveProbability;
+    private final long maxBloomFilterBytes;
+
+    private WithBloomFilter(double falsePositiveProbability, long maxBloomFilterBytes) {
+      Preconditions.checkArgument(
+          falsePositiveProbability > 0 && falsePositiveProbability < 1,
+          "False positive probability (%s) must be in (0, 1).", falsePositiveProbability);
+      Preconditions.checkArgument(maxBloomFilterBytes > 0,
+          "Max Bloom filter bytes (%s) must be positive.", maxBloomFilterBytes);
+      this.falsePositiveProbability = falsePositiveProbability;
+      this.maxBloomFilterBytes = maxBloomFilterBytes;
+    }
+
+    /**
+     * Returns a {@code WithBloomFilter} {@link PTransform} that is like this one, but drops
+     * each unique element with probability at most {@code falsePositiveProbability}.
+     */
+    public WithBloomFilter<T> withFalsePositiveProbability(double falsePositiveProbability) {
+      return new WithBloomFilter<>(falsePositiveProbability, maxBloomFilterBytes);
+    }
+
+    /**
+     * Returns a {@code WithBloomFilter} {@link PTransform} that is like this one, but limits
+     * the Bloom filters of each bundle to about {@code maxBloomFilterBytes} bytes.
+     */
+    public WithBloomFilter<T> withMaxBloomFilterBytes(long maxBloomFilterBytes) {
+      return new WithBloomFilter<>(falsePositiveProbability, maxBloomFilterBytes);
+    }
+
+    /** Returns the probability that a unique element is dropped as a duplicate. */
+    public double getFalsePositiveProbability() {
+      return falsePositiveProbability;
+    }
+
+    /** Returns the memory budget, in bytes, for the Bloom filters of a bundle. */
+    public long getMaxBloomFilterBytes() {
+      return maxBloomFilterBytes;
+    }
+
+    @Override
+    public PCollection<T> apply(PCollection<T> in) {
+      return in
+          .apply(ParDo.named("DropProbableDuplicates").of(new DropProbableDuplicatesFn<>(
+              in.getCoder(), falsePositiveProbability, maxBloomFilterBytes)))
+          .setCoder(in.getCoder())
+          .apply(RemoveDuplicates.<T>create());
+    }
+  }
+
+  /**
+   * A {@link DoFn} that outputs each element unless the Bloom filter for its window in the
+   * current bundle says that it has probably been seen before.
+   */
+  private static class DropProbableDuplicatesFn<T> extends DoFn<T, T>
+      implements DoFn.RequiresWindowAccess {
+    /**
+     * Each filter starts out sized for {@code 2^10} elements, so that the many small
+     * windows of a streaming bundle stay cheap.
+     */
+    private static final int INITIAL_INSERTIONS_LOG_2 = 10;
+
+    private final Coder<T> coder;
+    private final double falsePositiveProbability;
+    private final long maxBloomFilterBytes;
+
+    private final Aggregator<Long, Long> droppedElements =
+        createAggregator("ProbableDuplicatesDropped", new Sum.SumLongFn());
+
+    private transient Map<BoundedWindow, ScalableBloomFilter.Builder> filters;
+    private transient long filterBytes;
+
+    DropProbableDuplicatesFn(
+        Coder<T> coder, double falsePositiveProbability, long maxBloomFilterBytes) {
+      this.coder = coder;
+      this.falsePositiveProbability = falsePositiveProbability;
+      this.maxBloomFilterBytes = maxBloomFilterBytes;
+    }
+
+    @Override
+    public void startBundle(Context c) {
+      filters = new HashMap<>();
+      filterBytes = 0;
+    }
+
+    @Override
+    public void processElement(ProcessContext c) throws Exception {
+      ScalableBloomFilter.Builder filter = filters.get(c.window());
+      if (filter == null) {
+        filter = ScalableBloomFilter.builder(falsePositiveProbability, INITIAL_INSERTIONS_LOG_2);
+        if (filterBytes + filter.getSizeInBytes() > maxBloomFilterBytes) {
+          filters.clear();
+          filterBytes = 0;
+        }
+        filters.put(c.window(), filter);
+        filterBytes += filter.getSizeInBytes();
+      }
+
+      byte[] encoded = CoderUtils.encodeToByteArray(coder, c.element());
+      long sizeBefore = filter.getSizeInBytes();
+      boolean added = filter.put(encoded, 0, encoded.length);
+      filterBytes += filter.getSizeInBytes() - sizeBefore;
+      if (filterBytes > maxBloomFilterBytes) {
+        filters.clear();
+        filterBytes = 0;
+      }
+
+      if (added) {
+        c.output(c.element());
+      } else {
+        droppedElements.addValue(1L);
+      }
+    }
+
+    @Override
+    public void finishBundle(Context c) {
+      filters = null;
+    }
+  }
 }
@@ -21,14 +21,14 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
 import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
-import com.google.cloud.dataflow.sdk.coders.VoidCoder;
+import com.google.cloud.dataflow.sdk.coders.ListCoder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
-import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
@@ -48,8 +48,10 @@ public class Sample {
    * {@code PCollection}, then all the input's elements will be selected.
    *
    * <p>All of the elements of the output {@code PCollection} should fit into
-   * main memory of a single worker machine.  This operation does not
-   * run in parallel.
+   * main memory of a single worker machine.  Each bundle of the input
+   * contributes at most {@code limit} elements, and stops collecting
+   * elements once it has that many, so the input is not read on a
+   * single worker.
    *
    * <p>Example of use:
    * <pre> {@code
@@ -73,6 +75,13 @@ public class Sample {
    * {@code sampleSize} elements, then the output {@code Iterable<T>}
    * will be all the input's elements.
    *
+   * <p>Each element is assigned a random priority, and each bundle of the
+   * input keeps only the {@code sampleSize} elements with the highest
+   * priorities, so the partial samples are combined in parallel and only
+   * the partial samples reach the final combine.  For very many bundles,
+   * {@link Combine.Globally#withFanout} adds an intermediate level of
+   * combining.
+   *
    * <p>Example of use:
    * <pre> {@code
    * PCollection<String> pc = ...;
@@ -83,8 +92,7 @@ public class Sample {
    * @param sampleSize the number of elements to select; must be {@code >= 0}
    * @param <T> the type of the elements
    */
-  public static <T> PTransform<PCollection<T>, PCollection<Iterable<T>>>
-      fixedSizeGlobally(int sampleSize) {
+  public static <T> Combine.Globally<T, Iterable<T>> fixedSizeGlobally(int sampleSize) {
     return Combine.globally(new FixedSizedSampleFn<T>(sampleSize));
   }
 
@@ -142,37 +150,71 @@ public class Sample {
 
     @Override
     public PCollection<T> apply(PCollection<T> in) {
-      PCollectionView<Iterable<T>> iterableView = in.apply(View.<T>asIterable());
-      return
-          in.getPipeline()
-          .apply(Create.of((Void) null).withCoder(VoidCoder.of()))
-          .apply(ParDo
-                 .withSideInputs(iterableView)
-                 .of(new SampleAnyDoFn<>(limit, iterableView)))
+      return in
+          .apply(Combine.globally(new SampleAnyFn<T>(limit)).withoutDefaults())
+          .apply(Flatten.<T>iterables())
           .setCoder(in.getCoder());
     }
   }
 
   /**
-   * A {@link DoFn} that returns up to limit elements from the side input PCollection.
+   * {@code CombineFn} that collects up to {@code limit} arbitrary values.
+   *
+   * <p>Once an accumulator holds {@code limit} values, further inputs are
+   * ignored without being examined, and merging stops as soon as the merged
+   * accumulator is full.
+   *
+   * @param <T> the type of the elements
    */
-  private static class SampleAnyDoFn<T> extends DoFn<Void, T> {
-    long limit;
-    final PCollectionView<Iterable<T>> iterableView;
+  private static class SampleAnyFn<T> extends CombineFn<T, List<T>, Iterable<T>> {
+    private final long limit;
 
-    public SampleAnyDoFn(long limit, PCollectionView<Iterable<T>> iterableView) {
+    private SampleAnyFn(long limit) {
       this.limit = limit;
-      this.iterableView = iterableView;
     }
 
     @Override
-    public void processElement(ProcessContext c) {
-      for (T i : c.sideInput(iterableView)) {
-        if (limit-- <= 0) {
-          break;
+    public List<T> createAccumulator() {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public List<T> addInput(List<T> accumulator, T input) {
+      if (accumulator.size() < limit) {
+        accumulator.add(input);
+      }
+      return accumulator;
+    }
+
+    @Override
+    public List<T> mergeAccumulators(Iterable<List<T>> accumulators) {
+      Iterator<List<T>> iterator = accumulators.iterator();
+      List<T> merged = iterator.next();
+      while (iterator.hasNext() && merged.size() < limit) {
+        for (T value : iterator.next()) {
+          if (merged.size() >= limit) {
+            break;
+          }
+          merged.add(value);
         }
-        c.output(i);
       }
+      return merged;
+    }
+
+    @Override
+    public Iterable<T> extractOutput(List<T> accumulator) {
+      return accumulator;
+    }
+
+    @Override
+    public Coder<List<T>> getAccumulatorCoder(CoderRegistry registry, Coder<T> inputCoder) {
+      return ListCoder.of(inputCoder);
+    }
+
+    @Override
+    public Coder<Iterable<T>> getDefaultOutputCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return IterableCoder.of(inputCoder);
     }
   }
 
@@ -23,21 +23,30 @@ import com.google.cloud.dataflow.sdk.coders.CustomCoder;
 import com.google.cloud.dataflow.sdk.coders.ListCoder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.AccumulatingCombineFn;
 import com.google.cloud.dataflow.sdk.transforms.Combine.AccumulatingCombineFn.Accumulator;
+import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.transforms.Combine.PerKey;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.ExposedByteArrayOutputStream;
+import com.google.cloud.dataflow.sdk.util.VarInt;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
 
@@ -330,6 +339,78 @@ new TopCombineFn<>(count, new Largest<V>()).<K>asKeyedFn())
         .named("Largest.PerKey");
   }
 
+  /**
+   * Returns a {@code PTransform} that takes an input {@code PCollection<Long>} and returns a
+   * {@code PCollection<List<Long>>} with a single element containing the largest
+   * {@code count} elements of the input, in decreasing order, like {@link #largest}.
+   *
+   * <p>The elements are kept in a heap of primitive {@code long}s, so adding an element
+   * needs no comparator call or allocation, and an element smaller than the current
+   * {@code count}th largest is rejected with a single comparison.
+   */
+  public static Combine.Globally<Long, List<Long>> largestLongs(int count) {
+    return Combine.globally(TopLongsCombineFn.largest(count)).named("LargestLongs.Globally");
+  }
+
+  /**
+   * Like {@link #largestLongs}, but returns the smallest {@code count} elements, in
+   * increasing order.
+   */
+  public static Combine.Globally<Long, List<Long>> smallestLongs(int count) {
+    return Combine.globally(TopLongsCombineFn.smallest(count)).named("SmallestLongs.Globally");
+  }
+
+  /**
+   * Like {@link #largestLongs}, but for {@code Double} elements, which are ordered as by
+   * {@link Double#compare}.
+   */
+  public static Combine.Globally<Double, List<Double>> largestDoubles(int count) {
+    return Combine.globally(TopDoublesCombineFn.largest(count)).named("LargestDoubles.Globally");
+  }
+
+  /**
+   * Like {@link #largestDoubles}, but returns the smallest {@code count} elements, in
+   * increasing order.
+   */
+  public static Combine.Globally<Double, List<Double>> smallestDoubles(int count) {
+    return Combine.globally(TopDoublesCombineFn.smallest(count))
+        .named("SmallestDoubles.Globally");
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes an input {@code PCollection<T>} and returns a
+   * {@code PCollection<List<T>>} with a single element containing the {@code count}
+   * elements of the input whose encodings by {@code coder} are largest, in decreasing order.
+   *
+   * <p>Encodings are compared as unsigned bytes, so for an order-preserving {@code coder}
+   * this computes the same result as {@link #of} without calling a comparator.  For example,
+   * {@link com.google.cloud.dataflow.sdk.coders.ByteArrayCoder} preserves the unsigned order
+   * of byte arrays, and {@link com.google.cloud.dataflow.sdk.coders.StringUtf8Coder} orders
+   * strings by code point.  Elements are kept encoded, so
+   * merging and encoding accumulators never decode an element, and only the output is
+   * decoded.
+   *
+   * <p>Example of use:
+   * <pre> {@code
+   * PCollection<String> words = ...;
+   * PCollection<List<String>> lastWords =
+   *     words.apply(Top.largestByEncoding(10, StringUtf8Coder.of()));
+   * } </pre>
+   */
+  public static <T> Combine.Globally<T, List<T>> largestByEncoding(int count, Coder<T> coder) {
+    return Combine.globally(TopEncodedCombineFn.largest(count, coder))
+        .named("LargestByEncoding.Globally");
+  }
+
+  /**
+   * Like {@link #largestByEncoding}, but returns the {@code count} elements whose encodings
+   * are smallest, in increasing order.
+   */
+  public static <T> Combine.Globally<T, List<T>> smallestByEncoding(int count, Coder<T> coder) {
+    return Combine.globally(TopEncodedCombineFn.smallest(count, coder))
+        .named("SmallestByEncoding.Globally");
+  }
+
   /**
    * A {@code Serializable} {@code Comparator} that that uses the compared elements' natural
    * ordering.
@@ -357,6 +438,13 @@ new TopCombineFn<>(count, new Largest<V>()).<K>asKeyedFn())
 
   ////////////////////////////////////////////////////////////////////////////
 
+  private static final String INCOMPATIBLE_GLOBAL_WINDOW_ERROR_MESSAGE =
+      "Default values are not supported in Top.[of, smallest, largest]() if the output "
+      + "PCollection is not windowed by GlobalWindows. Instead, use "
+      + "Top.[of, smallest, largest]().withoutDefaults() to output an empty PCollection if the"
+      + " input PCollection is empty, or Top.[of, smallest, largest]().asSingletonView() to "
+      + "get a PCollection containing the empty list if the input PCollection is empty.";
+
   /**
    * {@code CombineFn} for {@code Top} transforms that combines a
    * bunch of {@code T}s into a single {@code count}-long
@@ -392,11 +480,7 @@ new TopCombineFn<>(count, new Largest<V>()).<K>asKeyedFn())
 
     @Override
     String getIncompatibleGlobalWindowErrorMessage() {
-      return "Default values are not supported in Top.[of, smallest, largest]() if the output "
-          + "PCollection is not windowed by GlobalWindows. Instead, use "
-          + "Top.[of, smallest, largest]().withoutDefaults() to output an empty PCollection if the"
-          + " input PCollection is empty, or Top.[of, smallest, largest]().asSingletonView() to "
-          + "get a PCollection containing the empty list if the input PCollection is empty.";
+      return INCOMPATIBLE_GLOBAL_WINDOW_ERROR_MESSAGE;
     }
   }
 
@@ -556,4 +640,539 @@ new TopCombineFn<>(count, new Largest<V>()).<K>asKeyedFn())
       listCoder.registerByteSizeObserver(value.asList(), observer, context);
     }
   }
+
+  /**
+   * {@code CombineFn} for {@code Top} transforms over values that map to primitive
+   * {@code long} keys in the desired order.  The largest keys are kept in a
+   * {@link LongBoundedHeap}.
+   *
+   * <p>Use {@link #asKeyedFn} with {@link Combine#perKey} to find the top values per key.
+   *
+   * @param <T> type of element being compared
+   */
+  abstract static class PrimitiveTopCombineFn<T>
+      extends CombineFn<T, LongBoundedHeap, List<T>> {
+
+    private final int count;
+
+    PrimitiveTopCombineFn(int count) {
+      Preconditions.checkArgument(
+          count >= 0,
+          "count must be >= 0");
+      this.count = count;
+    }
+
+    /** Maps a value to a {@code long}, so that larger keys are preferred. */
+    abstract long toKey(T value);
+
+    /** The inverse of {@link #toKey}. */
+    abstract T fromKey(long key);
+
+    @Override
+    public LongBoundedHeap createAccumulator() {
+      return new LongBoundedHeap(count);
+    }
+
+    @Override
+    public LongBoundedHeap addInput(LongBoundedHeap heap, T input) {
+      heap.add(toKey(input));
+      return heap;
+    }
+
+    @Override
+    public LongBoundedHeap mergeAccumulators(Iterable<LongBoundedHeap> heaps) {
+      Iterator<LongBoundedHeap> iterator = heaps.iterator();
+      LongBoundedHeap heap = iterator.next();
+      while (iterator.hasNext()) {
+        heap.merge(iterator.next());
+      }
+      return heap;
+    }
+
+    @Override
+    public List<T> extractOutput(LongBoundedHeap heap) {
+      long[] keys = heap.sortedKeys();
+      List<T> output = new ArrayList<>(keys.length);
+      for (int i = keys.length - 1; i >= 0; i--) {
+        output.add(fromKey(keys[i]));
+      }
+      return output;
+    }
+
+    @Override
+    public Coder<LongBoundedHeap> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return new LongBoundedHeapCoder(count);
+    }
+
+    @Override
+    public Coder<List<T>> getDefaultOutputCoder(CoderRegistry registry, Coder<T> inputCoder) {
+      return ListCoder.of(inputCoder);
+    }
+
+    @Override
+    String getIncompatibleGlobalWindowErrorMessage() {
+      return INCOMPATIBLE_GLOBAL_WINDOW_ERROR_MESSAGE;
+    }
+  }
+
+  /**
+   * {@code CombineFn} for {@link Top#largestLongs} and {@link Top#smallestLongs}.
+   */
+  public static class TopLongsCombineFn extends PrimitiveTopCombineFn<Long> {
+    private final boolean largest;
+
+    /** Returns a {@code TopLongsCombineFn} keeping the largest {@code count} values. */
+    public static TopLongsCombineFn largest(int count) {
+      return new TopLongsCombineFn(count, true);
+    }
+
+    /** Returns a {@code TopLongsCombineFn} keeping the smallest {@code count} values. */
+    public static TopLongsCombineFn smallest(int count) {
+      return new TopLongsCombineFn(count, false);
+    }
+
+    private TopLongsCombineFn(int count, boolean largest) {
+      super(count);
+      this.largest = largest;
+    }
+
+    @Override
+    long toKey(Long value) {
+      // Bitwise complement reverses the order of signed longs.
+      return largest ? value : ~value;
+    }
+
+    @Override
+    Long fromKey(long key) {
+      return largest ? key : ~key;
+    }
+  }
+
+  /**
+   * {@code CombineFn} for {@link Top#largestDoubles} and {@link Top#smallestDoubles}.
+   */
+  public static class TopDoublesCombineFn extends PrimitiveTopCombineFn<Double> {
+    private final boolean largest;
+
+    /** Returns a {@code TopDoublesCombineFn} keeping the largest {@code count} values. */
+    public static TopDoublesCombineFn largest(int count) {
+      return new TopDoublesCombineFn(count, true);
+    }
+
+    /** Returns a {@code TopDoublesCombineFn} keeping the smallest {@code count} values. */
+    public static TopDoublesCombineFn smallest(int count) {
+      return new TopDoublesCombineFn(count, false);
+    }
+
+    private TopDoublesCombineFn(int count, boolean largest) {
+      super(count);
+      this.largest = largest;
+    }
+
+    @Override
+    long toKey(Double value) {
+      // Flipping the magnitude bits of negative values orders the bits as Double.compare does.
+      long bits = Double.doubleToLongBits(value);
+      long key = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+      return largest ? key : ~key;
+    }
+
+    @Override
+    Double fromKey(long key) {
+      long bits = largest ? key : ~key;
+      return Double.longBitsToDouble(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+    }
+  }
+
+  /**
+   * {@code CombineFn} for {@link Top#largestByEncoding} and {@link Top#smallestByEncoding},
+   * which keeps the elements encoded by the given {@code Coder} and compares their encodings
+   * as unsigned bytes.
+   *
+   * <p>Use {@link #asKeyedFn} with {@link Combine#perKey} to find the top values per key.
+   *
+   * @param <T> type of element being compared
+   */
+  public static class TopEncodedCombineFn<T>
+      extends CombineFn<T, EncodedBoundedHeap, List<T>> {
+
+    private final int count;
+    private final Coder<T> coder;
+    private final boolean largest;
+
+    /**
+     * Returns a {@code TopEncodedCombineFn} keeping the {@code count} values with the largest
+     * encodings.
+     */
+    public static <T> TopEncodedCombineFn<T> largest(int count, Coder<T> coder) {
+      return new TopEncodedCombineFn<>(count, coder, true);
+    }
+
+    /**
+     * Returns a {@code TopEncodedCombineFn} keeping the {@code count} values with the smallest
+     * encodings.
+     */
+    public static <T> TopEncodedCombineFn<T> smallest(int count, Coder<T> coder) {
+      return new TopEncodedCombineFn<>(count, coder, false);
+    }
+
+    private TopEncodedCombineFn(int count, Coder<T> coder, boolean largest) {
+      Preconditions.checkArgument(
+          count >= 0,
+          "count must be >= 0");
+      this.count = count;
+      this.coder = Preconditions.checkNotNull(coder);
+      this.largest = largest;
+    }
+
+    @Override
+    public EncodedBoundedHeap createAccumulator() {
+      return new EncodedBoundedHeap(count, largest);
+    }
+
+    @Override
+    public EncodedBoundedHeap addInput(EncodedBoundedHeap heap, T input) {
+      try {
+        heap.addEncoding(coder, input);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("unable to encode " + input, e);
+      }
+      return heap;
+    }
+
+    @Override
+    public EncodedBoundedHeap mergeAccumulators(Iterable<EncodedBoundedHeap> heaps) {
+      Iterator<EncodedBoundedHeap> iterator = heaps.iterator();
+      EncodedBoundedHeap heap = iterator.next();
+      while (iterator.hasNext()) {
+        heap.merge(iterator.next());
+      }
+      return heap;
+    }
+
+    @Override
+    public List<T> extractOutput(EncodedBoundedHeap heap) {
+      byte[][] encoded = heap.sortedEncodings();
+      List<T> output = new ArrayList<>(encoded.length);
+      try {
+        for (int i = encoded.length - 1; i >= 0; i--) {
+          output.add(CoderUtils.decodeFromByteArray(coder, encoded[i]));
+        }
+      } catch (CoderException e) {
+        throw new IllegalStateException("unable to decode an accumulated element", e);
+      }
+      return output;
+    }
+
+    @Override
+    public Coder<EncodedBoundedHeap> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return new EncodedBoundedHeapCoder(count, largest);
+    }
+
+    @Override
+    public Coder<List<T>> getDefaultOutputCoder(CoderRegistry registry, Coder<T> inputCoder) {
+      return ListCoder.of(coder);
+    }
+
+    @Override
+    String getIncompatibleGlobalWindowErrorMessage() {
+      return INCOMPATIBLE_GLOBAL_WINDOW_ERROR_MESSAGE;
+    }
+  }
+
+  /**
+   * A min-heap of at most {@code maximumSize} primitive {@code long} keys, which keeps the
+   * largest keys added to it.
+   *
+   * <p>This class is <i>not</i> safe for multithreaded use.
+   */
+  static class LongBoundedHeap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maximumSize;
+    private long[] heap;
+    private int size;
+
+    LongBoundedHeap(int maximumSize) {
+      this.maximumSize = maximumSize;
+      this.heap = new long[Math.min(maximumSize, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * Creates a heap holding {@code keys}, which must be sorted in increasing order and so
+     * are already a valid min-heap.
+     */
+    private LongBoundedHeap(int maximumSize, long[] keys) {
+      this.maximumSize = maximumSize;
+      this.heap = keys;
+      this.size = keys.length;
+    }
+
+    /** Adds {@code key} if it is larger than the smallest key of a full heap. */
+    void add(long key) {
+      if (size < maximumSize) {
+        if (size == heap.length) {
+          // A decoded heap may be empty, so grow to at least the initial capacity.
+          heap = Arrays.copyOf(heap,
+              (int) Math.min(maximumSize, Math.max(INITIAL_CAPACITY, 2L * heap.length)));
+        }
+        int i = size++;
+        while (i > 0) {
+          int parent = (i - 1) >>> 1;
+          if (heap[parent] <= key) {
+            break;
+          }
+          heap[i] = heap[parent];
+          i = parent;
+        }
+        heap[i] = key;
+      } else if (size > 0 && key > heap[0]) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+          int child = 2 * i + 1;
+          if (child + 1 < size && heap[child + 1] < heap[child]) {
+            child++;
+          }
+          if (key <= heap[child]) {
+            break;
+          }
+          heap[i] = heap[child];
+          i = child;
+        }
+        heap[i] = key;
+      }
+    }
+
+    void merge(LongBoundedHeap other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.heap[i]);
+      }
+    }
+
+    /** Returns the keys of this heap in increasing order. */
+    long[] sortedKeys() {
+      long[] keys = Arrays.copyOf(heap, size);
+      Arrays.sort(keys);
+      return keys;
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link LongBoundedHeap}, which writes the sorted keys as variable-length
+   * deltas.
+   */
+  private static class LongBoundedHeapCoder extends CustomCoder<LongBoundedHeap> {
+    private final int maximumSize;
+
+    public LongBoundedHeapCoder(int maximumSize) {
+      this.maximumSize = maximumSize;
+    }
+
+    @Override
+    public void encode(LongBoundedHeap value, OutputStream outStream, Context context)
+        throws CoderException, IOException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null LongBoundedHeap");
+      }
+      long[] keys = value.sortedKeys();
+      VarInt.encode(keys.length, outStream);
+      long previous = 0;
+      for (long key : keys) {
+        // The wrapping difference of sorted keys is non-negative unless they are far apart.
+        VarInt.encode(key - previous, outStream);
+        previous = key;
+      }
+    }
+
+    @Override
+    public LongBoundedHeap decode(InputStream inStream, Context context)
+        throws CoderException, IOException {
+      int size = VarInt.decodeInt(inStream);
+      if (size < 0 || size > maximumSize) {
+        throw new CoderException("invalid LongBoundedHeap size " + size);
+      }
+      long[] keys = new long[size];
+      long previous = 0;
+      for (int i = 0; i < size; i++) {
+        previous += VarInt.decodeLong(inStream);
+        keys[i] = previous;
+      }
+      return new LongBoundedHeap(maximumSize, keys);
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+  }
+
+  /**
+   * A min-heap of at most {@code maximumSize} encoded elements, which keeps the largest
+   * encodings added to it, compared as unsigned bytes, or the smallest if
+   * {@code largest} is false.
+   *
+   * <p>This class is <i>not</i> safe for multithreaded use.
+   */
+  static class EncodedBoundedHeap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maximumSize;
+    private final boolean largest;
+    private final Comparator<byte[]> comparator;
+    private byte[][] heap;
+    private int size;
+
+    /** A stream reused to encode inputs, so that rejected inputs are never copied. */
+    private ExposedByteArrayOutputStream scratch;
+
+    EncodedBoundedHeap(int maximumSize, boolean largest) {
+      this(maximumSize, largest, new byte[Math.min(maximumSize, INITIAL_CAPACITY)][], 0);
+    }
+
+    /**
+     * Creates a heap holding the first {@code size} of {@code encodings}, which must be sorted
+     * so that preferred encodings come last and so are already a valid heap.
+     */
+    private EncodedBoundedHeap(int maximumSize, boolean largest, byte[][] encodings, int size) {
+      this.maximumSize = maximumSize;
+      this.largest = largest;
+      this.comparator = largest
+          ? UnsignedBytes.lexicographicalComparator()
+          : Collections.reverseOrder(UnsignedBytes.lexicographicalComparator());
+      this.heap = encodings;
+      this.size = size;
+    }
+
+    /** Adds {@code encoded} if it is preferred over the least preferred encoding of a full heap. */
+    void add(byte[] encoded) {
+      if (size < maximumSize) {
+        if (size == heap.length) {
+          // A decoded heap may be empty, so grow to at least the initial capacity.
+          heap = Arrays.copyOf(heap,
+              (int) Math.min(maximumSize, Math.max(INITIAL_CAPACITY, 2L * heap.length)));
+        }
+        int i = size++;
+        while (i > 0) {
+          int parent = (i - 1) >>> 1;
+          if (comparator.compare(heap[parent], encoded) <= 0) {
+            break;
+          }
+          heap[i] = heap[parent];
+          i = parent;
+        }
+        heap[i] = encoded;
+      } else if (size > 0 && comparator.compare(encoded, heap[0]) > 0) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+          int child = 2 * i + 1;
+          if (child + 1 < size && comparator.compare(heap[child + 1], heap[child]) < 0) {
+            child++;
+          }
+          if (comparator.compare(encoded, heap[child]) <= 0) {
+            break;
+          }
+          heap[i] = heap[child];
+          i = child;
+        }
+        heap[i] = encoded;
+      }
+    }
+
+    /**
+     * Adds the encoding of {@code value} by {@code coder} in the outer context, if it is
+     * preferred over the least preferred encoding of a full heap. The encoding is only copied
+     * out of the reused buffer if it is added.
+     */
+    <T> void addEncoding(Coder<T> coder, T value) throws IOException {
+      if (scratch == null) {
+        scratch = new ExposedByteArrayOutputStream();
+      }
+      scratch.reset();
+      coder.encode(value, scratch, Coder.Context.OUTER);
+      if (size == maximumSize && size > 0) {
+        // Reserving no bytes exposes the backing array without growing it.
+        int result = compareUnsigned(scratch.reserve(0), scratch.position(), heap[0]);
+        if (largest ? result <= 0 : result >= 0) {
+          return;
+        }
+      }
+      add(scratch.toByteArray());
+    }
+
+    /**
+     * Compares the first {@code length} bytes of {@code bytes} with {@code other}, as unsigned
+     * bytes in lexicographical order.
+     */
+    private static int compareUnsigned(byte[] bytes, int length, byte[] other) {
+      int common = Math.min(length, other.length);
+      for (int i = 0; i < common; i++) {
+        int result = UnsignedBytes.compare(bytes[i], other[i]);
+        if (result != 0) {
+          return result;
+        }
+      }
+      return length - other.length;
+    }
+
+    void merge(EncodedBoundedHeap other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.heap[i]);
+      }
+    }
+
+    /** Returns the encodings of this heap, least preferred first. */
+    byte[][] sortedEncodings() {
+      byte[][] encodings = Arrays.copyOf(heap, size);
+      Arrays.sort(encodings, comparator);
+      return encodings;
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link EncodedBoundedHeap}, which writes the sorted encodings as
+   * length-prefixed byte arrays.
+   */
+  private static class EncodedBoundedHeapCoder extends CustomCoder<EncodedBoundedHeap> {
+    private final int maximumSize;
+    private final boolean largest;
+
+    public EncodedBoundedHeapCoder(int maximumSize, boolean largest) {
+      this.maximumSize = maximumSize;
+      this.largest = largest;
+    }
+
+    @Override
+    public void encode(EncodedBoundedHeap value, OutputStream outStream, Context context)
+        throws CoderException, IOException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null EncodedBoundedHeap");
+      }
+      byte[][] encodings = value.sortedEncodings();
+      VarInt.encode(encodings.length, outStream);
+      for (byte[] encoded : encodings) {
+        VarInt.encode(encoded.length, outStream);
+        outStream.write(encoded);
+      }
+    }
+
+    @Override
+    public EncodedBoundedHeap decode(InputStream inStream, Context context)
+        throws CoderException, IOException {
+      int size = VarInt.decodeInt(inStream);
+      if (size < 0 || size > maximumSize) {
+        throw new CoderException("invalid EncodedBoundedHeap size " + size);
+      }
+      byte[][] encodings = new byte[size][];
+      for (int i = 0; i < size; i++) {
+        encodings[i] = new byte[VarInt.decodeInt(inStream)];
+        ByteStreams.readFully(inStream, encodings[i]);
+      }
+      return new EncodedBoundedHeap(maximumSize, largest, encodings, size);
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+  }
 }
@@ -17,6 +17,7 @@
 package com.google.cloud.dataflow.sdk.transforms.join;
 
 import static com.google.cloud.dataflow.sdk.util.Structs.addObject;
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
@@ -24,10 +25,13 @@ import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.util.common.Reiterator;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.cloud.dataflow.sdk.values.TupleTagList;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 
@@ -42,6 +46,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
@@ -60,7 +65,32 @@ public class CoGbkResult {
 
   private final CoGbkResultSchema schema;
 
-  private static final int DEFAULT_IN_MEMORY_ELEMENT_COUNT = 10_000;
+  static final int DEFAULT_IN_MEMORY_ELEMENT_COUNT = 10_000;
+
+  /**
+   * The number of bytes of encoded values {@link CoGroupByKey} keeps in memory for each
+   * {@link CoGbkResult}, in addition to the first {@link #DEFAULT_IN_MEMORY_ELEMENT_COUNT}
+   * values, before spilling the rest to local disk.
+   *
+   * <p>The first values are kept in memory without being measured, as they were before values
+   * could be spilled, so a result holds at most that prefix plus this budget on the heap. The
+   * budget is of the same order as the prefix for values of about a kilobyte, and small enough
+   * that one result per worker thread stays a small fraction of a worker's heap.
+   */
+  static final long DEFAULT_IN_MEMORY_BYTE_BUDGET = 16L << 20;
+
+  /**
+   * Once the in-memory element count is exceeded, the encoded size of a value whose
+   * {@link Coder} cannot measure it cheaply is only measured for one in this many values, and
+   * scaled up accordingly.
+   */
+  private static final int BYTE_SIZE_SAMPLING_PERIOD = 10;
+
+  /** The values spilled to local disk, which are deleted by {@link #close}. */
+  private final List<SpilledValues<?>> spilledValues = new ArrayList<>();
+
+  /** The number of bytes of values spilled to local disk. */
+  private long spilledBytes = 0;
 
   private static final Logger LOG = LoggerFactory.getLogger(CoGbkResult.class);
 
@@ -78,6 +108,93 @@ public class CoGbkResult {
     this(schema, taggedValues, DEFAULT_IN_MEMORY_ELEMENT_COUNT);
   }
 
+  /**
+   * A row in the {@link PCollection} resulting from a {@link CoGroupByKey} transform, which
+   * keeps the first {@code inMemoryElementCount} values in memory, and then keeps further values
+   * in memory until their encoded size reaches {@code inMemoryByteBudget}. The remaining values
+   * of each tag are spilled to a local temporary file, encoded with the tag's coder from
+   * {@code unionCoder}. The tagged values are read only once.
+   *
+   * <p>Tagged values that are a {@link Collection} are already in memory, and are never
+   * spilled. Spilled values can be read until {@link #close} is called.
+   *
+   * @param schema the set of tuple tags used to refer to input tables and
+   *               result values
+   * @param taggedValues the raw results from a group-by-key
+   * @param unionCoder the coder of the raw results, whose components encode spilled values
+   * @param inMemoryElementCount the number of values to keep in memory without measuring them
+   * @param inMemoryByteBudget the number of bytes of encoded values to keep in memory after the
+   *                           first {@code inMemoryElementCount} values
+   */
+  @SuppressWarnings("unchecked")
+  public CoGbkResult(
+      CoGbkResultSchema schema,
+      Iterable<RawUnionValue> taggedValues,
+      UnionCoder unionCoder,
+      int inMemoryElementCount,
+      long inMemoryByteBudget) {
+    this.schema = schema;
+    valueMap = new ArrayList<>();
+    for (int unionTag = 0; unionTag < schema.size(); unionTag++) {
+      valueMap.add(new ArrayList<>());
+    }
+
+    List<? extends Coder<?>> tagCoders = unionCoder.getComponents();
+    SpilledValues<Object>[] spilledTagValues = new SpilledValues[schema.size()];
+    boolean mayBeSpilled = !(taggedValues instanceof Collection);
+    Counter<Long> inMemoryBytes = Counter.longs("CoGbkResultInMemoryBytes", SUM);
+    ElementByteSizeObserver observer = new ElementByteSizeObserver(inMemoryBytes);
+    long elementCount = 0;
+    long expensiveElementCount = 0;
+    try {
+      for (RawUnionValue value : taggedValues) {
+        int unionTag = value.getUnionTag();
+        if (schema.size() <= unionTag) {
+          throw new IllegalStateException("union tag " + unionTag +
+              " has no corresponding tuple tag in the result schema");
+        }
+        Coder<Object> tagCoder = (Coder<Object>) tagCoders.get(unionTag);
+        if (!mayBeSpilled || elementCount++ < inMemoryElementCount) {
+          ((List<Object>) valueMap.get(unionTag)).add(value.getValue());
+        } else if (inMemoryBytes.getAggregate() < inMemoryByteBudget) {
+          ((List<Object>) valueMap.get(unionTag)).add(value.getValue());
+          if (tagCoder.isRegisterByteSizeObserverCheap(value.getValue(), Coder.Context.NESTED)) {
+            observer.setScalingFactor(1.0);
+            tagCoder.registerByteSizeObserver(value.getValue(), observer, Coder.Context.NESTED);
+            observer.advance();
+          } else if (expensiveElementCount++ % BYTE_SIZE_SAMPLING_PERIOD == 0) {
+            observer.setScalingFactor(BYTE_SIZE_SAMPLING_PERIOD);
+            tagCoder.registerByteSizeObserver(value.getValue(), observer, Coder.Context.NESTED);
+            observer.advance();
+          }
+        } else {
+          if (spilledTagValues[unionTag] == null) {
+            spilledTagValues[unionTag] = SpilledValues.create(tagCoder);
+            spilledValues.add(spilledTagValues[unionTag]);
+          }
+          spilledTagValues[unionTag].add(value.getValue());
+        }
+      }
+      for (int unionTag = 0; unionTag < schema.size(); unionTag++) {
+        if (spilledTagValues[unionTag] != null) {
+          spilledBytes += spilledTagValues[unionTag].finish();
+          valueMap.set(
+              unionTag, Iterables.concat(valueMap.get(unionTag), spilledTagValues[unionTag]));
+        }
+      }
+    } catch (IllegalStateException e) {
+      close();
+      throw e;
+    } catch (Exception e) {
+      close();
+      throw new RuntimeException("Failed to spill CoGbkResult values to local disk", e);
+    }
+    if (spilledBytes > 0) {
+      LOG.debug("CoGbkResult exceeded its in-memory budget of {} bytes and spilled {} bytes",
+          inMemoryByteBudget, spilledBytes);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public CoGbkResult(
       CoGbkResultSchema schema,
@@ -155,6 +272,29 @@ public class CoGbkResult {
     return true;
   }
 
+  /**
+   * Returns the number of bytes of values that did not fit in memory and were spilled to local
+   * disk when this {@link CoGbkResult} was constructed.
+   */
+  long getSpilledBytes() {
+    return spilledBytes;
+  }
+
+  /**
+   * Deletes the values that were spilled to local disk when this {@link CoGbkResult} was
+   * constructed, after which they can no longer be read.
+   */
+  void close() {
+    for (SpilledValues<?> values : spilledValues) {
+      try {
+        values.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to delete spilled CoGbkResult values", e);
+      }
+    }
+    spilledValues.clear();
+  }
+
   /**
    * Returns the schema used by this {@link CoGbkResult}.
    */
@@ -18,11 +18,13 @@ package com.google.cloud.dataflow.sdk.transforms.join;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.transforms.Aggregator;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.Flatten;
 import com.google.cloud.dataflow.sdk.transforms.GroupByKey;
 import com.google.cloud.dataflow.sdk.transforms.PTransform;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.Sum;
 import com.google.cloud.dataflow.sdk.transforms.join.CoGbkResult.CoGbkResultCoder;
 import com.google.cloud.dataflow.sdk.transforms.join.KeyedPCollectionTuple.TaggedKeyedPCollection;
 import com.google.cloud.dataflow.sdk.values.KV;
@@ -74,6 +76,12 @@ import java.util.List;
 public class CoGroupByKey<K> extends
     PTransform<KeyedPCollectionTuple<K>,
                PCollection<KV<K, CoGbkResult>>> {
+  /**
+   * The name of the aggregator counting the bytes of grouped values that did not fit in memory
+   * and were spilled to local disk.
+   */
+  public static final String SPILLED_BYTES_COUNTER = "CoGbkResultSpilledBytes";
+
   /**
    * Returns a {@code CoGroupByKey<K>} {@code PTransform}.
    *
@@ -128,7 +136,7 @@ public class CoGroupByKey<K> extends
 
     CoGbkResultSchema tupleTags = input.getCoGbkResultSchema();
     PCollection<KV<K, CoGbkResult>> result = groupedTable.apply(
-        ParDo.of(new ConstructCoGbkResultFn<K>(tupleTags))
+        ParDo.of(new ConstructCoGbkResultFn<K>(tupleTags, unionCoder))
           .named("ConstructCoGbkResultFn"));
     result.setCoder(KvCoder.of(keyCoder,
         CoGbkResultCoder.of(tupleTags, unionCoder)));
@@ -197,15 +205,47 @@ public class CoGroupByKey<K> extends
                  KV<K, CoGbkResult>> {
 
     private final CoGbkResultSchema schema;
+    private final UnionCoder unionCoder;
 
-    public ConstructCoGbkResultFn(CoGbkResultSchema schema) {
+    private final Aggregator<Long, Long> spilledBytes =
+        createAggregator(SPILLED_BYTES_COUNTER, new Sum.SumLongFn());
+
+    /**
+     * The results of this bundle that spilled values to local disk. Like the lazily read values
+     * of a shuffle, spilled values can be read until the end of the bundle, when they are
+     * deleted.
+     */
+    private transient List<CoGbkResult> spilledResults;
+
+    public ConstructCoGbkResultFn(CoGbkResultSchema schema, UnionCoder unionCoder) {
       this.schema = schema;
+      this.unionCoder = unionCoder;
+    }
+
+    @Override
+    public void startBundle(Context c) {
+      spilledResults = new ArrayList<>();
     }
 
     @Override
     public void processElement(ProcessContext c) {
       KV<K, Iterable<RawUnionValue>> e = c.element();
-      c.output(KV.of(e.getKey(), new CoGbkResult(schema, e.getValue())));
+      CoGbkResult result = new CoGbkResult(
+          schema, e.getValue(), unionCoder, CoGbkResult.DEFAULT_IN_MEMORY_ELEMENT_COUNT,
+          CoGbkResult.DEFAULT_IN_MEMORY_BYTE_BUDGET);
+      if (result.getSpilledBytes() > 0) {
+        spilledBytes.addValue(result.getSpilledBytes());
+        spilledResults.add(result);
+      }
+      c.output(KV.of(e.getKey(), result));
+    }
+
+    @Override
+    public void finishBundle(Context c) {
+      for (CoGbkResult result : spilledResults) {
+        result.close();
+      }
+      spilledResults.clear();
     }
   }
 }
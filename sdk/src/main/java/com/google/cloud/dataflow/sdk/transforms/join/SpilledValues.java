@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms.join;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An append-only sequence of values that is kept in a temporary local file rather than in
+ * memory. Used by {@link CoGbkResult} for the values that exceed its in-memory budget.
+ *
+ * <p>Values are encoded with the given {@link Coder} as they are added. Once {@link #finish}
+ * has been called, the values can be iterated over any number of times until {@link #close}
+ * is called. Each iterator opens the file and reads it sequentially from the start, and closes
+ * it again once all values have been read. {@link #close} closes any files still open and
+ * deletes the file.
+ *
+ * @param <T> the type of the values
+ */
+final class SpilledValues<T> implements Iterable<T>, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpilledValues.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Coder<T> coder;
+  private final File file;
+  private final CountingOutputStream outStream;
+  /** The streams of iterators that have not yet read all values. */
+  private final Set<InputStream> openInStreams = new HashSet<>();
+  private long size = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+
+  /**
+   * Returns a new, empty {@link SpilledValues} backed by a new temporary file.
+   */
+  static <T> SpilledValues<T> create(Coder<T> coder) throws IOException {
+    File file = File.createTempFile("cogbk-", ".spill");
+    try {
+      return new SpilledValues<>(coder, file);
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+  }
+
+  private SpilledValues(Coder<T> coder, File file) throws IOException {
+    this.coder = coder;
+    this.file = file;
+    this.outStream = new CountingOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+  }
+
+  /**
+   * Appends a value.
+   */
+  void add(T value) throws IOException {
+    Preconditions.checkState(!finished, "Cannot add values to finished SpilledValues");
+    coder.encode(value, outStream, Coder.Context.NESTED);
+    size++;
+  }
+
+  /**
+   * Flushes the added values to the file and closes it, after which no more values can be added
+   * and the values can be iterated over. Returns the number of bytes written.
+   */
+  long finish() throws IOException {
+    if (!finished) {
+      finished = true;
+      outStream.close();
+    }
+    return outStream.getCount();
+  }
+
+  /**
+   * Returns the number of values added.
+   */
+  long size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    Preconditions.checkState(finished, "Cannot iterate over unfinished SpilledValues");
+    Preconditions.checkState(!closed, "Cannot iterate over SpilledValues after they were closed");
+    return new Iterator<T>() {
+      private long remaining = size;
+      private InputStream inStream = null;
+
+      @Override
+      public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      @Override
+      public T next() {
+        if (remaining == 0) {
+          throw new NoSuchElementException();
+        }
+        try {
+          if (inStream == null) {
+            inStream = open();
+          }
+          T value = coder.decode(inStream, Coder.Context.NESTED);
+          if (--remaining == 0) {
+            release(inStream);
+          }
+          return value;
+        } catch (IOException e) {
+          remaining = 0;
+          release(inStream);
+          throw new RuntimeException("Failed to read spilled CoGbkResult values", e);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Closes the streams of any iterators that have not read all values, and deletes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      outStream.close();
+      for (InputStream inStream : openInStreams) {
+        inStream.close();
+      }
+      openInStreams.clear();
+    } finally {
+      if (!file.delete() && file.exists()) {
+        LOG.warn("Failed to delete CoGbkResult spill file {}", file);
+      }
+    }
+  }
+
+  private InputStream open() throws IOException {
+    Preconditions.checkState(!closed, "Cannot read SpilledValues after they were closed");
+    InputStream inStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    openInStreams.add(inStream);
+    return inStream;
+  }
+
+  private void release(InputStream inStream) {
+    if (inStream != null && openInStreams.remove(inStream)) {
+      try {
+        inStream.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close CoGbkResult spill file {}", file, e);
+      }
+    }
+  }
+}
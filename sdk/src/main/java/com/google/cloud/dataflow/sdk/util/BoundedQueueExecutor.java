@@ -16,6 +16,7 @@
 
 package com.google.cloud.dataflow.sdk.util;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
@@ -43,10 +44,54 @@ public class BoundedQueueExecutor extends ThreadPoolExecutor {
                    TimeUnit unit,
                    int maximumQueueSize,
                    ThreadFactory threadFactory) {
-    super(maximumPoolSize, maximumPoolSize, keepAliveTime, unit,
-        new LinkedBlockingQueue<Runnable>(), threadFactory);
+    this(maximumPoolSize, keepAliveTime, unit, maximumQueueSize, threadFactory,
+        new LinkedBlockingQueue<Runnable>());
+  }
+
+  /**
+   * Creates an executor that queues work on the given unbounded {@code workQueue}, for example a
+   * {@link KeyAffinityQueue}. The number of queued elements is still limited to
+   * {@code maximumQueueSize}.
+   *
+   * <p>With a {@link KeyAffinityQueue}, all threads are started up front and kept alive, since
+   * a task that starts a new thread is run by it directly rather than through the queue's lanes.
+   * Threads that exit anyway, for example after a task throws, are unbound from their lanes.
+   */
+  public BoundedQueueExecutor(int maximumPoolSize,
+                   long keepAliveTime,
+                   TimeUnit unit,
+                   int maximumQueueSize,
+                   ThreadFactory threadFactory,
+                   BlockingQueue<Runnable> workQueue) {
+    super(maximumPoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+        workQueue instanceof KeyAffinityQueue
+            ? unbindingThreadFactory(threadFactory, (KeyAffinityQueue) workQueue)
+            : threadFactory);
     this.semaphore = new ReducableSemaphore(maximumQueueSize);
-    allowCoreThreadTimeOut(true);
+    if (workQueue instanceof KeyAffinityQueue) {
+      prestartAllCoreThreads();
+    } else {
+      allowCoreThreadTimeOut(true);
+    }
+  }
+
+  private static ThreadFactory unbindingThreadFactory(
+      final ThreadFactory threadFactory, final KeyAffinityQueue queue) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable worker) {
+        return threadFactory.newThread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              worker.run();
+            } finally {
+              queue.unbindCurrentThread();
+            }
+          }
+        });
+      }
+    };
   }
 
   // Before adding a Runnable to the queue, acquire the semaphore.
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+/**
+ * Implemented by {@link java.io.InputStream InputStreams} that read from a byte array, so that
+ * coders can decode directly from the array instead of copying through an intermediate
+ * {@code byte[]}.
+ *
+ * <p>A direct read consumes bytes of {@link #array()} from {@link #position()} up to at most
+ * {@link #limit()}, and then calls {@link #advance} with the number of bytes read.
+ */
+public interface ByteArrayBackedInput {
+  /** Returns the backing array. Bytes remaining in the stream start at {@link #position()}. */
+  byte[] array();
+
+  /** Returns the offset in the backing array of the next byte to be read. */
+  int position();
+
+  /** Returns the offset in the backing array just past the last byte of the stream. */
+  int limit();
+
+  /** Marks {@code length} bytes read directly from the backing array as consumed. */
+  void advance(int length);
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+/**
+ * Implemented by {@link java.io.OutputStream OutputStreams} that write into a growable byte
+ * array, so that coders can encode directly into the array instead of going through an
+ * intermediate {@code byte[]}.
+ *
+ * <p>A direct write calls {@link #reserve}, fills the returned array starting at
+ * {@link #position()}, and then calls {@link #advance} with the number of bytes written.
+ */
+public interface ByteArrayBackedOutput {
+  /**
+   * Ensures that at least {@code length} bytes can be written starting at {@link #position()},
+   * and returns the backing array. The array may change after any other write to the stream.
+   */
+  byte[] reserve(int length);
+
+  /** Returns the offset in the backing array of the next byte to be written. */
+  int position();
+
+  /** Marks {@code length} bytes written directly to the backing array as part of the stream. */
+  void advance(int length);
+}
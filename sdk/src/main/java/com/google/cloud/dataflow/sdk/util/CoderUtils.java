@@ -26,6 +26,7 @@ import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoderBase;
 import com.google.cloud.dataflow.sdk.coders.MapCoder;
 import com.google.cloud.dataflow.sdk.coders.MapCoderBase;
+import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
 import com.google.common.base.Throwables;
 
@@ -116,7 +117,7 @@ public final class CoderUtils {
   private static <T> void encodeToSafeStream(
       Coder<T> coder, T value, OutputStream stream, Coder.Context context) throws CoderException {
     try {
-      coder.encode(value, new UnownedOutputStream(stream), context);
+      coder.encode(value, UnownedOutputStream.of(stream), context);
     } catch (IOException exn) {
       Throwables.propagateIfPossible(exn, CoderException.class);
       throw new IllegalArgumentException(
@@ -153,7 +154,7 @@ public final class CoderUtils {
   private static <T> T decodeFromSafeStream(
       Coder<T> coder, InputStream stream, Coder.Context context) throws CoderException {
     try {
-      return coder.decode(new UnownedInputStream(stream), context);
+      return coder.decode(UnownedInputStream.of(stream), context);
     } catch (IOException exn) {
       Throwables.propagateIfPossible(exn, CoderException.class);
       throw new IllegalArgumentException(
@@ -182,6 +183,15 @@ public final class CoderUtils {
     return decodeFromByteArray(coder, encodeToByteArray(coder, value, Coder.Context.OUTER));
   }
 
+  /**
+   * Returns {@code true} if the given {@link Coder} is order-preserving, as defined by
+   * {@link StandardCoder#isOrderPreserving}. {@link Coder Coders} that do not extend
+   * {@link StandardCoder} are never considered order-preserving.
+   */
+  public static boolean isOrderPreserving(Coder<?> coder) {
+    return coder instanceof StandardCoder && ((StandardCoder<?>) coder).isOrderPreserving();
+  }
+
   /**
    * Encodes the given value using the specified Coder, and returns the Base64 encoding of the
    * encoded bytes.
@@ -21,6 +21,7 @@ import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.runners.worker.logging.DataflowWorkerLoggingMDC;
 import com.google.cloud.dataflow.sdk.transforms.Aggregator;
+import com.google.cloud.dataflow.sdk.transforms.BatchDoFn;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.DoFn.RequiresWindowAccess;
@@ -45,6 +46,7 @@ import org.joda.time.Instant;
 import org.joda.time.format.PeriodFormat;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -73,6 +75,16 @@ public class DoFnRunner<InputT, OutputT> {
   /** The context used for running the DoFn. */
   public final DoFnContext<InputT, OutputT> context;
 
+  /** The DoFn being run, if it processes batches, or null. */
+  private final BatchDoFn<InputT, OutputT> batchFn;
+
+  /**
+   * The elements of the current batch of the {@link #batchFn}, which have the timestamp,
+   * windows and pane of {@link #batchExemplar}.
+   */
+  private List<InputT> batch;
+  private WindowedValue<InputT> batchExemplar;
+
   protected DoFnRunner(
       PipelineOptions options,
       DoFn<InputT, OutputT> fn,
@@ -84,6 +96,7 @@ public class DoFnRunner<InputT, OutputT> {
       CounterSet.AddCounterMutator addCounterMutator,
       WindowingStrategy<?, ?> windowingStrategy) {
     this.fn = fn;
+    this.batchFn = fn instanceof BatchDoFn ? (BatchDoFn<InputT, OutputT>) fn : null;
     this.context = new DoFnContext<>(
         options,
         fn,
@@ -183,6 +196,10 @@ public class DoFnRunner<InputT, OutputT> {
   }
 
   protected void invokeProcessElement(WindowedValue<InputT> elem) {
+    if (batchFn != null) {
+      addToBatch(elem);
+      return;
+    }
     DoFn<InputT, OutputT>.ProcessContext processContext = createProcessContext(elem);
     // This can contain user code. Wrap it in case it throws an exception.
     try {
@@ -194,8 +211,48 @@ public class DoFnRunner<InputT, OutputT> {
     }
   }
 
-  /** Calls {@link DoFn#finishBundle}. */
+  private void addToBatch(WindowedValue<InputT> elem) {
+    if (batch != null && !hasSameWindowing(batchExemplar, elem)) {
+      processBatch();
+    }
+    if (batch == null) {
+      batch = new ArrayList<>();
+      batchExemplar = elem;
+    }
+    batch.add(elem.getValue());
+    if (batch.size() >= batchFn.getMaxBatchSize()) {
+      processBatch();
+    }
+  }
+
+  private static boolean hasSameWindowing(WindowedValue<?> a, WindowedValue<?> b) {
+    return a.getTimestamp().equals(b.getTimestamp())
+        && a.getPane().equals(b.getPane())
+        && a.getWindows().equals(b.getWindows());
+  }
+
+  /** Calls {@link BatchDoFn#processBatch} with the current batch, if there is one. */
+  private void processBatch() {
+    if (batch == null) {
+      return;
+    }
+    BatchDoFn<InputT, OutputT>.BatchContext batchContext =
+        batchFn.forElements(createProcessContext(batchExemplar), batch);
+    batch = null;
+    batchExemplar = null;
+    // This can contain user code. Wrap it in case it throws an exception.
+    try {
+      batchFn.processBatch(batchContext);
+    } catch (Throwable t) {
+      // Exception in user code.
+      Throwables.propagateIfInstanceOf(t, UserCodeException.class);
+      throw new UserCodeException(t);
+    }
+  }
+
+  /** Calls {@link DoFn#finishBundle}, after processing any incomplete batch. */
   public void finishBundle() {
+    processBatch();
     // This can contain user code. Wrap it in case it throws an exception.
     try {
       fn.finishBundle(context);
@@ -22,12 +22,44 @@ import java.io.IOException;
 /**
  * {@link ByteArrayInputStream} that allows accessing the entire internal buffer without copying.
  */
-public class ExposedByteArrayInputStream extends ByteArrayInputStream{
+public class ExposedByteArrayInputStream extends ByteArrayInputStream
+    implements ByteArrayBackedInput {
 
   public ExposedByteArrayInputStream(byte[] buf) {
     super(buf);
   }
 
+  /**
+   * Creates a stream over {@code length} bytes of {@code buf} starting at {@code offset}.
+   */
+  public ExposedByteArrayInputStream(byte[] buf, int offset, int length) {
+    super(buf, offset, length);
+  }
+
+  @Override
+  public byte[] array() {
+    return buf;
+  }
+
+  @Override
+  public int position() {
+    return pos;
+  }
+
+  @Override
+  public int limit() {
+    return count;
+  }
+
+  @Override
+  public void advance(int length) {
+    if (length < 0 || length > count - pos) {
+      throw new IndexOutOfBoundsException(
+          "Cannot advance " + length + " bytes with " + (count - pos) + " remaining");
+    }
+    pos += length;
+  }
+
   /** Read all remaining bytes.
    * @throws IOException */
   public byte[] readAll() throws IOException {
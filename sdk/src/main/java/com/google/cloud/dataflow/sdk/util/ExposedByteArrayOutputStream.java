@@ -16,13 +16,15 @@ package com.google.cloud.dataflow.sdk.util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * {@link ByteArrayOutputStream} special cased to treat writes of a single byte-array specially.
  * When calling {@link #toByteArray()} after writing only one {@code byte[]} using
  * {@link #writeAndOwn(byte[])}, it will return that array directly.
  */
-public class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+public class ExposedByteArrayOutputStream extends ByteArrayOutputStream
+    implements ByteArrayBackedOutput {
 
   private byte[] swappedBuffer;
 
@@ -88,6 +90,26 @@ public class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
     super.write(b);
   }
 
+  @Override
+  public byte[] reserve(int length) {
+    fallback();
+    if (length > buf.length - count) {
+      buf = Arrays.copyOf(buf, (int) Math.min(Integer.MAX_VALUE,
+          Math.max(count + (long) length, buf.length * 2L)));
+    }
+    return buf;
+  }
+
+  @Override
+  public int position() {
+    return count;
+  }
+
+  @Override
+  public void advance(int length) {
+    count += length;
+  }
+
   @Override
   public byte[] toByteArray() {
     // Note: count == buf.length is not a correct criteria to "return buf;", because the internal
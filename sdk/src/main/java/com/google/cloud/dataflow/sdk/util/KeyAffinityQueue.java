@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.PrintWriter;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A work queue for a {@link java.util.concurrent.ThreadPoolExecutor} that partitions tasks into a
+ * fixed number of lanes by key, so that work for a given key tends to run on the same subset of
+ * threads.
+ *
+ * <p>Tasks implementing {@link KeyedRunnable} are placed in the lane chosen by the hash of their
+ * affinity key; other tasks are spread across lanes round-robin. Each thread taking from the
+ * queue is bound to a single lane, and prefers tasks from that lane. A thread whose lane is empty
+ * steals from the longest other lane, so no thread is left idle while work is queued.
+ */
+public class KeyAffinityQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+  /**
+   * A {@link Runnable} that should preferably run on the lane of its affinity key.
+   */
+  public interface KeyedRunnable extends Runnable {
+    /**
+     * Returns the key whose {@link Object#hashCode} selects the lane, or {@code null} if the
+     * task has no affinity.
+     */
+    Object getAffinityKey();
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Lane[] lanes;
+  private int size;
+
+  private final AtomicInteger nextUnkeyedLane = new AtomicInteger();
+  private final ThreadLocal<Integer> threadLane = new ThreadLocal<>();
+
+  // Per-lane counters. Guarded by lock.
+  private static class Lane {
+    final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    int threads;
+    long enqueued;
+    long executedLocally;
+    long stolen;
+  }
+
+  public KeyAffinityQueue(int numLanes) {
+    Preconditions.checkArgument(numLanes > 0, "numLanes must be positive, was %s", numLanes);
+    lanes = new Lane[numLanes];
+    for (int i = 0; i < numLanes; i++) {
+      lanes[i] = new Lane();
+    }
+  }
+
+  public int getNumLanes() {
+    return lanes.length;
+  }
+
+  /**
+   * Returns the lane that tasks with the given affinity key are queued on.
+   */
+  public int laneForKey(Object key) {
+    // Spread the hash bits, since ByteString and friends have weak low bits for short keys.
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return (h & Integer.MAX_VALUE) % lanes.length;
+  }
+
+  private int laneFor(Runnable r) {
+    if (r instanceof KeyedRunnable) {
+      Object key = ((KeyedRunnable) r).getAffinityKey();
+      if (key != null) {
+        return laneForKey(key);
+      }
+    }
+    return (nextUnkeyedLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+  }
+
+  /**
+   * Returns the lane of the calling thread, binding it to the least populated lane on its first
+   * call. Must be called with the lock held.
+   */
+  private int currentThreadLane() {
+    Integer lane = threadLane.get();
+    if (lane == null) {
+      int best = 0;
+      for (int i = 1; i < lanes.length; i++) {
+        if (lanes[i].threads < lanes[best].threads) {
+          best = i;
+        }
+      }
+      lanes[best].threads++;
+      lane = best;
+      threadLane.set(lane);
+    }
+    return lane;
+  }
+
+  /**
+   * Unbinds the calling thread from its lane. Called by the threads of the executor when they
+   * exit, so that the lanes of later threads are balanced.
+   */
+  public void unbindCurrentThread() {
+    lock.lock();
+    try {
+      releaseCurrentThreadLane();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Unbinds the calling thread from its lane. Called when a timed poll expires, which is when
+   * the executor lets an idle thread exit. Must be called with the lock held.
+   */
+  private void releaseCurrentThreadLane() {
+    Integer lane = threadLane.get();
+    if (lane != null) {
+      lanes[lane].threads--;
+      threadLane.remove();
+    }
+  }
+
+  /**
+   * Removes the next task for the calling thread, or returns null if the queue is empty. Must be
+   * called with the lock held.
+   */
+  private Runnable dequeue() {
+    if (size == 0) {
+      return null;
+    }
+    int home = currentThreadLane();
+    Runnable r = lanes[home].tasks.poll();
+    if (r != null) {
+      lanes[home].executedLocally++;
+    } else {
+      int victim = -1;
+      for (int i = 0; i < lanes.length; i++) {
+        if (victim < 0 || lanes[i].tasks.size() > lanes[victim].tasks.size()) {
+          victim = i;
+        }
+      }
+      r = lanes[victim].tasks.poll();
+      lanes[victim].stolen++;
+    }
+    size--;
+    if (size > 0) {
+      notEmpty.signal();
+    }
+    return r;
+  }
+
+  @Override
+  public boolean offer(Runnable r) {
+    Preconditions.checkNotNull(r);
+    int lane = laneFor(r);
+    lock.lock();
+    try {
+      lanes[lane].tasks.add(r);
+      lanes[lane].enqueued++;
+      size++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(Runnable r) {
+    offer(r);
+  }
+
+  @Override
+  public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+    return offer(r);
+  }
+
+  @Override
+  public Runnable poll() {
+    lock.lock();
+    try {
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      Runnable r;
+      while ((r = dequeue()) == null) {
+        notEmpty.await();
+      }
+      return r;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      Runnable r;
+      while ((r = dequeue()) == null) {
+        if (nanos <= 0) {
+          releaseCurrentThreadLane();
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return r;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable peek() {
+    lock.lock();
+    try {
+      if (size == 0) {
+        return null;
+      }
+      Integer home = threadLane.get();
+      Runnable r = home == null ? null : lanes[home].tasks.peek();
+      if (r == null) {
+        for (Lane lane : lanes) {
+          if ((r = lane.tasks.peek()) != null) {
+            break;
+          }
+        }
+      }
+      return r;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    lock.lock();
+    try {
+      for (Lane lane : lanes) {
+        if (lane.tasks.remove(o)) {
+          size--;
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> c, int maxElements) {
+    Preconditions.checkArgument(c != this, "Cannot drain a queue into itself");
+    lock.lock();
+    try {
+      int drained = 0;
+      for (Lane lane : lanes) {
+        Runnable r;
+        while (drained < maxElements && (r = lane.tasks.poll()) != null) {
+          c.add(r);
+          drained++;
+          size--;
+        }
+      }
+      return drained;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns an iterator over a snapshot of the queued tasks.
+   */
+  @Override
+  public Iterator<Runnable> iterator() {
+    final List<Runnable> snapshot = new ArrayList<>();
+    lock.lock();
+    try {
+      for (Lane lane : lanes) {
+        snapshot.addAll(lane.tasks);
+      }
+    } finally {
+      lock.unlock();
+    }
+    final Iterator<Runnable> delegate = snapshot.iterator();
+    return new Iterator<Runnable>() {
+      private Runnable last;
+
+      @Override
+      public boolean hasNext() {
+        return delegate.hasNext();
+      }
+
+      @Override
+      public Runnable next() {
+        last = delegate.next();
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        Preconditions.checkState(last != null);
+        KeyAffinityQueue.this.remove(last);
+        last = null;
+      }
+    };
+  }
+
+  /**
+   * Returns the number of tasks currently queued on the given lane.
+   */
+  public int getLaneSize(int lane) {
+    lock.lock();
+    try {
+      return lanes[lane].tasks.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of threads bound to the given lane.
+   */
+  public int getLaneThreadCount(int lane) {
+    lock.lock();
+    try {
+      return lanes[lane].threads;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of tasks queued on the given lane that were run by a thread bound to a
+   * different lane.
+   */
+  public long getLaneStolenCount(int lane) {
+    lock.lock();
+    try {
+      return lanes[lane].stolen;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void printHtml(PrintWriter writer) {
+    lock.lock();
+    try {
+      writer.println("Key Affinity Lanes: <ul>");
+      for (int i = 0; i < lanes.length; i++) {
+        Lane lane = lanes[i];
+        writer.println("<li>Lane " + i + ": threads=" + lane.threads
+            + " queued=" + lane.tasks.size() + " enqueued=" + lane.enqueued
+            + " local=" + lane.executedLocally + " stolen=" + lane.stolen + "</li>");
+      }
+      writer.println("</ul>");
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions.MutationDetectionLevel;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * Chooses which elements get a {@link MutationDetector}, according to the
+ * {@link MutationDetectionLevel} configured in {@link DirectPipelineOptions}.
+ *
+ * <p>Elements that are not chosen get {@link MutationDetectors#noopMutationDetector()}, so they
+ * are neither encoded nor decoded. Each chosen element increments a counter.
+ */
+public class MutationDetectionSampler {
+
+  private final MutationDetectionLevel level;
+  private final double sampleRate;
+  private final int elementsPerStep;
+  private final Random random;
+  private final Counter<Long> checkedElements;
+  private long seenElements;
+
+  /**
+   * Creates a {@link MutationDetectionSampler} for a single sequence of elements, such as the
+   * inputs of a step. {@code checkedElements} is incremented for every element checked.
+   */
+  public static MutationDetectionSampler create(
+      DirectPipelineOptions options, Random random, Counter<Long> checkedElements) {
+    MutationDetectionLevel level = options.getMutationDetectionLevel();
+    double sampleRate = options.getMutationDetectionSampleRate();
+    Preconditions.checkArgument(sampleRate >= 0 && sampleRate <= 1,
+        "mutationDetectionSampleRate must be between 0 and 1, not %s", sampleRate);
+    Preconditions.checkArgument(options.getMutationDetectionElementsPerStep() >= 0,
+        "mutationDetectionElementsPerStep must not be negative");
+    return new MutationDetectionSampler(
+        level == null ? MutationDetectionLevel.FULL : level,
+        sampleRate,
+        options.getMutationDetectionElementsPerStep(),
+        random,
+        checkedElements);
+  }
+
+  private MutationDetectionSampler(
+      MutationDetectionLevel level,
+      double sampleRate,
+      int elementsPerStep,
+      Random random,
+      Counter<Long> checkedElements) {
+    this.level = level;
+    this.sampleRate = sampleRate;
+    this.elementsPerStep = elementsPerStep;
+    this.random = random;
+    this.checkedElements = checkedElements;
+  }
+
+  /**
+   * Returns {@link MutationDetectors#forValueWithCoder} if {@code value} is chosen to be checked,
+   * or else a {@link MutationDetector} that does nothing.
+   */
+  public <T> MutationDetector forValueWithCoder(T value, Coder<T> coder) throws CoderException {
+    if (!shouldCheck()) {
+      return MutationDetectors.noopMutationDetector();
+    }
+    checkedElements.addValue(1L);
+    return MutationDetectors.forValueWithCoder(value, coder);
+  }
+
+  private boolean shouldCheck() {
+    switch (level) {
+      case FULL:
+        return true;
+      case SAMPLED:
+        return random.nextDouble() < sampleRate;
+      case FIRST_N:
+        return seenElements++ < elementsPerStep;
+      case NONE:
+        return false;
+      default:
+        throw new IllegalStateException("Unknown mutation detection level " + level);
+    }
+  }
+}
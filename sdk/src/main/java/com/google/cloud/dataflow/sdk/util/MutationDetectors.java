@@ -53,13 +53,14 @@ public class MutationDetectors {
    * which is already immutable by design.
    */
   public static MutationDetector noopMutationDetector() {
-    return new NoopMutationDetector();
+    return NoopMutationDetector.INSTANCE;
   }
 
   /**
    * A {@link MutationDetector} for {@code null}, which is immutable.
    */
   private static class NoopMutationDetector implements MutationDetector {
+    private static final NoopMutationDetector INSTANCE = new NoopMutationDetector();
 
     @Override
     public void verifyUnmodified() { }
@@ -65,6 +65,7 @@ public class PropertyNames {
   public static final String IS_PAIR_LIKE = "is_pair_like";
   public static final String IS_STREAM_LIKE = "is_stream_like";
   public static final String IS_WRAPPER = "is_wrapper";
+  public static final String LAZY_DECODING = "lazy_decoding";
   public static final String DISALLOW_COMBINER_LIFTING = "disallow_combiner_lifting";
   public static final String NON_PARALLEL_INPUTS = "non_parallel_inputs";
   public static final String NUM_SHARDS = "num_shards";
@@ -84,6 +85,7 @@ public class PropertyNames {
   public static final String SHUFFLE_KIND = "shuffle_kind";
   public static final String SHUFFLE_READER_CONFIG = "shuffle_reader_config";
   public static final String SHUFFLE_WRITER_CONFIG = "shuffle_writer_config";
+  public static final String SORT_VALUES = "sort_values";
   public static final String START_INDEX = "start_index";
   public static final String START_OFFSET = "start_offset";
   public static final String START_SHUFFLE_POSITION = "start_shuffle_position";
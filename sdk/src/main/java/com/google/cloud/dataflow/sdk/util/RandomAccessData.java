@@ -166,7 +166,7 @@ public class RandomAccessData {
     size = position;
   }
 
-  private final OutputStream outputStream = new OutputStream() {
+  private class BackedOutputStream extends OutputStream implements ByteArrayBackedOutput {
     @Override
     public void write(int b) throws IOException {
       ensureCapacity(size + 1);
@@ -180,7 +180,25 @@ public class RandomAccessData {
       System.arraycopy(b, offset, buffer, size, length);
       size += length;
     }
-  };
+
+    @Override
+    public byte[] reserve(int length) {
+      ensureCapacity(size + length);
+      return buffer;
+    }
+
+    @Override
+    public int position() {
+      return size;
+    }
+
+    @Override
+    public void advance(int length) {
+      size += length;
+    }
+  }
+
+  private final OutputStream outputStream = new BackedOutputStream();
 
   /**
    * Returns an output stream which writes to the backing buffer from the current position.
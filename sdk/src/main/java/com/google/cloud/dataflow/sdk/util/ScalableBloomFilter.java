@@ -174,7 +174,29 @@ public class ScalableBloomFilter implements Serializable {
 
   @VisibleForTesting
   static Builder builder(int maxInsertionsForAddToAllModeLog2) {
-    return new Builder(maxInsertionsForAddToAllModeLog2);
+    return new Builder(
+        maxInsertionsForAddToAllModeLog2, Builder.DEFAULT_FALSE_POSITIVE_PROBABILITY);
+  }
+
+  /**
+   * Returns a scalable Bloom filter builder allowing one to construct a Bloom filter
+   * with a false positive probability of at most {@code falsePositiveProbability}
+   * irrespective of the number of elements inserted.
+   *
+   * <p>Each Bloom filter slice added as the filter grows has {@code 0.9} times the false
+   * positive probability of the previous one, so the first slice is built with
+   * {@code 0.1 * falsePositiveProbability}, which bounds the sum over all slices by
+   * {@code falsePositiveProbability}.
+   *
+   * <p>The builder starts out sized for {@code 2^maxInsertionsForAddToAllModeLog2} insertions,
+   * so smaller values trade growth steps for a smaller initial footprint.
+   */
+  public static Builder builder(
+      double falsePositiveProbability, int maxInsertionsForAddToAllModeLog2) {
+    checkArgument(falsePositiveProbability > 0 && falsePositiveProbability < 1,
+        "False positive probability (%s) must be in (0, 1).", falsePositiveProbability);
+    return new Builder(
+        maxInsertionsForAddToAllModeLog2, falsePositiveProbability * (1 - Builder.RATIO));
   }
 
   /**
@@ -198,24 +220,34 @@ public class ScalableBloomFilter implements Serializable {
     }
 
     private final List<BloomFilter<ByteBuffer>> bloomFilters;
+    private final double falsePositiveProbability;
     private Mode mode;
     private long numberOfInsertions;
+    private long sizeInBits;
 
-    private Builder(int maxInsertionsForAddToAllModeLog2) {
+    private Builder(int maxInsertionsForAddToAllModeLog2, double falsePositiveProbability) {
       checkArgument(maxInsertionsForAddToAllModeLog2 < Long.SIZE - 1,
           "%s does not support an initial size with more than 2^63 elements.",
           ScalableBloomFilter.class.getSimpleName());
+      checkArgument(falsePositiveProbability > 0 && falsePositiveProbability < 1,
+          "False positive probability (%s) must be in (0, 1).", falsePositiveProbability);
       this.bloomFilters = new ArrayList<>();
+      this.falsePositiveProbability = falsePositiveProbability;
       this.mode = Mode.ADD_TO_ALL;
       // 1, 2, 4, 8, 16, 32, ...
       for (int i = 0; i <= maxInsertionsForAddToAllModeLog2; ++i) {
-        bloomFilters.add(BloomFilter.<ByteBuffer>create(
-            ByteBufferFunnel.INSTANCE,
-            1 << i,
-            DEFAULT_FALSE_POSITIVE_PROBABILITY));
+        addBloomFilter(1L << i, falsePositiveProbability);
       }
     }
 
+    /**
+     * Returns the approximate number of bytes of memory used by the Bloom filters
+     * of this builder.
+     */
+    public long getSizeInBytes() {
+      return sizeInBits / Byte.SIZE;
+    }
+
     /**
      * Returns true if the Bloom filter was modified by inserting the byte
      * representation of an element contained in {@code buf} from {@code [offset, offset + length)}.
@@ -262,6 +294,7 @@ public class ScalableBloomFilter implements Serializable {
             BloomFilter<ByteBuffer> last = bloomFilters.get(bloomFilters.size() - 1);
             bloomFilters.clear();
             bloomFilters.add(last);
+            sizeInBits = bitSize(1L << (bloomFilterToStartWith - 1), falsePositiveProbability);
             mode = Mode.ADD_TO_LAST;
             addToLast(byteBuffer);
           } else {
@@ -305,14 +338,28 @@ public class ScalableBloomFilter implements Serializable {
         checkArgument(numberOfInsertions <= MAX_ELEMENTS,
             "%s does not support Bloom filter slices with more than 2^63 elements.",
             ScalableBloomFilter.class);
-        bloomFilters.add(BloomFilter.<ByteBuffer>create(
-            ByteBufferFunnel.INSTANCE,
+        addBloomFilter(
             numberOfInsertions,
-            DEFAULT_FALSE_POSITIVE_PROBABILITY * Math.pow(RATIO, bloomFilters.size())));
+            falsePositiveProbability * Math.pow(RATIO, bloomFilters.size()));
       }
       BloomFilter<ByteBuffer> last = bloomFilters.get(bloomFilters.size() - 1);
       last.put(byteBuffer);
     }
+
+    private void addBloomFilter(long expectedInsertions, double fpp) {
+      bloomFilters.add(BloomFilter.<ByteBuffer>create(
+          ByteBufferFunnel.INSTANCE, expectedInsertions, fpp));
+      sizeInBits += bitSize(expectedInsertions, fpp);
+    }
+
+    /**
+     * Returns the number of bits Guava allocates for a Bloom filter with the given expected
+     * insertions and false positive probability, rounded up to whole longs.
+     */
+    private static long bitSize(long expectedInsertions, double fpp) {
+      long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+      return (bits + Long.SIZE - 1) / Long.SIZE * Long.SIZE;
+    }
   }
 
   /**
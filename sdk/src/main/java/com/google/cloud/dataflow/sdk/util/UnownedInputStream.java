@@ -32,6 +32,46 @@ public class UnownedInputStream extends FilterInputStream {
     super(delegate);
   }
 
+  /**
+   * Wraps the given stream. If it is a {@link ByteArrayBackedInput}, so is the wrapper, so that
+   * coders can still read directly from the backing array.
+   */
+  public static UnownedInputStream of(InputStream delegate) {
+    return delegate instanceof ByteArrayBackedInput
+        ? new ByteArrayBacked(delegate) : new UnownedInputStream(delegate);
+  }
+
+  /** An {@link UnownedInputStream} that forwards direct reads to its backing array. */
+  private static class ByteArrayBacked extends UnownedInputStream
+      implements ByteArrayBackedInput {
+    private final ByteArrayBackedInput backed;
+
+    private ByteArrayBacked(InputStream delegate) {
+      super(delegate);
+      this.backed = (ByteArrayBackedInput) delegate;
+    }
+
+    @Override
+    public byte[] array() {
+      return backed.array();
+    }
+
+    @Override
+    public int position() {
+      return backed.position();
+    }
+
+    @Override
+    public int limit() {
+      return backed.limit();
+    }
+
+    @Override
+    public void advance(int length) {
+      backed.advance(length);
+    }
+  }
+
   @Override
   public void close() throws IOException {
     throw new UnsupportedOperationException("Caller does not own the underlying input stream "
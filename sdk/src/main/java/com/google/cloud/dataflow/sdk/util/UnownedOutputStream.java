@@ -31,6 +31,47 @@ public class UnownedOutputStream extends FilterOutputStream {
     super(delegate);
   }
 
+  /**
+   * Wraps the given stream. If it is a {@link ByteArrayBackedOutput}, so is the wrapper, so that
+   * coders can still write directly to the backing array.
+   */
+  public static UnownedOutputStream of(OutputStream delegate) {
+    return delegate instanceof ByteArrayBackedOutput
+        ? new ByteArrayBacked(delegate) : new UnownedOutputStream(delegate);
+  }
+
+  /** An {@link UnownedOutputStream} that forwards direct writes to its backing array. */
+  private static class ByteArrayBacked extends UnownedOutputStream
+      implements ByteArrayBackedOutput {
+    private final ByteArrayBackedOutput backed;
+
+    private ByteArrayBacked(OutputStream delegate) {
+      super(delegate);
+      this.backed = (ByteArrayBackedOutput) delegate;
+    }
+
+    @Override
+    public byte[] reserve(int length) {
+      return backed.reserve(length);
+    }
+
+    @Override
+    public int position() {
+      return backed.position();
+    }
+
+    @Override
+    public void advance(int length) {
+      backed.advance(length);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    // FilterOutputStream would otherwise write the array one byte at a time.
+    out.write(b, off, len);
+  }
+
   @Override
   public void close() throws IOException {
     throw new UnsupportedOperationException("Caller does not own the underlying output stream "
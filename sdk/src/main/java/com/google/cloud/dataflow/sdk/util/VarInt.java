@@ -20,6 +20,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Variable-length encoding for integers.
@@ -28,6 +29,11 @@ import java.io.OutputStream;
  * Takes between 1 and 10 bytes.
  * Less efficient than BigEndian{Int,Long} coder for negative or large numbers.
  * All negative ints are encoded using 5 bytes, longs take 10 bytes.
+ *
+ * <p>The stream methods encode directly into a {@link ByteArrayBackedOutput} and decode one and
+ * two byte values directly from a {@link ByteArrayBackedInput}, so that coders writing to
+ * or reading from in-memory buffers avoid a virtual call per byte. The byte array and
+ * {@link ByteBuffer} methods also handle one and two byte values without a loop.
  */
 public class VarInt {
 
@@ -46,6 +52,18 @@ public class VarInt {
    * Encodes the given value onto the stream.
    */
   public static void encode(long v, OutputStream stream) throws IOException {
+    if (stream instanceof ByteArrayBackedOutput) {
+      ByteArrayBackedOutput output = (ByteArrayBackedOutput) stream;
+      int length = getLength(v);
+      byte[] buf = output.reserve(length);
+      encode(v, buf, output.position());
+      output.advance(length);
+      return;
+    }
+    if ((v & ~0x7FL) == 0) {
+      stream.write((int) v);
+      return;
+    }
     do {
       // Encode next 7 bits + terminator bit
       long bits = v & 0x7F;
@@ -55,11 +73,89 @@ public class VarInt {
     } while (v != 0);
   }
 
+  /**
+   * Encodes the given value into {@code buf} starting at {@code offset}, which must have room for
+   * {@link #getLength(int)} bytes. Returns the offset just past the encoded value.
+   */
+  public static int encode(int v, byte[] buf, int offset) {
+    return encode(convertIntToLongNoSignExtend(v), buf, offset);
+  }
+
+  /**
+   * Encodes the given value into {@code buf} starting at {@code offset}, which must have room for
+   * {@link #getLength(long)} bytes. Returns the offset just past the encoded value.
+   */
+  public static int encode(long v, byte[] buf, int offset) {
+    if ((v & ~0x7FL) == 0) {
+      buf[offset] = (byte) v;
+      return offset + 1;
+    }
+    if ((v & ~0x3FFFL) == 0) {
+      buf[offset] = (byte) (v | 0x80);
+      buf[offset + 1] = (byte) (v >>> 7);
+      return offset + 2;
+    }
+    do {
+      // Encode next 7 bits + terminator bit
+      long bits = v & 0x7F;
+      v >>>= 7;
+      buf[offset++] = (byte) (bits | ((v != 0) ? 0x80 : 0));
+    } while (v != 0);
+    return offset;
+  }
+
+  /**
+   * Encodes the given value into {@code buffer} at its position, advancing the position past
+   * the encoded value.
+   *
+   * @throws java.nio.BufferOverflowException if {@code buffer} does not have
+   * {@link #getLength(int)} bytes remaining
+   */
+  public static void encode(int v, ByteBuffer buffer) {
+    encode(convertIntToLongNoSignExtend(v), buffer);
+  }
+
+  /**
+   * Encodes the given value into {@code buffer} at its position, advancing the position past
+   * the encoded value.
+   *
+   * @throws java.nio.BufferOverflowException if {@code buffer} does not have
+   * {@link #getLength(long)} bytes remaining
+   */
+  public static void encode(long v, ByteBuffer buffer) {
+    if ((v & ~0x7FL) == 0) {
+      buffer.put((byte) v);
+      return;
+    }
+    if ((v & ~0x3FFFL) == 0) {
+      buffer.put((byte) (v | 0x80));
+      buffer.put((byte) (v >>> 7));
+      return;
+    }
+    do {
+      // Encode next 7 bits + terminator bit
+      long bits = v & 0x7F;
+      v >>>= 7;
+      buffer.put((byte) (bits | ((v != 0) ? 0x80 : 0)));
+    } while (v != 0);
+  }
+
   /**
    * Decodes an integer value from the given stream.
    */
   public static int decodeInt(InputStream stream) throws IOException {
-    long r = decodeLong(stream);
+    return checkedToInt(decodeLong(stream));
+  }
+
+  /**
+   * Decodes an integer value from {@code buffer} at its position, advancing the position past
+   * the encoded value.
+   */
+  public static int decodeInt(ByteBuffer buffer) throws IOException {
+    return checkedToInt(decodeLong(buffer));
+  }
+
+  private static int checkedToInt(long r) throws IOException {
     if (r < 0 || r >= 1L << 32) {
       throw new IOException("varint overflow " + r);
     }
@@ -70,6 +166,21 @@ public class VarInt {
    * Decodes a long value from the given stream.
    */
   public static long decodeLong(InputStream stream) throws IOException {
+    if (stream instanceof ByteArrayBackedInput) {
+      // Read one and two byte values straight from the backing array.
+      ByteArrayBackedInput exposed = (ByteArrayBackedInput) stream;
+      byte[] buf = exposed.array();
+      int pos = exposed.position();
+      int limit = exposed.limit();
+      if (pos < limit && buf[pos] >= 0) {
+        exposed.advance(1);
+        return buf[pos];
+      }
+      if (pos + 1 < limit && buf[pos + 1] >= 0) {
+        exposed.advance(2);
+        return (buf[pos] & 0x7F) | (buf[pos + 1] << 7);
+      }
+    }
     long result = 0;
     int shift = 0;
     int b;
@@ -94,6 +205,45 @@ public class VarInt {
     return result;
   }
 
+  /**
+   * Decodes a long value from {@code buffer} at its position, advancing the position past the
+   * encoded value.
+   */
+  public static long decodeLong(ByteBuffer buffer) throws IOException {
+    int pos = buffer.position();
+    int limit = buffer.limit();
+    if (pos < limit && buffer.get(pos) >= 0) {
+      buffer.position(pos + 1);
+      return buffer.get(pos);
+    }
+    if (pos + 1 < limit && buffer.get(pos + 1) >= 0) {
+      buffer.position(pos + 2);
+      return (buffer.get(pos) & 0x7F) | (buffer.get(pos + 1) << 7);
+    }
+    long result = 0;
+    int shift = 0;
+    int b;
+    do {
+      // Get 7 bits from next byte
+      if (!buffer.hasRemaining()) {
+        if (shift == 0) {
+          throw new EOFException();
+        } else {
+          throw new IOException("varint not terminated");
+        }
+      }
+      b = buffer.get();
+      long bits = b & 0x7F;
+      if (shift >= 64 || (shift == 63 && bits > 1)) {
+        // Out of range
+        throw new IOException("varint too long");
+      }
+      result |= bits << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+
   /**
    * Returns the length of the encoding of the given value (in bytes).
    */
@@ -105,11 +255,7 @@ public class VarInt {
    * Returns the length of the encoding of the given value (in bytes).
    */
   public static int getLength(long v) {
-    int result = 0;
-    do {
-      result++;
-      v >>>= 7;
-    } while (v != 0);
-    return result;
+    // Each byte holds 7 bits, and zero still takes one byte.
+    return (63 - Long.numberOfLeadingZeros(v | 1)) / 7 + 1;
   }
 }
@@ -18,6 +18,7 @@ package com.google.cloud.dataflow.sdk.coders;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -25,6 +26,7 @@ import static org.junit.Assert.fail;
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.Coder.Context;
 import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.io.AvroGeneratedUser;
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
@@ -32,7 +34,9 @@ import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.SerializableUtils;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 
 import org.apache.avro.AvroTypeException;
@@ -47,6 +51,8 @@ import org.apache.avro.reflect.ReflectData;
 import org.apache.avro.reflect.Stringable;
 import org.apache.avro.reflect.Union;
 import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.util.Utf8;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
@@ -71,6 +77,10 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** Tests for {@link AvroCoder}. */
 @RunWith(JUnit4.class)
@@ -184,6 +194,46 @@ public class AvroCoderTest {
     Assert.assertEquals(schema, coder.getSchema());
   }
 
+  @Test
+  public void testGenericRecordStructuralValue() throws Exception {
+    Schema schema = SchemaBuilder.record("User").fields()
+        .requiredString("name")
+        .optionalInt("favorite_number")
+        .endRecord();
+    AvroCoder<GenericRecord> coder = AvroCoder.of(GenericRecord.class, schema);
+
+    GenericRecord bob = new GenericData.Record(schema);
+    bob.put("name", "Bob");
+    bob.put("favorite_number", 256);
+    // A decoded record holds a Utf8 rather than a String.
+    GenericRecord decodedBob = CoderUtils.clone(coder, bob);
+    GenericRecord alice = new GenericData.Record(schema);
+    alice.put("name", "Alice");
+    alice.put("favorite_number", 256);
+
+    Object structuralBob = coder.structuralValue(bob);
+    assertThat(structuralBob, Matchers.not(
+        Matchers.instanceOf(PartialGroupByKeyOperation.StructuralByteArray.class)));
+    assertThat(coder.structuralValue(decodedBob), equalTo(structuralBob));
+    assertThat(coder.structuralValue(decodedBob).hashCode(), equalTo(structuralBob.hashCode()));
+    assertThat(coder.structuralValue(alice), Matchers.not(equalTo(structuralBob)));
+    CoderProperties.structuralValueConsistentWithEquals(coder, bob, decodedBob);
+  }
+
+  @Test
+  public void testStructuralValueEncodesIgnoredFields() throws Exception {
+    Schema schema = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"R\", "
+        + "\"fields\": [{\"name\": \"f\", \"type\": \"int\", \"order\": \"ignore\"}]}");
+    AvroCoder<GenericRecord> coder = AvroCoder.of(GenericRecord.class, schema);
+
+    GenericRecord one = new GenericData.Record(schema);
+    one.put("f", 1);
+    GenericRecord two = new GenericData.Record(schema);
+    two.put("f", 2);
+    // Avro would compare these as equal, but their encodings differ.
+    assertThat(coder.structuralValue(one), Matchers.not(equalTo(coder.structuralValue(two))));
+  }
+
   @Test
   public void testEncodingNotBuffered() throws Exception {
     // This test ensures that the coder doesn't read ahead and buffer data.
@@ -209,6 +259,52 @@ public class AvroCoderTest {
     Assert.assertEquals(new Integer(10), intAfter);
   }
 
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testSpecificRecordEncoding() throws Exception {
+    AvroCoder<AvroGeneratedUser> coder = AvroCoder.of(AvroGeneratedUser.class);
+    assertThat(coder.createDatumReader(), Matchers.instanceOf(SpecificDatumReader.class));
+    assertThat(coder.createDatumWriter(), Matchers.instanceOf(SpecificDatumWriter.class));
+
+    CoderProperties.coderDecodeEncodeEqual(coder, new AvroGeneratedUser("Bob", 256, null));
+  }
+
+  @Test
+  public void testSpecificRecordDecodesStrings() throws Exception {
+    AvroCoder<AvroGeneratedUser> coder = AvroCoder.of(AvroGeneratedUser.class);
+    AvroGeneratedUser decoded = CoderUtils.clone(coder, new AvroGeneratedUser("Bob", 256, "red"));
+
+    assertThat(decoded.getName(), Matchers.instanceOf(String.class));
+    assertThat(decoded.getFavoriteColor(), Matchers.instanceOf(String.class));
+    assertEquals("Bob", decoded.getName());
+    assertEquals("red", decoded.getFavoriteColor());
+  }
+
+  @Test
+  public void testConcurrentEncodeDecode() throws Exception {
+    // Each thread reuses its own encoder and decoder.
+    final AvroCoder<Pojo> coder = AvroCoder.of(Pojo.class);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Void>> results = new ArrayList<>();
+    for (int thread = 0; thread < 4; thread++) {
+      final int offset = thread * 1000;
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int i = offset; i < offset + 1000; i++) {
+            Pojo value = new Pojo("text" + i, i);
+            Assert.assertEquals(value, CoderUtils.clone(coder, value));
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+  }
+
   @Test
   public void testDefaultCoder() throws Exception {
     Pipeline p = TestPipeline.create();
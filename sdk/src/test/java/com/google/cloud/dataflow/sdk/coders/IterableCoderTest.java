@@ -16,11 +16,14 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
 
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.collect.Iterables;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -106,4 +109,28 @@ public class IterableCoderTest {
 
     CoderUtils.encodeToBase64(TEST_CODER, null);
   }
+
+  @Test
+  public void testLazyDecodeEncodeEqual() throws Exception {
+    Coder<Iterable<Integer>> coder = IterableCoder.ofLazy(VarIntCoder.of());
+    for (Iterable<Integer> value : TEST_VALUES) {
+      CoderProperties.<Integer, Iterable<Integer>>coderDecodeEncodeContentsInSameOrder(
+          coder, value);
+    }
+  }
+
+  @Test
+  public void testLazyDecodeOfUnknownSize() throws Exception {
+    IterableCoder<Integer> coder = IterableCoder.ofLazy(VarIntCoder.of());
+    // An iterable that is not a collection is encoded in blocks of unknown size.
+    Iterable<Integer> iterable = Iterables.unmodifiableIterable(Arrays.asList(5, 6, 7));
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, iterable);
+    Iterable<Integer> decoded = CoderUtils.decodeFromByteArray(coder, encoded);
+
+    assertThat(decoded, contains(5, 6, 7));
+    assertEquals(3, Iterables.size(decoded));
+    // The decoded iterable knows its size, so it is re-encoded with a size prefix.
+    assertEquals(CoderUtils.encodeToBase64(coder, Arrays.asList(5, 6, 7)),
+        CoderUtils.encodeToBase64(coder, decoded));
+  }
 }
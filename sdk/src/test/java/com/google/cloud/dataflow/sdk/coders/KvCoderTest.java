@@ -16,10 +16,14 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.junit.Assert.assertFalse;
+
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -29,6 +33,7 @@ import org.junit.runners.JUnit4;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -105,6 +110,31 @@ public class KvCoderTest {
     CoderProperties.coderEncodesBase64(TEST_CODER, TEST_VALUES, TEST_ENCODINGS);
   }
 
+  @Test
+  public void testOrderPreserving() throws Exception {
+    Coder<KV<String, Long>> coder =
+        KvCoder.of(OrderedStringUtf8Coder.of(), NullableCoder.of(OrderedLongCoder.of()));
+    Comparator<KV<String, Long>> comparator = new Comparator<KV<String, Long>>() {
+      @Override
+      public int compare(KV<String, Long> kv1, KV<String, Long> kv2) {
+        return ComparisonChain.start()
+            .compare(kv1.getKey(), kv2.getKey())
+            .compare(kv1.getValue(), kv2.getValue(), Ordering.natural().nullsFirst())
+            .result();
+      }
+    };
+    List<KV<String, Long>> values = Arrays.asList(
+        KV.of("", (Long) null), KV.of("", -1L), KV.of("", 1L), KV.of("a", (Long) null),
+        KV.of("a", Long.MIN_VALUE), KV.of("a", 0L), KV.of("ab", -1L), KV.of("b", 1L));
+    for (KV<String, Long> value1 : values) {
+      for (KV<String, Long> value2 : values) {
+        CoderProperties.coderPreservesOrder(coder, comparator, value1, value2);
+      }
+    }
+
+    assertFalse(KvCoder.of(OrderedStringUtf8Coder.of(), VarLongCoder.of()).isOrderPreserving());
+  }
+
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
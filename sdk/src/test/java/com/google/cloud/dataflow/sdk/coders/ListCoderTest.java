@@ -16,8 +16,11 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
@@ -28,10 +31,15 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Unit tests for {@link ListCoder}. */
 @RunWith(JUnit4.class)
@@ -131,4 +139,87 @@ public class ListCoderTest {
     CoderProperties.<List<Integer>>coderDecodeEncodeEqual(coder, list);
   }
 
+  /** A coder for integers that counts how many elements it has decoded. */
+  private static class CountingCoder extends AtomicCoder<Integer> {
+    private final AtomicInteger decoded = new AtomicInteger();
+
+    @Override
+    public void encode(Integer value, OutputStream outStream, Context context)
+        throws IOException {
+      VarIntCoder.of().encode(value, outStream, context);
+    }
+
+    @Override
+    public Integer decode(InputStream inStream, Context context) throws IOException {
+      decoded.incrementAndGet();
+      return VarIntCoder.of().decode(inStream, context);
+    }
+  }
+
+  @Test
+  public void testLazyDecodeEncodeEqual() throws Exception {
+    Coder<List<Integer>> coder = ListCoder.ofLazy(VarIntCoder.of());
+    for (List<Integer> value : TEST_VALUES) {
+      CoderProperties.coderDecodeEncodeEqual(coder, value);
+    }
+  }
+
+  @Test
+  public void testLazyDecodeOnlyDecodesIteratedElements() throws Exception {
+    CountingCoder elemCoder = new CountingCoder();
+    ListCoder<Integer> coder = ListCoder.ofLazy(elemCoder);
+    List<Integer> list = CoderUtils.decodeFromByteArray(
+        coder, CoderUtils.encodeToByteArray(coder, Arrays.asList(1, 2, 3, 4, 5)));
+
+    assertEquals(5, list.size());
+    assertEquals(0, elemCoder.decoded.get());
+    assertEquals(Integer.valueOf(1), list.iterator().next());
+    assertEquals(1, elemCoder.decoded.get());
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5), new ArrayList<>(list));
+    assertEquals(Integer.valueOf(4), list.get(3));
+  }
+
+  @Test
+  public void testLazyListReencodesWithoutDecoding() throws Exception {
+    CountingCoder elemCoder = new CountingCoder();
+    ListCoder<Integer> coder = ListCoder.ofLazy(elemCoder);
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, Arrays.asList(1, 2, 3));
+    List<Integer> list = CoderUtils.decodeFromByteArray(coder, encoded);
+
+    assertArrayEquals(encoded, CoderUtils.encodeToByteArray(coder, list));
+    assertArrayEquals(encoded, CoderUtils.encodeToByteArray(ListCoder.of(elemCoder), list));
+    assertTrue(coder.isRegisterByteSizeObserverCheap(list, Coder.Context.OUTER));
+    assertEquals(0, elemCoder.decoded.get());
+
+    // A coder for a list of lists must re-encode the elements in the nested context.
+    List<List<Integer>> nested = Collections.singletonList(list);
+    assertEquals(nested, CoderUtils.decodeFromByteArray(ListCoder.of(coder),
+        CoderUtils.encodeToByteArray(ListCoder.of(coder), nested)));
+  }
+
+  @Test
+  public void testLazyCoderNotEqualToEagerCoder() throws Exception {
+    assertEquals(ListCoder.ofLazy(VarIntCoder.of()), ListCoder.ofLazy(VarIntCoder.of()));
+    assertNotEquals(ListCoder.ofLazy(VarIntCoder.of()), ListCoder.of(VarIntCoder.of()));
+  }
+
+  @Test
+  public void testStructuralValueDoesNotEncodeConsistentElements() throws Exception {
+    // The elements are their own structural values, so the list is not encoded.
+    ListCoder<Integer> coder = ListCoder.of(VarIntCoder.of());
+    assertEquals(Arrays.<Object>asList(1, 2, 3), coder.structuralValue(Arrays.asList(1, 2, 3)));
+  }
+
+  @Test
+  public void testStructuralValueOfArrays() throws Exception {
+    ListCoder<byte[]> coder = ListCoder.of(ByteArrayCoder.of());
+    List<byte[]> list = Arrays.asList(new byte[] {1, 2}, new byte[] {3});
+    List<byte[]> equalList = Arrays.asList(new byte[] {1, 2}, new byte[] {3});
+    List<byte[]> otherList = Arrays.asList(new byte[] {1}, new byte[] {2, 3});
+    assertEquals(coder.structuralValue(list), coder.structuralValue(equalList));
+    assertEquals(
+        coder.structuralValue(list).hashCode(), coder.structuralValue(equalList).hashCode());
+    assertNotEquals(coder.structuralValue(list), coder.structuralValue(otherList));
+    CoderProperties.structuralValueConsistentWithEquals(coder, list, equalList);
+  }
 }
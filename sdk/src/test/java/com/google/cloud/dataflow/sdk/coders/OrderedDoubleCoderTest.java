@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.collect.Ordering;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test case for {@link OrderedDoubleCoder}.
+ */
+@RunWith(JUnit4.class)
+public class OrderedDoubleCoderTest {
+
+  private static final Coder<Double> TEST_CODER = OrderedDoubleCoder.of();
+
+  private static final List<Double> TEST_VALUES = Arrays.asList(
+      Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5, -1.0, -Double.MIN_VALUE, -0.0, 0.0,
+      Double.MIN_VALUE, 1.0, 1.5, 1e100, Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NaN);
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    for (Double value : TEST_VALUES) {
+      CoderProperties.coderDecodeEncodeEqual(TEST_CODER, value);
+    }
+  }
+
+  @Test
+  public void testPreservesOrder() throws Exception {
+    for (Double value1 : TEST_VALUES) {
+      for (Double value2 : TEST_VALUES) {
+        CoderProperties.coderPreservesOrder(TEST_CODER, Ordering.natural(), value1, value2);
+      }
+    }
+  }
+
+  @Test
+  public void testEncodedElementByteSize() throws Exception {
+    for (Double value : TEST_VALUES) {
+      assertEquals(CoderUtils.encodeToByteArray(TEST_CODER, value).length,
+          OrderedDoubleCoder.of().getEncodedElementByteSize(value, Coder.Context.NESTED));
+    }
+  }
+
+  // If this changes, it implies the binary format has changed.
+  private static final String EXPECTED_ENCODING_ID = "";
+
+  @Test
+  public void testEncodingId() throws Exception {
+    CoderProperties.coderHasEncodingId(TEST_CODER, EXPECTED_ENCODING_ID);
+  }
+
+  /**
+   * Generated data to check that the wire format has not changed. To regenerate, see
+   * {@link com.google.cloud.dataflow.sdk.coders.PrintBase64Encodings}.
+   */
+  private static final List<String> TEST_ENCODINGS = Arrays.asList(
+      "AD-AD________w",
+      "AD-AEAAAAAAAAA",
+      "AEAH________",
+      "AEAP________",
+      "fg",
+      "fw",
+      "gA",
+      "gQ",
+      "_7_wAAAAAAAA",
+      "_7_4AAAAAAAA",
+      "_8BUskmtJZTDfQ",
+      "_8B_7________w",
+      "_8B_8AAAAAAAAA",
+      "_8B_-AAAAAAAAA");
+
+  @Test
+  public void testWireFormatEncode() throws Exception {
+    CoderProperties.coderEncodesBase64(TEST_CODER, TEST_VALUES, TEST_ENCODINGS);
+  }
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void encodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null Double");
+
+    CoderUtils.encodeToBase64(TEST_CODER, null);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.collect.Ordering;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test case for {@link OrderedLongCoder}.
+ */
+@RunWith(JUnit4.class)
+public class OrderedLongCoderTest {
+
+  private static final Coder<Long> TEST_CODER = OrderedLongCoder.of();
+
+  private static final List<Long> TEST_VALUES = Arrays.asList(
+      Long.MIN_VALUE,
+      Integer.MIN_VALUE - 29L,
+      -1000L, -65L, -64L, -1L, 0L, 1L, 63L, 64L, 8191L, 8192L,
+      Integer.MAX_VALUE + 131L,
+      Long.MAX_VALUE);
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    for (Long value : TEST_VALUES) {
+      CoderProperties.coderDecodeEncodeEqual(TEST_CODER, value);
+    }
+  }
+
+  @Test
+  public void testPreservesOrder() throws Exception {
+    for (Long value1 : TEST_VALUES) {
+      for (Long value2 : TEST_VALUES) {
+        CoderProperties.coderPreservesOrder(TEST_CODER, Ordering.natural(), value1, value2);
+      }
+    }
+  }
+
+  @Test
+  public void testEncodedElementByteSize() throws Exception {
+    for (Long value : TEST_VALUES) {
+      assertEquals(CoderUtils.encodeToByteArray(TEST_CODER, value).length,
+          OrderedLongCoder.of().getEncodedElementByteSize(value, Coder.Context.NESTED));
+    }
+  }
+
+  // If this changes, it implies the binary format has changed.
+  private static final String EXPECTED_ENCODING_ID = "";
+
+  @Test
+  public void testEncodingId() throws Exception {
+    CoderProperties.coderHasEncodingId(TEST_CODER, EXPECTED_ENCODING_ID);
+  }
+
+  /**
+   * Generated data to check that the wire format has not changed. To regenerate, see
+   * {@link com.google.cloud.dataflow.sdk.coders.PrintBase64Encodings}.
+   */
+  private static final List<String> TEST_ENCODINGS = Arrays.asList(
+      "AD-AAAAAAAAAAA",
+      "B3___-M",
+      "PBg",
+      "P78",
+      "QA",
+      "fw",
+      "gA",
+      "gQ",
+      "vw",
+      "wEA",
+      "3_8",
+      "4CAA",
+      "-IAAAII",
+      "_8B__________w");
+
+  @Test
+  public void testWireFormatEncode() throws Exception {
+    CoderProperties.coderEncodesBase64(TEST_CODER, TEST_VALUES, TEST_ENCODINGS);
+  }
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void encodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null Long");
+
+    CoderUtils.encodeToBase64(TEST_CODER, null);
+  }
+}
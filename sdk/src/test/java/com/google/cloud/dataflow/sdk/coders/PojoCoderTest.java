@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tests for {@link PojoCoder}.
+ */
+@RunWith(JUnit4.class)
+public class PojoCoderTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private CoderRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new CoderRegistry();
+    registry.registerStandardCoders();
+    registry.setFallbackCoderProvider(CoderProviders.firstOf(
+        PojoCoder.coderProvider(registry), registry.getFallbackCoderProvider()));
+  }
+
+  private static class Base implements Serializable {
+    protected long id;
+  }
+
+  private static class Pojo extends Base {
+    private int count;
+    private String name;
+    private List<String> tags;
+    private Point location;
+    private transient String cached;
+
+    private Pojo() { }
+
+    private Pojo(long id, int count, String name, List<String> tags, Point location) {
+      this.id = id;
+      this.count = count;
+      this.name = name;
+      this.tags = tags;
+      this.location = location;
+      this.cached = "cached";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Pojo)) {
+        return false;
+      }
+      Pojo that = (Pojo) other;
+      return id == that.id && count == that.count && Objects.equals(name, that.name)
+          && Objects.equals(tags, that.tags) && Objects.equals(location, that.location);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, count, name, tags, location);
+    }
+  }
+
+  private static class SubPojo extends Pojo {
+    private double extra = 1.5;
+  }
+
+  private static final class Point implements Serializable {
+    private final double x;
+    private final double y;
+
+    private Point() {
+      this(0, 0);
+    }
+
+    private Point(double x, double y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Point && x == ((Point) other).x && y == ((Point) other).y;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(x, y);
+    }
+  }
+
+  private static final class Key implements Serializable {
+    private long id;
+    private String name;
+  }
+
+  private static class CustomSerialization implements Serializable {
+    private String value;
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+    }
+  }
+
+  private static class NoDefaultConstructor implements Serializable {
+    private final String value;
+
+    private NoDefaultConstructor(String value) {
+      this.value = value;
+    }
+  }
+
+  private static class Recursive implements Serializable {
+    private String value;
+    private Recursive next;
+  }
+
+  @DefaultCoder(PojoCoder.class)
+  private static class Annotated implements Serializable {
+    private String value;
+    private Point location;
+  }
+
+  private Coder<Pojo> pojoCoder() throws Exception {
+    return registry.getDefaultCoder(Pojo.class);
+  }
+
+  @Test
+  public void testRegistryProvidesPojoCoder() throws Exception {
+    assertThat(pojoCoder(), instanceOf(PojoCoder.class));
+    assertThat(registry.getDefaultCoder(Point.class), instanceOf(PojoCoder.class));
+  }
+
+  @Test
+  public void testNotInferredByDefault() throws Exception {
+    CoderRegistry defaultRegistry = new CoderRegistry();
+    defaultRegistry.registerStandardCoders();
+    assertThat(defaultRegistry.getDefaultCoder(Pojo.class), instanceOf(SerializableCoder.class));
+  }
+
+  @Test
+  public void testDefaultCoderAnnotation() throws Exception {
+    CoderRegistry defaultRegistry = new CoderRegistry();
+    defaultRegistry.registerStandardCoders();
+    Coder<Annotated> coder = defaultRegistry.getDefaultCoder(Annotated.class);
+    assertThat(coder, instanceOf(PojoCoder.class));
+
+    Annotated value = new Annotated();
+    value.value = "a";
+    value.location = new Point(1, 2);
+    Annotated decoded = CoderUtils.clone(coder, value);
+    assertEquals("a", decoded.value);
+    assertEquals(new Point(1, 2), decoded.location);
+  }
+
+  @Test
+  public void testRegistryFallsBackToSerializableCoder() throws Exception {
+    assertThat(registry.getDefaultCoder(CustomSerialization.class),
+        instanceOf(SerializableCoder.class));
+    assertThat(registry.getDefaultCoder(NoDefaultConstructor.class),
+        instanceOf(SerializableCoder.class));
+  }
+
+  @Test
+  public void testRecursiveFieldUsesSerializableCoder() throws Exception {
+    PojoCoder<Recursive> coder = (PojoCoder<Recursive>) registry.getDefaultCoder(Recursive.class);
+    Recursive value = new Recursive();
+    value.value = "a";
+    value.next = new Recursive();
+    value.next.value = "b";
+    Recursive decoded = CoderUtils.clone(coder, value);
+    assertEquals("a", decoded.value);
+    assertEquals("b", decoded.next.value);
+  }
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    Coder<Pojo> coder = pojoCoder();
+    for (Pojo value : Arrays.asList(
+        new Pojo(),
+        new Pojo(1, 2, "name", Arrays.asList("a", "b"), new Point(1.5, -2.5)),
+        new Pojo(3, 4, null, null, null))) {
+      CoderProperties.coderDecodeEncodeEqual(coder, value);
+    }
+    CoderProperties.coderDecodeEncodeEqual(coder, null);
+  }
+
+  @Test
+  public void testDecodeEncodeSubclass() throws Exception {
+    SubPojo value = new SubPojo();
+    value.extra = 2.5;
+    Pojo decoded = CoderUtils.clone(pojoCoder(), value);
+    assertThat(decoded, instanceOf(SubPojo.class));
+    assertEquals(2.5, ((SubPojo) decoded).extra, 0.0);
+  }
+
+  @Test
+  public void testSmallerThanSerializableCoder() throws Exception {
+    Pojo value = new Pojo(1, 2, "name", Arrays.asList("a", "b"), new Point(1.5, -2.5));
+    assertTrue(CoderUtils.encodeToByteArray(pojoCoder(), value).length * 5
+        < CoderUtils.encodeToByteArray(SerializableCoder.of(Pojo.class), value).length);
+  }
+
+  @Test
+  public void testCoderSerializable() throws Exception {
+    CoderProperties.coderSerializable(pojoCoder());
+  }
+
+  @Test
+  public void testDeterministicFinalClass() throws Exception, NonDeterministicException {
+    registry.getDefaultCoder(Key.class).verifyDeterministic();
+  }
+
+  @Test
+  public void testNonDeterministicNonFinalClass() throws Exception, NonDeterministicException {
+    thrown.expect(NonDeterministicException.class);
+    thrown.expectMessage("is not final");
+    pojoCoder().verifyDeterministic();
+  }
+}
@@ -16,8 +16,15 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.ExposedByteArrayInputStream;
+import com.google.cloud.dataflow.sdk.util.ExposedByteArrayOutputStream;
+import com.google.cloud.dataflow.sdk.util.RandomAccessData;
+import com.google.cloud.dataflow.sdk.util.VarInt;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -25,6 +32,8 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 
@@ -67,6 +76,61 @@ public class StringUtf8CoderTest {
     CoderProperties.coderEncodesBase64(TEST_CODER, TEST_VALUES, TEST_ENCODINGS);
   }
 
+  private static final List<String> DIRECT_TEST_VALUES = Arrays.asList(
+      "", "hello", "caf\u00e9", "スタリング", "emoji \ud83d\ude00 pair",
+      "unpaired \ud83d high", "unpaired \ude00 low", "trailing \ud83d");
+
+  @Test
+  public void testDirectEncodingMatchesGetBytes() throws Exception {
+    for (String value : DIRECT_TEST_VALUES) {
+      byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+
+      // Whole stream, into a non-empty stream so that the direct path is taken.
+      ExposedByteArrayOutputStream exposed = new ExposedByteArrayOutputStream();
+      exposed.write(7);
+      TEST_CODER.encode(value, exposed, Coder.Context.OUTER);
+      byte[] actual = exposed.toByteArray();
+      assertArrayEquals(expected, Arrays.copyOfRange(actual, 1, actual.length));
+
+      // Nested, into a RandomAccessData.
+      RandomAccessData data = new RandomAccessData(1);
+      TEST_CODER.encode(value, data.asOutputStream(), Coder.Context.NESTED);
+      ByteArrayOutputStream nested = new ByteArrayOutputStream();
+      VarInt.encode(expected.length, nested);
+      nested.write(expected);
+      assertArrayEquals(nested.toByteArray(), Arrays.copyOf(data.array(), data.size()));
+
+      assertEquals(data.size(),
+          StringUtf8Coder.of().getEncodedElementByteSize(value, Coder.Context.NESTED));
+      assertEquals(expected.length,
+          StringUtf8Coder.of().getEncodedElementByteSize(value, Coder.Context.OUTER));
+    }
+  }
+
+  @Test
+  public void testDecodeInPlace() throws Exception {
+    ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream();
+    for (String value : TEST_VALUES) {
+      TEST_CODER.encode(value, out, Coder.Context.NESTED);
+    }
+    TEST_CODER.encode("last", out, Coder.Context.OUTER);
+
+    ExposedByteArrayInputStream in = new ExposedByteArrayInputStream(out.toByteArray());
+    for (String value : TEST_VALUES) {
+      assertEquals(value, TEST_CODER.decode(in, Coder.Context.NESTED));
+    }
+    assertEquals("last", TEST_CODER.decode(in, Coder.Context.OUTER));
+    assertEquals(0, in.available());
+  }
+
+  @Test
+  public void testDecodeTruncatedThrowsCoderException() throws Exception {
+    byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, "hello", Coder.Context.NESTED);
+    thrown.expect(CoderException.class);
+    TEST_CODER.decode(new ExposedByteArrayInputStream(encoded, 0, encoded.length - 1),
+        Coder.Context.NESTED);
+  }
+
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
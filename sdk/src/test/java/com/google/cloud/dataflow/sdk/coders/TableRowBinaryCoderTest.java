@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.services.bigquery.model.TableCell;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for {@link TableRowBinaryCoder}.
+ */
+@RunWith(JUnit4.class)
+public class TableRowBinaryCoderTest {
+
+  private static final TableSchema SCHEMA = new TableSchema().setFields(Arrays.asList(
+      new TableFieldSchema().setName("name").setType("STRING"),
+      new TableFieldSchema().setName("count").setType("INTEGER"),
+      new TableFieldSchema().setName("score").setType("FLOAT"),
+      new TableFieldSchema().setName("valid").setType("BOOLEAN"),
+      new TableFieldSchema().setName("tags").setType("STRING").setMode("REPEATED"),
+      new TableFieldSchema().setName("location").setType("RECORD").setFields(Arrays.asList(
+          new TableFieldSchema().setName("lat").setType("FLOAT"),
+          new TableFieldSchema().setName("lng").setType("FLOAT")))));
+
+  private static final TableRowBinaryCoder TEST_CODER = TableRowBinaryCoder.of(SCHEMA);
+
+  private static TableRow fullRow() {
+    return new TableRow()
+        .set("name", "abc")
+        .set("count", "12")
+        .set("score", 3.14)
+        .set("valid", true)
+        .set("tags", Arrays.asList("x", "y"))
+        .set("location", new TableRow().set("lat", 1.5).set("lng", -2.5));
+  }
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    for (TableRow row : Arrays.asList(
+        new TableRow(),
+        fullRow(),
+        new TableRow().set("name", "abc").set("valid", false),
+        new TableRow().set("name", null).set("count", 12L).set("score", 7),
+        new TableRow().set("tags", Collections.emptyList()))) {
+      CoderProperties.coderDecodeEncodeEqual(TEST_CODER, row);
+    }
+  }
+
+  @Test
+  public void testDecodeEncodeFieldsNotInSchema() throws Exception {
+    TableRow row = fullRow()
+        .set("extra", "value")
+        .set("nested", new TableRow().set("a", 1L))
+        .set("map", ImmutableMap.of("k", "v"));
+    TableRow decoded = CoderUtils.clone(TEST_CODER, row);
+    assertEquals(row.get("extra"), decoded.get("extra"));
+    assertEquals(row.get("nested"), decoded.get("nested"));
+    assertEquals(row.get("map"), decoded.get("map"));
+    assertEquals(row.get("location"), decoded.get("location"));
+  }
+
+  @Test
+  public void testDecodeEncodeRowWithCells() throws Exception {
+    // Rows read from BigQuery hold their values in both their cells and their fields.
+    TableRow row = fullRow();
+    row.setF(Arrays.asList(
+        new TableCell().setV("abc"),
+        new TableCell().setV("12"),
+        new TableCell().setV(3.14),
+        new TableCell().setV(true),
+        new TableCell().setV(Arrays.asList("x", "y")),
+        new TableCell().setV(row.get("location"))));
+    CoderProperties.coderDecodeEncodeEqual(TEST_CODER, row);
+
+    // Cells that do not match the fields are encoded separately.
+    TableRow mismatched = new TableRow().set("name", "abc");
+    mismatched.setF(Arrays.asList(new TableCell().setV("def")));
+    CoderProperties.coderDecodeEncodeEqual(TEST_CODER, mismatched);
+  }
+
+  @Test
+  public void testEncodingSmallerThanJson() throws Exception {
+    TableRow row = fullRow();
+    assertTrue(CoderUtils.encodeToByteArray(TEST_CODER, row).length
+        < CoderUtils.encodeToByteArray(TableRowJsonCoder.of(), row).length);
+  }
+
+  @Test
+  public void testCoderSerializable() throws Exception {
+    CoderProperties.coderSerializable(TEST_CODER);
+  }
+
+  @Test
+  public void testEquals() throws Exception {
+    assertEquals(TEST_CODER, TableRowBinaryCoder.of(SCHEMA.clone()));
+    assertNotEquals(TEST_CODER, TableRowBinaryCoder.of(new TableSchema().setFields(
+        Arrays.asList(new TableFieldSchema().setName("name").setType("STRING")))));
+  }
+}
@@ -18,22 +18,31 @@ package com.google.cloud.dataflow.sdk.io;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.google.api.client.util.Data;
+import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
 import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
+import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.TableRowBinaryCoder;
 import com.google.cloud.dataflow.sdk.coders.TableRowJsonCoder;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO.Write.CreateDisposition;
 import com.google.cloud.dataflow.sdk.io.BigQueryIO.Write.WriteDisposition;
 import com.google.cloud.dataflow.sdk.options.BigQueryOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.runners.TransformTreeNode;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PValue;
 
 import org.hamcrest.Matchers;
 import org.junit.Assert;
@@ -45,6 +54,10 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Tests for BigQueryIO.
  */
@@ -139,6 +152,16 @@ public class BigQueryIOTest {
     checkReadQueryObjectWithValidate(bound, "some_query", false);
   }
 
+  @Test
+  public void testBuildSourceWithSchemaUsesBinaryCoder() {
+    TableSchema schema = new TableSchema().setFields(
+        Arrays.asList(new TableFieldSchema().setName("name").setType("STRING")));
+    Pipeline p = TestPipeline.create();
+    PCollection<TableRow> rows = p.apply(BigQueryIO.Read.named("ReadMyTable")
+        .from("foo.com:project:somedataset.sometable").withoutValidation().withSchema(schema));
+    assertEquals(TableRowBinaryCoder.of(schema), rows.getCoder());
+  }
+
   @Test
   public void testBuildTableBasedSourceWithDefaultProject() {
     BigQueryIO.Read.Bound bound = BigQueryIO.Read.named("ReadMyTable")
@@ -319,6 +342,66 @@ public class BigQueryIOTest {
   }
 
 
+  /** Returns the coder of the rows shuffled by a streaming write. */
+  private Coder<?> getStreamingShuffleCoder(BigQueryIO.Write.Bound write) {
+    BigQueryOptions options = PipelineOptionsFactory.as(BigQueryOptions.class);
+    options.setProject("someproject");
+    options.setStreaming(true);
+    Pipeline p = Pipeline.create(options);
+    p.apply(Create.<TableRow>of().withCoder(TableRowJsonCoder.of()))
+        .apply(write.to("somedataset.sometable").withoutValidation());
+
+    final List<Coder<?>> shuffledCoders = new ArrayList<>();
+    p.traverseTopologically(new Pipeline.PipelineVisitor() {
+      @Override
+      public void enterCompositeTransform(TransformTreeNode node) {}
+
+      @Override
+      public void leaveCompositeTransform(TransformTreeNode node) {}
+
+      @Override
+      public void visitTransform(TransformTreeNode node) {}
+
+      @Override
+      public void visitValue(PValue value, TransformTreeNode producer) {
+        if (value instanceof PCollection
+            && ((PCollection<?>) value).getCoder() instanceof KvCoder) {
+          shuffledCoders.add(
+              ((KvCoder<?, ?>) ((PCollection<?>) value).getCoder()).getValueCoder());
+        }
+      }
+    });
+    return shuffledCoders.get(0);
+  }
+
+  @Test
+  public void testStreamingWriteShufflesJsonByDefault() {
+    TableSchema schema = new TableSchema().setFields(
+        Arrays.asList(new TableFieldSchema().setName("name").setType("STRING")));
+    Coder<?> coder = getStreamingShuffleCoder(BigQueryIO.Write.withSchema(schema));
+    // The encoding of existing pipelines must not change, so that they can be updated.
+    assertEquals("TableRowInfoCoder", coder.getClass().getSimpleName());
+    assertTrue(coder instanceof AtomicCoder);
+  }
+
+  @Test
+  public void testStreamingWriteWithBinaryEncoding() {
+    TableSchema schema = new TableSchema().setFields(
+        Arrays.asList(new TableFieldSchema().setName("name").setType("STRING")));
+    Coder<?> coder =
+        getStreamingShuffleCoder(BigQueryIO.Write.withSchema(schema).withBinaryEncoding());
+    assertEquals(Arrays.asList(TableRowBinaryCoder.of(schema)), coder.getCoderArguments());
+  }
+
+  @Test
+  public void testBinaryEncodingRequiresSchema() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("no schema was provided");
+    getStreamingShuffleCoder(BigQueryIO.Write
+        .withCreateDisposition(CreateDisposition.CREATE_NEVER)
+        .withBinaryEncoding());
+  }
+
   private void testWriteValidatesDataset(boolean streaming) {
     BigQueryOptions options = PipelineOptionsFactory.as(BigQueryOptions.class);
     options.setProject("someproject");
@@ -18,6 +18,7 @@ package com.google.cloud.dataflow.sdk.runners;
 
 import static org.hamcrest.Matchers.isA;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
 import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
@@ -25,10 +26,21 @@ import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
+import com.google.cloud.dataflow.sdk.transforms.Count;
 import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.Sum;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.TimestampedValue;
 
+import org.joda.time.Duration;
+import org.joda.time.Instant;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -91,5 +103,67 @@ public class DirectPipelineRunnerTest implements Serializable {
   public void testDirectPipelineOptions() {
     DirectPipelineOptions options = PipelineOptionsFactory.create().as(DirectPipelineOptions.class);
     assertNull(options.getDirectPipelineRunnerRandomSeed());
+    assertFalse(options.isLiftCombiners());
+  }
+
+  @Test
+  public void testLiftedCombinePerKey() {
+    DirectPipeline pipeline = DirectPipeline.createForTest();
+    pipeline.getRunner().withCombinerLifting(true);
+    // Allow the table to hold only a single accumulator, so that it flushes on every new key.
+    pipeline.getOptions().as(DirectPipelineOptions.class).setLiftedCombineMaxBytes(1L);
+
+    PCollection<KV<String, Integer>> sums = pipeline
+        .apply(Create.of(KV.of("a", 1), KV.of("b", 2), KV.of("a", 3), KV.of("c", 4),
+            KV.of("b", 5), KV.of("a", 6)))
+        .apply(Sum.<String>integersPerKey());
+
+    DataflowAssert.that(sums).containsInAnyOrder(KV.of("a", 10), KV.of("b", 7), KV.of("c", 4));
+    pipeline.run();
+  }
+
+  @Test
+  public void testLiftedCombinePerKeyMergingWindows() {
+    DirectPipeline pipeline = DirectPipeline.createForTest();
+    pipeline.getRunner().withCombinerLifting(true);
+
+    PCollection<KV<String, Long>> counts = pipeline
+        .apply(Create.timestamped(
+            TimestampedValue.of(KV.of("a", "x"), new Instant(0L)),
+            TimestampedValue.of(KV.of("a", "y"), new Instant(5L)),
+            TimestampedValue.of(KV.of("a", "z"), new Instant(100L)),
+            TimestampedValue.of(KV.of("b", "x"), new Instant(3L))))
+        .apply(Window.<KV<String, String>>into(Sessions.withGapDuration(Duration.millis(10))))
+        .apply(Count.<String, String>perKey());
+
+    DataflowAssert.that(counts)
+        .containsInAnyOrder(KV.of("a", 2L), KV.of("a", 1L), KV.of("b", 1L));
+    pipeline.run();
+  }
+
+  @Test
+  public void testLiftedCombinePerKeyOutputTimestamps() {
+    DirectPipeline pipeline = DirectPipeline.createForTest();
+    pipeline.getRunner().withCombinerLifting(true);
+    pipeline.getOptions().as(DirectPipelineOptions.class).setLiftedCombineMaxBytes(1L);
+
+    PCollection<String> sums = pipeline
+        .apply(Create.timestamped(
+            TimestampedValue.of(KV.of("a", 1), new Instant(7L)),
+            TimestampedValue.of(KV.of("b", 2), new Instant(4L)),
+            TimestampedValue.of(KV.of("a", 3), new Instant(2L)),
+            TimestampedValue.of(KV.of("a", 4), new Instant(12L))))
+        .apply(Window.<KV<String, Integer>>into(FixedWindows.of(Duration.millis(10))))
+        .apply(Sum.<String>integersPerKey())
+        .apply(ParDo.of(new DoFn<KV<String, Integer>, String>() {
+          @Override
+          public void processElement(ProcessContext c) {
+            c.output(c.element().getKey() + ":" + c.element().getValue()
+                + ":" + c.timestamp().getMillis());
+          }
+        }));
+
+    DataflowAssert.that(sums).containsInAnyOrder("a:4:2", "b:2:4", "a:4:12");
+    pipeline.run();
   }
 }
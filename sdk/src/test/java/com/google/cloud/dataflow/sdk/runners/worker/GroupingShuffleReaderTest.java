@@ -37,10 +37,12 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.Coder.Context;
 import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.OrderedLongCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
 import com.google.cloud.dataflow.sdk.util.BatchModeExecutionContext;
@@ -56,6 +58,7 @@ import com.google.cloud.dataflow.sdk.util.common.worker.ShuffleEntry;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedBytes;
 
 import org.joda.time.Instant;
 import org.junit.Test;
@@ -67,6 +70,7 @@ import java.io.DataOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -394,6 +398,61 @@ public class GroupingShuffleReaderTest {
     return os.toByteArray();
   }
 
+  @Test
+  public void testReadSortedValuesFromShuffle() throws Exception {
+    Coder<WindowedValue<KV<Integer, KV<Long, String>>>> sinkElemCoder =
+        WindowedValue.getFullCoder(
+            KvCoder.of(BigEndianIntegerCoder.of(),
+                KvCoder.of(OrderedLongCoder.of(), StringUtf8Coder.of())),
+            GlobalWindow.Coder.INSTANCE);
+    ShuffleSink<KV<Integer, KV<Long, String>>> shuffleSink = new ShuffleSink<>(
+        PipelineOptionsFactory.create(), null, ShuffleSink.ShuffleKind.GROUP_KEYS_AND_SORT_VALUES,
+        sinkElemCoder, new CounterSet().getAddCounterMutator());
+    TestShuffleWriter shuffleWriter = new TestShuffleWriter();
+    try (Sink.SinkWriter<WindowedValue<KV<Integer, KV<Long, String>>>> shuffleSinkWriter =
+        shuffleSink.writer(shuffleWriter, "dataset")) {
+      for (KV<Long, String> value : Arrays.asList(
+          KV.of(3L, "c"), KV.of(-1L, "a"), KV.of(2L, "b"), KV.of(1000L, "d"))) {
+        shuffleSinkWriter.add(WindowedValue.valueInGlobalWindow(KV.of(1, value)));
+      }
+    }
+
+    // Sort the entries by secondary key, as the shuffle would.
+    List<ShuffleEntry> records = new ArrayList<>(shuffleWriter.getRecords());
+    Collections.sort(records, new Comparator<ShuffleEntry>() {
+      @Override
+      public int compare(ShuffleEntry e1, ShuffleEntry e2) {
+        return UnsignedBytes.lexicographicalComparator().compare(
+            e1.getSecondaryKey(), e2.getSecondaryKey());
+      }
+    });
+    TestShuffleReader shuffleReader = new TestShuffleReader();
+    for (ShuffleEntry record : records) {
+      shuffleReader.addEntry(record);
+    }
+
+    PipelineOptions options = PipelineOptionsFactory.create();
+    GroupingShuffleReader<Integer, KV<Long, String>> groupingShuffleReader =
+        new GroupingShuffleReader<>(
+            options, null, null, null,
+            WindowedValue.getFullCoder(
+                KvCoder.of(BigEndianIntegerCoder.of(), IterableCoder.of(
+                    KvCoder.of(OrderedLongCoder.of(), StringUtf8Coder.of()))),
+                GlobalWindow.Coder.INSTANCE),
+            true /* sortValues */, BatchModeExecutionContext.fromOptions(options), null, null);
+
+    try (Reader.ReaderIterator<WindowedValue<KV<Integer, Reiterable<KV<Long, String>>>>> iter =
+        groupingShuffleReader.iterator(shuffleReader)) {
+      assertTrue(iter.hasNext());
+      KV<Integer, Reiterable<KV<Long, String>>> group = iter.next().getValue();
+      assertEquals(1, (int) group.getKey());
+      assertEquals(
+          Arrays.asList(KV.of(-1L, "a"), KV.of(2L, "b"), KV.of(3L, "c"), KV.of(1000L, "d")),
+          Lists.newArrayList(group.getValue()));
+      assertFalse(iter.hasNext());
+    }
+  }
+
   @Test
   public void testReadFromShuffleDataAndFailToSplit() throws Exception {
     PipelineOptions options = PipelineOptionsFactory.create();
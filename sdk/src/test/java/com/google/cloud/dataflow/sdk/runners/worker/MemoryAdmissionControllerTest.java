@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link MemoryAdmissionController}.
+ */
+@RunWith(JUnit4.class)
+public class MemoryAdmissionControllerTest {
+  private static final long MAX_HEAP = 1000L << 20;
+  private static final long MAX_ITEMS = 100;
+  private static final long MAX_BYTES = 64L << 20;
+
+  private static class FakeHeapUsageProvider
+      implements MemoryAdmissionController.HeapUsageProvider {
+    volatile long live = 0;
+
+    @Override
+    public long liveHeapBytes() {
+      return live;
+    }
+
+    @Override
+    public long maxHeapBytes() {
+      return MAX_HEAP;
+    }
+  }
+
+  private FakeHeapUsageProvider heap;
+  private MemoryAdmissionController controller;
+
+  @Before
+  public void setUp() {
+    heap = new FakeHeapUsageProvider();
+    // Allow 100MB in flight, adjust on every call.
+    controller = new MemoryAdmissionController(heap, MAX_ITEMS, MAX_BYTES, 0.1, 0);
+  }
+
+  @Test
+  public void testFullBudgetWithHeadroom() {
+    assertEquals(MAX_ITEMS, controller.getMaxItems());
+    assertEquals(MAX_BYTES, controller.getMaxBytes());
+  }
+
+  @Test
+  public void testBudgetShrinksUnderPressureAndRecovers() {
+    heap.live = (long) (MAX_HEAP * 0.9);
+    assertEquals(MAX_ITEMS / 2, controller.getMaxItems());
+    assertEquals(MAX_ITEMS / 4, controller.getMaxItems());
+    for (int i = 0; i < 20; i++) {
+      controller.getMaxItems();
+    }
+    assertEquals(MemoryAdmissionController.MIN_BUDGET_FACTOR, controller.getBudgetFactor(), 0.0);
+    assertEquals(MemoryAdmissionController.MIN_GET_WORK_BYTES, controller.getMaxBytes());
+
+    // Between the watermarks the budget is left alone.
+    heap.live = (long) (MAX_HEAP * 0.6);
+    controller.getMaxItems();
+    assertEquals(MemoryAdmissionController.MIN_BUDGET_FACTOR, controller.getBudgetFactor(), 0.0);
+
+    heap.live = 0;
+    for (int i = 0; i < 10; i++) {
+      controller.getMaxItems();
+    }
+    assertEquals(MAX_ITEMS, controller.getMaxItems());
+  }
+
+  @Test
+  public void testBytesBudgetLimitedByInFlightBytes() {
+    controller.workAdmitted(60L << 20);
+    controller.commitQueued(20L << 20);
+    assertEquals(80L << 20, controller.getInFlightBytes());
+    assertEquals(20L << 20, controller.getMaxBytes());
+
+    controller.commitCompleted(20L << 20);
+    controller.workCompleted(60L << 20);
+    assertEquals(0, controller.getInFlightBytes());
+    assertEquals(MAX_BYTES, controller.getMaxBytes());
+  }
+
+  @Test(timeout = 5000)
+  public void testWaitForHeadroomBlocksUntilWorkCompletes() throws Exception {
+    controller.workAdmitted(200L << 20);
+    final Semaphore s = new Semaphore(0);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          controller.waitForHeadroom(Long.MAX_VALUE / 2);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        s.release();
+      }
+    }).start();
+    assertFalse(s.tryAcquire(100, TimeUnit.MILLISECONDS));
+    controller.workCompleted(200L << 20);
+    assertTrue(s.tryAcquire(1000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testWaitForHeadroomReportsTimeout() throws Exception {
+    assertTrue(controller.waitForHeadroom(10));
+    controller.workAdmitted(200L << 20);
+    assertFalse(controller.waitForHeadroom(10));
+    controller.workCompleted(200L << 20);
+    assertTrue(controller.waitForHeadroom(10));
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.WindmillServerStub;
+import com.google.cloud.dataflow.sdk.util.MemoryMonitor;
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link MetricTrackingWindmillServerStub}.
+ */
+@RunWith(JUnit4.class)
+public class MetricTrackingWindmillServerStubTest {
+  private static final String COMPUTATION = "computation";
+
+  /**
+   * A server that answers every keyed request with a value tagged by its key, blocking the first
+   * request until released. Requests for several keys fail with {@code batchError}, if set.
+   */
+  private static class EchoWindmillServer extends WindmillServerStub {
+    private final CountDownLatch firstRequestStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Windmill.GetDataRequest> requests = new ArrayList<>();
+    private volatile Error batchError = null;
+
+    @Override
+    public Windmill.GetDataResponse getData(Windmill.GetDataRequest request) {
+      boolean first;
+      synchronized (this) {
+        first = requests.isEmpty();
+        requests.add(request);
+      }
+      if (first) {
+        firstRequestStarted.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (batchError != null && request.getRequests(0).getRequestsCount() > 1) {
+        throw batchError;
+      }
+      Windmill.GetDataResponse.Builder response = Windmill.GetDataResponse.newBuilder();
+      for (Windmill.ComputationGetDataRequest computation : request.getRequestsList()) {
+        Windmill.ComputationGetDataResponse.Builder computationResponse =
+            response.addDataBuilder().setComputationId(computation.getComputationId());
+        for (Windmill.KeyedGetDataRequest keyed : computation.getRequestsList()) {
+          computationResponse.addDataBuilder()
+              .setKey(keyed.getKey())
+              .addValuesBuilder()
+              .setTag(keyed.getKey())
+              .setStateFamily("");
+        }
+      }
+      return response.build();
+    }
+
+    @Override
+    public Windmill.GetWorkResponse getWork(Windmill.GetWorkRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Windmill.CommitWorkResponse commitWork(Windmill.CommitWorkRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Windmill.GetConfigResponse getConfig(Windmill.GetConfigRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Windmill.ReportStatsResponse reportStats(Windmill.ReportStatsRequest request) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private EchoWindmillServer server;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    server = new EchoWindmillServer();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  private static Windmill.GetDataRequest keyedRequest(String key) {
+    return Windmill.GetDataRequest.newBuilder()
+        .addRequests(Windmill.ComputationGetDataRequest.newBuilder()
+            .setComputationId(COMPUTATION)
+            .addRequests(Windmill.KeyedGetDataRequest.newBuilder()
+                .setKey(ByteString.copyFromUtf8(key))
+                .setWorkToken(1)
+                .addValuesToFetch(Windmill.TagValue.newBuilder()
+                    .setTag(ByteString.copyFromUtf8("tag"))
+                    .setStateFamily(""))))
+        .build();
+  }
+
+  private Future<Windmill.GetDataResponse> readAsync(
+      final MetricTrackingWindmillServerStub stub, final String key) {
+    return executor.submit(new Callable<Windmill.GetDataResponse>() {
+      @Override
+      public Windmill.GetDataResponse call() {
+        return stub.getStateData(keyedRequest(key));
+      }
+    });
+  }
+
+  private static void assertResponseForKey(String key, Windmill.GetDataResponse response) {
+    assertEquals(1, response.getDataCount());
+    assertEquals(COMPUTATION, response.getData(0).getComputationId());
+    assertEquals(1, response.getData(0).getDataCount());
+    Windmill.KeyedGetDataResponse keyed = response.getData(0).getData(0);
+    assertEquals(ByteString.copyFromUtf8(key), keyed.getKey());
+    assertEquals(ByteString.copyFromUtf8(key), keyed.getValues(0).getTag());
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentReadsAreCoalesced() throws Exception {
+    MetricTrackingWindmillServerStub stub = new MetricTrackingWindmillServerStub(
+        server, Mockito.mock(MemoryMonitor.class), TimeUnit.SECONDS.toMicros(30), 1 << 20);
+
+    // The first read is sent immediately, since nothing else is in flight.
+    Future<Windmill.GetDataResponse> first = readAsync(stub, "a");
+    server.firstRequestStarted.await();
+
+    // While it is in flight, reads for other keys, and a second read for one of those keys,
+    // accumulate in the next batches.
+    List<Future<Windmill.GetDataResponse>> rest = new ArrayList<>();
+    for (String key : new String[] {"b", "c", "d"}) {
+      rest.add(readAsync(stub, key));
+    }
+    while (stub.getOpenBatchSize() < 3) {
+      Thread.sleep(1);
+    }
+    Future<Windmill.GetDataResponse> duplicate = readAsync(stub, "b");
+    while (stub.getOpenBatchSize() != 1) {
+      Thread.sleep(1);
+    }
+
+    server.release.countDown();
+    assertResponseForKey("a", first.get());
+    assertResponseForKey("b", rest.get(0).get());
+    assertResponseForKey("c", rest.get(1).get());
+    assertResponseForKey("d", rest.get(2).get());
+    assertResponseForKey("b", duplicate.get());
+
+    assertEquals(3, stub.getStateReadBatchCount());
+    // The two later batches may be sent in either order.
+    List<Integer> keysPerRequest = new ArrayList<>();
+    for (Windmill.GetDataRequest request : server.requests) {
+      keysPerRequest.add(request.getRequests(0).getRequestsCount());
+    }
+    Collections.sort(keysPerRequest);
+    assertEquals(Arrays.asList(1, 1, 3), keysPerRequest);
+  }
+
+  @Test(timeout = 10000)
+  public void testBatchingDisabled() throws Exception {
+    MetricTrackingWindmillServerStub stub = new MetricTrackingWindmillServerStub(
+        server, Mockito.mock(MemoryMonitor.class), 0, 1 << 20);
+    server.release.countDown();
+    assertResponseForKey("a", stub.getStateData(keyedRequest("a")));
+    assertEquals(0, stub.getStateReadBatchCount());
+  }
+
+  @Test(timeout = 10000)
+  public void testErrorFailsAllReadsOfBatch() throws Exception {
+    MetricTrackingWindmillServerStub stub = new MetricTrackingWindmillServerStub(
+        server, Mockito.mock(MemoryMonitor.class), TimeUnit.SECONDS.toMicros(30), 1 << 20);
+    Error error = new AssertionError("batch failed");
+    server.batchError = error;
+
+    Future<Windmill.GetDataResponse> first = readAsync(stub, "a");
+    server.firstRequestStarted.await();
+    List<Future<Windmill.GetDataResponse>> batched = new ArrayList<>();
+    for (String key : new String[] {"b", "c"}) {
+      batched.add(readAsync(stub, key));
+    }
+    while (stub.getOpenBatchSize() < 2) {
+      Thread.sleep(1);
+    }
+
+    server.release.countDown();
+    assertResponseForKey("a", first.get());
+    // Both the leader and the follower of the failed batch see the error.
+    for (Future<Windmill.GetDataResponse> read : batched) {
+      try {
+        read.get();
+        fail("Expected the read to fail");
+      } catch (ExecutionException e) {
+        assertSame(error, e.getCause());
+      }
+    }
+  }
+}
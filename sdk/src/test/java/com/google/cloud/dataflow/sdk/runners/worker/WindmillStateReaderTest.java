@@ -26,6 +26,8 @@ import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
 import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill.KeyedGetDataRequest;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.ByteString.Output;
 
@@ -41,7 +43,10 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Tests for {@link WindmillStateReader}.
@@ -197,6 +202,108 @@ public class WindmillStateReaderTest {
     assertThat(results, Matchers.contains(5, 6, 7, 8));
   }
 
+  @Test
+  public void testReadListWithPrefetch() throws Exception {
+    readListWithPrefetch(MoreExecutors.sameThreadExecutor(), true);
+  }
+
+  @Test
+  public void testReadListWithRejectedPrefetch() throws Exception {
+    readListWithPrefetch(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    }, false);
+  }
+
+  private void readListWithPrefetch(Executor executor, boolean expectPrefetch) throws Exception {
+    WindmillStateReader.PrefetchPolicy policy =
+        new WindmillStateReader.PrefetchPolicy(executor, 0.5, 1 << 20);
+    underTest = new WindmillStateReader(mockWindmill, COMPUTATION, DATA_KEY, WORK_TOKEN, policy);
+    Future<Iterable<Integer>> future = underTest.listFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
+
+    Windmill.GetDataRequest.Builder expectedRequest1 = Windmill.GetDataRequest.newBuilder();
+    expectedRequest1.addRequestsBuilder()
+        .setComputationId(COMPUTATION)
+        .addRequestsBuilder()
+        .setKey(DATA_KEY)
+        .setWorkToken(WORK_TOKEN)
+        .addListsToFetch(
+            Windmill.TagList.newBuilder()
+                .setTag(STATE_KEY_1)
+                .setStateFamily(STATE_FAMILY)
+                .setEndTimestamp(Long.MAX_VALUE)
+                .setFetchMaxBytes(WindmillStateReader.MAX_LIST_BYTES));
+
+    Windmill.GetDataResponse.Builder response1 = Windmill.GetDataResponse.newBuilder();
+    response1.addDataBuilder()
+        .setComputationId(COMPUTATION)
+        .addDataBuilder()
+        .setKey(DATA_KEY)
+        .addLists(
+            Windmill.TagList.newBuilder()
+                .setTag(STATE_KEY_1)
+                .setStateFamily(STATE_FAMILY)
+                .setContinuationToken(CONT_TOKEN)
+                .addValues(intValue(5, true))
+                .addValues(intValue(6, true))
+                .addValues(intValue(7, true))
+                .addValues(intValue(8, true)));
+
+    Windmill.GetDataRequest.Builder expectedRequest2 = Windmill.GetDataRequest.newBuilder();
+    expectedRequest2.addRequestsBuilder()
+        .setComputationId(COMPUTATION)
+        .addRequestsBuilder()
+        .setKey(DATA_KEY)
+        .setWorkToken(WORK_TOKEN)
+        .addListsToFetch(
+            Windmill.TagList.newBuilder()
+                .setTag(STATE_KEY_1)
+                .setStateFamily(STATE_FAMILY)
+                .setEndTimestamp(Long.MAX_VALUE)
+                .setFetchMaxBytes(WindmillStateReader.MAX_LIST_BYTES)
+                .setRequestToken(CONT_TOKEN));
+
+    Windmill.GetDataResponse.Builder response2 = Windmill.GetDataResponse.newBuilder();
+    response2.addDataBuilder()
+        .setComputationId(COMPUTATION)
+        .addDataBuilder()
+        .setKey(DATA_KEY)
+        .addLists(
+            Windmill.TagList.newBuilder()
+                .setTag(STATE_KEY_1)
+                .setStateFamily(STATE_FAMILY)
+                .setRequestToken(CONT_TOKEN)
+                .addValues(intValue(9, true)));
+
+    Mockito.when(mockWindmill.getStateData(expectedRequest1.build())).thenReturn(response1.build());
+    Mockito.when(mockWindmill.getStateData(expectedRequest2.build())).thenReturn(response2.build());
+
+    Iterator<Integer> results = future.get().iterator();
+    Mockito.verify(mockWindmill).getStateData(expectedRequest1.build());
+    assertEquals(5, (int) results.next());
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+
+    // Consuming half of the first page prefetches the second. A rejected prefetch leaves the
+    // page to be fetched when it is reached.
+    assertEquals(6, (int) results.next());
+    if (expectPrefetch) {
+      Mockito.verify(mockWindmill).getStateData(expectedRequest2.build());
+    } else {
+      Mockito.verifyNoMoreInteractions(mockWindmill);
+    }
+    assertEquals(0, policy.getBytesInFlight());
+
+    assertThat(Lists.newArrayList(results), Matchers.contains(7, 8, 9));
+    Mockito.verify(mockWindmill).getStateData(expectedRequest2.build());
+    Mockito.verifyNoMoreInteractions(mockWindmill);
+    assertEquals(
+        response1.build().getData(0).getData(0).getSerializedSize()
+            + response2.build().getData(0).getData(0).getSerializedSize(),
+        underTest.getBytesRead());
+  }
+
   @Test
   public void testReadValue() throws Exception {
     Future<Integer> future = underTest.valueFuture(STATE_KEY_1, STATE_FAMILY, INT_CODER);
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker.windmill;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LocalWindmillLoadGenerator}.
+ */
+@RunWith(JUnit4.class)
+public class LocalWindmillLoadGeneratorTest {
+  @Test
+  public void testMessagesDue() {
+    assertEquals(0, LocalWindmillLoadGenerator.messagesDue(0, 1000));
+    assertEquals(1, LocalWindmillLoadGenerator.messagesDue(TimeUnit.MILLISECONDS.toNanos(1), 1000));
+    assertEquals(2500,
+        LocalWindmillLoadGenerator.messagesDue(TimeUnit.MILLISECONDS.toNanos(2500), 1000));
+  }
+
+  @Test
+  public void testMessagesDueDoesNotOverflow() {
+    // (now - start) * rate would overflow after about 15 minutes at 10M messages per second.
+    long elapsedNanos = TimeUnit.HOURS.toNanos(1) + 500000000L;
+    assertEquals(36005000000L,
+        LocalWindmillLoadGenerator.messagesDue(elapsedNanos, 10000000));
+  }
+}
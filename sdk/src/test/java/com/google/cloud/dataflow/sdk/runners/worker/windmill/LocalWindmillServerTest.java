@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker.windmill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Tests for {@link LocalWindmillServer}.
+ */
+@RunWith(JUnit4.class)
+public class LocalWindmillServerTest {
+  private static final String TOPIC = "topic";
+  private static final String COMPUTATION = "computation";
+  private static final String DOWNSTREAM = "downstream";
+  private static final String FAMILY = "family";
+  private static final ByteString KEY = ByteString.copyFromUtf8("0");
+  private static final ByteString TAG = ByteString.copyFromUtf8("tag");
+
+  private LocalWindmillServer server;
+
+  @Before
+  public void setUp() {
+    server = new LocalWindmillServer()
+        .setNumKeysPerTopic(1)
+        .subscribe(TOPIC, COMPUTATION)
+        .addStream("out", COMPUTATION, DOWNSTREAM);
+  }
+
+  private Windmill.GetWorkResponse getWork() {
+    return server.getWork(Windmill.GetWorkRequest.newBuilder().setClientId(1).build());
+  }
+
+  private Windmill.WorkItem getSingleWorkItem(String computation) {
+    Windmill.GetWorkResponse response = getWork();
+    assertEquals(1, response.getWorkCount());
+    assertEquals(computation, response.getWork(0).getComputationId());
+    assertEquals(1, response.getWork(0).getWorkCount());
+    return response.getWork(0).getWork(0);
+  }
+
+  private void commit(String computation, Windmill.WorkItemCommitRequest.Builder commit) {
+    server.commitWork(Windmill.CommitWorkRequest.newBuilder()
+        .addRequests(Windmill.ComputationCommitWorkRequest.newBuilder()
+            .setComputationId(computation)
+            .addRequests(commit))
+        .build());
+  }
+
+  private Windmill.KeyedGetDataResponse getData(
+      long workToken, Windmill.KeyedGetDataRequest.Builder keyedRequest) {
+    Windmill.GetDataResponse response = server.getData(Windmill.GetDataRequest.newBuilder()
+        .addRequests(Windmill.ComputationGetDataRequest.newBuilder()
+            .setComputationId(COMPUTATION)
+            .addRequests(keyedRequest.setKey(KEY).setWorkToken(workToken)))
+        .build());
+    return response.getData(0).getData(0);
+  }
+
+  private static Windmill.Value value(String data) {
+    return Windmill.Value.newBuilder()
+        .setTimestamp(Long.MAX_VALUE)
+        .setData(ByteString.copyFromUtf8(data))
+        .build();
+  }
+
+  @Test
+  public void testKeyedWorkDistribution() {
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+    server.publish(TOPIC, ByteString.copyFromUtf8("b"), new Instant(2));
+
+    Windmill.WorkItem work = getSingleWorkItem(COMPUTATION);
+    assertEquals(KEY, work.getKey());
+    assertEquals(1, work.getMessageBundlesCount());
+    assertEquals(TOPIC, work.getMessageBundles(0).getSourceComputationId());
+    assertEquals(2, work.getMessageBundles(0).getMessagesCount());
+    assertEquals(1000, work.getMessageBundles(0).getMessages(0).getTimestamp());
+
+    // The key is leased until the work item is committed.
+    server.publish(TOPIC, ByteString.copyFromUtf8("c"), new Instant(3));
+    assertEquals(0, getWork().getWorkCount());
+    assertTrue(getData(work.getWorkToken() + 1, Windmill.KeyedGetDataRequest.newBuilder())
+        .getFailed());
+
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken())
+        .addOutputMessages(Windmill.OutputMessageBundle.newBuilder()
+            .setDestinationStreamId("out")
+            .addBundles(Windmill.KeyedMessageBundle.newBuilder()
+                .setKey(ByteString.copyFromUtf8("k"))
+                .addMessages(work.getMessageBundles(0).getMessages(0)))));
+    assertEquals(1, server.getWorkLatency().getCount());
+    assertEquals(2, server.getMessageLatency().getCount());
+    assertEquals(2, server.getBacklog());
+
+    // Both the remaining input and the output to the downstream computation are now available.
+    Windmill.GetWorkResponse response = getWork();
+    assertEquals(2, response.getWorkCount());
+    assertEquals(0, server.getBacklog());
+  }
+
+  @Test
+  public void testTopologyConstructor() {
+    server = new LocalWindmillServer("localhost:0",
+        "subscribe:" + COMPUTATION + ":" + TOPIC + "; sourcekey:source:split:0")
+        .setNumKeysPerTopic(1);
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+
+    Windmill.GetWorkResponse response = getWork();
+    assertEquals(2, response.getWorkCount());
+    for (Windmill.ComputationWorkItems computationWork : response.getWorkList()) {
+      if (computationWork.getComputationId().equals("source")) {
+        assertEquals(ByteString.copyFromUtf8("split:0"), computationWork.getWork(0).getKey());
+      } else {
+        assertEquals(COMPUTATION, computationWork.getComputationId());
+        assertEquals(TOPIC,
+            computationWork.getWork(0).getMessageBundles(0).getSourceComputationId());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTopology() {
+    new LocalWindmillServer("localhost:0", "stream:out:" + COMPUTATION);
+  }
+
+  @Test
+  public void testStateIsPersistedAcrossWorkItems() {
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+    Windmill.WorkItem work = getSingleWorkItem(COMPUTATION);
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken())
+        .addValueUpdates(Windmill.TagValue.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).setValue(value("v")))
+        .addListUpdates(Windmill.TagList.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY)
+            .addValues(value("1")).addValues(value("2")).addValues(value("3")))
+        .addWatermarkHolds(Windmill.WatermarkHold.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).addTimestamps(5000).addTimestamps(7000)));
+
+    server.publish(TOPIC, ByteString.copyFromUtf8("b"), new Instant(2));
+    work = getSingleWorkItem(COMPUTATION);
+    Windmill.KeyedGetDataResponse data = getData(work.getWorkToken(),
+        Windmill.KeyedGetDataRequest.newBuilder()
+            .addValuesToFetch(Windmill.TagValue.newBuilder().setTag(TAG).setStateFamily(FAMILY))
+            .addListsToFetch(Windmill.TagList.newBuilder()
+                .setTag(TAG).setStateFamily(FAMILY).setEndTimestamp(Long.MAX_VALUE)
+                .setFetchMaxBytes(1))
+            .addWatermarkHoldsToFetch(
+                Windmill.WatermarkHold.newBuilder().setTag(TAG).setStateFamily(FAMILY)));
+    assertFalse(data.getFailed());
+    assertEquals(value("v"), data.getValues(0).getValue());
+    assertEquals(1, data.getLists(0).getValuesCount());
+    assertTrue(data.getLists(0).hasContinuationToken());
+    assertEquals(5000, data.getWatermarkHolds(0).getTimestamps(0));
+
+    // Fetch the remaining pages.
+    int numValues = 1;
+    ByteString token = data.getLists(0).getContinuationToken();
+    while (token != null) {
+      Windmill.TagList page = getData(work.getWorkToken(),
+          Windmill.KeyedGetDataRequest.newBuilder()
+              .addListsToFetch(Windmill.TagList.newBuilder()
+                  .setTag(TAG).setStateFamily(FAMILY).setEndTimestamp(Long.MAX_VALUE)
+                  .setFetchMaxBytes(1).setRequestToken(token)))
+          .getLists(0);
+      assertEquals(token, page.getRequestToken());
+      numValues += page.getValuesCount();
+      token = page.hasContinuationToken() ? page.getContinuationToken() : null;
+    }
+    assertEquals(3, numValues);
+
+    // Clear the list and value.
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken())
+        .addValueUpdates(Windmill.TagValue.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).setValue(value("")))
+        .addListUpdates(Windmill.TagList.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).setEndTimestamp(Long.MAX_VALUE)));
+    server.publish(TOPIC, ByteString.copyFromUtf8("c"), new Instant(3));
+    work = getSingleWorkItem(COMPUTATION);
+    data = getData(work.getWorkToken(),
+        Windmill.KeyedGetDataRequest.newBuilder()
+            .addValuesToFetch(Windmill.TagValue.newBuilder().setTag(TAG).setStateFamily(FAMILY))
+            .addListsToFetch(Windmill.TagList.newBuilder()
+                .setTag(TAG).setStateFamily(FAMILY).setEndTimestamp(Long.MAX_VALUE)));
+    assertFalse(data.getValues(0).hasValue());
+    assertEquals(0, data.getLists(0).getValuesCount());
+  }
+
+  @Test
+  public void testWatermarksAndTimers() {
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+    server.advanceWatermark(TOPIC, new Instant(3));
+    assertEquals(3000, server.getInputWatermark(COMPUTATION));
+    // Held by the pending message.
+    assertEquals(1000, server.getOutputWatermark(COMPUTATION));
+    assertEquals(1000, server.getInputWatermark(DOWNSTREAM));
+
+    Windmill.WorkItem work = getSingleWorkItem(COMPUTATION);
+    assertEquals(1000, work.getOutputDataWatermark());
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken())
+        .addOutputTimers(Windmill.Timer.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).setTimestamp(5000)
+            .setType(Windmill.Timer.Type.WATERMARK))
+        .addWatermarkHolds(Windmill.WatermarkHold.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).addTimestamps(4000)));
+    assertEquals(3000, server.getOutputWatermark(COMPUTATION));
+
+    server.advanceWatermark(TOPIC, new Instant(4));
+    assertEquals(0, getWork().getWorkCount());
+    assertEquals(4000, server.getOutputWatermark(COMPUTATION));
+
+    server.advanceWatermark(TOPIC, new Instant(10));
+    work = getSingleWorkItem(COMPUTATION);
+    assertEquals(1, work.getTimers().getTimersCount());
+    assertEquals(5000, work.getTimers().getTimers(0).getTimestamp());
+    assertEquals(4000, server.getOutputWatermark(COMPUTATION));
+
+    // Releasing the hold lets the output watermark advance.
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken())
+        .addWatermarkHolds(Windmill.WatermarkHold.newBuilder()
+            .setTag(TAG).setStateFamily(FAMILY).setReset(true)));
+    assertEquals(10000, server.getOutputWatermark(COMPUTATION));
+    assertEquals(10000, server.getInputWatermark(DOWNSTREAM));
+  }
+
+  @Test
+  public void testStaleCommitIsIgnored() {
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+    Windmill.WorkItem work = getSingleWorkItem(COMPUTATION);
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken() + 1)
+        .addOutputMessages(Windmill.OutputMessageBundle.newBuilder()
+            .setDestinationStreamId("out")
+            .addBundles(Windmill.KeyedMessageBundle.newBuilder()
+                .setKey(KEY)
+                .addMessages(work.getMessageBundles(0).getMessages(0)))));
+    assertEquals(0, server.getBacklog());
+    assertEquals(0, getWork().getWorkCount());
+  }
+
+  @Test
+  public void testUncommittedWorkIsRetried() throws Exception {
+    server.setWorkItemTimeout(Duration.millis(1));
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+    server.publish(TOPIC, ByteString.copyFromUtf8("b"), new Instant(2));
+    Windmill.WorkItem work = getSingleWorkItem(COMPUTATION);
+    server.publish(TOPIC, ByteString.copyFromUtf8("c"), new Instant(3));
+    Thread.sleep(10);
+
+    // The input of the expired work item is handed out again, ahead of the newer input.
+    Windmill.WorkItem retry = getSingleWorkItem(COMPUTATION);
+    server.setWorkItemTimeout(Duration.standardMinutes(1));
+    assertTrue(retry.getWorkToken() != work.getWorkToken());
+    assertEquals(3, retry.getMessageBundles(0).getMessagesCount());
+    assertEquals(work.getMessageBundles(0).getMessages(0),
+        retry.getMessageBundles(0).getMessages(0));
+    // The retried input still holds the output watermark.
+    server.advanceWatermark(TOPIC, new Instant(10));
+    assertEquals(1000, server.getOutputWatermark(COMPUTATION));
+
+    // The expired work item can no longer commit.
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken()));
+    assertEquals(0, server.getWorkLatency().getCount());
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(retry.getWorkToken()));
+    assertEquals(1, server.getWorkLatency().getCount());
+    assertEquals(3, server.getMessageLatency().getCount());
+  }
+
+  @Test
+  public void testPubsubOutputCaptureIsBounded() {
+    server.setMaxCapturedPubsubMessages(2);
+    BlockingQueue<Windmill.Message> output = server.getPubsubOutput("output");
+    server.publish(TOPIC, ByteString.copyFromUtf8("a"), new Instant(1));
+    Windmill.WorkItem work = getSingleWorkItem(COMPUTATION);
+    Windmill.PubSubMessageBundle.Builder bundle =
+        Windmill.PubSubMessageBundle.newBuilder().setTopic("output");
+    for (int i = 0; i < 3; i++) {
+      bundle.addMessages(Windmill.Message.newBuilder()
+          .setTimestamp(i)
+          .setData(ByteString.copyFromUtf8(Integer.toString(i))));
+    }
+    commit(COMPUTATION, Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(work.getWorkToken())
+        .addPubsubMessages(bundle));
+
+    // The oldest message was dropped.
+    assertEquals(2, output.size());
+    assertEquals(1, output.poll().getTimestamp());
+    assertEquals(2, output.poll().getTimestamp());
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram("test");
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50500, histogram.getMeanMicros(), 0.001);
+    assertEquals(100000, histogram.getMaxMicros());
+    long p50 = histogram.getPercentileMicros(50);
+    assertTrue(p50 >= 50000 && p50 < 100000);
+    assertEquals(100000, histogram.getPercentileMicros(100));
+  }
+}
@@ -18,6 +18,7 @@ package com.google.cloud.dataflow.sdk.transforms;
 
 import static com.google.cloud.dataflow.sdk.TestUtils.checkCombineFn;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.junit.Assert.assertEquals;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.BigEndianIntegerCoder;
@@ -27,6 +28,8 @@ import com.google.cloud.dataflow.sdk.runners.DirectPipeline;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.transforms.ApproximateQuantiles.ApproximateQuantilesCombineFn;
+import com.google.cloud.dataflow.sdk.transforms.ApproximateQuantiles.DoubleQuantilesCombineFn;
+import com.google.cloud.dataflow.sdk.transforms.ApproximateQuantiles.LongQuantilesCombineFn;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 
@@ -41,8 +44,10 @@ import org.junit.runners.JUnit4;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Tests for {@link ApproximateQuantiles}.
@@ -126,6 +131,75 @@ public class ApproximateQuantilesTest {
     p.run();
   }
 
+  @Test
+  public void testDoublesGlobally() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<Double> input =
+        p.apply(Create.of(-2.5, 0.0, 1.0, 7.25, -100.0, 3.0, 0.5, 2.0, -1.0));
+    PCollection<List<Double>> quantiles = input.apply(ApproximateQuantiles.ofDoubles(5));
+
+    DataflowAssert.that(quantiles)
+        .containsInAnyOrder(Arrays.asList(-100.0, -1.0, 0.5, 2.0, 7.25));
+    p.run();
+  }
+
+  @Test
+  public void testLongsPerKey() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<KV<String, Long>> input = p.apply(Create.of(
+        KV.of("a", 1L), KV.of("a", 2L), KV.of("a", 3L),
+        KV.of("b", -1L), KV.of("b", 10L), KV.of("b", 100L)));
+    PCollection<KV<String, List<Long>>> quantiles =
+        input.apply(ApproximateQuantiles.<String>ofLongsPerKey(3));
+
+    DataflowAssert.that(quantiles)
+        .containsInAnyOrder(
+            KV.of("a", Arrays.asList(1L, 2L, 3L)),
+            KV.of("b", Arrays.asList(-1L, 10L, 100L)));
+    p.run();
+  }
+
+  @Test
+  public void testSketchQuantiles() {
+    List<Long> input = new ArrayList<>();
+    for (long i = 0; i < 101; i++) {
+      input.add(i);
+    }
+    checkCombineFn(
+        LongQuantilesCombineFn.create(5),
+        input,
+        Arrays.asList(0L, 25L, 50L, 75L, 100L));
+  }
+
+  @Test
+  public void testSketchRankError() {
+    int size = 100001;
+    List<Double> input = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      input.add(i / 4.0);
+    }
+    Collections.shuffle(input, new Random(0));
+    DoubleQuantilesCombineFn fn = DoubleQuantilesCombineFn.create(11);
+    List<Double> quantiles = fn.extractOutput(fn.mergeAccumulators(Arrays.asList(
+        sketchOf(fn, input.subList(0, size / 2)),
+        sketchOf(fn, input.subList(size / 2, size)))));
+    assertEquals(11, quantiles.size());
+    for (int i = 0; i < 11; i++) {
+      double expected = i * (size - 1) / 10 / 4.0;
+      assertEquals(expected, quantiles.get(i), 0.04 * size / 4.0);
+    }
+  }
+
+  private static KllQuantilesSketch sketchOf(DoubleQuantilesCombineFn fn, List<Double> values) {
+    KllQuantilesSketch sketch = fn.createAccumulator();
+    for (Double value : values) {
+      fn.addInput(sketch, value);
+    }
+    return sketch;
+  }
+
   @Test
   public void testSingleton() {
     checkCombineFn(
@@ -17,17 +17,28 @@
 package com.google.cloud.dataflow.sdk.transforms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.TestUtils;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
+import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.ApproximateUnique.ApproximateUniqueCombineFn;
+import com.google.cloud.dataflow.sdk.transforms.ApproximateUnique.ApproximateUniqueCombineFn.LargestUnique;
+import com.google.cloud.dataflow.sdk.transforms.ApproximateUnique.ApproximateUniqueCombineFn.LargestUniqueCoder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PCollectionList;
 import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -42,6 +53,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
 
 /**
  * Tests for the ApproximateUnique aggregator transform.
@@ -190,6 +203,146 @@ public class ApproximateUniqueTest implements Serializable {
     }
   }
 
+  @Test
+  public void testLargestUniqueKeepsLargestDistinctValues() {
+    LargestUnique heap = new LargestUnique(100);
+    Random random = new Random(17);
+    TreeSet<Long> expected = new TreeSet<>();
+    for (int i = 0; i < 10000; i++) {
+      // Draw from a small range so that values repeat, including 0.
+      long value = random.nextInt(2000) - 1000;
+      heap.add(value);
+      expected.add(value);
+      if (expected.size() > 100) {
+        expected.pollFirst();
+      }
+    }
+    assertEquals(new ArrayList<>(expected.descendingSet()), heap.extractOrderedList());
+    // Extracting the list leaves the heap unchanged.
+    assertEquals(new ArrayList<>(expected.descendingSet()), heap.extractOrderedList());
+    assertFalse(heap.add(expected.first() - 1));
+    assertTrue(heap.add(expected.first()));
+  }
+
+  @Test
+  public void testLargestUniqueCoder() throws Exception {
+    LargestUnique heap = new LargestUnique(16);
+    for (long i = -20; i < 20; i++) {
+      heap.add(i * 1000003);
+    }
+    LargestUnique decoded = CoderUtils.clone(LargestUniqueCoder.of(), heap);
+    assertEquals(heap.extractOrderedList(), decoded.extractOrderedList());
+    assertFalse(decoded.add(Long.MIN_VALUE));
+    CoderProperties.coderSerializable(LargestUniqueCoder.of());
+  }
+
+  @Test
+  public void testLargestUniqueSerializedFormIsUnchanged() throws Exception {
+    // A LargestUnique(3) with 5, -7, 42, 0 and 13 added, encoded with SerializableCoder by the
+    // earlier PriorityQueue-based implementation.
+    String encoded = "rO0ABXNyAGNjb20uZ29vZ2xlLmNsb3VkLmRhdGFmbG93LnNkay50cmFuc2Zvcm1zLkFwcHJveGlt"
+        + "YXRlVW5pcXVlJEFwcHJveGltYXRlVW5pcXVlQ29tYmluZUZuJExhcmdlc3RVbmlxdWWggBRn7SHxugIAAkoA"
+        + "CnNhbXBsZVNpemVMAARoZWFwdAAZTGphdmEvdXRpbC9Qcmlvcml0eVF1ZXVlO3hwAAAAAAAAAANzcgAXamF2"
+        + "YS51dGlsLlByaW9yaXR5UXVldWWU2jC0-z-CsQMAAkkABHNpemVMAApjb21wYXJhdG9ydAAWTGphdmEvdXRp"
+        + "bC9Db21wYXJhdG9yO3hwAAAAA3B3BAAAAARzcgAOamF2YS5sYW5nLkxvbmc7i-SQzI8j3wIAAUoABXZhbHVl"
+        + "eHIAEGphdmEubGFuZy5OdW1iZXKGrJUdC5TgiwIAAHhwAAAAAAAAAAVzcQB-AAYAAAAAAAAAKnNxAH4ABgAA"
+        + "AAAAAAANeA";
+    Coder<LargestUnique> coder = SerializableCoder.of(LargestUnique.class);
+    LargestUnique decoded = CoderUtils.decodeFromBase64(coder, encoded);
+    assertEquals(Arrays.asList(42L, 13L, 5L), decoded.extractOrderedList());
+    assertFalse(decoded.add(4L));
+    assertTrue(decoded.add(Long.valueOf(50L)));
+
+    LargestUnique copy = CoderUtils.clone(coder, decoded);
+    assertEquals(Arrays.asList(50L, 42L, 13L), copy.extractOrderedList());
+  }
+
+  @Test
+  public void testAccumulatorCoders() {
+    ApproximateUniqueCombineFn<Integer> fn =
+        new ApproximateUniqueCombineFn<>(16, VarIntCoder.of());
+    CoderRegistry registry = new CoderRegistry();
+    assertEquals(SerializableCoder.of(LargestUnique.class),
+        fn.getAccumulatorCoder(registry, VarIntCoder.of()));
+    assertEquals(LargestUniqueCoder.of(),
+        fn.withCompactAccumulatorCoder().getAccumulatorCoder(registry, VarIntCoder.of()));
+  }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testApproximateUniqueWithHyperLogLog() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<Integer> input = p.apply(
+        Create.of(Arrays.asList(1, 2, 3, 3)));
+
+    PCollection<Long> estimate = input
+        .apply(ApproximateUnique.<Integer>globallyWithHyperLogLog(0.01));
+
+    DataflowAssert.thatSingleton(estimate).isEqualTo(3L);
+
+    p.run();
+  }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testApproximateUniquePerKeyWithHyperLogLog() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<KV<String, Integer>> input = p.apply(Create.of(
+        KV.of("a", 1), KV.of("a", 2), KV.of("a", 1), KV.of("b", 3)));
+
+    PCollection<KV<String, Long>> estimates = input
+        .apply(ApproximateUnique.<String, Integer>perKeyWithHyperLogLog(0.05));
+
+    DataflowAssert.that(estimates).containsInAnyOrder(KV.of("a", 2L), KV.of("b", 1L));
+
+    p.run();
+  }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testMergeSketches() {
+    Pipeline p = TestPipeline.create();
+
+    List<Integer> first = new ArrayList<>();
+    List<Integer> second = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      first.add(i);
+      second.add(i + 1000);
+    }
+
+    PCollection<HyperLogLogSketch> sketches = PCollectionList
+        .of(p.apply("First", Create.of(first))
+            .apply("SketchFirst", ApproximateUnique.<Integer>sketchGlobally(14)))
+        .and(p.apply("Second", Create.of(second))
+            .apply("SketchSecond", ApproximateUnique.<Integer>sketchGlobally(14)))
+        .apply(Flatten.<HyperLogLogSketch>pCollections());
+
+    PCollection<Long> estimate = sketches
+        .apply(Combine.globally(new SerializableFunction<Iterable<HyperLogLogSketch>,
+            HyperLogLogSketch>() {
+          @Override
+          public HyperLogLogSketch apply(Iterable<HyperLogLogSketch> input) {
+            HyperLogLogSketch union = HyperLogLogSketch.create(14);
+            for (HyperLogLogSketch sketch : input) {
+              union.merge(sketch);
+            }
+            return union;
+          }
+        }))
+        .apply(ParDo.of(new DoFn<HyperLogLogSketch, Long>() {
+          @Override
+          public void processElement(ProcessContext c) {
+            c.output(c.element().estimate());
+          }
+        }));
+
+    DataflowAssert.thatSingleton(estimate).isEqualTo(3000L);
+
+    p.run();
+  }
+
   @Test
   public void testApproximateUniqueGetName() {
     assertEquals("ApproximateUnique.PerKey", ApproximateUnique.<Long, Long>perKey(16).getName());
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.isA;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
+import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
+import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
+import com.google.cloud.dataflow.sdk.util.UserCodeException;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.TimestampedValue;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link BatchDoFn}.
+ */
+@RunWith(JUnit4.class)
+public class BatchDoFnTest implements Serializable {
+  @Rule
+  public transient ExpectedException thrown = ExpectedException.none();
+
+  /** Outputs the size of each batch followed by its elements. */
+  private static class SizesAndElementsFn extends BatchDoFn<Integer, Integer> {
+    SizesAndElementsFn(int maxBatchSize) {
+      super(maxBatchSize);
+    }
+
+    @Override
+    public void processBatch(BatchContext c) {
+      c.output(-c.elements().size());
+      for (int element : c.elements()) {
+        c.output(element);
+      }
+    }
+  }
+
+  @Test
+  public void testBatchesUpToMaxBatchSize() {
+    DoFnTester<Integer, Integer> tester = DoFnTester.of(new SizesAndElementsFn(2));
+    List<Integer> outputs = tester.processBatch(1, 2, 3, 4, 5);
+    assertThat(outputs, contains(-2, 1, 2, -2, 3, 4, -1, 5));
+  }
+
+  @Test
+  public void testIncompleteBatchIsProcessedBeforeFinishBundle() {
+    DoFnTester<Integer, Integer> tester = DoFnTester.of(new SizesAndElementsFn(10));
+    tester.startBundle();
+    tester.processElement(1);
+    tester.processElement(2);
+    assertTrue(tester.peekOutputElements().isEmpty());
+    tester.finishBundle();
+    assertThat(tester.takeOutputElements(), contains(-2, 1, 2));
+  }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testBatchesHaveSameTimestampAndWindow() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<String> output = p
+        .apply(Create.timestamped(
+            TimestampedValue.of(1, new Instant(1)),
+            TimestampedValue.of(2, new Instant(1)),
+            TimestampedValue.of(3, new Instant(12)),
+            TimestampedValue.of(4, new Instant(12)),
+            TimestampedValue.of(5, new Instant(15))))
+        .apply(Window.<Integer>into(FixedWindows.of(Duration.millis(10))))
+        .apply(ParDo.of(new FormatWithBatchWindowingFn()));
+
+    DataflowAssert.that(output).containsInAnyOrder(
+        "1:1:0", "2:1:0", "3:12:10", "4:12:10", "5:15:10");
+
+    p.run();
+  }
+
+  /** Outputs each element with the timestamp and the start of the window of its batch. */
+  private static class FormatWithBatchWindowingFn extends BatchDoFn<Integer, String>
+      implements DoFn.RequiresWindowAccess {
+    @Override
+    public void processBatch(BatchContext c) {
+      for (int element : c.elements()) {
+        c.output(element + ":" + c.timestamp().getMillis()
+            + ":" + ((IntervalWindow) c.window()).start().getMillis());
+      }
+    }
+  }
+
+  @Test
+  public void testExceptionInProcessBatch() {
+    DoFnTester<Integer, Integer> tester = DoFnTester.of(new BatchDoFn<Integer, Integer>() {
+      @Override
+      public void processBatch(BatchContext c) throws Exception {
+        throw new Exception("processBatch failed on " + c.elements());
+      }
+    });
+
+    thrown.expect(UserCodeException.class);
+    thrown.expectCause(isA(Exception.class));
+    thrown.expectMessage("processBatch failed on [1, 2]");
+    tester.processBatch(Arrays.asList(1, 2));
+  }
+
+  @Test
+  public void testInvalidMaxBatchSize() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("maxBatchSize must be positive");
+    new SizesAndElementsFn(0);
+  }
+}
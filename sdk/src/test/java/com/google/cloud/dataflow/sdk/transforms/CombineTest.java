@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.PipelineResult;
 import com.google.cloud.dataflow.sdk.coders.BigEndianIntegerCoder;
 import com.google.cloud.dataflow.sdk.coders.BigEndianLongCoder;
 import com.google.cloud.dataflow.sdk.coders.Coder;
@@ -34,10 +35,12 @@ import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
+import com.google.cloud.dataflow.sdk.runners.TransformTreeNode;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.transforms.Combine.KeyedCombineFn;
+import com.google.cloud.dataflow.sdk.transforms.Combine.PerKeyWithHotKeyFanout;
 import com.google.cloud.dataflow.sdk.transforms.windowing.AfterPane;
 import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
@@ -50,9 +53,11 @@ import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.PCollectionView;
+import com.google.cloud.dataflow.sdk.values.PValue;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -60,8 +65,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.hamcrest.Matchers;
 import org.joda.time.Duration;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -69,6 +76,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -84,6 +92,9 @@ public class CombineTest implements Serializable {
   // This test is Serializable, just so that it's easy to have
   // anonymous inner classes inside the non-static test methods.
 
+  @Rule
+  public transient ExpectedException expectedException = ExpectedException.none();
+
   @SuppressWarnings({"rawtypes", "unchecked"})
   static final KV<String, Integer>[] TABLE = new KV[] {
     KV.of("a", 1),
@@ -379,6 +390,102 @@ public class CombineTest implements Serializable {
     p.run();
   }
 
+  @Test
+  @Category(RunnableOnService.class)
+  public void testAdaptiveHotKeyCombining() throws Exception {
+    Pipeline p = TestPipeline.create();
+    // Key "a" has 90% of the elements, so it is spread among intermediate nodes, and each of
+    // the other keys has 0.1%.
+    List<KV<String, Integer>> table = new ArrayList<>();
+    int sumOfA = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (i % 10 == 0) {
+        table.add(KV.of("k" + (i % 1000), 1));
+      } else {
+        table.add(KV.of("a", i));
+        sumOfA += i;
+      }
+    }
+    PCollection<KV<String, Integer>> input = p.apply(Create.of(table).withCoder(
+        KvCoder.of(StringUtf8Coder.of(), BigEndianIntegerCoder.of())));
+
+    PCollection<KV<String, Integer>> adaptiveSum = input.apply("AdaptiveSum",
+        Sum.<String>integersPerKey().withAdaptiveHotKeyFanout());
+    PCollection<KV<String, Integer>> narrowSum = input.apply("NarrowSum",
+        Sum.<String>integersPerKey().withAdaptiveHotKeyFanout(0.5, 2));
+
+    List<KV<String, Integer>> expected = new ArrayList<>();
+    expected.add(KV.of("a", sumOfA));
+    for (int i = 0; i < 1000; i += 10) {
+      expected.add(KV.of("k" + i, 10));
+    }
+    DataflowAssert.that(adaptiveSum).containsInAnyOrder(expected);
+    DataflowAssert.that(narrowSum).containsInAnyOrder(expected);
+
+    PipelineResult result = p.run();
+
+    // Only key "a" is hot, and it is spread once the first 1000 elements have been seen.
+    List<Aggregator<?, ?>> hotKeys =
+        getAggregators(p, PerKeyWithHotKeyFanout.HOT_KEYS_AGGREGATOR);
+    assertEquals(2, hotKeys.size());
+    for (Aggregator<?, ?> aggregator : hotKeys) {
+      assertEquals(1L, getOnlyAggregatorValue(result, aggregator));
+    }
+    List<Aggregator<?, ?>> hotKeyElements =
+        getAggregators(p, PerKeyWithHotKeyFanout.HOT_KEY_ELEMENTS_AGGREGATOR);
+    assertEquals(2, hotKeyElements.size());
+    for (Aggregator<?, ?> aggregator : hotKeyElements) {
+      long elements = getOnlyAggregatorValue(result, aggregator);
+      assertThat(elements, Matchers.greaterThanOrEqualTo(9000L - 1000L));
+      assertThat(elements, Matchers.lessThanOrEqualTo(9000L));
+    }
+  }
+
+  /** Returns the aggregators of the {@link DoFn DoFns} in the pipeline with the given name. */
+  private static List<Aggregator<?, ?>> getAggregators(Pipeline p, final String name) {
+    final List<Aggregator<?, ?>> aggregators = new ArrayList<>();
+    p.traverseTopologically(new Pipeline.PipelineVisitor() {
+      @Override
+      public void enterCompositeTransform(TransformTreeNode node) {}
+
+      @Override
+      public void leaveCompositeTransform(TransformTreeNode node) {}
+
+      @Override
+      public void visitTransform(TransformTreeNode node) {
+        DoFn<?, ?> fn = null;
+        if (node.getTransform() instanceof ParDo.Bound) {
+          fn = ((ParDo.Bound<?, ?>) node.getTransform()).getFn();
+        } else if (node.getTransform() instanceof ParDo.BoundMulti) {
+          fn = ((ParDo.BoundMulti<?, ?>) node.getTransform()).getFn();
+        }
+        if (fn != null) {
+          for (Aggregator<?, ?> aggregator : fn.getAggregators()) {
+            if (aggregator.getName().equals(name)) {
+              aggregators.add(aggregator);
+            }
+          }
+        }
+      }
+
+      @Override
+      public void visitValue(PValue value, TransformTreeNode producer) {}
+    });
+    return aggregators;
+  }
+
+  private static long getOnlyAggregatorValue(PipelineResult result, Aggregator<?, ?> aggregator)
+      throws Exception {
+    return (Long) Iterables.getOnlyElement(result.getAggregatorValues(aggregator).getValues());
+  }
+
+  @Test
+  public void testAdaptiveHotKeyFanoutInvalidFraction() {
+    expectedException.expect(IllegalArgumentException.class);
+    expectedException.expectMessage("hotKeyFraction must be between 0 and 1");
+    Sum.<String>integersPerKey().withAdaptiveHotKeyFanout(0, 2);
+  }
+
   private static class GetLast extends DoFn<Integer, Integer> {
     @Override
     public void processElement(ProcessContext c) {
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static com.google.cloud.dataflow.sdk.TestUtils.KvMatcher.isKv;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.coders.DoubleCoder;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.OrderedLongCoder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
+import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
+import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollection;
+
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link GroupByKeyAndSortValues}.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings("unchecked")
+public class GroupByKeyAndSortValuesTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final List<KV<String, KV<Long, String>>> UNGROUPED = Arrays.asList(
+      KV.of("k1", KV.of(3L, "c")),
+      KV.of("k2", KV.of(1000L, "z")),
+      KV.of("k1", KV.of(-5L, "a")),
+      KV.of("k2", KV.of(-1000L, "x")),
+      KV.of("k1", KV.of(1L, "b")),
+      KV.of("k2", KV.of(0L, "y")),
+      KV.of("k3", KV.of(Long.MAX_VALUE, "q")));
+
+  private static final KvCoder<String, KV<Long, String>> INPUT_CODER =
+      KvCoder.of(StringUtf8Coder.of(), KvCoder.of(OrderedLongCoder.of(), StringUtf8Coder.of()));
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testGroupByKeyAndSortValues() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<KV<String, Iterable<KV<Long, String>>>> output = p
+        .apply(Create.of(UNGROUPED).withCoder(INPUT_CODER))
+        .apply(GroupByKeyAndSortValues.<String, Long, String>create());
+
+    DataflowAssert.that(output).satisfies(new AssertThatValuesAreSorted());
+
+    p.run();
+  }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testGroupByKeyAndSortValuesInWindows() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<KV<String, Iterable<KV<Long, String>>>> output = p
+        .apply(Create.timestamped(UNGROUPED, Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L))
+            .withCoder(INPUT_CODER))
+        .apply(Window.<KV<String, KV<Long, String>>>into(FixedWindows.of(new Duration(10))))
+        .apply(GroupByKeyAndSortValues.<String, Long, String>create());
+
+    DataflowAssert.that(output).satisfies(new AssertThatValuesAreSorted());
+
+    p.run();
+  }
+
+  static class AssertThatValuesAreSorted
+      implements SerializableFunction<Iterable<KV<String, Iterable<KV<Long, String>>>>, Void> {
+    @Override
+    public Void apply(Iterable<KV<String, Iterable<KV<Long, String>>>> actual) {
+      assertThat(actual, containsInAnyOrder(
+          isKv(is("k1"), contains(KV.of(-5L, "a"), KV.of(1L, "b"), KV.of(3L, "c"))),
+          isKv(is("k2"), contains(KV.of(-1000L, "x"), KV.of(0L, "y"), KV.of(1000L, "z"))),
+          isKv(is("k3"), contains(KV.of(Long.MAX_VALUE, "q")))));
+      return null;
+    }
+  }
+
+  @Test
+  public void testSecondaryKeyCoderMustBeDeterministic() {
+    Pipeline p = TestPipeline.create();
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage(
+        "the secondary keyCoder of a GroupByKeyAndSortValues must be deterministic");
+
+    p.apply(Create.of(KV.of("k", KV.of(1.0, "v")))
+            .withCoder(KvCoder.of(StringUtf8Coder.of(),
+                KvCoder.of(DoubleCoder.of(), StringUtf8Coder.of()))))
+        .apply(GroupByKeyAndSortValues.<String, Double, String>create());
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link HotKeySketch}.
+ */
+@RunWith(JUnit4.class)
+public class HotKeySketchTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testNoHotKeysBeforeMinElements() {
+    HotKeySketch<String> sketch = new HotKeySketch<>(0.01, 64);
+    for (int i = 0; i < HotKeySketch.MIN_ELEMENTS - 1; i++) {
+      assertEquals(1, sketch.add("a"));
+    }
+    assertTrue(sketch.getHotKeys().isEmpty());
+    assertEquals(64, sketch.add("a"));
+  }
+
+  @Test
+  public void testSkewedKeys() {
+    HotKeySketch<Integer> sketch = new HotKeySketch<>(0.01, 64);
+    // Key -1 has 20% of the elements, key -2 5%, and the others at most 0.1% each.
+    int lastFanoutOfMinusTwo = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (i % 5 == 0) {
+        sketch.add(-1);
+      } else if (i % 20 == 1) {
+        lastFanoutOfMinusTwo = sketch.add(-2);
+      } else {
+        assertEquals(1, sketch.add(i % 1000));
+      }
+    }
+    Map<Integer, Integer> hotKeys = sketch.getHotKeys();
+    assertEquals(2, hotKeys.size());
+    // Each key is spread so that each shard gets about 1% of the elements, less the
+    // underestimate of its count.
+    assertTrue(hotKeys.get(-1) >= 15 && hotKeys.get(-1) <= 20);
+    assertTrue(hotKeys.get(-2) >= 2 && hotKeys.get(-2) <= 5);
+    assertEquals((int) hotKeys.get(-2), lastFanoutOfMinusTwo);
+  }
+
+  @Test
+  public void testWeightedSamples() {
+    HotKeySketch<Integer> sketch = new HotKeySketch<>(0.01, 64);
+    // Every eighth element of the stream of testSkewedKeys, added with weight 8.
+    Random random = new Random(17);
+    for (int i = 0; i < 100000; i++) {
+      if (random.nextInt(8) == 0) {
+        sketch.add(i % 5 == 0 ? -1 : i % 20 == 1 ? -2 : i % 1000, 8);
+      }
+    }
+    Map<Integer, Integer> hotKeys = sketch.getHotKeys();
+    assertEquals(ImmutableSet.of(-1, -2), hotKeys.keySet());
+    assertTrue(hotKeys.get(-1) >= 15 && hotKeys.get(-1) <= 21);
+    assertTrue(hotKeys.get(-2) >= 2 && hotKeys.get(-2) <= 6);
+  }
+
+  @Test
+  public void testMaxFanout() {
+    HotKeySketch<String> sketch = new HotKeySketch<>(0.1, 3);
+    for (int i = 0; i < 2 * HotKeySketch.MIN_ELEMENTS; i++) {
+      sketch.add(i % 2 == 0 ? "a" : "b");
+    }
+    assertEquals(ImmutableMap.of("a", 3, "b", 3), sketch.getHotKeys());
+  }
+
+  @Test
+  public void testHotKeyCoolsDown() {
+    HotKeySketch<Long> sketch = new HotKeySketch<>(0.01, 64);
+    for (long i = 0; i < 10000; i++) {
+      sketch.add(-1L);
+    }
+    assertEquals(ImmutableMap.of(-1L, 64), sketch.getHotKeys());
+    for (long i = 0; i < 2 * HotKeySketch.DECAY_ELEMENTS; i++) {
+      sketch.add(i);
+    }
+    assertTrue(sketch.getTotalCount() <= HotKeySketch.DECAY_ELEMENTS);
+    assertEquals(1, sketch.add(-1L));
+  }
+
+  @Test
+  public void testInvalidHotKeyFraction() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("hotKeyFraction must be between 0 and 1");
+    new HotKeySketch<String>(1.0, 64);
+  }
+
+  @Test
+  public void testInvalidMaxFanout() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("maxFanout must be at least 2");
+    new HotKeySketch<String>(0.01, 1);
+  }
+}
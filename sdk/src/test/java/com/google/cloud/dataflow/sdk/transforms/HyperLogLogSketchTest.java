@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.transforms.HyperLogLogSketch.HyperLogLogSketchCoder;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.hash.Hashing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link HyperLogLogSketch}.
+ */
+@RunWith(JUnit4.class)
+public class HyperLogLogSketchTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static long hash(long value) {
+    return Hashing.murmur3_128().hashLong(value).asLong();
+  }
+
+  private static HyperLogLogSketch sketchOf(int precision, long from, long to) {
+    HyperLogLogSketch sketch = HyperLogLogSketch.create(precision);
+    for (long i = from; i < to; i++) {
+      sketch.addHash(hash(i));
+    }
+    return sketch;
+  }
+
+  private static void assertEstimate(long expected, HyperLogLogSketch sketch) {
+    // Allow four standard errors.
+    double maxError = 4 * 1.04 / Math.sqrt(1 << sketch.getPrecision());
+    long estimate = sketch.estimate();
+    assertTrue("Estimate=" + estimate + " Actual=" + expected,
+        Math.abs(estimate - expected) <= maxError * expected);
+  }
+
+  @Test
+  public void testEmpty() {
+    HyperLogLogSketch sketch = HyperLogLogSketch.create(12);
+    assertTrue(sketch.isSparse());
+    assertEquals(0, sketch.estimate());
+  }
+
+  @Test
+  public void testSparseIsExactForSmallSets() {
+    HyperLogLogSketch sketch = sketchOf(14, 0, 500);
+    // Adding the same hashes again does not change the estimate.
+    sketch.merge(sketchOf(14, 0, 500));
+    assertTrue(sketch.isSparse());
+    assertEquals(500, sketch.estimate());
+  }
+
+  @Test
+  public void testSparseToDense() {
+    HyperLogLogSketch sketch = sketchOf(10, 0, 100);
+    assertTrue(sketch.isSparse());
+    for (long i = 100; i < 100000; i++) {
+      sketch.addHash(hash(i));
+    }
+    assertFalse(sketch.isSparse());
+    assertEstimate(100000, sketch);
+  }
+
+  @Test
+  public void testAccuracyAcrossCardinalities() {
+    for (int precision : new int[] {4, 10, 14}) {
+      for (long cardinality : new long[] {10, 1000, 50000, 1000000}) {
+        HyperLogLogSketch sketch = sketchOf(precision, 0, cardinality);
+        assertEstimate(cardinality, sketch);
+      }
+    }
+  }
+
+  @Test
+  public void testMergeEqualsUnion() {
+    for (long split : new long[] {10, 3000, 20000}) {
+      HyperLogLogSketch union = sketchOf(12, 0, 30000);
+      HyperLogLogSketch left = sketchOf(12, 0, split);
+      HyperLogLogSketch right = sketchOf(12, split / 2, 30000);
+      assertEquals(union, left.merge(right));
+      assertEquals(union.estimate(), left.estimate());
+    }
+  }
+
+  @Test
+  public void testMergeSparseIntoDense() {
+    HyperLogLogSketch dense = sketchOf(8, 0, 5000);
+    assertFalse(dense.isSparse());
+    dense.merge(sketchOf(8, 5000, 5010));
+    assertEquals(sketchOf(8, 0, 5010), dense);
+  }
+
+  @Test
+  public void testMergeDifferentPrecisions() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("precision 10 into one with precision 12");
+    HyperLogLogSketch.create(12).merge(HyperLogLogSketch.create(10));
+  }
+
+  @Test
+  public void testInvalidPrecision() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("between 4 and 18, not 19");
+    HyperLogLogSketch.create(19);
+  }
+
+  @Test
+  public void testPrecisionForEstimationError() {
+    assertEquals(14, HyperLogLogSketch.precisionForEstimationError(0.01));
+    assertEquals(4, HyperLogLogSketch.precisionForEstimationError(0.5));
+  }
+
+  @Test
+  public void testCoder() throws Exception {
+    HyperLogLogSketchCoder coder = HyperLogLogSketch.getCoder();
+    for (HyperLogLogSketch sketch : new HyperLogLogSketch[] {
+        HyperLogLogSketch.create(12), sketchOf(12, 0, 100), sketchOf(12, 0, 10000)}) {
+      CoderProperties.coderDecodeEncodeEqual(coder, sketch);
+    }
+    CoderProperties.coderDeterministic(coder, sketchOf(12, 0, 100), sketchOf(12, 0, 100));
+    CoderProperties.coderSerializable(coder);
+  }
+
+  @Test
+  public void testCoderIsCompact() throws Exception {
+    HyperLogLogSketchCoder coder = HyperLogLogSketch.getCoder();
+    // Sparse entries are encoded as deltas of a few bytes each.
+    assertTrue(CoderUtils.encodeToByteArray(coder, sketchOf(14, 0, 100)).length < 400);
+    // Dense sketches take a byte per register.
+    assertEquals(2 + (1 << 10),
+        CoderUtils.encodeToByteArray(coder, sketchOf(10, 0, 100000)).length);
+  }
+}
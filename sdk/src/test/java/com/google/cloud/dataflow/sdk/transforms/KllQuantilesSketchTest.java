@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.transforms.KllQuantilesSketch.KllQuantilesSketchCoder;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link KllQuantilesSketch}.
+ */
+@RunWith(JUnit4.class)
+public class KllQuantilesSketchTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static KllQuantilesSketch sketchOf(int k, long from, long to) {
+    KllQuantilesSketch sketch = KllQuantilesSketch.create(k);
+    for (long i = from; i < to; i++) {
+      sketch.add(i);
+    }
+    return sketch;
+  }
+
+  /**
+   * Checks that each quantile of the permutation {@code [0, n)} is within
+   * a few times the normalized rank error of its exact rank.
+   */
+  private static void assertRankError(long n, KllQuantilesSketch sketch, int numQuantiles) {
+    long[] quantiles = sketch.getQuantiles(numQuantiles);
+    assertEquals(numQuantiles, quantiles.length);
+    assertEquals(0, quantiles[0]);
+    assertEquals(n - 1, quantiles[numQuantiles - 1]);
+    double maxError = 2 * KllQuantilesSketch.getNormalizedRankError(sketch.getK()) * n;
+    for (int i = 1; i < numQuantiles - 1; i++) {
+      double expected = (double) i * (n - 1) / (numQuantiles - 1);
+      assertTrue("Quantile " + i + "=" + quantiles[i] + " Expected=" + expected,
+          Math.abs(quantiles[i] - expected) <= maxError);
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    KllQuantilesSketch sketch = KllQuantilesSketch.create(KllQuantilesSketch.DEFAULT_K);
+    assertEquals(0, sketch.getCount());
+    assertEquals(0, sketch.getQuantiles(5).length);
+  }
+
+  @Test
+  public void testSmallIsExact() {
+    KllQuantilesSketch sketch = sketchOf(KllQuantilesSketch.DEFAULT_K, 0, 101);
+    assertArrayEquals(new long[] {0, 25, 50, 75, 100}, sketch.getQuantiles(5));
+  }
+
+  @Test
+  public void testRankError() {
+    int n = 100000;
+    long[] values = new long[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = i;
+    }
+    Random random = new Random(0);
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      long tmp = values[i];
+      values[i] = values[j];
+      values[j] = tmp;
+    }
+    KllQuantilesSketch sketch = KllQuantilesSketch.create(KllQuantilesSketch.DEFAULT_K);
+    for (long value : values) {
+      sketch.add(value);
+    }
+    assertEquals(n, sketch.getCount());
+    assertTrue(sketch.getRetained() < n / 20);
+    assertRankError(n, sketch, 101);
+  }
+
+  @Test
+  public void testSortedInput() {
+    assertRankError(50000, sketchOf(KllQuantilesSketch.DEFAULT_K, 0, 50000), 11);
+  }
+
+  @Test
+  public void testMerge() {
+    KllQuantilesSketch sketch = KllQuantilesSketch.create(KllQuantilesSketch.DEFAULT_K);
+    for (int i = 0; i < 10; i++) {
+      sketch.merge(sketchOf(KllQuantilesSketch.DEFAULT_K, i * 10000, (i + 1) * 10000));
+    }
+    assertEquals(100000, sketch.getCount());
+    assertEquals(0, sketch.getMin());
+    assertEquals(99999, sketch.getMax());
+    assertRankError(100000, sketch, 21);
+  }
+
+  @Test
+  public void testMergeEmpty() {
+    KllQuantilesSketch sketch = sketchOf(KllQuantilesSketch.DEFAULT_K, 0, 101);
+    sketch.merge(KllQuantilesSketch.create(KllQuantilesSketch.DEFAULT_K));
+    assertArrayEquals(new long[] {0, 25, 50, 75, 100}, sketch.getQuantiles(5));
+  }
+
+  @Test
+  public void testMergeMismatchedK() {
+    thrown.expect(IllegalArgumentException.class);
+    KllQuantilesSketch.create(100).merge(KllQuantilesSketch.create(200));
+  }
+
+  @Test
+  public void testInvalidK() {
+    thrown.expect(IllegalArgumentException.class);
+    KllQuantilesSketch.create(1);
+  }
+
+  @Test
+  public void testNormalizedRankError() {
+    int k = KllQuantilesSketch.kForNormalizedRankError(0.01);
+    assertTrue(KllQuantilesSketch.getNormalizedRankError(k) <= 0.01);
+    assertTrue(KllQuantilesSketch.getNormalizedRankError(k - 1) > 0.01);
+  }
+
+  @Test
+  public void testSortableDoubles() {
+    double[] values = {
+        Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5, -Double.MIN_VALUE, -0.0, 0.0,
+        Double.MIN_VALUE, 1.0, 1.5, Double.MAX_VALUE, Double.POSITIVE_INFINITY};
+    long[] sortable = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      sortable[i] = KllQuantilesSketch.doubleToSortableLong(values[i]);
+      assertEquals(Double.doubleToRawLongBits(values[i]),
+          Double.doubleToRawLongBits(KllQuantilesSketch.sortableLongToDouble(sortable[i])));
+    }
+    long[] sorted = sortable.clone();
+    Arrays.sort(sorted);
+    assertArrayEquals(sortable, sorted);
+  }
+
+  @Test
+  public void testCoder() throws Exception {
+    KllQuantilesSketchCoder coder = KllQuantilesSketch.getCoder();
+    KllQuantilesSketch[] sketches = {
+        KllQuantilesSketch.create(KllQuantilesSketch.DEFAULT_K),
+        sketchOf(KllQuantilesSketch.DEFAULT_K, -50, 50),
+        sketchOf(64, Long.MAX_VALUE - 10000, Long.MAX_VALUE),
+        sketchOf(KllQuantilesSketch.DEFAULT_K, 0, 100000)};
+    for (KllQuantilesSketch sketch : sketches) {
+      KllQuantilesSketch decoded =
+          CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, sketch));
+      assertEquals(sketch.getK(), decoded.getK());
+      assertEquals(sketch.getCount(), decoded.getCount());
+      assertEquals(sketch.getRetained(), decoded.getRetained());
+      assertArrayEquals(sketch.getQuantiles(11), decoded.getQuantiles(11));
+    }
+    CoderProperties.coderSerializable(coder);
+  }
+
+  @Test
+  public void testCoderIsCompact() throws Exception {
+    KllQuantilesSketch sketch = sketchOf(KllQuantilesSketch.DEFAULT_K, 0, 100000);
+    byte[] encoded = CoderUtils.encodeToByteArray(KllQuantilesSketch.getCoder(), sketch);
+    // Sorted values are delta encoded, so take well under eight bytes each.
+    assertTrue(encoded.length < 4 * sketch.getRetained());
+  }
+}
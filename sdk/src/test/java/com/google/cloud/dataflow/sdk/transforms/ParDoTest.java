@@ -34,6 +34,8 @@ import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.ListCoder;
 import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions.MutationDetectionLevel;
 import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
@@ -1515,4 +1517,57 @@ public class ParDoTest implements Serializable {
     thrown.expectMessage("must not be mutated");
     pipeline.run();
   }
+
+  /**
+   * Tests that a {@link DoFn} that mutates its input is not checked when mutation detection is
+   * disabled.
+   */
+  @Test
+  public void testMutatingInputWithMutationDetectionDisabled() throws Exception {
+    Pipeline pipeline = TestPipeline.create();
+    pipeline.getOptions().as(DirectPipelineOptions.class)
+        .setMutationDetectionLevel(MutationDetectionLevel.NONE);
+
+    pipeline
+        .apply(Create.of(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6))
+            .withCoder(ListCoder.of(VarIntCoder.of())))
+        .apply(ParDo.of(new DoFn<List<Integer>, Integer>() {
+          @Override public void processElement(ProcessContext c) {
+            List<Integer> inputList = c.element();
+            inputList.set(0, 37);
+            c.output(12);
+          }
+        }));
+
+    pipeline.run();
+  }
+
+  /**
+   * Tests that only the first inputs of a step are checked for mutations with
+   * {@link MutationDetectionLevel#FIRST_N}.
+   */
+  @Test
+  public void testMutationDetectionChecksFirstInputs() throws Exception {
+    Pipeline pipeline = TestPipeline.create();
+    DirectPipelineOptions options = pipeline.getOptions().as(DirectPipelineOptions.class);
+    options.setMutationDetectionLevel(MutationDetectionLevel.FIRST_N);
+    options.setMutationDetectionElementsPerStep(1);
+
+    pipeline
+        .apply(Create.of(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6))
+            .withCoder(ListCoder.of(VarIntCoder.of())))
+        .apply(ParDo.of(new DoFn<List<Integer>, Integer>() {
+          private int processed = 0;
+
+          @Override public void processElement(ProcessContext c) {
+            if (processed++ > 0) {
+              c.element().set(0, 37);
+            }
+            c.output(12);
+          }
+        }));
+
+    // Only the unmodified first input is checked.
+    pipeline.run();
+  }
 }
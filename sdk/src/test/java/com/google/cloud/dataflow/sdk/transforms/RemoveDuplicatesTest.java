@@ -24,14 +24,21 @@ import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.TimestampedValue;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
 
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -128,4 +135,73 @@ public class RemoveDuplicatesTest {
 
     p.run();
   }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testRemoveDuplicatesWithBloomFilter() {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      strings.add("k" + (i % 100));
+    }
+
+    Pipeline p = TestPipeline.create();
+
+    PCollection<String> output =
+        p.apply(Create.of(strings).withCoder(StringUtf8Coder.of()))
+        .apply(RemoveDuplicates.<String>withBloomFilter().withFalsePositiveProbability(1e-9));
+
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      expected.add("k" + i);
+    }
+    DataflowAssert.that(output).containsInAnyOrder(expected);
+    p.run();
+  }
+
+  @Test
+  @Category(RunnableOnService.class)
+  public void testRemoveDuplicatesWithBloomFilterWindowed() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<String> output =
+        p.apply(Create.timestamped(
+            TimestampedValue.of("k1", new Instant(0)),
+            TimestampedValue.of("k1", new Instant(1)),
+            TimestampedValue.of("k2", new Instant(2)),
+            TimestampedValue.of("k1", new Instant(10)),
+            TimestampedValue.of("k2", new Instant(11)),
+            TimestampedValue.of("k2", new Instant(12))))
+        .apply(Window.<String>into(FixedWindows.of(Duration.millis(10))))
+        .apply(RemoveDuplicates.<String>withBloomFilter());
+
+    DataflowAssert.that(output).containsInAnyOrder("k1", "k2", "k1", "k2");
+    p.run();
+  }
+
+  @Test
+  public void testRemoveDuplicatesWithBloomFilterOverBudget() {
+    Pipeline p = TestPipeline.create();
+
+    // A budget too small for any filter only lets more duplicates reach the shuffle.
+    PCollection<String> output =
+        p.apply(Create.of("k1", "k2", "k1", "k3", "k2").withCoder(StringUtf8Coder.of()))
+        .apply(RemoveDuplicates.<String>withBloomFilter().withMaxBloomFilterBytes(1));
+
+    DataflowAssert.that(output).containsInAnyOrder("k1", "k2", "k3");
+    p.run();
+  }
+
+  @Test
+  public void testWithBloomFilterSettings() {
+    RemoveDuplicates.WithBloomFilter<String> transform = RemoveDuplicates.<String>withBloomFilter()
+        .withFalsePositiveProbability(0.01)
+        .withMaxBloomFilterBytes(1024);
+    assertEquals(0.01, transform.getFalsePositiveProbability(), 0.0);
+    assertEquals(1024, transform.getMaxBloomFilterBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWithBloomFilterInvalidFalsePositiveProbability() {
+    RemoveDuplicates.<String>withBloomFilter().withFalsePositiveProbability(1.0);
+  }
 }
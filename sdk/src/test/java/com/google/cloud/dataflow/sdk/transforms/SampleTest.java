@@ -28,6 +28,7 @@ import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PCollectionList;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 
@@ -253,6 +254,41 @@ public class SampleTest {
     runPickAnyTest(NO_LINES, 1);
   }
 
+  @Test
+  public void testSampleWithFanout() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<Integer> input = p.apply(Create.of(REPEATED_DATA)
+        .withCoder(BigEndianIntegerCoder.of()));
+    PCollection<Iterable<Integer>> output = input.apply(
+        Sample.<Integer>fixedSizeGlobally(3).withFanout(4));
+
+    DataflowAssert.thatSingleton(output)
+        .satisfies(new VerifyCorrectSample<>(3, REPEATED_DATA));
+    p.run();
+  }
+
+  @Test
+  public void testPickAnyAcrossBundles() {
+    Pipeline p = TestPipeline.create();
+
+    List<String> otherLines = new ArrayList<>();
+    for (String line : LINES) {
+      otherLines.add(line + "!");
+    }
+    PCollection<String> input = PCollectionList
+        .of(p.apply("CreateFirst", Create.of(LINES)))
+        .and(p.apply("CreateSecond", Create.of(otherLines)))
+        .apply(Flatten.<String>pCollections());
+    List<String> lines = new ArrayList<>(LINES);
+    lines.addAll(otherLines);
+
+    int limit = LINES.size() + 1;
+    DataflowAssert.that(input.apply(Sample.<String>any(limit)))
+        .satisfies(new VerifyAnySample(lines, limit));
+    p.run();
+  }
+
   @Test
   public void testSampleGetName() {
     assertEquals("Sample.SampleAny", Sample.<String>any(1).getName());
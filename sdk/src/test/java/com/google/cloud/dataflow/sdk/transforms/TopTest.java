@@ -16,19 +16,26 @@
 
 package com.google.cloud.dataflow.sdk.transforms;
 
+import static com.google.cloud.dataflow.sdk.TestUtils.checkCombineFn;
 import static org.junit.Assert.assertEquals;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.BigEndianIntegerCoder;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarLongCoder;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
 import com.google.cloud.dataflow.sdk.transforms.windowing.Window.Bound;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.common.collect.Lists;
 
 import org.hamcrest.Matchers;
 import org.joda.time.Duration;
@@ -39,10 +46,12 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 /** Tests for Top. */
 @RunWith(JUnit4.class)
@@ -256,4 +265,154 @@ public class TopTest {
       return o1.compareTo(o2);
     }
   }
+
+  @Test
+  public void testTopLongs() {
+    Random random = new Random(0);
+    List<Long> input = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      input.add(random.nextBoolean() ? random.nextLong() : (long) random.nextInt(100) - 50);
+    }
+    input.addAll(Arrays.asList(Long.MIN_VALUE, Long.MAX_VALUE, 0L, 0L));
+    List<Long> sorted = new ArrayList<>(input);
+    Collections.sort(sorted);
+
+    for (int count : new int[] {0, 1, 10, 2000}) {
+      int n = Math.min(count, sorted.size());
+      checkCombineFn(Top.TopLongsCombineFn.smallest(count), input, sorted.subList(0, n));
+      checkCombineFn(Top.TopLongsCombineFn.largest(count), input,
+          Lists.reverse(sorted).subList(0, n));
+    }
+  }
+
+  @Test
+  public void testTopDoubles() {
+    List<Double> input = Arrays.asList(
+        1.5, -0.0, Double.NaN, Double.NEGATIVE_INFINITY, 0.0, -1.5, Double.MAX_VALUE,
+        -Double.MIN_VALUE, Double.POSITIVE_INFINITY, 1.5, -Double.MAX_VALUE);
+    List<Double> sorted = new ArrayList<>(input);
+    Collections.sort(sorted);
+
+    for (int count : new int[] {1, 5, 11}) {
+      checkCombineFn(Top.TopDoublesCombineFn.smallest(count), input, sorted.subList(0, count));
+      checkCombineFn(Top.TopDoublesCombineFn.largest(count), input,
+          Lists.reverse(sorted).subList(0, count));
+    }
+  }
+
+  @Test
+  public void testTopEncoded() {
+    Random random = new Random(0);
+    List<String> input = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      input.add(Integer.toString(random.nextInt(), 36));
+    }
+    input.add("");
+    List<String> sorted = new ArrayList<>(input);
+    Collections.sort(sorted);
+
+    for (int count : new int[] {0, 1, 20, 600}) {
+      int n = Math.min(count, sorted.size());
+      checkCombineFn(Top.TopEncodedCombineFn.smallest(count, StringUtf8Coder.of()), input,
+          sorted.subList(0, n));
+      checkCombineFn(Top.TopEncodedCombineFn.largest(count, StringUtf8Coder.of()), input,
+          Lists.reverse(sorted).subList(0, n));
+    }
+  }
+
+  @Test
+  public void testTopEncodedPrefixes() {
+    // Encodings that are prefixes of, or equal to, the least preferred one of a full heap.
+    List<String> input = Arrays.asList("ab", "a", "abc", "", "ab", "b", "abc", "a");
+    List<String> sorted = new ArrayList<>(input);
+    Collections.sort(sorted);
+
+    for (int count = 1; count <= input.size(); count++) {
+      checkCombineFn(Top.TopEncodedCombineFn.smallest(count, StringUtf8Coder.of()), input,
+          sorted.subList(0, count));
+      checkCombineFn(Top.TopEncodedCombineFn.largest(count, StringUtf8Coder.of()), input,
+          Lists.reverse(sorted).subList(0, count));
+    }
+  }
+
+  @Test
+  public void testTopAccumulatorCoders() throws Exception {
+    CoderRegistry registry = new CoderRegistry();
+    registry.registerStandardCoders();
+
+    Top.TopLongsCombineFn longsFn = Top.TopLongsCombineFn.smallest(5);
+    Top.LongBoundedHeap longs = longsFn.createAccumulator();
+    for (long value : new long[] {7, Long.MIN_VALUE, -3, Long.MAX_VALUE, 12, 0, -3}) {
+      longsFn.addInput(longs, value);
+    }
+    Coder<Top.LongBoundedHeap> longsCoder =
+        longsFn.getAccumulatorCoder(registry, VarLongCoder.of());
+    assertEquals(Arrays.asList(Long.MIN_VALUE, -3L, -3L, 0L, 7L),
+        longsFn.extractOutput(CoderUtils.clone(longsCoder, longs)));
+    CoderProperties.coderSerializable(longsCoder);
+
+    Top.TopEncodedCombineFn<String> stringsFn =
+        Top.TopEncodedCombineFn.largest(3, StringUtf8Coder.of());
+    Top.EncodedBoundedHeap strings = stringsFn.createAccumulator();
+    for (String value : COLLECTION) {
+      stringsFn.addInput(strings, value);
+    }
+    Coder<Top.EncodedBoundedHeap> stringsCoder =
+        stringsFn.getAccumulatorCoder(registry, StringUtf8Coder.of());
+    Top.EncodedBoundedHeap decoded = CoderUtils.clone(stringsCoder, strings);
+    stringsFn.addInput(decoded, "d");
+    assertEquals(Arrays.asList("z", "d", "c"), stringsFn.extractOutput(decoded));
+    CoderProperties.coderSerializable(stringsCoder);
+  }
+
+  @Test
+  public void testTopDecodedEmptyAccumulators() throws Exception {
+    CoderRegistry registry = new CoderRegistry();
+    registry.registerStandardCoders();
+
+    Top.TopLongsCombineFn longsFn = Top.TopLongsCombineFn.largest(20);
+    Coder<Top.LongBoundedHeap> longsCoder =
+        longsFn.getAccumulatorCoder(registry, VarLongCoder.of());
+    Top.LongBoundedHeap longs = CoderUtils.clone(longsCoder, longsFn.createAccumulator());
+    for (long value = 0; value < 30; value++) {
+      longsFn.addInput(longs, value);
+    }
+    assertEquals(29L, (long) longsFn.extractOutput(longs).get(0));
+    assertEquals(20, longsFn.extractOutput(longs).size());
+
+    Top.TopEncodedCombineFn<String> stringsFn =
+        Top.TopEncodedCombineFn.smallest(20, StringUtf8Coder.of());
+    Coder<Top.EncodedBoundedHeap> stringsCoder =
+        stringsFn.getAccumulatorCoder(registry, StringUtf8Coder.of());
+    Top.EncodedBoundedHeap strings =
+        CoderUtils.clone(stringsCoder, stringsFn.createAccumulator());
+    stringsFn.addInput(strings, "b");
+    stringsFn.addInput(strings, "a");
+    assertEquals(Arrays.asList("a", "b"), stringsFn.extractOutput(strings));
+  }
+
+  @Test
+  public void testTopPrimitiveAndEncodedTransforms() {
+    Pipeline p = TestPipeline.create();
+
+    PCollection<Long> longs = p.apply("CreateLongs", Create.of(5L, -2L, 9L, 3L, -7L));
+    DataflowAssert.that(longs.apply(Top.largestLongs(2)))
+        .containsInAnyOrder(Arrays.asList(9L, 5L));
+    DataflowAssert.that(longs.apply(Top.smallestLongs(2)))
+        .containsInAnyOrder(Arrays.asList(-7L, -2L));
+
+    PCollection<Double> doubles = p.apply("CreateDoubles", Create.of(0.5, -2.5, 1e9));
+    DataflowAssert.that(doubles.apply(Top.largestDoubles(1)))
+        .containsInAnyOrder(Arrays.asList(1e9));
+    DataflowAssert.that(doubles.apply(Top.smallestDoubles(1)))
+        .containsInAnyOrder(Arrays.asList(-2.5));
+
+    PCollection<String> strings = p.apply("CreateStrings", Create.of(Arrays.asList(COLLECTION))
+        .withCoder(StringUtf8Coder.of()));
+    DataflowAssert.that(strings.apply(Top.largestByEncoding(2, StringUtf8Coder.of())))
+        .containsInAnyOrder(Arrays.asList("z", "c"));
+    DataflowAssert.that(strings.apply(Top.smallestByEncoding(2, StringUtf8Coder.of())))
+        .containsInAnyOrder(Arrays.asList("a", "bb"));
+    p.run();
+  }
 }
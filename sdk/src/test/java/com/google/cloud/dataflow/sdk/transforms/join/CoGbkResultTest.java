@@ -21,16 +21,25 @@ import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.transforms.join.CoGbkResult.CoGbkResultCoder;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.common.Reiterable;
 import com.google.cloud.dataflow.sdk.util.common.Reiterator;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.cloud.dataflow.sdk.values.TupleTagList;
+import com.google.common.collect.Iterables;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -38,6 +47,11 @@ import java.util.List;
  */
 @RunWith(JUnit4.class)
 public class CoGbkResultTest {
+  // Each value is encoded as a single byte.
+  private static final UnionCoder UNION_CODER =
+      UnionCoder.of(Collections.<Coder<?>>nCopies(5, VarIntCoder.of()));
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
 
   @Test
   public void testLazyResults() {
@@ -60,6 +74,59 @@ public class CoGbkResultTest {
     assertThat(result.getAll(new TupleTag<Integer>("tag0")), contains(0, 2, 4));
   }
 
+  @Test
+  public void testSpilledResults() throws Exception {
+    runSpilledResult(0, 0, 7);
+    runSpilledResult(0, 2, 5);
+    runSpilledResult(0, 1000, 0);
+    runSpilledResult(3, 0, 4);
+    runSpilledResult(3, 2, 2);
+    runSpilledResult(10, 0, 0);
+  }
+
+  public void runSpilledResult(
+      int inMemoryElementCount, long inMemoryByteBudget, long expectedSpilledBytes)
+      throws Exception {
+    TestUnionValues values = new TestUnionValues(0, 1, 0, 3, 0, 3, 3);
+    CoGbkResult result = new CoGbkResult(
+        createSchema(5), values, UNION_CODER, inMemoryElementCount, inMemoryByteBudget);
+    assertThat(result.getSpilledBytes(), equalTo(expectedSpilledBytes));
+    for (int i = 0; i < 2; i++) {
+      assertThat(result.getAll(new TupleTag<Integer>("tag0")), contains(0, 2, 4));
+      assertThat(result.getAll(new TupleTag<Integer>("tag3")), contains(3, 5, 6));
+      assertThat(result.getAll(new TupleTag<Integer>("tag2")), emptyIterable());
+      assertThat(result.getOnly(new TupleTag<Integer>("tag1")), equalTo(1));
+    }
+
+    CoGbkResultCoder coder = CoGbkResultCoder.of(createSchema(5), UNION_CODER);
+    CoGbkResult decoded = CoderUtils.clone(coder, result);
+    assertThat(decoded.getAll(new TupleTag<Integer>("tag3")), contains(3, 5, 6));
+    result.close();
+  }
+
+  @Test
+  public void testCollectionIsNotSpilled() {
+    List<RawUnionValue> values = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      values.add(new RawUnionValue(0, i));
+    }
+    CoGbkResult result = new CoGbkResult(createSchema(1), values, UNION_CODER, 0, 0);
+    assertThat(result.getSpilledBytes(), equalTo(0L));
+    assertThat(result.getAll(new TupleTag<Integer>("tag0")), contains(0, 1, 2));
+  }
+
+  @Test
+  public void testSpilledValuesCannotBeReadAfterClose() {
+    CoGbkResult result = new CoGbkResult(
+        createSchema(5), new TestUnionValues(0, 1, 0), UNION_CODER, 0, 0);
+    Iterator<Integer> partiallyRead = result.getAll(new TupleTag<Integer>("tag0")).iterator();
+    assertThat(partiallyRead.next(), equalTo(0));
+    result.close();
+
+    thrown.expect(IllegalStateException.class);
+    Iterables.size(result.getAll(new TupleTag<Integer>("tag0")));
+  }
+
   private CoGbkResultSchema createSchema(int size) {
     List<TupleTag<?>> tags = new ArrayList<>();
     for (int i = 0; i < size; i++) {
@@ -29,6 +29,8 @@ import com.google.cloud.dataflow.sdk.coders.Coder.Context;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.OrderedLongCoder;
+import com.google.cloud.dataflow.sdk.coders.OrderedStringUtf8Coder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.coders.VoidCoder;
 import com.google.cloud.dataflow.sdk.testing.CoderPropertiesTest.ClosingCoder;
@@ -185,6 +187,21 @@ public class CoderUtilsTest {
     }
   }
 
+  @Test
+  public void testIsOrderPreserving() throws Exception {
+    Assert.assertTrue(CoderUtils.isOrderPreserving(
+        KvCoder.of(OrderedLongCoder.of(), OrderedStringUtf8Coder.of())));
+    Assert.assertFalse(CoderUtils.isOrderPreserving(
+        KvCoder.of(OrderedLongCoder.of(), StringUtf8Coder.of())));
+    // A Coder that does not extend StandardCoder, whose nested values are never
+    // considered order-preserving.
+    @SuppressWarnings("unchecked")
+    Coder<String> customCoder = mock(Coder.class);
+    Assert.assertFalse(CoderUtils.isOrderPreserving(customCoder));
+    Assert.assertFalse(CoderUtils.isOrderPreserving(
+        KvCoder.of(OrderedLongCoder.of(), customCoder)));
+  }
+
   @Test
   public void testClosingCoderFailsWhenDecodingBase64() throws Exception {
     expectedException.expect(UnsupportedOperationException.class);
@@ -36,6 +36,21 @@ public class ExposedByteArrayOutputStreamTest {
   private ExposedByteArrayOutputStream exposedStream = new ExposedByteArrayOutputStream();
   private ByteArrayOutputStream stream = new ByteArrayOutputStream();
 
+  @Test
+  public void testDirectWriteAfterWriteAndOwn() throws IOException {
+    exposedStream.writeAndOwn(TEST_DATA);
+    byte[] buf = exposedStream.reserve(100);
+    assertNotSame(TEST_DATA, buf);
+    assertEquals(TEST_DATA.length, exposedStream.position());
+    buf[exposedStream.position()] = '?';
+    exposedStream.advance(1);
+
+    stream.write(TEST_DATA);
+    stream.write('?');
+    assertStreamContentsEquals(stream, exposedStream);
+    assertEquals("Hello World!", new String(TEST_DATA));
+  }
+
   @Test
   public void testNoWrite() {
     assertStreamContentsEquals(stream, exposedStream);
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link KeyAffinityQueue}.
+ */
+@RunWith(JUnit4.class)
+public class KeyAffinityQueueTest {
+  private static class KeyedTask implements KeyAffinityQueue.KeyedRunnable {
+    private final Object key;
+
+    KeyedTask(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public Object getAffinityKey() {
+      return key;
+    }
+
+    @Override
+    public void run() {}
+  }
+
+  @Test
+  public void testSameKeyUsesSameLane() throws Exception {
+    KeyAffinityQueue queue = new KeyAffinityQueue(4);
+    int lane = queue.laneForKey("a");
+    queue.offer(new KeyedTask("a"));
+    queue.offer(new KeyedTask("a"));
+    queue.offer(new KeyedTask("a"));
+    assertEquals(3, queue.getLaneSize(lane));
+    assertEquals(3, queue.size());
+  }
+
+  @Test
+  public void testThreadPrefersItsLaneAndStealsWhenIdle() throws Exception {
+    KeyAffinityQueue queue = new KeyAffinityQueue(1);
+    KeyedTask first = new KeyedTask("a");
+    KeyedTask second = new KeyedTask("b");
+    queue.offer(first);
+    queue.offer(second);
+    assertSame(first, queue.poll());
+    assertSame(second, queue.poll());
+    assertNull(queue.poll());
+    assertEquals(0, queue.getLaneStolenCount(0));
+
+    // With two lanes, the first polling thread is bound to lane 0 and steals from lane 1.
+    queue = new KeyAffinityQueue(2);
+    int key0 = 0;
+    while (queue.laneForKey(key0) != 0) {
+      key0++;
+    }
+    int key1 = 0;
+    while (queue.laneForKey(key1) != 1) {
+      key1++;
+    }
+    queue.offer(new KeyedTask(key0));
+    assertEquals(key0, ((KeyedTask) queue.poll()).getAffinityKey());
+    queue.offer(new KeyedTask(key1));
+    assertEquals(key1, ((KeyedTask) queue.poll()).getAffinityKey());
+    assertEquals(0, queue.getLaneStolenCount(0));
+    assertEquals(1, queue.getLaneStolenCount(1));
+  }
+
+  @Test
+  public void testUnkeyedTasksAndDrain() throws Exception {
+    KeyAffinityQueue queue = new KeyAffinityQueue(3);
+    List<Runnable> tasks = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {}
+      };
+      tasks.add(task);
+      queue.offer(task);
+    }
+    for (int lane = 0; lane < 3; lane++) {
+      assertEquals(2, queue.getLaneSize(lane));
+    }
+    assertTrue(queue.remove(tasks.get(0)));
+    List<Runnable> drained = new ArrayList<>();
+    assertEquals(5, queue.drainTo(drained));
+    assertThat(drained, containsInAnyOrder(tasks.subList(1, 6).toArray(new Runnable[0])));
+    assertEquals(0, queue.size());
+  }
+
+  @Test(timeout = 10000)
+  public void testExecutorRunsAllWork() throws Exception {
+    final int numTasks = 1000;
+    final CountDownLatch done = new CountDownLatch(numTasks);
+    final AtomicInteger ran = new AtomicInteger();
+    ThreadFactory threadFactory = Executors.defaultThreadFactory();
+    BoundedQueueExecutor executor = new BoundedQueueExecutor(
+        8, 60, TimeUnit.SECONDS, 10, threadFactory, new KeyAffinityQueue(3));
+    for (int i = 0; i < numTasks; i++) {
+      executor.execute(new KeyedTask(i % 17) {
+        @Override
+        public void run() {
+          ran.incrementAndGet();
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(numTasks, ran.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testExecutorThreadsUseLanes() throws Exception {
+    final int numTasks = 100;
+    final CountDownLatch done = new CountDownLatch(numTasks);
+    KeyAffinityQueue queue = new KeyAffinityQueue(2);
+    BoundedQueueExecutor executor = new BoundedQueueExecutor(
+        4, 1, TimeUnit.MILLISECONDS, 10, Executors.defaultThreadFactory(), queue);
+    // All threads are started up front and kept, so that no task bypasses the lanes.
+    assertEquals(4, executor.getPoolSize());
+    assertFalse(executor.allowsCoreThreadTimeOut());
+    for (int i = 0; i < numTasks; i++) {
+      executor.execute(new KeyedTask(i % 5) {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    // Idle threads do not time out, even with a short keep-alive.
+    Thread.sleep(50);
+    assertEquals(4, executor.getPoolSize());
+
+    // Threads unbind from their lanes when they exit.
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(0, queue.getLaneThreadCount(0));
+    assertEquals(0, queue.getLaneThreadCount(1));
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.cloud.dataflow.sdk.coders.ListCoder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions.MutationDetectionLevel;
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link MutationDetectionSampler}.
+ */
+@RunWith(JUnit4.class)
+public class MutationDetectionSamplerTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private final Counter<Long> checked =
+      Counter.longs("MutationDetectionChecks", Counter.AggregationKind.SUM);
+
+  private MutationDetectionSampler createSampler(DirectPipelineOptions options) {
+    return MutationDetectionSampler.create(options, new Random(0), checked);
+  }
+
+  private static DirectPipelineOptions options(MutationDetectionLevel level) {
+    DirectPipelineOptions options = PipelineOptionsFactory.as(DirectPipelineOptions.class);
+    options.setMutationDetectionLevel(level);
+    return options;
+  }
+
+  private static int countChecked(MutationDetectionSampler sampler, int elements)
+      throws Exception {
+    int checked = 0;
+    for (int i = 0; i < elements; i++) {
+      List<Integer> value = Arrays.asList(i);
+      if (sampler.forValueWithCoder(value, ListCoder.of(VarIntCoder.of()))
+          != MutationDetectors.noopMutationDetector()) {
+        checked++;
+      }
+    }
+    return checked;
+  }
+
+  @Test
+  public void testFullChecksEveryElement() throws Exception {
+    assertEquals(100, countChecked(createSampler(options(MutationDetectionLevel.FULL)), 100));
+    assertEquals(100L, (long) checked.getAggregate());
+  }
+
+  @Test
+  public void testFullDetectsMutation() throws Exception {
+    List<Integer> value = Arrays.asList(1, 2, 3);
+    MutationDetector detector = createSampler(options(MutationDetectionLevel.FULL))
+        .forValueWithCoder(value, ListCoder.of(VarIntCoder.of()));
+    value.set(0, 37);
+
+    thrown.expect(IllegalMutationException.class);
+    detector.verifyUnmodified();
+  }
+
+  @Test
+  public void testNoneChecksNothing() throws Exception {
+    MutationDetectionSampler sampler = createSampler(options(MutationDetectionLevel.NONE));
+    assertSame(MutationDetectors.noopMutationDetector(),
+        sampler.forValueWithCoder(Arrays.asList(1), ListCoder.of(VarIntCoder.of())));
+    assertEquals(0L, (long) checked.getAggregate());
+  }
+
+  @Test
+  public void testFirstNChecksLeadingElements() throws Exception {
+    DirectPipelineOptions options = options(MutationDetectionLevel.FIRST_N);
+    options.setMutationDetectionElementsPerStep(7);
+    assertEquals(7, countChecked(createSampler(options), 100));
+    assertEquals(7L, (long) checked.getAggregate());
+  }
+
+  @Test
+  public void testSampledChecksAtRate() throws Exception {
+    DirectPipelineOptions options = options(MutationDetectionLevel.SAMPLED);
+    options.setMutationDetectionSampleRate(0.1);
+    int sampled = countChecked(createSampler(options), 10000);
+    assertEquals(1000, sampled, 100);
+    assertEquals(sampled, (long) checked.getAggregate());
+  }
+
+  @Test
+  public void testInvalidSampleRate() throws Exception {
+    DirectPipelineOptions options = options(MutationDetectionLevel.SAMPLED);
+    options.setMutationDetectionSampleRate(1.5);
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("mutationDetectionSampleRate");
+    createSampler(options);
+  }
+}
@@ -102,6 +102,41 @@ public class ScalableBloomFilterTest {
     verifyCoder(bloomFilter, maxValue);
   }
 
+  @Test
+  public void testBuilderSizeInBytes() throws Exception {
+    Builder coarse = ScalableBloomFilter.builder(0.01, 4);
+    Builder fine = ScalableBloomFilter.builder(0.000001, 4);
+    long initialSize = coarse.getSizeInBytes();
+    assertTrue(initialSize > 0);
+    assertTrue(fine.getSizeInBytes() > initialSize);
+
+    // Growing past the add to all mode threshold should add Bloom filter slices.
+    int maxValue = insertAndVerifyContents(coarse, 1024);
+    assertTrue(coarse.getSizeInBytes() > initialSize);
+    verifyCoder(coarse.build(), maxValue);
+  }
+
+  @Test
+  public void testFalsePositiveProbabilityBoundsAllSlices() throws Exception {
+    // Starting with a small filter makes it grow to several slices.
+    Builder builder = ScalableBloomFilter.builder(0.01, 10);
+    int numElements = 1 << 16;
+    for (int i = 0; i < numElements; i++) {
+      builder.put(ByteBuffer.allocate(4).putInt(0, i));
+    }
+    ScalableBloomFilter bloomFilter = builder.build();
+    assertTrue(bloomFilter.numberOfBloomFilterSlices() > 5);
+
+    int falsePositives = 0;
+    for (int i = numElements; i < 2 * numElements; i++) {
+      if (bloomFilter.mightContain(ByteBuffer.allocate(4).putInt(0, i))) {
+        falsePositives++;
+      }
+    }
+    assertTrue("Too many false positives: " + falsePositives,
+        falsePositives < 0.01 * numElements);
+  }
+
   @Test
   public void testScalableBloomFilterCoder() throws Exception {
     Builder builderA = ScalableBloomFilter.builder();
@@ -18,6 +18,7 @@ package com.google.cloud.dataflow.sdk.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -72,5 +73,22 @@ public class UnownedInputStreamTest {
     expectedException.expectMessage("reset()");
     os.reset();
   }
-}
 
+  @Test
+  public void testOfForwardsByteArrayBackedInput() throws Exception {
+    assertFalse(UnownedInputStream.of(bais) instanceof ByteArrayBackedInput);
+
+    ExposedByteArrayInputStream exposed =
+        new ExposedByteArrayInputStream(new byte[] {0, 1, 2, 3, 4}, 1, 3);
+    UnownedInputStream wrapped = UnownedInputStream.of(exposed);
+    assertTrue(wrapped instanceof ByteArrayBackedInput);
+    assertEquals(new UnownedInputStream(exposed), wrapped);
+
+    ByteArrayBackedInput backed = (ByteArrayBackedInput) wrapped;
+    assertEquals(1, backed.array()[backed.position()]);
+    assertEquals(4, backed.limit());
+    backed.advance(2);
+    assertEquals(3, wrapped.read());
+    assertEquals(-1, wrapped.read());
+  }
+}
@@ -16,7 +16,10 @@
 
 package com.google.cloud.dataflow.sdk.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -26,6 +29,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /** Unit tests for {@link UnownedOutputStream}. */
 @RunWith(JUnit4.class)
@@ -53,5 +60,41 @@ public class UnownedOutputStreamTest {
     expectedException.expectMessage("Caller does not own the underlying");
     os.close();
   }
-}
 
+  @Test
+  public void testWriteArrayRangeDelegates() throws Exception {
+    final List<Integer> writeLengths = new ArrayList<>();
+    OutputStream delegate = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        writeLengths.add(len);
+        super.write(b, off, len);
+      }
+    };
+    UnownedOutputStream wrapped = new UnownedOutputStream(delegate);
+    wrapped.write(new byte[] {1, 2, 3, 4, 5}, 1, 3);
+    wrapped.write(new byte[] {6});
+    assertEquals(Arrays.asList(3, 1), writeLengths);
+    assertArrayEquals(
+        new byte[] {2, 3, 4, 6}, ((ByteArrayOutputStream) delegate).toByteArray());
+  }
+
+  @Test
+  public void testOfForwardsByteArrayBackedOutput() throws Exception {
+    assertFalse(UnownedOutputStream.of(baos) instanceof ByteArrayBackedOutput);
+
+    ExposedByteArrayOutputStream exposed = new ExposedByteArrayOutputStream();
+    exposed.write(1);
+    UnownedOutputStream wrapped = UnownedOutputStream.of(exposed);
+    assertTrue(wrapped instanceof ByteArrayBackedOutput);
+    assertEquals(new UnownedOutputStream(exposed), wrapped);
+
+    ByteArrayBackedOutput backed = (ByteArrayBackedOutput) wrapped;
+    byte[] buf = backed.reserve(2);
+    buf[backed.position()] = 2;
+    buf[backed.position() + 1] = 3;
+    backed.advance(2);
+    wrapped.write(4);
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, exposed.toByteArray());
+  }
+}
@@ -19,6 +19,9 @@ package com.google.cloud.dataflow.sdk.util;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -30,6 +33,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /** Unit tests for {@link VarInt}. */
 @RunWith(JUnit4.class)
@@ -198,6 +205,107 @@ public class VarIntTest {
     }
   }
 
+  @Test
+  public void encodeValuesToArray() throws IOException {
+    for (int i = 0; i < LONG_VALUES.length; ++i) {
+      byte[] buf = new byte[LONG_ENCODED[i].length + 2];
+      assertEquals(buf.length - 1, VarInt.encode(LONG_VALUES[i], buf, 1));
+      assertThat(Arrays.copyOfRange(buf, 1, buf.length - 1), equalTo(LONG_ENCODED[i]));
+    }
+    for (int i = 0; i < INT_VALUES.length; ++i) {
+      byte[] buf = new byte[INT_ENCODED[i].length];
+      assertEquals(buf.length, VarInt.encode(INT_VALUES[i], buf, 0));
+      assertThat(buf, equalTo(INT_ENCODED[i]));
+    }
+  }
+
+  @Test
+  public void encodeValuesToByteArrayBackedOutput() throws IOException {
+    ExposedByteArrayOutputStream outStream = new ExposedByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < LONG_VALUES.length; ++i) {
+      VarInt.encode(LONG_VALUES[i], outStream);
+      expected.write(LONG_ENCODED[i]);
+    }
+    for (int i = 0; i < INT_VALUES.length; ++i) {
+      VarInt.encode(INT_VALUES[i], outStream);
+      expected.write(INT_ENCODED[i]);
+    }
+    assertThat(outStream.toByteArray(), equalTo(expected.toByteArray()));
+  }
+
+  @Test
+  public void decodeValuesFromExposedByteArrayInputStream() throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    for (byte[] value : LONG_ENCODED) {
+      encoded.write(value);
+    }
+    ExposedByteArrayInputStream inStream =
+        new ExposedByteArrayInputStream(encoded.toByteArray());
+    for (int i = 0; i < LONG_VALUES.length; ++i) {
+      assertEquals(LONG_VALUES[i], VarInt.decodeLong(inStream));
+    }
+    assertEquals(-1, inStream.read());
+
+    // A two byte value truncated by the end of the stream.
+    byte[] twoBytes = encodeLong(128);
+    thrown.expect(IOException.class);
+    VarInt.decodeLong(new ExposedByteArrayInputStream(twoBytes, 0, 1));
+  }
+
+  @Test
+  public void encodeAndDecodeValuesWithByteBuffer() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(200);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < LONG_VALUES.length; ++i) {
+      VarInt.encode(LONG_VALUES[i], buffer);
+      expected.write(LONG_ENCODED[i]);
+    }
+    for (int i = 0; i < INT_VALUES.length; ++i) {
+      VarInt.encode(INT_VALUES[i], buffer);
+      expected.write(INT_ENCODED[i]);
+    }
+    buffer.flip();
+    assertThat(Arrays.copyOf(buffer.array(), buffer.limit()), equalTo(expected.toByteArray()));
+
+    for (int i = 0; i < LONG_VALUES.length; ++i) {
+      assertEquals(LONG_VALUES[i], VarInt.decodeLong(buffer));
+    }
+    for (int i = 0; i < INT_VALUES.length; ++i) {
+      assertEquals(INT_VALUES[i], VarInt.decodeInt(buffer));
+    }
+    assertEquals(0, buffer.remaining());
+
+    thrown.expect(EOFException.class);
+    VarInt.decodeLong(buffer);
+  }
+
+  @Test
+  public void encodeAndDecodeTwoByteValuesWithByteBuffer() throws IOException {
+    long[] values = {127, 128, 300, 16383, 16384};
+    for (ByteBuffer buffer :
+        new ByteBuffer[] {ByteBuffer.allocate(20), ByteBuffer.allocateDirect(20)}) {
+      buffer.put((byte) 0xff);
+      for (long value : values) {
+        VarInt.encode(value, buffer);
+      }
+      buffer.flip();
+      buffer.get();
+      for (long value : values) {
+        int position = buffer.position();
+        assertEquals(value, VarInt.decodeLong(buffer));
+        assertEquals(VarInt.getLength(value), buffer.position() - position);
+      }
+      assertEquals(0, buffer.remaining());
+    }
+
+    // A two byte value truncated by the limit of the buffer.
+    ByteBuffer truncated = ByteBuffer.wrap(encodeLong(128), 0, 1);
+    thrown.expect(IOException.class);
+    thrown.expectMessage("varint not terminated");
+    VarInt.decodeLong(truncated);
+  }
+
   @Test
   public void decodeThrowsExceptionForOverflow() throws IOException {
     final byte[] tooLargeNumber =
@@ -274,4 +382,35 @@ public class VarIntTest {
     thrown.expect(IOException.class);
     VarInt.decodeInt(inStream);
   }
+
+  /**
+   * Checks that the streams it is given by {@link CoderUtils} allow {@link VarInt} to read and
+   * write their backing arrays directly.
+   */
+  private static class DirectVarLongCoder extends AtomicCoder<Long> {
+    @Override
+    public void encode(Long value, OutputStream outStream, Context context) throws IOException {
+      assertTrue(outStream instanceof ByteArrayBackedOutput);
+      ByteArrayBackedOutput output = (ByteArrayBackedOutput) outStream;
+      int start = output.position();
+      VarInt.encode(value.longValue(), outStream);
+      assertEquals(start + VarInt.getLength(value.longValue()), output.position());
+    }
+
+    @Override
+    public Long decode(InputStream inStream, Context context) throws IOException {
+      assertTrue(inStream instanceof ByteArrayBackedInput);
+      return VarInt.decodeLong(inStream);
+    }
+  }
+
+  @Test
+  public void coderUtilsUsesDirectArrayAccess() throws Exception {
+    DirectVarLongCoder coder = new DirectVarLongCoder();
+    for (int i = 0; i < LONG_VALUES.length; ++i) {
+      byte[] encoded = CoderUtils.encodeToByteArray(coder, LONG_VALUES[i]);
+      assertThat(encoded, equalTo(LONG_ENCODED[i]));
+      assertEquals(LONG_VALUES[i], (long) CoderUtils.decodeFromByteArray(coder, encoded));
+    }
+  }
 }